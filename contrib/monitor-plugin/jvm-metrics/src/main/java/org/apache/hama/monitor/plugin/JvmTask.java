@@ -17,10 +17,12 @@
  */
 package org.apache.hama.monitor.plugin;
 
+import java.io.File;
 import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
 import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
 import java.lang.management.ThreadInfo;
 import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
@@ -32,6 +34,7 @@ import static org.apache.hama.monitor.Monitor.Destination.*;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hama.monitor.Metric;
 import org.apache.hama.monitor.MetricsRecord; // TODO: should be moved to org.apache.hama.monitor.metrics package
 import org.apache.hama.monitor.Monitor.Destination;
@@ -47,6 +50,8 @@ public final class JvmTask extends Task {
   private final List<GarbageCollectorMXBean> gcBeans =
       ManagementFactory.getGarbageCollectorMXBeans();
   private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+  private final OperatingSystemMXBean osMXBean =
+      ManagementFactory.getOperatingSystemMXBean();
   private static final long M = 1024*1024;
  
   private final Result result;
@@ -63,7 +68,11 @@ public final class JvmTask extends Task {
     ThreadsBlocked("Number of blocked threads"),
     ThreadsWaiting("Number of waiting threads"),
     ThreadsTimedWaiting("Number of timed waiting threads"),
-    ThreadsTerminated("Number of terminated threads");
+    ThreadsTerminated("Number of terminated threads"),
+    SystemLoadAverage("System load average for the last minute"),
+    AvailableProcessors("Number of available processors"),
+    MemFreeM("Free physical memory in MB"),
+    DiskFreeM("Usable space of the local directories of the tasks in MB");
 
     private final String desc;
 
@@ -114,6 +123,7 @@ public final class JvmTask extends Task {
     memory(record);
     gc(record);
     threads(record);
+    system(record);
     ((JvmResult)this.result).set(record); // add to results
     getListener().notify(this.result); // notify monitor
     return null;
@@ -136,6 +146,61 @@ public final class JvmTask extends Task {
     }
   }
 
+  private void system(final MetricsRecord record){
+    double load = osMXBean.getSystemLoadAverage();
+    if(load >= 0){
+      record.add(new Metric(SystemLoadAverage, load));
+    }
+    record.add(new Metric(AvailableProcessors, osMXBean.getAvailableProcessors()));
+    long free = freePhysicalMemory();
+    if(free >= 0){
+      record.add(new Metric(MemFreeM, free / M));
+    }
+    long disk = freeLocalDisk();
+    if(disk >= 0){
+      record.add(new Metric(DiskFreeM, disk / M));
+    }
+
+    if(LOG.isDebugEnabled()) {
+      LOG.debug(SystemLoadAverage.description()+": "+load);
+      LOG.debug(MemFreeM.description()+": "+free / M);
+      LOG.debug(DiskFreeM.description()+": "+disk / M);
+    }
+  }
+
+  /**
+   * Free physical memory is only exposed by some JVMs' operating system bean.
+   */
+  private long freePhysicalMemory(){
+    if(osMXBean instanceof com.sun.management.OperatingSystemMXBean){
+      return ((com.sun.management.OperatingSystemMXBean) osMXBean)
+          .getFreePhysicalMemorySize();
+    }
+    return -1L;
+  }
+
+  /**
+   * The smallest usable space of the bsp.local.dir directories, as a task may
+   * write to any of them.
+   */
+  private long freeLocalDisk(){
+    Configuration conf = getConfiguration();
+    String[] dirs = null == conf ? null : conf.getStrings("bsp.local.dir");
+    if(null == dirs) return -1L;
+    long free = -1L;
+    for(String dir : dirs){
+      File file = new File(dir).getAbsoluteFile();
+      // the directory is created by the first task
+      while(null != file && !file.exists()){
+        file = file.getParentFile();
+      }
+      if(null == file) continue;
+      long usable = file.getUsableSpace();
+      free = free < 0 ? usable : Math.min(free, usable);
+    }
+    return free;
+  }
+
   private void gc(final MetricsRecord record){
     long count = 0;
     long timeMillis = 0;
@@ -56,6 +56,12 @@ public interface Constants {
   /** Default value of ping period in milliseconds. */
   public static final long DEFAULT_GROOM_PING_PERIOD = 5000;
 
+  /** Milliseconds between two heartbeats of a groom server to the master */
+  public static final String GROOM_REPORT_INTERVAL = "bsp.groom.report.interval";
+
+  /** Default value of groom report interval in milliseconds. */
+  public static final long DEFAULT_GROOM_REPORT_INTERVAL = 1000;
+
   /** When we encode strings, we always specify UTF8 encoding */
   public static final String UTF8_ENCODING = "UTF-8";
 
@@ -69,12 +75,60 @@ public interface Constants {
 
   public static final int DEFAULT_MAX_TASK_ATTEMPTS = 2;
 
+  // Minimum milliseconds between two status reports of a task to its groom.
+  public static final String TASK_STATUS_REPORT_INTERVAL = "bsp.task.status.report.interval";
+  public static final long DEFAULT_TASK_STATUS_REPORT_INTERVAL = 1000L;
+
+  // Number of idle child JVMs a groom keeps started ahead of task launches.
+  // Zero forks a new JVM for every task.
+  public static final String CHILD_JVM_POOL_SIZE = "bsp.child.jvm.pool.size";
+  public static final int DEFAULT_CHILD_JVM_POOL_SIZE = 0;
+  // Number of tasks of the same job a pooled child JVM runs before it exits.
+  public static final String CHILD_JVM_REUSE_TASKS = "bsp.child.jvm.reuse.tasks";
+  public static final int DEFAULT_CHILD_JVM_REUSE_TASKS = 1;
+  // Milliseconds a pooled child JVM waits for the next task of its job.
+  public static final String CHILD_JVM_IDLE_TIMEOUT = "bsp.child.jvm.idle.timeout";
+  public static final long DEFAULT_CHILD_JVM_IDLE_TIMEOUT = 10000L;
+
+  // MD5 of the job jar, set by the job client.
+  public static final String JOB_JAR_CHECKSUM = "bsp.job.jar.checksum";
+  // Set to true to upload job jars once per content hash to the system dir.
+  public static final String JOB_JAR_SHARED = "bsp.job.jar.shared";
+  // Bytes of unpacked job jars a groom keeps cached across jobs, 0 disables.
+  public static final String GROOM_JAR_CACHE_SIZE = "bsp.groom.jar.cache.size";
+  public static final long DEFAULT_GROOM_JAR_CACHE_SIZE = 0L;
+
   // //////////////////////////////////////
   // Task scheduler related constants
   // //////////////////////////////////////
 
   public static final String TASK_ALLOCATOR_CLASS = "bsp.taskalloc.class";
 
+  // Comma separated queues of the fair share scheduler. A queue's weight is
+  // set by bsp.scheduler.queue.<name>.weight.
+  public static final String SCHEDULER_QUEUES = "bsp.scheduler.queues";
+  public static final String DEFAULT_SCHEDULER_QUEUE = "default";
+  // Queue a job is submitted to.
+  public static final String JOB_QUEUE_NAME = "bsp.job.queue.name";
+  // Milliseconds smaller jobs may use the slots a waiting job can't use yet.
+  public static final String SCHEDULER_BACKFILL_TIMEOUT = "bsp.scheduler.backfill.timeout";
+  public static final long DEFAULT_SCHEDULER_BACKFILL_TIMEOUT = 60000L;
+
+  // Megabytes of memory a task needs on a groom. If negative, the -Xmx of the
+  // child java opts is used.
+  public static final String TASK_MEMORY_MB = "bsp.task.memory.mb";
+  // Megabytes of local disk a groom needs free to be given tasks.
+  public static final String TASK_MIN_FREE_DISK_MB = "bsp.task.min.free.disk.mb";
+  public static final long DEFAULT_TASK_MIN_FREE_DISK_MB = 0L;
+
+  // File or directory with the bytes sent between pairs of tasks of a job.
+  public static final String TASK_TRAFFIC_PATH = "bsp.taskalloc.traffic.path";
+  // Set to true to have the peers write their traffic to the traffic path.
+  public static final String TASK_TRAFFIC_RECORD = "bsp.taskalloc.traffic.record";
+  // Cost of a byte sent across racks, relative to a byte within a rack.
+  public static final String TASK_TRAFFIC_CROSS_RACK_COST = "bsp.taskalloc.traffic.crossrack.cost";
+  public static final float DEFAULT_TASK_TRAFFIC_CROSS_RACK_COST = 4.0f;
+
   // //////////////////////////////////////
   // Fault tolerance related constants
   // //////////////////////////////////////
@@ -83,6 +137,11 @@ public interface Constants {
 
   public static final String FAULT_TOLERANCE_CLASS = "bsp.ft.class";
 
+  // Bytes of sent messages a peer keeps in memory for confined recovery
+  // before spilling them to the local disk.
+  public static final String FT_MESSAGE_LOG_MEMORY = "bsp.ft.message.log.memory";
+  public static final long DEFAULT_FT_MESSAGE_LOG_MEMORY = 64L * 1024 * 1024;
+
   // //////////////////////////////////////
   // Checkpointing related constants
   // //////////////////////////////////////
@@ -93,6 +152,23 @@ public interface Constants {
   public static final String CHECKPOINT_INTERVAL = "bsp.checkpoint.interval";
   // By default checkpointing when enabled would checkpoint on every superstep
   public static final short DEFAULT_CHECKPOINT_INTERVAL = 1;
+  // Set to false to write checkpoint blocks uncompressed.
+  public static final String CHECKPOINT_COMPRESSION = "bsp.checkpoint.compression";
+  // BSPMessageCompressor used for the checkpoint blocks.
+  public static final String CHECKPOINT_COMPRESSION_CLASS = "bsp.checkpoint.compression.class";
+  // Uncompressed size of the blocks written to the checkpoint files.
+  public static final String CHECKPOINT_BLOCK_SIZE = "bsp.checkpoint.block.size";
+  public static final int DEFAULT_CHECKPOINT_BLOCK_SIZE = 1024 * 1024;
+  // Number of buddy peers every checkpoint is replicated to.
+  public static final String CHECKPOINT_BUDDY_REPLICAS = "bsp.checkpoint.buddy.replicas";
+  public static final int DEFAULT_CHECKPOINT_BUDDY_REPLICAS = 1;
+  // Every n-th buddy checkpoint is also written to the file system.
+  public static final String CHECKPOINT_BUDDY_HDFS_INTERVAL = "bsp.checkpoint.buddy.hdfs.interval";
+  public static final int DEFAULT_CHECKPOINT_BUDDY_HDFS_INTERVAL = 10;
+  // Bytes of a buddy checkpoint kept in memory before they are spilled to the
+  // local disk, also the size of the chunks sent to the buddies.
+  public static final String CHECKPOINT_BUDDY_MEMORY = "bsp.checkpoint.buddy.memory";
+  public static final int DEFAULT_CHECKPOINT_BUDDY_MEMORY = 4 * 1024 * 1024;
 
   // /////////////////////////////////////////////
   // Job configuration related parameters.
@@ -102,6 +178,20 @@ public interface Constants {
   public static final String INPUT_FORMAT_CLASS = "bsp.input.format.class";
   public static final String OUTPUT_FORMAT_CLASS = "bsp.output.format.class";
   public static final String MESSAGE_CLASS = "bsp.message.class";
+  // Keeps the records of a split after the first pass, so reopenInput()
+  // doesn't read it again.
+  public static final String INPUT_CACHE_ENABLED = "bsp.input.cache.enabled";
+  // Bytes of cached input records kept in memory before spilling them to the
+  // local disk.
+  public static final String INPUT_CACHE_MEMORY = "bsp.input.cache.memory";
+  public static final long DEFAULT_INPUT_CACHE_MEMORY = 64L * 1024 * 1024;
+  // Reads the input records on a background thread, in batches of the given
+  // size with the given number of batches in flight.
+  public static final String INPUT_READ_AHEAD_ENABLED = "bsp.input.readahead.enabled";
+  public static final String INPUT_READ_AHEAD_BATCH_SIZE = "bsp.input.readahead.batch.size";
+  public static final int DEFAULT_INPUT_READ_AHEAD_BATCH_SIZE = 256;
+  public static final String INPUT_READ_AHEAD_BATCHES = "bsp.input.readahead.batches";
+  public static final int DEFAULT_INPUT_READ_AHEAD_BATCHES = 4;
 
   // /////////////////////////////////////////////
   // Messaging related parameters.
@@ -120,6 +210,50 @@ public interface Constants {
   public static final String RUNTIME_PARTITIONING_CLASS = "bsp.input.partitioner.class";
   public static final String RUNTIME_DESIRED_PEERS_COUNT = "desired.num.of.tasks";
   public static final String RUNTIME_PARTITION_RECORDCONVERTER = "bsp.runtime.partition.recordconverter";
+  // Threads a peer sorts and merges its partitions with.
+  public static final String RUNTIME_PARTITIONING_MERGE_THREADS = "bsp.input.runtime.partitioning.merge.threads";
+  public static final int DEFAULT_RUNTIME_PARTITIONING_MERGE_THREADS = 4;
+  // Partitions inputs up to the given number of bytes over the message
+  // transport instead of running the PartitioningRunner.
+  public static final String RUNTIME_PARTITIONING_SHUFFLE = "bsp.input.runtime.partitioning.shuffle";
+  public static final String RUNTIME_PARTITIONING_SHUFFLE_MAX_BYTES = "bsp.input.runtime.partitioning.shuffle.max.bytes";
+  public static final long DEFAULT_RUNTIME_PARTITIONING_SHUFFLE_MAX_BYTES = 2L * 1024 * 1024 * 1024;
+  // Set by the job client if the input of a job is shuffled.
+  public static final String RUNTIME_PARTITIONING_SHUFFLED = "bsp.input.runtime.partitioning.shuffled";
+  // Sorted key ranges of the RangePartitioner, sampled by the job client from
+  // a number of chunks of every split.
+  public static final String RUNTIME_PARTITIONING_RANGE_BOUNDARIES = "bsp.input.partitioner.range.boundaries";
+  public static final String RUNTIME_PARTITIONING_RANGE_KEY_CLASS = "bsp.input.partitioner.range.key.class";
+  public static final String RUNTIME_PARTITIONING_RANGE_SAMPLE_SIZE = "bsp.input.partitioner.range.sample.size";
+  public static final int DEFAULT_RUNTIME_PARTITIONING_RANGE_SAMPLE_SIZE = 10000;
+  public static final String RUNTIME_PARTITIONING_RANGE_SAMPLE_CHUNKS = "bsp.input.partitioner.range.sample.chunks";
+  public static final int DEFAULT_RUNTIME_PARTITIONING_RANGE_SAMPLE_CHUNKS = 10;
+  // Assignment of the heavy keys of the BalancedPartitioner, written next to
+  // the partitions, and the number of heaviest keys every task reports.
+  public static final String RUNTIME_PARTITIONING_BALANCED_ASSIGNMENT = "bsp.input.partitioner.balanced.assignment";
+  public static final String RUNTIME_PARTITIONING_BALANCED_KEYS = "bsp.input.partitioner.balanced.keys";
+  public static final int DEFAULT_RUNTIME_PARTITIONING_BALANCED_KEYS = 1000;
+  // Placement of the records of the StreamingPartitioner, written next to the
+  // partitions, and how much larger than their share partitions may grow.
+  public static final String RUNTIME_PARTITIONING_STREAMING_ASSIGNMENT = "bsp.input.partitioner.streaming.assignment";
+  public static final String RUNTIME_PARTITIONING_STREAMING_SLACK = "bsp.input.partitioner.streaming.slack";
+  public static final float DEFAULT_RUNTIME_PARTITIONING_STREAMING_SLACK = 0.1f;
+  // Marks the output of a job as partitioned by its partitioner, and the
+  // input format a pre-partitioned input is read with.
+  public static final String OUTPUT_PARTITIONED = "bsp.output.partitioned";
+  // Marks a partitioned output as sorted, set by jobs whose tasks write their
+  // records in the order of their keys.
+  public static final String OUTPUT_SORTED = "bsp.output.sorted";
+  public static final String PREPARTITIONED_INPUT_FORMAT = "bsp.input.prepartitioned.format.class";
+  // Reuses the partitions in the partitioning dir while their manifest matches
+  // the job and is younger than the time to live in milliseconds.
+  public static final String RUNTIME_PARTITIONING_CACHE = "bsp.input.runtime.partitioning.cache";
+  public static final String RUNTIME_PARTITIONING_CACHE_TTL = "bsp.input.runtime.partitioning.cache.ttl";
+  public static final long DEFAULT_RUNTIME_PARTITIONING_CACHE_TTL = 24L * 60 * 60 * 1000;
+  public static final String RUNTIME_PARTITIONING_CACHE_INVALIDATE = "bsp.input.runtime.partitioning.cache.invalidate";
+  // Block compresses the intermediate partition files with the given codec.
+  public static final String RUNTIME_PARTITIONING_COMPRESS = "bsp.input.runtime.partitioning.compress";
+  public static final String RUNTIME_PARTITIONING_COMPRESS_CODEC = "bsp.input.runtime.partitioning.compress.codec";
 
   public static final String PARTITION_SORT_BY_KEY = "bsp.partition.sort.by.converted.record";   
 
@@ -31,6 +31,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.Map;
 import java.util.Random;
 import java.util.StringTokenizer;
@@ -40,6 +41,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.permission.FsPermission;
@@ -61,6 +63,7 @@ import org.apache.hama.HamaConfiguration;
 import org.apache.hama.ipc.HamaRPCProtocolVersion;
 import org.apache.hama.ipc.JobSubmissionProtocol;
 import org.apache.hama.ipc.RPC;
+import org.apache.hama.pipes.PipesPartitioner;
 
 /**
  * BSPJobClient is the primary interface for the user-job to interact with the
@@ -78,6 +81,8 @@ public class BSPJobClient extends Configured implements Tool {
   }
 
   private static final long MAX_JOBPROFILE_AGE = 1000 * 2;
+  // first interval the job status is polled at, it doubles up to some seconds
+  private static final long MIN_POLL_INTERVAL = 100L;
   // job files are world-wide readable and owner writable
   final private static FsPermission JOB_FILE_PERMISSION = FsPermission
       .createImmutable((short) 0644); // rw-r--r--
@@ -174,11 +179,13 @@ public class BSPJobClient extends Configured implements Tool {
      */
     @Override
     public void waitForCompletion() throws IOException {
+      long interval = MIN_POLL_INTERVAL;
       while (!isComplete()) {
         try {
-          Thread.sleep(5000);
+          Thread.sleep(interval);
         } catch (InterruptedException ie) {
         }
+        interval = Math.min(2 * interval, 5000L);
       }
     }
 
@@ -343,6 +350,8 @@ public class BSPJobClient extends Configured implements Tool {
 
       if (job.getBoolean("input.has.partitioned", false)) {
         splits = job.getInputFormat().getSplits(job, maxTasks);
+      } else if (job.getBoolean(Constants.RUNTIME_PARTITIONING_SHUFFLED, false)) {
+        splits = addShuffleSplits(splits, job.getNumBspTask());
       }
 
       if (maxTasks < splits.length) {
@@ -362,11 +371,23 @@ public class BSPJobClient extends Configured implements Tool {
       if ("".equals(job.getJobName())) {
         job.setJobName(new Path(originalJarPath).getName());
       }
-      job.setJar(submitJarFile.toString());
-      fs.copyFromLocalFile(new Path(originalJarPath), submitJarFile);
+      Path localJarFile = new Path(originalJarPath);
+      String checksum = getJarChecksum(localJarFile);
+      job.set(Constants.JOB_JAR_CHECKSUM, checksum);
+
+      Path sharedJarFile = new Path(getSystemDir(), "jars/" + checksum
+          + ".jar");
+      if (job.getConfiguration().getBoolean(Constants.JOB_JAR_SHARED, false)
+          && uploadSharedJar(fs, localJarFile, sharedJarFile, checksum,
+              replication)) {
+        job.setJar(sharedJarFile.toString());
+      } else {
+        job.setJar(submitJarFile.toString());
+        fs.copyFromLocalFile(localJarFile, submitJarFile);
 
-      fs.setReplication(submitJarFile, replication);
-      fs.setPermission(submitJarFile, new FsPermission(JOB_FILE_PERMISSION));
+        fs.setReplication(submitJarFile, replication);
+        fs.setPermission(submitJarFile, new FsPermission(JOB_FILE_PERMISSION));
+      }
     } else {
       LOG.warn("No job jar file set.  User classes may not be found. "
           + "See BSPJob#setJar(String) or check Your jar file.");
@@ -392,6 +413,52 @@ public class BSPJobClient extends Configured implements Tool {
     return launchJob(jobId, job, submitJobFile, fs);
   }
 
+  /**
+   * @return the MD5 of the content of the local job jar.
+   */
+  private String getJarChecksum(Path localJarFile) throws IOException {
+    return JobJarCache.digest(FileSystem.getLocal(getConf()), localJarFile);
+  }
+
+  /**
+   * Uploads the job jar to the path named after its checksum, unless an
+   * earlier job has already uploaded the same jar.
+   * 
+   * @return false if the file at the path has another content, then the jar
+   *         must be uploaded for the job alone.
+   */
+  private static boolean uploadSharedJar(FileSystem fs, Path localJarFile,
+      Path sharedJarFile, String checksum, short replication)
+      throws IOException {
+    if (fs.exists(sharedJarFile)) {
+      if (!checksum.equals(JobJarCache.digest(fs, sharedJarFile))) {
+        LOG.warn("The shared job jar " + sharedJarFile
+            + " doesn't match its name, uploading the jar for this job only.");
+        return false;
+      }
+      LOG.info("Job jar is already available at " + sharedJarFile
+          + ", skipping the upload.");
+      return true;
+    }
+    FileSystem.mkdirs(fs, sharedJarFile.getParent(), new FsPermission(
+        JOB_DIR_PERMISSION));
+    // upload under a temporary name, so no job sees a partial jar
+    Path tmpJarFile = new Path(sharedJarFile.getParent(),
+        sharedJarFile.getName() + "."
+            + Integer.toString(Math.abs(r.nextInt()), 36));
+    fs.copyFromLocalFile(localJarFile, tmpJarFile);
+    fs.setReplication(tmpJarFile, replication);
+    fs.setPermission(tmpJarFile, new FsPermission(JOB_FILE_PERMISSION));
+    if (!fs.rename(tmpJarFile, sharedJarFile)) {
+      fs.delete(tmpJarFile, false);
+      if (!fs.exists(sharedJarFile)) {
+        throw new IOException("Could not upload the job jar to "
+            + sharedJarFile);
+      }
+    }
+    return true;
+  }
+
   protected BSPJob partition(BSPJob job, InputSplit[] splits, int maxTasks)
       throws IOException {
     String inputPath = job.getConfiguration().get(Constants.JOB_INPUT_DIR);
@@ -428,6 +495,61 @@ public class BSPJobClient extends Configured implements Tool {
           Constants.ENABLE_RUNTIME_PARTITIONING, false)
           && job.getConfiguration().get(Constants.RUNTIME_PARTITIONING_CLASS) != null) {
 
+        if (isPrepartitioned(job,
+            job.getConfiguration().getInt("bsp.peers.num", 0), maxTasks)) {
+          return job;
+        }
+
+        Class<?> partitionerClass = job.getConfiguration().getClass(
+            Constants.RUNTIME_PARTITIONING_CLASS, Object.class);
+        if (RangePartitioner.class.isAssignableFrom(partitionerClass)
+            && job.get(Constants.RUNTIME_PARTITIONING_RANGE_BOUNDARIES) == null) {
+          RangePartitioner.sample(job, splits, numTasks);
+        }
+        // the assignments are written next to the partitions
+        Path assignmentDir = job.getConfiguration().get(
+            Constants.RUNTIME_PARTITIONING_DIR) == null ? partitionDir
+            : new Path(job.getConfiguration().get(
+                Constants.RUNTIME_PARTITIONING_DIR));
+        if (BalancedPartitioner.class.isAssignableFrom(partitionerClass)) {
+          job.set(Constants.RUNTIME_PARTITIONING_BALANCED_ASSIGNMENT, new Path(
+              assignmentDir, "_assignment").toString());
+        } else if (StreamingPartitioner.class
+            .isAssignableFrom(partitionerClass)) {
+          job.set(Constants.RUNTIME_PARTITIONING_STREAMING_ASSIGNMENT,
+              new Path(assignmentDir, "_placement").toString());
+        }
+
+        if (isShufflePartitioning(job, splits, numTasks)) {
+          LOG.info("Partitioning the input over the message transport.");
+          job.setNumBspTask(numTasks);
+          job.setBoolean(Constants.RUNTIME_PARTITIONING_SHUFFLED, true);
+          return job;
+        }
+
+        PartitionManifest manifest = null;
+        if (job.getConfiguration().get(Constants.RUNTIME_PARTITIONING_DIR) != null
+            && job.getConfiguration().getBoolean(
+                Constants.RUNTIME_PARTITIONING_CACHE, false)) {
+          manifest = PartitionManifest.create(job, numTasks);
+          Path cacheDir = new Path(job.getConfiguration().get(
+              Constants.RUNTIME_PARTITIONING_DIR));
+          if (isPartitionCached(job, manifest, cacheDir)) {
+            job.setInputPath(cacheDir);
+            job.setBoolean("input.has.partitioned", true);
+            job.setInputFormat(NonSplitSequenceFileInputFormat.class);
+            return job;
+          }
+        }
+
+        if (job.get(Constants.RUNTIME_PARTITIONING_STREAMING_ASSIGNMENT) != null) {
+          // placements of an earlier run with other peers must not be read
+          Path placement = new Path(
+              job.get(Constants.RUNTIME_PARTITIONING_STREAMING_ASSIGNMENT));
+          placement.getFileSystem(job.getConfiguration()).delete(placement,
+              true);
+        }
+
         HamaConfiguration conf = new HamaConfiguration(job.getConfiguration());
 
         conf.setInt(Constants.RUNTIME_DESIRED_PEERS_COUNT, numTasks);
@@ -466,8 +588,11 @@ public class BSPJobClient extends Configured implements Tool {
 
         if (isPartitioned) {
           if (job.getConfiguration().get(Constants.RUNTIME_PARTITIONING_DIR) != null) {
-            job.setInputPath(new Path(conf
-                .get(Constants.RUNTIME_PARTITIONING_DIR)));
+            Path dir = new Path(conf.get(Constants.RUNTIME_PARTITIONING_DIR));
+            if (manifest != null) {
+              manifest.write(dir.getFileSystem(conf), dir);
+            }
+            job.setInputPath(dir);
           } else {
             job.setInputPath(partitionDir);
           }
@@ -482,6 +607,152 @@ public class BSPJobClient extends Configured implements Tool {
     return job;
   }
 
+  /**
+   * Checks if the input is the output of a job that partitioned it the way
+   * this job needs it, see {@link Constants#OUTPUT_PARTITIONED}. Such input is
+   * read by the {@link PrepartitionedInputFormat}, task i reading file part-i.
+   * 
+   * @param numTasks the number of tasks of the job, zero takes the number of
+   *          partitions of the input.
+   * @return true if the job reads its input without runtime partitioning.
+   */
+  static boolean isPrepartitioned(BSPJob job, int numTasks, int maxTasks)
+      throws IOException {
+    Path[] dirs = FileInputFormat.getInputPaths(job);
+    if (dirs.length != 1) {
+      return false;
+    }
+    Configuration conf = job.getConfiguration();
+    FileSystem dirFs = dirs[0].getFileSystem(conf);
+    PartitionManifest input = PartitionManifest.readPartitioning(dirFs,
+        dirs[0]);
+    if (input == null) {
+      return false;
+    }
+    int numPartitions = numTasks == 0 ? input.getNumPartitions() : numTasks;
+    if (numPartitions > maxTasks
+        || !input.isPartitionedLike(PartitionManifest.create(conf,
+            numPartitions))) {
+      LOG.info("Partitioning the input " + dirs[0]
+          + ", it is partitioned for another partitioner or number of tasks.");
+      return false;
+    }
+    FileStatus[] partitions = PrepartitionedInputFormat.listPartitions(dirFs,
+        dirs[0]);
+    if (partitions == null || partitions.length != numPartitions) {
+      LOG.info("Partitioning the input " + dirs[0]
+          + ", it misses partition files.");
+      return false;
+    }
+
+    LOG.info("Reading the pre-partitioned input " + dirs[0] + ".");
+    if (!PrepartitionedInputFormat.class.isAssignableFrom(conf.getClass(
+        Constants.INPUT_FORMAT_CLASS, Object.class))) {
+      conf.setClass(Constants.PREPARTITIONED_INPUT_FORMAT,
+          job.getInputFormat().getClass(), InputFormat.class);
+    }
+    job.setInputFormat(PrepartitionedInputFormat.class);
+    job.setBoolean("input.has.partitioned", true);
+    job.setNumBspTask(numPartitions);
+    return true;
+  }
+
+  /**
+   * Checks the manifest of the partitions in the given dir. Partitions of an
+   * other input or partitioner, expired or explicitly invalidated partitions
+   * are deleted, so the partitioning job writes them again. Only dirs with a
+   * manifest are deleted, a dir with other files is never taken for a cache.
+   * 
+   * @return true if the partitions in the given dir can be reused.
+   * @throws IOException if the dir has files but no manifest.
+   */
+  static boolean isPartitionCached(BSPJob job, PartitionManifest manifest,
+      Path dir) throws IOException {
+    Configuration conf = job.getConfiguration();
+    FileSystem dirFs = dir.getFileSystem(conf);
+    PartitionManifest cached = PartitionManifest.read(dirFs, dir);
+    String reason;
+    if (cached == null) {
+      if (!dirFs.exists(new Path(dir, PartitionManifest.MANIFEST_FILE))) {
+        if (dirFs.exists(dir) && dirFs.listStatus(dir).length > 0) {
+          throw new IOException("The partitioning dir " + dir
+              + " has files but no partition manifest. Remove it or set "
+              + Constants.RUNTIME_PARTITIONING_DIR + " to another dir.");
+        }
+        return false;
+      }
+      reason = "unreadable manifest";
+    } else if (conf.getBoolean(Constants.RUNTIME_PARTITIONING_CACHE_INVALIDATE,
+        false)) {
+      reason = "invalidated";
+    } else if (cached.isExpired(conf.getLong(
+        Constants.RUNTIME_PARTITIONING_CACHE_TTL,
+        Constants.DEFAULT_RUNTIME_PARTITIONING_CACHE_TTL), System
+        .currentTimeMillis())) {
+      reason = "expired";
+    } else if (!cached.matches(manifest)) {
+      reason = "input or partitioning changed";
+    } else {
+      LOG.info("Reusing the partitions in " + dir + " created at "
+          + new Date(cached.getCreateTime()) + ".");
+      return true;
+    }
+
+    if (dirFs.exists(dir)) {
+      LOG.info("Partitioning the input again into " + dir + ": " + reason
+          + ".");
+      PartitionManifest.invalidate(dirFs, dir);
+    }
+    return false;
+  }
+
+  /**
+   * @return true if the input of the given job can be partitioned over the
+   *         message transport instead of through the file system.
+   */
+  static boolean isShufflePartitioning(BSPJob job, InputSplit[] splits,
+      int numTasks) throws IOException {
+    Configuration conf = job.getConfiguration();
+    if (!conf.getBoolean(Constants.RUNTIME_PARTITIONING_SHUFFLE, false)) {
+      return false;
+    }
+    // the partitions of a restarted task can't be shuffled again, a
+    // partitioning dir and Pipes partitioners need the partition files, the
+    // balanced and streaming partitioners read the input before partitioning
+    if (conf.getBoolean(Constants.FAULT_TOLERANCE_FLAG, false)
+        || conf.getBoolean(Constants.CHECKPOINT_ENABLED, false)
+        || conf.get(Constants.RUNTIME_PARTITIONING_DIR) != null
+        || PipesPartitioner.class.getName().equals(
+            conf.get(Constants.RUNTIME_PARTITIONING_CLASS))
+        || conf.get(Constants.RUNTIME_PARTITIONING_BALANCED_ASSIGNMENT) != null
+        || conf.get(Constants.RUNTIME_PARTITIONING_STREAMING_ASSIGNMENT) != null
+        || splits.length > numTasks) {
+      return false;
+    }
+    long length = 0L;
+    for (InputSplit split : splits) {
+      length += split.getLength();
+    }
+    return length <= conf.getLong(
+        Constants.RUNTIME_PARTITIONING_SHUFFLE_MAX_BYTES,
+        Constants.DEFAULT_RUNTIME_PARTITIONING_SHUFFLE_MAX_BYTES);
+  }
+
+  /**
+   * Adds empty splits for the tasks that only receive shuffled records.
+   */
+  static InputSplit[] addShuffleSplits(InputSplit[] splits, int numTasks) {
+    if (splits.length >= numTasks) {
+      return splits;
+    }
+    InputSplit[] result = new InputSplit[numTasks];
+    System.arraycopy(splits, 0, result, 0, splits.length);
+    for (int i = splits.length; i < numTasks; i++) {
+      result[i] = new NullInputFormat.NullInputSplit();
+    }
+    return result;
+  }
+
   protected RunningJob launchJob(BSPJobID jobId, BSPJob job,
       Path submitJobFile, FileSystem fs) throws IOException {
     //
@@ -549,7 +820,8 @@ public class BSPJobClient extends Configured implements Tool {
         // set partitionID to rawSplit
         if (split.getClass().getName().equals(FileSplit.class.getName())
             && job.getConfiguration().get(Constants.RUNTIME_PARTITIONING_CLASS) != null
-            && job.get("bsp.partitioning.runner.job") == null) {
+            && job.get("bsp.partitioning.runner.job") == null
+            && !job.getBoolean(Constants.RUNTIME_PARTITIONING_SHUFFLED, false)) {
           LOG.debug(((FileSplit) split).getPath().getName());
           String[] extractPartitionID = ((FileSplit) split).getPath().getName()
               .split("[-]");
@@ -630,9 +902,11 @@ public class BSPJobClient extends Configured implements Tool {
     String lastReport = null;
     LOG.info("Running job: " + info.getID());
     int eventCounter = 0;
+    long interval = MIN_POLL_INTERVAL;
 
     while (!job.isComplete()) {
-      Thread.sleep(3000);
+      Thread.sleep(interval);
+      interval = Math.min(2 * interval, 3000L);
       long step = job.progress();
       String report = "";
 
@@ -181,6 +181,7 @@ public class BSPMaster implements JobSubmissionProtocol, MasterProtocol,
             JobInProgress jip = taskScheduler.findJobById(ts.getJobId());
             TaskInProgress tip = jip.findTaskInProgress(ts.getTaskId()
                 .getTaskID());
+            jip.taskStarted(ts);
 
             if (ts.getRunState() == TaskStatus.State.SUCCEEDED) {
               jip.completedTask(tip, ts);
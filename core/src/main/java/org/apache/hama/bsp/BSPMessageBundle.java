@@ -24,13 +24,14 @@ import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Iterator;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.io.Writable;
-import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hama.bsp.message.compress.BSPMessageCompressor;
+import org.apache.hama.util.ReflectionUtils;
 
 /**
  * BSPMessageBundle stores a group of messages so that they can be sent in batch
@@ -49,6 +50,10 @@ public class BSPMessageBundle<M extends Writable> implements Writable,
   private int bundleSize = 0;
   private int bundleLength = 0;
 
+  // index and superstep of the sending peer, -1 if the bundle isn't tagged
+  private int sourcePeer = -1;
+  private long sourceSuperstep = -1L;
+
   ByteArrayOutputStream byteBuffer = null;
   DataOutputStream bufferDos = null;
 
@@ -144,11 +149,11 @@ public class BSPMessageBundle<M extends Writable> implements Writable,
 
         Class<M> clazz = null;
         try {
-          clazz = (Class<M>) Class.forName(className);
+          clazz = (Class<M>) ReflectionUtils.classForName(className);
         } catch (ClassNotFoundException e) {
           LOG.error("Class was not found.", e);
         }
-        msg = ReflectionUtils.newInstance(clazz, null);
+        msg = ReflectionUtils.newInstance(clazz);
 
         try {
           if (isCompressed) {
@@ -197,9 +202,105 @@ public class BSPMessageBundle<M extends Writable> implements Writable,
     return bundleLength;
   }
 
+  /**
+   * Tags this bundle with the index and superstep of the peer sending it. A
+   * peer sends at most one bundle to every peer in a superstep, so receivers
+   * can drop a bundle that a restarted peer sends again.
+   * 
+   * @param peerIndex the index of the sending peer.
+   * @param superstep the superstep the bundle is sent in.
+   */
+  public void setSource(int peerIndex, long superstep) {
+    this.sourcePeer = peerIndex;
+    this.sourceSuperstep = superstep;
+  }
+
+  /**
+   * @return the index of the sending peer, or -1 if the bundle isn't tagged.
+   */
+  public int getSourcePeer() {
+    return sourcePeer;
+  }
+
+  /**
+   * @return the superstep the bundle was sent in, or -1 if it isn't tagged.
+   */
+  public long getSourceSuperstep() {
+    return sourceSuperstep;
+  }
+
+  /**
+   * @return the class name of the messages in this bundle, or null if the
+   *         bundle is empty.
+   */
+  public String getMessageClassName() {
+    return className;
+  }
+
+  /**
+   * @return the number of bytes of the serialized messages, as returned by
+   *         {@link #writeSerializedMessages(OutputStream)}.
+   */
+  public int getSerializedLength() {
+    return byteBuffer.size();
+  }
+
+  /**
+   * Writes the serialized messages of this bundle without the bundle header,
+   * so that callers can persist many bundles without deserializing them.
+   * 
+   * @param out the stream to write to.
+   * @throws IOException
+   */
+  public void writeSerializedMessages(OutputStream out) throws IOException {
+    byteBuffer.writeTo(out);
+  }
+
+  /**
+   * Appends messages previously written by
+   * {@link #writeSerializedMessages(OutputStream)}.
+   * 
+   * @param messageClassName the class name of the messages.
+   * @param numMessages the number of messages in the serialized data.
+   * @param data the serialized messages.
+   * @param offset the offset in data.
+   * @param length the number of bytes to append.
+   * @throws IOException
+   */
+  public void addSerializedMessages(String messageClassName, int numMessages,
+      byte[] data, int offset, int length) throws IOException {
+    if (className == null) {
+      className = messageClassName;
+    }
+    bufferDos.write(data, offset, length);
+    bundleSize += numMessages;
+    bundleLength += length;
+  }
+
+  /**
+   * Appends all messages of the given bundle without deserializing them.
+   * 
+   * @param bundle the bundle to append.
+   * @throws IOException
+   */
+  public void addBundle(BSPMessageBundle<M> bundle) throws IOException {
+    if (bundle.size() > 0) {
+      if (className == null) {
+        className = bundle.className;
+      }
+      bundle.byteBuffer.writeTo(bufferDos);
+      bundleSize += bundle.bundleSize;
+      bundleLength += bundle.getSerializedLength();
+    }
+  }
+
   @Override
   public void write(DataOutput out) throws IOException {
     out.writeInt(bundleSize);
+    out.writeInt(sourcePeer);
+    if (sourcePeer >= 0) {
+      out.writeLong(sourceSuperstep);
+    }
     if (bundleSize > 0) {
       out.writeUTF(className);
       byte[] messages = byteBuffer.toByteArray();
@@ -211,12 +312,19 @@ public class BSPMessageBundle<M extends Writable> implements Writable,
   @Override
   public void readFields(DataInput in) throws IOException {
     int numMessages = in.readInt();
+    sourcePeer = in.readInt();
+    if (sourcePeer >= 0) {
+      sourceSuperstep = in.readLong();
+    }
     if (numMessages > 0) {
       className = in.readUTF();
       int bytesLength = in.readInt();
       byte[] temp = new byte[bytesLength];
       in.readFully(temp);
       bufferDos.write(temp);
+
+      bundleSize += numMessages;
+      bundleLength += bytesLength;
     }
   }
 }
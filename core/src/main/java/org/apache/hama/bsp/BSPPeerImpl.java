@@ -22,8 +22,10 @@ import java.net.InetSocketAddress;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 
 import org.apache.commons.logging.Log;
@@ -40,16 +42,20 @@ import org.apache.hama.Constants;
 import org.apache.hama.HamaConfiguration;
 import org.apache.hama.bsp.Counters.Counter;
 import org.apache.hama.bsp.ft.AsyncRcvdMsgCheckpointImpl;
+import org.apache.hama.bsp.ft.AsyncRcvdMsgCheckpointImpl.CheckpointPeerService;
 import org.apache.hama.bsp.ft.BSPFaultTolerantService;
 import org.apache.hama.bsp.ft.FaultTolerantPeerService;
+import org.apache.hama.bsp.message.AbstractMessageManager;
 import org.apache.hama.bsp.message.MessageManager;
 import org.apache.hama.bsp.message.MessageManagerFactory;
 import org.apache.hama.bsp.sync.PeerSyncClient;
 import org.apache.hama.bsp.sync.SyncException;
 import org.apache.hama.bsp.sync.SyncServiceFactory;
+import org.apache.hama.bsp.taskallocation.TaskTraffic;
 import org.apache.hama.commons.util.KeyValuePair;
 import org.apache.hama.ipc.BSPPeerProtocol;
 import org.apache.hama.pipes.util.DistributedCacheUtil;
+import org.apache.hama.util.BSPNetUtils;
 import org.apache.hama.util.DistCacheUtils;
 
 /**
@@ -61,7 +67,7 @@ public final class BSPPeerImpl<K1, V1, K2, V2, M extends Writable> implements
   private static final Log LOG = LogFactory.getLog(BSPPeerImpl.class);
 
   public static enum PeerCounter {
-    COMPRESSED_MESSAGES, SUPERSTEP_SUM, TASK_INPUT_RECORDS, TASK_OUTPUT_RECORDS, IO_BYTES_READ, MESSAGE_BYTES_TRANSFERED, MESSAGE_BYTES_RECEIVED, TOTAL_MESSAGES_SENT, TOTAL_MESSAGES_RECEIVED, TOTAL_MESSAGES_COMBINED, COMPRESSED_BYTES_SENT, COMPRESSED_BYTES_RECEIVED, TIME_IN_SYNC_MS
+    COMPRESSED_MESSAGES, SUPERSTEP_SUM, TASK_INPUT_RECORDS, TASK_OUTPUT_RECORDS, IO_BYTES_READ, MESSAGE_BYTES_TRANSFERED, MESSAGE_BYTES_RECEIVED, TOTAL_MESSAGES_SENT, TOTAL_MESSAGES_RECEIVED, TOTAL_MESSAGES_COMBINED, COMPRESSED_BYTES_SENT, COMPRESSED_BYTES_RECEIVED, TIME_IN_SYNC_MS, INPUT_BLOCKED_MS, INPUT_READ_AHEAD_FULL_MS
   }
 
   private final HamaConfiguration conf;
@@ -72,6 +78,7 @@ public final class BSPPeerImpl<K1, V1, K2, V2, M extends Writable> implements
 
   private TaskAttemptID taskId;
   private BSPPeerProtocol umbilical;
+  private TaskStatusReporter statusReporter;
 
   private String[] allPeers;
 
@@ -85,17 +92,26 @@ public final class BSPPeerImpl<K1, V1, K2, V2, M extends Writable> implements
   private BytesWritable split;
   private OutputCollector<K2, V2> collector;
   private RecordReader<K1, V1> in;
+  private InputCache<K1, V1> inputCache;
+  private InputShuffle inputShuffle;
   private RecordWriter<K2, V2> outWriter;
   private final KeyValuePair<K1, V1> cachedPair = new KeyValuePair<K1, V1>();
 
   private InetSocketAddress peerAddress;
 
   private Counters counters;
+  // hot path increments of the framework counters, folded into counters
+  private final StripedCounter[] peerCounters = newPeerCounters();
 
   private FaultTolerantPeerService<M> faultToleranceService;
 
   private long splitSize = 0L;
 
+  // bytes sent to each peer, only kept if the traffic is recorded
+  private boolean recordTraffic = false;
+  private long[] bytesSentToPeer;
+  private Map<InetSocketAddress, Integer> peerIndexByAddress;
+
   /**
    * Protected default constructor for LocalBSPRunner.
    */
@@ -153,6 +169,10 @@ public final class BSPPeerImpl<K1, V1, K2, V2, M extends Writable> implements
     this.conf = conf;
     this.taskId = taskId;
     this.umbilical = umbilical;
+    this.statusReporter = new TaskStatusReporter(umbilical, taskId,
+        conf.getLong(Constants.TASK_STATUS_REPORT_INTERVAL,
+            Constants.DEFAULT_TASK_STATUS_REPORT_INTERVAL));
+    this.statusReporter.start();
     this.bspJob = job;
     // IO
     this.partition = partition;
@@ -161,6 +181,8 @@ public final class BSPPeerImpl<K1, V1, K2, V2, M extends Writable> implements
     this.counters = counters;
 
     this.fs = FileSystem.get(conf);
+    this.recordTraffic = conf.getBoolean(Constants.TASK_TRAFFIC_RECORD, false)
+        && conf.get(Constants.TASK_TRAFFIC_PATH) != null;
 
     String bindAddress = conf.get(Constants.PEER_HOST,
         Constants.DEFAULT_PEER_HOST);
@@ -233,7 +255,21 @@ public final class BSPPeerImpl<K1, V1, K2, V2, M extends Writable> implements
       }
     }
 
-    doFirstSync(superstep);
+    // a peer that is still recovering catches up without the other peers
+    if (this.faultToleranceService == null
+        || state != TaskStatus.State.RECOVERING) {
+      doFirstSync(superstep);
+    }
+
+    if (inputShuffle != null) {
+      shuffleInput();
+    }
+
+    // the job's startup latency is measured up to this point
+    if (superstep <= 0) {
+      currentTaskStatus.setFirstBarrierTime(System.currentTimeMillis());
+      statusReporter.report(currentTaskStatus);
+    }
 
     if (LOG.isDebugEnabled()) {
       LOG.info(new StringBuffer("BSP Peer successfully initialized for ")
@@ -265,14 +301,83 @@ public final class BSPPeerImpl<K1, V1, K2, V2, M extends Writable> implements
       if (in != null) {
         in.close();
       }
+      if (conf.getBoolean(Constants.RUNTIME_PARTITIONING_SHUFFLED, false)) {
+        initInputShuffle(inputSplit);
+        return;
+      }
       in = new TrackedRecordReader<K1, V1>(bspJob.getInputFormat()
           .getRecordReader(inputSplit, bspJob),
           getCounter(BSPPeerImpl.PeerCounter.TASK_INPUT_RECORDS),
           getCounter(BSPPeerImpl.PeerCounter.IO_BYTES_READ));
+      if (conf.getBoolean(Constants.INPUT_CACHE_ENABLED, false)) {
+        if (inputCache == null) {
+          inputCache = new InputCache<K1, V1>(conf, taskId);
+        }
+        in = inputCache.record(in);
+      }
+      in = readAhead(in);
       this.splitSize = inputSplit.getLength();
     }
   }
 
+  /**
+   * Prepares the runtime partitioning shuffle of the job's input. The records
+   * of the given split are sent by {@link #shuffleInput()}, peers without a
+   * split of their own get a {@link NullInputFormat.NullInputSplit}.
+   */
+  private void initInputShuffle(InputSplit inputSplit) throws IOException {
+    if (!(messenger instanceof AbstractMessageManager)) {
+      throw new IOException("Message manager " + messenger.getClass()
+          + " can't shuffle the input.");
+    }
+    inputShuffle = new InputShuffle(conf, taskId);
+    ((AbstractMessageManager<M>) messenger).setInputShuffle(inputShuffle);
+
+    in = null;
+    if (!(inputSplit instanceof NullInputFormat.NullInputSplit)) {
+      in = readAhead(new TrackedRecordReader<K1, V1>(bspJob.getInputFormat()
+          .getRecordReader(inputSplit, bspJob),
+          getCounter(BSPPeerImpl.PeerCounter.TASK_INPUT_RECORDS),
+          getCounter(BSPPeerImpl.PeerCounter.IO_BYTES_READ)));
+    }
+  }
+
+  /**
+   * Sends the records of this peer's split to the peers owning their
+   * partitions, and waits until all peers received theirs. The barrier is the
+   * one of the first superstep, the shuffle doesn't count as a superstep.
+   */
+  private void shuffleInput() throws IOException, SyncException {
+    long start = System.currentTimeMillis();
+    if (in != null) {
+      inputShuffle.send(in, this, messenger);
+      in.close();
+    }
+    enterBarrier();
+    leaveBarrier();
+    inputShuffle.finish();
+    in = readAhead(inputShuffle.<K1, V1> open());
+    LOG.info("Shuffled the input in " + (System.currentTimeMillis() - start)
+        + " ms.");
+  }
+
+  /**
+   * Wraps the given reader into a {@link ReadAheadRecordReader} if read ahead
+   * is enabled.
+   */
+  private RecordReader<K1, V1> readAhead(RecordReader<K1, V1> reader) {
+    if (!conf.getBoolean(Constants.INPUT_READ_AHEAD_ENABLED, false)) {
+      return reader;
+    }
+    return new ReadAheadRecordReader<K1, V1>(reader, conf, conf.getInt(
+        Constants.INPUT_READ_AHEAD_BATCH_SIZE,
+        Constants.DEFAULT_INPUT_READ_AHEAD_BATCH_SIZE), conf.getInt(
+        Constants.INPUT_READ_AHEAD_BATCHES,
+        Constants.DEFAULT_INPUT_READ_AHEAD_BATCHES), "ReadAhead-" + taskId,
+        getStripedCounter(PeerCounter.INPUT_BLOCKED_MS),
+        getStripedCounter(PeerCounter.INPUT_READ_AHEAD_FULL_MS));
+  }
+
   /**
    * @return the size of assigned split
    */
@@ -367,6 +472,13 @@ public final class BSPPeerImpl<K1, V1, K2, V2, M extends Writable> implements
   public final void sync() throws IOException, SyncException,
       InterruptedException {
 
+    if (this.faultToleranceService instanceof CheckpointPeerService
+        && ((CheckpointPeerService<M>) this.faultToleranceService)
+            .isReplaying()) {
+      replaySync();
+      return;
+    }
+
     // normally all messages should been send now, finalizing the send phase
     Iterator<Entry<InetSocketAddress, BSPMessageBundle<M>>> it = messenger
         .getOutgoingBundles();
@@ -379,7 +491,11 @@ public final class BSPPeerImpl<K1, V1, K2, V2, M extends Writable> implements
 
       // remove this message during runtime to save a bit of memory
       it.remove();
+      bundle.setSource(getPeerIndex(), getSuperstepCount());
       try {
+        if (recordTraffic) {
+          countTraffic(addr, bundle.getLength());
+        }
         messenger.transfer(addr, bundle);
       } catch (Exception e) {
         LOG.error("Error while sending messages", e);
@@ -414,6 +530,7 @@ public final class BSPPeerImpl<K1, V1, K2, V2, M extends Writable> implements
         (System.currentTimeMillis() - startBarrier));
     incrementCounter(PeerCounter.SUPERSTEP_SUM, 1L);
 
+    foldCounters();
     currentTaskStatus.setCounters(counters);
 
     if (this.faultToleranceService != null) {
@@ -424,10 +541,91 @@ public final class BSPPeerImpl<K1, V1, K2, V2, M extends Writable> implements
       }
     }
 
-    umbilical.statusUpdate(taskId, currentTaskStatus);
+    if (currentTaskStatus.getRunState() == TaskStatus.State.RECOVERING) {
+      currentTaskStatus.setRunState(TaskStatus.State.RUNNING);
+      currentTaskStatus.setPhase(TaskStatus.Phase.COMPUTE);
+    }
+
+    statusReporter.report(currentTaskStatus);
 
   }
 
+  /**
+   * Finishes a superstep that the other peers have already completed. Only the
+   * messages to this peer are delivered, the fault tolerance service provides
+   * the messages the other peers sent in this superstep.
+   */
+  private void replaySync() throws IOException, InterruptedException {
+    Iterator<Entry<InetSocketAddress, BSPMessageBundle<M>>> it = messenger
+        .getOutgoingBundles();
+
+    while (it.hasNext()) {
+      Entry<InetSocketAddress, BSPMessageBundle<M>> entry = it.next();
+      it.remove();
+      if (entry.getKey().equals(peerAddress)) {
+        messenger.loopBackMessages(entry.getValue());
+      }
+    }
+
+    try {
+      this.faultToleranceService.beforeBarrier();
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+
+    messenger.clearOutgoingMessages();
+    incrementCounter(PeerCounter.SUPERSTEP_SUM, 1L);
+
+    foldCounters();
+    currentTaskStatus.setCounters(counters);
+
+    try {
+      this.faultToleranceService.afterBarrier();
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+
+    statusReporter.report(currentTaskStatus);
+  }
+
+  private static StripedCounter[] newPeerCounters() {
+    StripedCounter[] result = new StripedCounter[PeerCounter.values().length];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = new StripedCounter();
+    }
+    return result;
+  }
+
+  /**
+   * Returns the handle framework components increment the given counter
+   * through on their hot paths. The amount becomes visible in the task's
+   * counters at the next sync or when the counter is read.
+   */
+  public final StripedCounter getStripedCounter(PeerCounter name) {
+    return peerCounters[name.ordinal()];
+  }
+
+  /**
+   * Folds the striped framework counters into the task's counters. Only done
+   * at a sync, at close and when all counters are read for a report, reading a
+   * single counter folds only that one.
+   */
+  private void foldCounters() {
+    if (counters == null) {
+      return;
+    }
+    for (PeerCounter name : PeerCounter.values()) {
+      foldCounter(name);
+    }
+  }
+
+  private void foldCounter(PeerCounter name) {
+    long amount = peerCounters[name.ordinal()].drain();
+    if (amount != 0L) {
+      counters.incrCounter(name, amount);
+    }
+  }
+
   protected final void enterBarrier() throws SyncException {
     syncClient.enterBarrier(taskId.getJobID(), taskId,
         currentTaskStatus.getSuperstepCount());
@@ -462,6 +660,7 @@ public final class BSPPeerImpl<K1, V1, K2, V2, M extends Writable> implements
   }
 
   public final void close() {
+    foldCounters();
     if (conf.get(Constants.COMBINER_CLASS) != null) {
       long combinedMessages = this.getCounter(PeerCounter.TOTAL_MESSAGES_SENT)
           .getCounter()
@@ -470,6 +669,15 @@ public final class BSPPeerImpl<K1, V1, K2, V2, M extends Writable> implements
           combinedMessages);
     }
 
+    if (statusReporter != null) {
+      try {
+        statusReporter.report(currentTaskStatus);
+        statusReporter.close();
+      } catch (Exception e) {
+        LOG.error(e);
+      }
+    }
+
     // there are many catches, because we want to close always every component
     // even if the one before failed.
     if (in != null) {
@@ -479,6 +687,12 @@ public final class BSPPeerImpl<K1, V1, K2, V2, M extends Writable> implements
         LOG.error(e);
       }
     }
+    if (inputCache != null) {
+      inputCache.close();
+    }
+    if (inputShuffle != null) {
+      inputShuffle.close();
+    }
     if (outWriter != null) {
       try {
         outWriter.close();
@@ -486,6 +700,10 @@ public final class BSPPeerImpl<K1, V1, K2, V2, M extends Writable> implements
         LOG.error(e);
       }
     }
+    if (recordTraffic) {
+      writeTraffic();
+    }
+
     this.clear();
     try {
       syncClient.close();
@@ -518,6 +736,42 @@ public final class BSPPeerImpl<K1, V1, K2, V2, M extends Writable> implements
     return peerAddress.getHostName() + ":" + peerAddress.getPort();
   }
 
+  /**
+   * Adds the given bytes to the traffic sent to the peer at the given address.
+   */
+  private void countTraffic(InetSocketAddress addr, long bytes) {
+    if (peerIndexByAddress == null) {
+      String[] peers = getAllPeerNames();
+      peerIndexByAddress = new HashMap<InetSocketAddress, Integer>(
+          2 * peers.length);
+      for (int i = 0; i < peers.length; i++) {
+        peerIndexByAddress.put(BSPNetUtils.getAddress(peers[i]), i);
+      }
+      bytesSentToPeer = new long[peers.length];
+    }
+    Integer index = peerIndexByAddress.get(addr);
+    if (index != null) {
+      bytesSentToPeer[index] += bytes;
+    }
+  }
+
+  /**
+   * Writes the bytes sent to each peer, so the next run of the job can place
+   * its tasks by them.
+   * 
+   * @see org.apache.hama.bsp.taskallocation.CommunicationAwareTaskAllocator
+   */
+  private void writeTraffic() {
+    Path file = new Path(conf.get(Constants.TASK_TRAFFIC_PATH), "task-"
+        + getPeerIndex());
+    try {
+      TaskTraffic.write(file.getFileSystem(conf), file, getPeerIndex(),
+          bytesSentToPeer == null ? new long[0] : bytesSentToPeer);
+    } catch (IOException e) {
+      LOG.warn("Could not write the message traffic to " + file, e);
+    }
+  }
+
   @Override
   public final String[] getAllPeerNames() {
     initPeerNames();
@@ -554,6 +808,15 @@ public final class BSPPeerImpl<K1, V1, K2, V2, M extends Writable> implements
     return allPeers.length;
   }
 
+  /**
+   * Replaces the name of the peer at the given index, used when a single task
+   * has been restarted at another address.
+   */
+  public final void updatePeerName(int index, String peerName) {
+    initPeerNames();
+    allPeers[index] = peerName;
+  }
+
   private final void initPeerNames() {
     if (allPeers == null) {
       allPeers = syncClient.getAllPeerNames(taskId.getJobID());
@@ -611,7 +874,13 @@ public final class BSPPeerImpl<K1, V1, K2, V2, M extends Writable> implements
   }
 
   @Override
+  @SuppressWarnings("unchecked")
   public final KeyValuePair<K1, V1> readNext() throws IOException {
+    if (in instanceof ReadAheadRecordReader) {
+      cachedPair.clear();
+      return ((ReadAheadRecordReader<K1, V1>) in).next(cachedPair) ? cachedPair
+          : null;
+    }
     K1 k = in.createKey();
     V1 v = in.createValue();
     if (in.next(k, v)) {
@@ -626,11 +895,25 @@ public final class BSPPeerImpl<K1, V1, K2, V2, M extends Writable> implements
 
   @Override
   public final void reopenInput() throws IOException {
+    if (inputShuffle != null) {
+      in.close();
+      in = readAhead(inputShuffle.<K1, V1> open());
+      return;
+    }
+    if (inputCache != null && inputCache.isComplete()) {
+      in.close();
+      in = readAhead(inputCache
+          .replay(getCounter(PeerCounter.TASK_INPUT_RECORDS)));
+      return;
+    }
     initInput();
   }
 
   @Override
   public final Counter getCounter(Enum<?> name) {
+    if (counters != null && name instanceof PeerCounter) {
+      foldCounter((PeerCounter) name);
+    }
     return counters == null ? null : counters.findCounter(name);
   }
 
@@ -638,18 +921,28 @@ public final class BSPPeerImpl<K1, V1, K2, V2, M extends Writable> implements
   public final Counter getCounter(String group, String name) {
     Counters.Counter counter = null;
     if (counters != null) {
+      if (PeerCounter.class.getName().equals(group)) {
+        for (PeerCounter peerCounter : PeerCounter.values()) {
+          if (peerCounter.name().equals(name)) {
+            foldCounter(peerCounter);
+          }
+        }
+      }
       counter = counters.findCounter(group, name);
     }
     return counter;
   }
 
   public Counters getCounters() {
+    foldCounters();
     return counters;
   }
 
   @Override
   public final void incrementCounter(Enum<?> key, long amount) {
-    if (counters != null) {
+    if (key instanceof PeerCounter) {
+      peerCounters[key.ordinal()].increment(amount);
+    } else if (counters != null) {
       counters.incrCounter(key, amount);
     }
   }
@@ -0,0 +1,312 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hama.Constants;
+import org.apache.hama.bsp.PartitioningRunner.RecordConverter;
+import org.apache.hama.bsp.PartitioningRunner.WeightedRecordConverter;
+import org.apache.hama.bsp.sync.SyncException;
+import org.apache.hama.commons.util.KeyValuePair;
+
+/**
+ * Balances the total weight of the records per partition instead of their
+ * number, e.g. the edges of a graph whose vertices are weighed by their
+ * degree. The heaviest keys are assigned to partitions explicitly, all other
+ * keys are hashed like by the {@link HashPartitioner}.
+ * 
+ * The {@link PartitioningRunner} weighs the input before partitioning it, see
+ * {@link #balance(BSPPeer, RecordConverter, int)}, and the assignment of the
+ * heavy keys is written to the file in
+ * {@link Constants#RUNTIME_PARTITIONING_BALANCED_ASSIGNMENT}, which every
+ * instance of this partitioner reads.
+ */
+public class BalancedPartitioner<K extends Writable, V> implements
+    Partitioner<K, V>, Configurable {
+
+  public static final Log LOG = LogFactory.getLog(BalancedPartitioner.class);
+
+  private Configuration conf;
+  private Map<Writable, Integer> assignment;
+  private int numPartitions;
+
+  @Override
+  public void setConf(Configuration conf) {
+    this.conf = conf;
+    String path = conf.get(Constants.RUNTIME_PARTITIONING_BALANCED_ASSIGNMENT);
+    if (path == null) {
+      return;
+    }
+    try {
+      readAssignment(new Path(path));
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Assignment " + path
+          + " can't be read.", e);
+    }
+  }
+
+  @Override
+  public Configuration getConf() {
+    return conf;
+  }
+
+  @Override
+  public int getPartition(K key, V value, int numTasks) {
+    if (assignment != null && numTasks == numPartitions) {
+      Integer partition = assignment.get(key);
+      if (partition != null) {
+        return partition;
+      }
+    }
+    return hash(key, numTasks);
+  }
+
+  private static int hash(Writable key, int numTasks) {
+    return Math.abs(key.hashCode() % numTasks);
+  }
+
+  private void readAssignment(Path path) throws IOException {
+    FileSystem fs = path.getFileSystem(conf);
+    if (!fs.exists(path)) {
+      return;
+    }
+    FSDataInputStream in = fs.open(path);
+    try {
+      String keyClassName = Text.readString(in);
+      numPartitions = WritableUtils.readVInt(in);
+      int size = WritableUtils.readVInt(in);
+      assignment = new HashMap<Writable, Integer>(size * 2);
+      if (size == 0) {
+        return;
+      }
+      Class<? extends Writable> keyClass = getKeyClass(conf, keyClassName);
+      for (int i = 0; i < size; i++) {
+        Writable key = ReflectionUtils.newInstance(keyClass, conf);
+        key.readFields(in);
+        assignment.put(key, WritableUtils.readVInt(in));
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private static Class<? extends Writable> getKeyClass(Configuration conf,
+      String name) throws IOException {
+    try {
+      return conf.getClassByName(name).asSubclass(Writable.class);
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Key class " + name + " not found", e);
+    }
+  }
+
+  private static final class WeighedKey {
+    private final Writable key;
+    private final long weight;
+
+    WeighedKey(Writable key, long weight) {
+      this.key = key;
+      this.weight = weight;
+    }
+  }
+
+  private static final Comparator<WeighedKey> BY_WEIGHT = new Comparator<WeighedKey>() {
+    @Override
+    public int compare(WeighedKey o1, WeighedKey o2) {
+      return o1.weight < o2.weight ? -1 : (o1.weight == o2.weight ? 0 : 1);
+    }
+  };
+
+  /**
+   * Weighs the input of the given peer and assigns the heaviest keys of all
+   * peers to the partitions. Every peer writes the total weight its records
+   * hash to per partition, and its
+   * {@link Constants#RUNTIME_PARTITIONING_BALANCED_KEYS} heaviest keys. The
+   * first peer assigns the keys heavier than the mean record, heaviest first,
+   * to the partition with the least weight, and writes the assignment.
+   * Records of converters that don't weigh them weigh one each. The input of
+   * the peer has to be reopened afterwards.
+   */
+  public static void balance(
+      BSPPeer<Writable, Writable, ?, ?, ?> peer, RecordConverter converter,
+      int numPartitions) throws IOException, SyncException,
+      InterruptedException {
+    Configuration conf = peer.getConfiguration();
+    Path path = new Path(
+        conf.get(Constants.RUNTIME_PARTITIONING_BALANCED_ASSIGNMENT));
+    Path statsDir = new Path(path.getParent(), path.getName() + "-stats");
+    FileSystem fs = path.getFileSystem(conf);
+    int maxKeys = conf.getInt(Constants.RUNTIME_PARTITIONING_BALANCED_KEYS,
+        Constants.DEFAULT_RUNTIME_PARTITIONING_BALANCED_KEYS);
+
+    long[] hashed = new long[numPartitions];
+    long records = 0L;
+    String keyClass = "";
+    PriorityQueue<WeighedKey> heaviest = new PriorityQueue<WeighedKey>(
+        maxKeys + 1, BY_WEIGHT);
+    KeyValuePair<Writable, Writable> record = null;
+    while ((record = peer.readNext()) != null) {
+      KeyValuePair<Writable, Writable> converted = converter.convertRecord(
+          record, conf);
+      if (converted == null) {
+        throw new IOException("The converted record can't be null.");
+      }
+      long weight = 1L;
+      if (converter instanceof WeightedRecordConverter) {
+        weight = ((WeightedRecordConverter) converter).getWeight(converted);
+      }
+      Writable key = converted.getKey();
+      keyClass = key.getClass().getName();
+      hashed[hash(key, numPartitions)] += weight;
+      records++;
+      if (heaviest.size() < maxKeys || weight > heaviest.peek().weight) {
+        heaviest.add(new WeighedKey(WritableUtils.clone(key, conf), weight));
+        if (heaviest.size() > maxKeys) {
+          heaviest.poll();
+        }
+      }
+    }
+
+    FSDataOutputStream out = fs.create(new Path(statsDir, "peer-"
+        + peer.getPeerIndex()), true);
+    try {
+      Text.writeString(out, keyClass);
+      WritableUtils.writeVLong(out, records);
+      for (long weight : hashed) {
+        WritableUtils.writeVLong(out, weight);
+      }
+      WritableUtils.writeVInt(out, heaviest.size());
+      for (WeighedKey heavy : heaviest) {
+        heavy.key.write(out);
+        WritableUtils.writeVLong(out, heavy.weight);
+      }
+    } finally {
+      out.close();
+    }
+    peer.sync();
+
+    if (peer.getPeerIndex() == 0) {
+      assign(conf, fs, statsDir, path, numPartitions);
+    }
+    peer.sync();
+  }
+
+  private static void assign(Configuration conf, FileSystem fs, Path statsDir,
+      Path path, int numPartitions) throws IOException {
+    long[] loads = new long[numPartitions];
+    long records = 0L;
+    Class<? extends Writable> keyClass = null;
+    List<WeighedKey> heavy = new ArrayList<WeighedKey>();
+    for (FileStatus stat : fs.listStatus(statsDir)) {
+      FSDataInputStream in = fs.open(stat.getPath());
+      try {
+        String name = Text.readString(in);
+        records += WritableUtils.readVLong(in);
+        for (int i = 0; i < numPartitions; i++) {
+          loads[i] += WritableUtils.readVLong(in);
+        }
+        int size = WritableUtils.readVInt(in);
+        if (size > 0 && keyClass == null) {
+          keyClass = getKeyClass(conf, name);
+        }
+        for (int i = 0; i < size; i++) {
+          Writable key = ReflectionUtils.newInstance(keyClass, conf);
+          key.readFields(in);
+          heavy.add(new WeighedKey(key, WritableUtils.readVLong(in)));
+        }
+      } finally {
+        in.close();
+      }
+    }
+    fs.delete(statsDir, true);
+
+    long total = 0L;
+    for (long load : loads) {
+      total += load;
+    }
+    long hashedMax = max(loads);
+
+    // the assigned keys are taken out of the partitions they hash to
+    long mean = records == 0 ? 0L : total / records;
+    List<WeighedKey> assigned = new ArrayList<WeighedKey>();
+    for (WeighedKey key : heavy) {
+      if (key.weight > mean) {
+        assigned.add(key);
+        loads[hash(key.key, numPartitions)] -= key.weight;
+      }
+    }
+    Collections.sort(assigned, Collections.reverseOrder(BY_WEIGHT));
+
+    FSDataOutputStream out = fs.create(path, true);
+    try {
+      Text.writeString(out, keyClass == null ? "" : keyClass.getName());
+      WritableUtils.writeVInt(out, numPartitions);
+      WritableUtils.writeVInt(out, assigned.size());
+      for (WeighedKey key : assigned) {
+        int lightest = 0;
+        for (int i = 1; i < numPartitions; i++) {
+          if (loads[i] < loads[lightest]) {
+            lightest = i;
+          }
+        }
+        loads[lightest] += key.weight;
+        key.key.write(out);
+        WritableUtils.writeVInt(out, lightest);
+      }
+    } finally {
+      out.close();
+    }
+
+    if (total > 0) {
+      double perPartition = (double) total / numPartitions;
+      LOG.info("Assigned " + assigned.size()
+          + " keys, max/mean weight per partition "
+          + String.format("%.2f", hashedMax / perPartition) + " hashed, "
+          + String.format("%.2f", max(loads) / perPartition) + " balanced.");
+    }
+  }
+
+  private static long max(long[] values) {
+    long max = 0L;
+    for (long value : values) {
+      max = Math.max(max, value);
+    }
+    return max;
+  }
+
+}
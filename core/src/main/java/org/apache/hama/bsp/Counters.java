@@ -135,6 +135,15 @@ public class Counters implements Writable, Iterable<Counters.Group> {
       value += incr;
     }
 
+    /**
+     * Set this counter to the given value
+     * 
+     * @param value the new value of this counter
+     */
+    public synchronized void setValue(long value) {
+      this.value = value;
+    }
+
     @Override
     public synchronized boolean equals(Object genericRight) {
       if (genericRight instanceof Counter) {
@@ -532,6 +541,24 @@ public class Counters implements Writable, Iterable<Counters.Group> {
     }
   }
 
+  /**
+   * Sets multiple counters to their values in another Counters instance. The
+   * counters that are not contained in the other instance keep their values.
+   * 
+   * @param other the other Counters instance
+   */
+  public synchronized void setAllCounters(Counters other) {
+    for (Group otherGroup : other) {
+      Group group = getGroup(otherGroup.getName());
+      group.displayName = otherGroup.displayName;
+      for (Counter otherCounter : otherGroup) {
+        Counter counter = group.getCounterForName(otherCounter.getName());
+        counter.setDisplayName(otherCounter.getDisplayName());
+        counter.setValue(otherCounter.getValue());
+      }
+    }
+  }
+
   /**
    * Convenience method for computing the sum of two sets of counters.
    */
@@ -0,0 +1,235 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hama.Constants;
+
+/**
+ * A task scheduler that shares the task slots of the cluster between weighted
+ * queues. A job is only started once all of its tasks fit into the free slots.
+ * The queue using the least slots relative to its weight goes first, and while
+ * its first job waits for slots, smaller jobs of any queue may be started in
+ * the slots left over, for at most {@link Constants#SCHEDULER_BACKFILL_TIMEOUT}
+ * milliseconds. Queues and their weights are read by the {@link QueueManager}.
+ */
+class FairShareTaskScheduler extends SimpleTaskScheduler {
+
+  private static final Log LOG = LogFactory
+      .getLog(FairShareTaskScheduler.class);
+
+  // milliseconds to wait for a change before the free slots are checked again
+  private static final long POLL_INTERVAL = 1000L;
+
+  private final Object lock = new Object();
+  // slots taken by the started jobs on every groom
+  private final Map<JobInProgress, Map<GroomServerStatus, Integer>> started = new HashMap<JobInProgress, Map<GroomServerStatus, Integer>>();
+  // free slots of every groom handed out with the job taken last
+  private Map<GroomServerStatus, Integer> freeSlots;
+
+  @Override
+  protected JobInProgress takeJob() throws InterruptedException {
+    synchronized (lock) {
+      Queue<JobInProgress> queue = getQueueManager().findQueue(WAIT_QUEUE);
+      freeSlots = getFreeSlots(groomServerManager.get()
+          .groomServerStatusKeySet());
+      JobInProgress job = selectJob(queue.jobs(), freeSlots,
+          System.currentTimeMillis());
+      if (job == null) {
+        lock.wait(POLL_INTERVAL);
+        return null;
+      }
+      queue.removeJob(job);
+      return job;
+    }
+  }
+
+  @Override
+  protected GroomServerStatus[] getGroomsFor(JobInProgress job) {
+    if (job.isRecoveryPending()) {
+      return super.getGroomsFor(job);
+    }
+    // hand out copies of the grooms that only offer their free slots
+    List<GroomServerStatus> grooms = new ArrayList<GroomServerStatus>();
+    synchronized (lock) {
+      for (Map.Entry<GroomServerStatus, Integer> e : freeSlots.entrySet()) {
+        if (e.getValue() > 0) {
+          GroomServerStatus groom = e.getKey();
+          grooms.add(new GroomServerStatus(groom.getGroomName(), groom
+              .getTaskReports(), groom.getFailures(), e.getValue(), groom
+              .getRpcServer(), groom.getGroomHostName()));
+        }
+      }
+    }
+    return grooms.toArray(new GroomServerStatus[grooms.size()]);
+  }
+
+  @Override
+  protected void jobScheduled(JobInProgress job, boolean scheduled) {
+    synchronized (lock) {
+      if (scheduled && !started.containsKey(job)) {
+        started.put(job, new HashMap<GroomServerStatus, Integer>(
+            job.taskCountInGroomMap));
+      }
+      lock.notifyAll();
+    }
+  }
+
+  @Override
+  protected void jobsChanged() {
+    synchronized (lock) {
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * @return the slots of every groom that are not taken by a running job.
+   */
+  Map<GroomServerStatus, Integer> getFreeSlots(
+      Collection<GroomServerStatus> grooms) {
+    Iterator<JobInProgress> it = started.keySet().iterator();
+    while (it.hasNext()) {
+      if (isDone(it.next())) {
+        it.remove();
+      }
+    }
+    Map<GroomServerStatus, Integer> free = new LinkedHashMap<GroomServerStatus, Integer>();
+    for (GroomServerStatus groom : grooms) {
+      free.put(groom, groom.getMaxTasks());
+    }
+    for (Map<GroomServerStatus, Integer> taken : started.values()) {
+      for (Map.Entry<GroomServerStatus, Integer> e : taken.entrySet()) {
+        Integer slots = free.get(e.getKey());
+        if (slots != null) {
+          free.put(e.getKey(), Math.max(0, slots - e.getValue()));
+        }
+      }
+    }
+    return free;
+  }
+
+  /**
+   * Picks the next job to start.
+   * 
+   * @param waiting jobs in the order they were submitted.
+   * @param free slots of every groom.
+   * @param now the current time in milliseconds.
+   * @return the job, or null if no job can be started now.
+   */
+  JobInProgress selectJob(Collection<JobInProgress> waiting,
+      Map<GroomServerStatus, Integer> free, long now) {
+    int freeSlots = 0;
+    int capacity = 0;
+    for (Map.Entry<GroomServerStatus, Integer> e : free.entrySet()) {
+      freeSlots += e.getValue();
+      capacity += e.getKey().getMaxTasks();
+    }
+
+    QueueManager queueManager = getQueueManager();
+    Map<String, List<JobInProgress>> queues = new LinkedHashMap<String, List<JobInProgress>>();
+    for (String name : queueManager.getQueueNames()) {
+      queues.put(name, new ArrayList<JobInProgress>());
+    }
+    for (JobInProgress job : waiting) {
+      if (job.isRecoveryPending()) {
+        // recovering jobs already hold their slots
+        return job;
+      }
+      if (!isDone(job)) {
+        queues.get(queueManager.getQueueName(job)).add(job);
+      }
+    }
+
+    // the queue with the least slots per weight goes first
+    Map<String, Integer> used = new HashMap<String, Integer>();
+    for (Map.Entry<JobInProgress, Map<GroomServerStatus, Integer>> e : started
+        .entrySet()) {
+      String name = queueManager.getQueueName(e.getKey());
+      int slots = used.containsKey(name) ? used.get(name) : 0;
+      for (Integer tasks : e.getValue().values()) {
+        slots += tasks;
+      }
+      used.put(name, slots);
+    }
+    List<String> order = new ArrayList<String>();
+    for (Map.Entry<String, List<JobInProgress>> e : queues.entrySet()) {
+      if (e.getValue().isEmpty()) {
+        continue;
+      }
+      double share = getShare(e.getKey(), used);
+      int i = 0;
+      while (i < order.size() && getShare(order.get(i), used) <= share) {
+        i++;
+      }
+      order.add(i, e.getKey());
+    }
+    if (order.isEmpty()) {
+      return null;
+    }
+
+    JobInProgress head = queues.get(order.get(0)).get(0);
+    int tasks = getTaskCount(head);
+    // a job that can never fit is started to fail like before
+    if (tasks <= freeSlots || tasks > capacity) {
+      return head;
+    }
+    if (now - head.getStartTime() >= getConf().getLong(
+        Constants.SCHEDULER_BACKFILL_TIMEOUT,
+        Constants.DEFAULT_SCHEDULER_BACKFILL_TIMEOUT)) {
+      // let the free slots accumulate for the waiting job
+      return null;
+    }
+    for (String name : order) {
+      for (JobInProgress job : queues.get(name)) {
+        if (getTaskCount(job) <= freeSlots) {
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("Backfilling " + job.getJobID() + " while "
+                + head.getJobID() + " waits for " + tasks + " slots.");
+          }
+          return job;
+        }
+      }
+    }
+    return null;
+  }
+
+  private double getShare(String queue, Map<String, Integer> used) {
+    int slots = used.containsKey(queue) ? used.get(queue) : 0;
+    return slots / (double) getQueueManager().getQueueWeight(queue);
+  }
+
+  private static int getTaskCount(JobInProgress job) {
+    return job.areTasksInited() ? job.tasks.length : job.desiredBSPTasks();
+  }
+
+  private static boolean isDone(JobInProgress job) {
+    int state = job.getStatus().getRunState();
+    return state == JobStatus.SUCCEEDED || state == JobStatus.FAILED
+        || state == JobStatus.KILLED;
+  }
+
+}
@@ -0,0 +1,243 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hama.Constants;
+import org.apache.hama.monitor.Metric;
+import org.apache.hama.monitor.MetricsRecord;
+
+/**
+ * Load of a groom server as last published by its monitor. Values that were
+ * not published are unknown and never exclude a groom.
+ */
+final class GroomLoad {
+
+  private static final Log LOG = LogFactory.getLog(GroomLoad.class);
+
+  /** Names of the metrics read from the groom's jvm metrics record. */
+  static final String SYSTEM_LOAD_AVERAGE = "SystemLoadAverage";
+  static final String AVAILABLE_PROCESSORS = "AvailableProcessors";
+  static final String MEM_FREE = "MemFreeM";
+  static final String DISK_FREE = "DiskFreeM";
+
+  private static final Pattern XMX = Pattern
+      .compile("-Xmx(\\d+)([kKmMgG]?)(\\s|$)");
+
+  static final GroomLoad UNKNOWN = new GroomLoad(-1.0d, -1L, -1L);
+
+  private final double loadPerProcessor;
+  private final long freeMemoryMB;
+  private final long freeDiskMB;
+
+  GroomLoad(double loadPerProcessor, long freeMemoryMB, long freeDiskMB) {
+    this.loadPerProcessor = loadPerProcessor;
+    this.freeMemoryMB = freeMemoryMB;
+    this.freeDiskMB = freeDiskMB;
+  }
+
+  /**
+   * @return the load published in the record, or {@link #UNKNOWN} if there is
+   *         no record.
+   */
+  static GroomLoad of(MetricsRecord record) {
+    if (record == null) {
+      return UNKNOWN;
+    }
+    double load = -1.0d;
+    double processors = 1.0d;
+    long memory = -1L;
+    long disk = -1L;
+    // records may hold several samples of a metric, the last one wins
+    for (Metric<?> metric : record.metrics()) {
+      if (!(metric.value() instanceof Number)) {
+        continue;
+      }
+      Number value = (Number) metric.value();
+      if (SYSTEM_LOAD_AVERAGE.equals(metric.name())) {
+        load = value.doubleValue();
+      } else if (AVAILABLE_PROCESSORS.equals(metric.name())) {
+        processors = Math.max(1.0d, value.doubleValue());
+      } else if (MEM_FREE.equals(metric.name())) {
+        memory = value.longValue();
+      } else if (DISK_FREE.equals(metric.name())) {
+        disk = value.longValue();
+      }
+    }
+    return new GroomLoad(load < 0.0d ? -1.0d : load / processors, memory, disk);
+  }
+
+  /**
+   * @return the system load average divided by the number of processors, or a
+   *         negative value if unknown.
+   */
+  double getLoadPerProcessor() {
+    return loadPerProcessor;
+  }
+
+  /**
+   * @return the free physical memory in megabytes, or a negative value if
+   *         unknown.
+   */
+  long getFreeMemoryMB() {
+    return freeMemoryMB;
+  }
+
+  /**
+   * @return the free space of the local disk in megabytes, or a negative value
+   *         if unknown.
+   */
+  long getFreeDiskMB() {
+    return freeDiskMB;
+  }
+
+  /**
+   * @param slotsToUse number of tasks the groom would run.
+   * @param taskMemoryMB memory a task needs.
+   * @param diskMB free disk space the groom needs.
+   * @return true if the tasks fit.
+   */
+  boolean fits(int slotsToUse, long taskMemoryMB, long diskMB) {
+    return (freeMemoryMB < 0 || freeMemoryMB >= slotsToUse * taskMemoryMB)
+        && (freeDiskMB < 0 || freeDiskMB >= diskMB);
+  }
+
+  /**
+   * @return the memory in megabytes a task of the job needs, from
+   *         {@link Constants#TASK_MEMORY_MB} or else the -Xmx of the child
+   *         java opts.
+   */
+  static long getTaskMemoryMB(Configuration conf) {
+    long memory = conf.getLong(Constants.TASK_MEMORY_MB, -1L);
+    if (memory >= 0) {
+      return memory;
+    }
+    Matcher m = XMX.matcher(conf.get("bsp.child.java.opts", "-Xmx200m"));
+    if (!m.find()) {
+      return 0L;
+    }
+    long size = Long.parseLong(m.group(1));
+    char unit = m.group(2).isEmpty() ? ' ' : Character.toLowerCase(m.group(2)
+        .charAt(0));
+    switch (unit) {
+      case 'k':
+        return size / 1024;
+      case 'm':
+        return size;
+      case 'g':
+        return size * 1024;
+      default:
+        return size / (1024 * 1024);
+    }
+  }
+
+  /**
+   * Orders the grooms from the least to the most loaded and drops those where
+   * a task of the job does not fit. Grooms without published metrics come
+   * last. If the remaining grooms have fewer free slots than the job has
+   * tasks, the grooms that were dropped are appended again, so stale metrics
+   * do not fail the job.
+   * 
+   * @param grooms to order.
+   * @param records maps groom names to their last metrics record.
+   * @param conf of the job.
+   * @param tasks number of tasks to place.
+   * @return grooms keyed by host name, in the order to fill them.
+   */
+  static Map<String, GroomServerStatus> order(
+      Collection<GroomServerStatus> grooms, Map<String, MetricsRecord> records,
+      Configuration conf, int tasks) {
+    long memory = getTaskMemoryMB(conf);
+    long disk = conf.getLong(Constants.TASK_MIN_FREE_DISK_MB,
+        Constants.DEFAULT_TASK_MIN_FREE_DISK_MB);
+
+    final Map<GroomServerStatus, GroomLoad> loads = new LinkedHashMap<GroomServerStatus, GroomLoad>();
+    for (GroomServerStatus groom : grooms) {
+      loads.put(groom, of(records.get(groom.getGroomName())));
+    }
+    List<GroomServerStatus> sorted = new ArrayList<GroomServerStatus>(
+        loads.keySet());
+    Collections.sort(sorted, new Comparator<GroomServerStatus>() {
+      @Override
+      public int compare(GroomServerStatus a, GroomServerStatus b) {
+        return compareLoad(loads.get(a), loads.get(b));
+      }
+    });
+
+    Map<String, GroomServerStatus> result = new LinkedHashMap<String, GroomServerStatus>();
+    List<GroomServerStatus> dropped = new ArrayList<GroomServerStatus>();
+    int slots = 0;
+    for (GroomServerStatus groom : sorted) {
+      int slotsToUse = Math.min(tasks,
+          Math.max(0, groom.getMaxTasks() - groom.countTasks()));
+      if (loads.get(groom).fits(slotsToUse, memory, disk)) {
+        result.put(groom.getGroomHostName(), groom);
+        slots += groom.getMaxTasks();
+      } else {
+        dropped.add(groom);
+      }
+    }
+    if (!dropped.isEmpty()) {
+      if (slots < tasks) {
+        LOG.warn(dropped.size() + " groom(s) lack " + memory
+            + " MB of memory or " + disk + " MB of disk, but are needed to"
+            + " place " + tasks + " tasks.");
+        for (GroomServerStatus groom : dropped) {
+          result.put(groom.getGroomHostName(), groom);
+        }
+      } else if (LOG.isDebugEnabled()) {
+        LOG.debug("Skipping grooms without " + memory + " MB of memory or "
+            + disk + " MB of disk: " + dropped);
+      }
+    }
+    return result;
+  }
+
+  private static int compareLoad(GroomLoad a, GroomLoad b) {
+    boolean knownA = a.loadPerProcessor >= 0;
+    boolean knownB = b.loadPerProcessor >= 0;
+    if (knownA != knownB) {
+      return knownA ? -1 : 1;
+    }
+    int cmp = Double.compare(a.loadPerProcessor, b.loadPerProcessor);
+    if (cmp != 0) {
+      return cmp;
+    }
+    // more free memory first
+    return a.freeMemoryMB < b.freeMemoryMB ? 1
+        : (a.freeMemoryMB == b.freeMemoryMB ? 0 : -1);
+  }
+
+  @Override
+  public String toString() {
+    return "load per processor " + loadPerProcessor + ", free memory "
+        + freeMemoryMB + " MB, free disk " + freeDiskMB + " MB";
+  }
+}
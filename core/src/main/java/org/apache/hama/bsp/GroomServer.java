@@ -23,6 +23,8 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.lang.reflect.Constructor;
 import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
@@ -61,6 +63,7 @@ import org.apache.hama.HamaConfiguration;
 import org.apache.hama.bsp.sync.SyncException;
 import org.apache.hama.http.HttpServer;
 import org.apache.hama.ipc.BSPPeerProtocol;
+import org.apache.hama.ipc.ChildJvmProtocol;
 import org.apache.hama.ipc.GroomProtocol;
 import org.apache.hama.ipc.HamaRPCProtocolVersion;
 import org.apache.hama.ipc.MasterProtocol;
@@ -84,14 +87,18 @@ import org.apache.zookeeper.ZooKeeper;
  * physical node.
  */
 public class GroomServer implements Runnable, GroomProtocol, BSPPeerProtocol,
-    Watcher {
+    ChildJvmProtocol, Watcher {
   public static final Log LOG = LogFactory.getLog(GroomServer.class);
   static final String SUBDIR = "groomServer";
 
-  private volatile static int REPORT_INTERVAL = 1 * 1000;
-
   final Configuration conf;
 
+  // Reports are sent right away when a task changes state, otherwise every
+  // reportInterval milliseconds to keep the groom alive at the master.
+  private final long reportInterval;
+  private final Object reportLock = new Object();
+  private boolean reportRequested = false;
+
   // Constants
   static enum State {
     NORMAL, COMPUTE, SYNC, BARRIER, STALE, INTERRUPTED, DENIED
@@ -140,6 +147,11 @@ public class GroomServer implements Runnable, GroomProtocol, BSPPeerProtocol,
   InetSocketAddress taskReportAddress;
   Server taskReportServer = null;
 
+  // Pool of pre-started child JVMs, null if every task forks its own.
+  private volatile JvmManager jvmManager;
+  // Unpacked job jars shared by the tasks of all jobs, null if disabled.
+  private volatile JobJarCache jarCache;
+
   // Schedule Heartbeats to GroomServer
   private ScheduledExecutorService taskMonitorService;
 
@@ -289,6 +301,8 @@ public class GroomServer implements Runnable, GroomProtocol, BSPPeerProtocol,
   public GroomServer(Configuration conf) throws IOException {
     LOG.info("groom start");
     this.conf = conf;
+    this.reportInterval = conf.getLong(Constants.GROOM_REPORT_INTERVAL,
+        Constants.DEFAULT_GROOM_REPORT_INTERVAL);
     bspMasterAddr = BSPMaster.getAddress(conf);
 
     if (bspMasterAddr == null) {
@@ -380,6 +394,20 @@ public class GroomServer implements Runnable, GroomProtocol, BSPPeerProtocol,
         + ":" + taskReportAddress.getPort());
     LOG.info("TaskReportServer up at: " + this.taskReportAddress);
 
+    long jarCacheSize = conf.getLong(Constants.GROOM_JAR_CACHE_SIZE,
+        Constants.DEFAULT_GROOM_JAR_CACHE_SIZE);
+    if (this.jarCache == null && jarCacheSize > 0) {
+      this.jarCache = new JobJarCache(new File(getLocalDirs()[0], "jarcache"),
+          jarCacheSize);
+    }
+
+    if (this.jvmManager == null
+        && conf.getInt(Constants.CHILD_JVM_POOL_SIZE,
+            Constants.DEFAULT_CHILD_JVM_POOL_SIZE) > 0) {
+      this.jvmManager = new JvmManager(conf, taskReportAddress);
+      this.jvmManager.start();
+    }
+
     this.groomHostName = rpcAddr;
     this.groomServerName = "groomd_" + this.rpcServer.replace(':', '_');
     LOG.info("Starting groom: " + this.rpcServer);
@@ -509,7 +537,7 @@ public class GroomServer implements Runnable, GroomProtocol, BSPPeerProtocol,
         }
 
         doReport(taskStatuses);
-        Thread.sleep(REPORT_INTERVAL);
+        waitForReport();
       } catch (InterruptedException ie) {
       }
 
@@ -537,11 +565,33 @@ public class GroomServer implements Runnable, GroomProtocol, BSPPeerProtocol,
             + StringUtils.stringifyException(except);
         LOG.error(msg);
       }
-      Thread.sleep(REPORT_INTERVAL);
     }
     return State.NORMAL;
   }
 
+  /**
+   * Waits until a report is requested or the report interval has passed.
+   */
+  private void waitForReport() throws InterruptedException {
+    synchronized (reportLock) {
+      if (!reportRequested) {
+        reportLock.wait(reportInterval);
+      }
+      reportRequested = false;
+    }
+  }
+
+  /**
+   * Makes the groom report the status of its tasks to the master without
+   * waiting for the next report interval.
+   */
+  void requestReport() {
+    synchronized (reportLock) {
+      reportRequested = true;
+      reportLock.notifyAll();
+    }
+  }
+
   private void startNewTask(LaunchTaskAction action) {
     Task t = action.getTask();
     BSPJob jobConf = null;
@@ -707,7 +757,11 @@ public class GroomServer implements Runnable, GroomProtocol, BSPPeerProtocol,
         }
         jobConf.setJar(localJarFile.toString());
 
-        if (jarFile != null) {
+        if (jarFile != null && jarCache != null) {
+          rjob.jarKey = JobJarCache.getKey(jobConf.getConfiguration());
+        }
+
+        if (jarFile != null && rjob.jarKey == null) {
           dfs.copyToLocalFile(jarFile, localJarFile);
 
           // also unjar the job.jar files in workdir
@@ -732,17 +786,25 @@ public class GroomServer implements Runnable, GroomProtocol, BSPPeerProtocol,
     launchTaskForJob(tip, jobConf);
   }
 
-  private static void launchTaskForJob(TaskInProgress tip, BSPJob jobConf) {
+  private void launchTaskForJob(TaskInProgress tip, BSPJob jobConf) {
     try {
       tip.setJobConf(jobConf);
       tip.launchTask();
     } catch (Throwable ie) {
       tip.taskStatus.setRunState(TaskStatus.State.FAILED);
+      requestReport();
       String error = StringUtils.stringifyException(ie);
       LOG.info(error);
     }
   }
 
+  private String getJarKey(BSPJobID jobId) {
+    synchronized (runningJobs) {
+      RunningJob rjob = runningJobs.get(jobId);
+      return rjob == null ? null : rjob.jarKey;
+    }
+  }
+
   private RunningJob addTaskToJob(BSPJobID jobId, Path localJobFile,
       TaskInProgress tip) {
     synchronized (runningJobs) {
@@ -814,6 +876,8 @@ public class GroomServer implements Runnable, GroomProtocol, BSPPeerProtocol,
     Set<TaskInProgress> tasks;
     boolean localized;
     boolean keepJobFiles;
+    // key of the job jar in the jar cache, null if the jar is not cached
+    String jarKey;
 
     RunningJob(BSPJobID jobid, Path jobFile) {
       this.jobid = jobid;
@@ -918,6 +982,11 @@ public class GroomServer implements Runnable, GroomProtocol, BSPPeerProtocol,
       taskReportServer.stop();
       taskReportServer = null;
     }
+    if (jvmManager != null) {
+      jvmManager.shutdown();
+      jvmManager = null;
+    }
+    jarCache = null;
 
   }
 
@@ -982,7 +1051,11 @@ public class GroomServer implements Runnable, GroomProtocol, BSPPeerProtocol,
       localJobConf.set("bsp.task.id", task.getTaskID().toString());
       String jarFile = localJobConf.getJar();
 
-      if (jarFile != null) {
+      String jarKey = getJarKey(task.getJobID());
+      if (jarFile != null && jarKey != null) {
+        // the task runner takes the unpacked jar from the jar cache
+        localJobConf.set(JobJarCache.CACHE_KEY, jarKey);
+      } else if (jarFile != null) {
         FileSystem.get(conf).copyToLocalFile(new Path(jarFile), localJarFile);
         localJobConf.setJar(localJarFile.toString());
       }
@@ -1015,6 +1088,7 @@ public class GroomServer implements Runnable, GroomProtocol, BSPPeerProtocol,
       if (wasFailure) {
         failures += 1;
         taskStatus.setRunState(TaskStatus.State.FAILED);
+        requestReport();
       } else {
         taskStatus.setRunState(TaskStatus.State.KILLED);
       }
@@ -1085,7 +1159,27 @@ public class GroomServer implements Runnable, GroomProtocol, BSPPeerProtocol,
         return;
       }
 
+      TaskStatus.State state = this.taskStatus.getRunState();
       this.taskStatus.statusUpdate(taskStatus);
+      if (state != taskStatus.getRunState()) {
+        requestReport();
+      }
+    }
+
+    public void reportProgressDelta(TaskStatus taskStatus) {
+      if (this.done) {
+        LOG.info(task.getTaskID()
+            + " Ignoring status-update since task is 'done'");
+        return;
+      }
+
+      TaskStatus.State state = this.taskStatus.getRunState();
+      long firstBarrierTime = this.taskStatus.getFirstBarrierTime();
+      this.taskStatus.statusUpdateDelta(taskStatus);
+      if (state != taskStatus.getRunState()
+          || firstBarrierTime != this.taskStatus.getFirstBarrierTime()) {
+        requestReport();
+      }
     }
 
     public void reportDone() {
@@ -1095,8 +1189,9 @@ public class GroomServer implements Runnable, GroomProtocol, BSPPeerProtocol,
 
       this.taskStatus.setFinishTime(System.currentTimeMillis());
       this.done = true;
-      this.runner.killBsp();
+      this.runner.taskDone();
       LOG.info("Task " + task.getTaskID() + " is done.");
+      requestReport();
     }
 
     public void jobHasFinished(boolean wasFailure) throws IOException {
@@ -1138,6 +1233,8 @@ public class GroomServer implements Runnable, GroomProtocol, BSPPeerProtocol,
       return HamaRPCProtocolVersion.versionID;
     } else if (protocol.equals(BSPPeerProtocol.class.getName())) {
       return HamaRPCProtocolVersion.versionID;
+    } else if (protocol.equals(ChildJvmProtocol.class.getName())) {
+      return HamaRPCProtocolVersion.versionID;
     } else {
       throw new IOException("Unknown protocol to GroomServer: " + protocol);
     }
@@ -1201,11 +1298,17 @@ public class GroomServer implements Runnable, GroomProtocol, BSPPeerProtocol,
       if (LOG.isDebugEnabled())
         LOG.debug("BSPPeerChild starting");
 
-      final HamaConfiguration defaultConf = new HamaConfiguration();
       // report address
       String host = args[0];
       int port = Integer.parseInt(args[1]);
       InetSocketAddress address = new InetSocketAddress(host, port);
+
+      if (4 == args.length && JvmManager.JVM_ARG.equals(args[2])) {
+        runPooled(address, args[3]);
+        return;
+      }
+
+      final HamaConfiguration defaultConf = new HamaConfiguration();
       TaskAttemptID taskid = TaskAttemptID.forName(args[2]);
 
       // //////////////////
@@ -1213,20 +1316,98 @@ public class GroomServer implements Runnable, GroomProtocol, BSPPeerProtocol,
           BSPPeerProtocol.class, HamaRPCProtocolVersion.versionID, address,
           defaultConf);
 
+      if (null != args && 5 == args.length) {
+        defaultConf.setInt("bsp.checkpoint.port", Integer.parseInt(args[4]));
+      }
+
+      long superstep = Long.parseLong(args[4]);
+      TaskStatus.State state = TaskStatus.State.valueOf(args[5]);
+
+      try {
+        runTask(defaultConf, umbilical, taskid, args[3], superstep, state);
+      } finally {
+        RPC.stopProxy(umbilical);
+        // Shutting down log4j of the child-vm...
+        // This assumes that on return from Task.run()
+        // there is no more logging done.
+        LogManager.shutdown();
+      }
+    }
+
+    /**
+     * Asks the groom server for tasks until it tells this JVM to exit. The
+     * classes of the job are loaded through a class loader over the job
+     * classpath, which is set as the context class loader before the first
+     * configuration is created.
+     */
+    private static void runPooled(InetSocketAddress address, String jvmId)
+        throws Throwable {
+      HamaConfiguration defaultConf = new HamaConfiguration();
+      ChildJvmProtocol jvmUmbilical = (ChildJvmProtocol) RPC.getProxy(
+          ChildJvmProtocol.class, HamaRPCProtocolVersion.versionID, address,
+          defaultConf);
+      BSPPeerProtocol umbilical = (BSPPeerProtocol) RPC.getProxy(
+          BSPPeerProtocol.class, HamaRPCProtocolVersion.versionID, address,
+          defaultConf);
+
+      try {
+        ClassLoader jobLoader = null;
+        while (true) {
+          JvmTask jvmTask = jvmUmbilical.getJvmTask(jvmId);
+          if (jvmTask.shouldDie()) {
+            break;
+          }
+          if (jvmTask.getTaskId() == null) {
+            Thread.sleep(JvmManager.POLL_INTERVAL);
+            continue;
+          }
+
+          if (jobLoader == null) {
+            // a pooled JVM only ever runs tasks of a single job
+            String[] classPath = jvmTask.getClassPath();
+            URL[] urls = new URL[classPath.length];
+            for (int i = 0; i < classPath.length; i++) {
+              urls[i] = new File(classPath[i]).toURI().toURL();
+            }
+            jobLoader = new URLClassLoader(urls,
+                BSPPeerChild.class.getClassLoader());
+            Thread.currentThread().setContextClassLoader(jobLoader);
+          }
+
+          LOG.debug("Pooled child " + jvmId + " runs " + jvmTask.getTaskId());
+          if (!runTask(new HamaConfiguration(), umbilical,
+              jvmTask.getTaskId(), jvmTask.getGroomHost(),
+              jvmTask.getSuperstep(), jvmTask.getState())) {
+            // do not hand out a JVM a task has failed in
+            break;
+          }
+        }
+      } finally {
+        RPC.stopProxy(jvmUmbilical);
+        RPC.stopProxy(umbilical);
+        LogManager.shutdown();
+      }
+      // threads a task left behind must not keep the JVM alive
+      System.exit(0);
+    }
+
+    /**
+     * Runs a single task in this JVM.
+     * 
+     * @return true if the task has finished without an error.
+     */
+    private static boolean runTask(HamaConfiguration defaultConf,
+        BSPPeerProtocol umbilical, TaskAttemptID taskid, String groomHost,
+        long superstep, TaskStatus.State state) throws IOException {
       final BSPTask task = (BSPTask) umbilical.getTask(taskid);
       int peerPort = umbilical.getAssignedPortNum(taskid);
 
       defaultConf.addResource(new Path(task.getJobFile()));
       BSPJob job = new BSPJob(task.getJobID(), task.getJobFile());
 
-      defaultConf.set(Constants.PEER_HOST, args[3]);
-      if (null != args && 5 == args.length) {
-        defaultConf.setInt("bsp.checkpoint.port", Integer.parseInt(args[4]));
-      }
+      defaultConf.set(Constants.PEER_HOST, groomHost);
       defaultConf.setInt(Constants.PEER_PORT, peerPort);
 
-      long superstep = Long.parseLong(args[4]);
-      TaskStatus.State state = TaskStatus.State.valueOf(args[5]);
       LOG.debug("Starting peer for step " + superstep + " state = " + state);
 
       try {
@@ -1241,6 +1422,7 @@ public class GroomServer implements Runnable, GroomProtocol, BSPPeerProtocol,
             task.split, task.getCounters(), superstep, state);
 
         task.run(job, bspPeer, umbilical); // run the task
+        return true;
 
       } catch (FSError e) {
         LOG.fatal("FSError from child", e);
@@ -1260,13 +1442,8 @@ public class GroomServer implements Runnable, GroomProtocol, BSPPeerProtocol,
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         throwable.printStackTrace(new PrintStream(baos));
         throwable.printStackTrace();
-      } finally {
-        RPC.stopProxy(umbilical);
-        // Shutting down log4j of the child-vm...
-        // This assumes that on return from Task.run()
-        // there is no more logging done.
-        LogManager.shutdown();
       }
+      return false;
     }
   }
 
@@ -1338,6 +1515,19 @@ public class GroomServer implements Runnable, GroomProtocol, BSPPeerProtocol,
     }
   }
 
+  @Override
+  public boolean statusUpdateDelta(TaskAttemptID taskId, TaskStatus taskStatus)
+      throws IOException, InterruptedException {
+    TaskInProgress tip = tasks.get(taskId);
+    if (tip != null) {
+      tip.reportProgressDelta(taskStatus);
+      return true;
+    } else {
+      LOG.warn("Progress from unknown child task: " + taskId);
+      return false;
+    }
+  }
+
   @Override
   public void done(TaskAttemptID taskid) throws IOException {
     TaskInProgress tip = tasks.get(taskid);
@@ -1353,6 +1543,23 @@ public class GroomServer implements Runnable, GroomProtocol, BSPPeerProtocol,
     return assignedPeerNames.get(taskid);
   }
 
+  @Override
+  public JvmTask getJvmTask(String jvmId) throws IOException {
+    JvmManager manager = this.jvmManager;
+    if (manager == null) {
+      return JvmTask.die();
+    }
+    return manager.getJvmTask(jvmId);
+  }
+
+  JvmManager getJvmManager() {
+    return jvmManager;
+  }
+
+  JobJarCache getJarCache() {
+    return jarCache;
+  }
+
   @Override
   public void process(WatchedEvent event) {
     // do nothing
@@ -0,0 +1,325 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hama.Constants;
+
+/**
+ * <code>InputCache</code> keeps the records of a peer's split in their
+ * serialized form, so that {@link BSPPeer#reopenInput()} can replay them
+ * without asking the input format for a new record reader. Records are kept in
+ * memory up to a configured number of bytes, the rest is spilled to a file on
+ * the local disk.
+ * 
+ * The cache is filled by the reader returned from {@link #record}, and becomes
+ * usable once that reader was read to its end. Keys and values have to be
+ * {@link Writable}, otherwise the cache stays empty.
+ */
+public class InputCache<K, V> {
+
+  private static final Log LOG = LogFactory.getLog(InputCache.class);
+
+  private final Configuration conf;
+  private final FileSystem localFs;
+  private final Path spillFile;
+  private final long memoryLimit;
+
+  private final DataOutputBuffer memory = new DataOutputBuffer();
+  private FSDataOutputStream spillOut;
+  private long memoryRecords;
+  private long spillRecords;
+  private long spillBytes;
+
+  private Class<?> keyClass;
+  private Class<?> valueClass;
+  private boolean complete;
+  private boolean disabled;
+
+  public InputCache(Configuration conf, TaskAttemptID taskId)
+      throws IOException {
+    this.conf = conf;
+    this.localFs = FileSystem.getLocal(conf);
+    this.spillFile = new Path(new Path(new Path(new Path(conf.get(
+        "bsp.local.dir", "/tmp/hama"), "inputcache"), taskId.getJobID()
+        .toString()), taskId.toString()), "records");
+    this.memoryLimit = conf.getLong(Constants.INPUT_CACHE_MEMORY,
+        Constants.DEFAULT_INPUT_CACHE_MEMORY);
+  }
+
+  /**
+   * @return true if every record of the split was cached and can be replayed.
+   */
+  public synchronized boolean isComplete() {
+    return complete;
+  }
+
+  /**
+   * Wraps the given reader, every record read through it is added to the
+   * cache. Anything cached before is dropped.
+   */
+  public synchronized RecordReader<K, V> record(RecordReader<K, V> source)
+      throws IOException {
+    clear();
+    return new RecordingReader(source);
+  }
+
+  /**
+   * @return a reader over the cached records.
+   * @throws IllegalStateException if the cache isn't complete.
+   */
+  public synchronized RecordReader<K, V> replay(
+      Counters.Counter inputRecordCounter) throws IOException {
+    if (!complete) {
+      throw new IllegalStateException("Input cache is not complete.");
+    }
+    return new ReplayReader(inputRecordCounter);
+  }
+
+  /**
+   * @return the number of cached records.
+   */
+  public synchronized long getRecordCount() {
+    return memoryRecords + spillRecords;
+  }
+
+  /**
+   * @return the number of cached bytes that were spilled to the local disk.
+   */
+  public synchronized long getSpilledBytes() {
+    return spillBytes;
+  }
+
+  public synchronized void close() {
+    try {
+      clear();
+      localFs.delete(spillFile.getParent(), true);
+    } catch (IOException e) {
+      LOG.warn("Input cache " + spillFile + " couldn't be deleted", e);
+    }
+  }
+
+  private void clear() throws IOException {
+    if (spillOut != null) {
+      spillOut.close();
+      spillOut = null;
+    }
+    if (spillRecords > 0) {
+      localFs.delete(spillFile, false);
+    }
+    memory.reset();
+    memoryRecords = 0L;
+    spillRecords = 0L;
+    spillBytes = 0L;
+    complete = false;
+    disabled = false;
+  }
+
+  private synchronized void add(K key, V value) throws IOException {
+    if (disabled) {
+      return;
+    }
+    if (!(key instanceof Writable) || !(value instanceof Writable)) {
+      LOG.warn("Input records aren't Writable, input cache is disabled.");
+      clear();
+      disabled = true;
+      return;
+    }
+    if (keyClass == null) {
+      keyClass = key.getClass();
+      valueClass = value.getClass();
+    }
+
+    if (spillOut == null && memory.getLength() < memoryLimit) {
+      write(memory, key, value);
+      memoryRecords++;
+    } else {
+      if (spillOut == null) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Spilling input cache to " + spillFile);
+        }
+        spillOut = localFs.create(spillFile, true);
+      }
+      long before = spillOut.getPos();
+      write(spillOut, key, value);
+      spillBytes += spillOut.getPos() - before;
+      spillRecords++;
+    }
+  }
+
+  private synchronized void finish() throws IOException {
+    if (disabled) {
+      return;
+    }
+    if (spillOut != null) {
+      spillOut.close();
+      spillOut = null;
+    }
+    complete = true;
+    LOG.info("Cached " + getRecordCount() + " input records, "
+        + memory.getLength() + " bytes in memory and " + spillBytes
+        + " bytes on local disk.");
+  }
+
+  private static void write(DataOutput out, Object key, Object value)
+      throws IOException {
+    ((Writable) key).write(out);
+    ((Writable) value).write(out);
+  }
+
+  private static void read(DataInput in, Object key, Object value)
+      throws IOException {
+    ((Writable) key).readFields(in);
+    ((Writable) value).readFields(in);
+  }
+
+  /**
+   * Reads from the source reader and adds every record to the cache.
+   */
+  private class RecordingReader implements RecordReader<K, V> {
+    private final RecordReader<K, V> source;
+    private boolean done;
+
+    RecordingReader(RecordReader<K, V> source) {
+      this.source = source;
+    }
+
+    @Override
+    public boolean next(K key, V value) throws IOException {
+      if (source.next(key, value)) {
+        add(key, value);
+        return true;
+      }
+      if (!done) {
+        done = true;
+        finish();
+      }
+      return false;
+    }
+
+    @Override
+    public K createKey() {
+      return source.createKey();
+    }
+
+    @Override
+    public V createValue() {
+      return source.createValue();
+    }
+
+    @Override
+    public long getPos() throws IOException {
+      return source.getPos();
+    }
+
+    @Override
+    public void close() throws IOException {
+      source.close();
+    }
+
+    @Override
+    public float getProgress() throws IOException {
+      return source.getProgress();
+    }
+  }
+
+  /**
+   * Replays the cached records, first the ones kept in memory, then the
+   * spilled ones.
+   */
+  private class ReplayReader implements RecordReader<K, V> {
+    private final Counters.Counter inputRecordCounter;
+    private final DataInputBuffer memoryIn = new DataInputBuffer();
+    private final long total;
+    private FSDataInputStream spillIn;
+    private long read;
+
+    ReplayReader(Counters.Counter inputRecordCounter) {
+      this.inputRecordCounter = inputRecordCounter;
+      this.total = getRecordCount();
+      memoryIn.reset(memory.getData(), 0, memory.getLength());
+    }
+
+    @Override
+    public boolean next(K key, V value) throws IOException {
+      if (read >= total) {
+        return false;
+      }
+      if (read < memoryRecords) {
+        read(memoryIn, key, value);
+      } else {
+        if (spillIn == null) {
+          spillIn = localFs.open(spillFile);
+        }
+        read(spillIn, key, value);
+      }
+      read++;
+      if (inputRecordCounter != null) {
+        inputRecordCounter.increment(1);
+      }
+      return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public K createKey() {
+      return keyClass == null ? null : (K) ReflectionUtils.newInstance(keyClass,
+          conf);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V createValue() {
+      return valueClass == null ? null : (V) ReflectionUtils.newInstance(valueClass,
+          conf);
+    }
+
+    @Override
+    public long getPos() throws IOException {
+      return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (spillIn != null) {
+        spillIn.close();
+        spillIn = null;
+      }
+    }
+
+    @Override
+    public float getProgress() throws IOException {
+      return total == 0 ? 1.0f : (float) read / total;
+    }
+  }
+
+}
@@ -0,0 +1,369 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hama.Constants;
+import org.apache.hama.bsp.PartitioningRunner.DefaultRecordConverter;
+import org.apache.hama.bsp.PartitioningRunner.RecordConverter;
+import org.apache.hama.bsp.message.MessageManager;
+import org.apache.hama.commons.util.KeyValuePair;
+import org.apache.hama.util.BSPNetUtils;
+
+/**
+ * <code>InputShuffle</code> partitions the input of a job at runtime without
+ * the {@link PartitioningRunner}. Every peer sends the records of its own split
+ * to the peers owning their partitions over the message transport. A peer
+ * writes the records it receives to a file on its local disk, sorts them if
+ * {@link Constants#PARTITION_SORT_BY_KEY} is set, and reads its input from
+ * that file.
+ * 
+ * The records are sent in {@link Batch}es, the message manager hands them to
+ * {@link #receive(Batch)} instead of queueing them as messages.
+ */
+public class InputShuffle {
+
+  private static final Log LOG = LogFactory.getLog(InputShuffle.class);
+
+  // bytes of outgoing records buffered for all peers together
+  private static final int SEND_BUFFER_SIZE = 64 * 1024 * 1024;
+  private static final int MIN_BATCH_SIZE = 64 * 1024;
+
+  private final Configuration conf;
+  private final FileSystem localFs;
+  private final Path dir;
+
+  private SequenceFile.Writer writer;
+  private String keyClass;
+  private String rawKeyClass;
+  private String rawValueClass;
+  private long records;
+  private Path input;
+
+  public InputShuffle(Configuration conf, TaskAttemptID taskId)
+      throws IOException {
+    this.conf = conf;
+    this.localFs = FileSystem.getLocal(conf);
+    this.dir = new Path(new Path(new Path(conf.get("bsp.local.dir",
+        "/tmp/hama"), "shuffle"), taskId.getJobID().toString()),
+        taskId.toString());
+  }
+
+  /**
+   * Sends the records of the given reader to the peers owning their
+   * partitions.
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public void send(RecordReader in, BSPPeer peer, MessageManager messenger)
+      throws IOException {
+    RecordConverter converter = ReflectionUtils.newInstance(conf.getClass(
+        Constants.RUNTIME_PARTITION_RECORDCONVERTER,
+        DefaultRecordConverter.class, RecordConverter.class), conf);
+    converter.setup(conf);
+    Partitioner partitioner = ReflectionUtils.newInstance(conf.getClass(
+        Constants.RUNTIME_PARTITIONING_CLASS, HashPartitioner.class,
+        Partitioner.class), conf);
+
+    int numPeers = peer.getNumPeers();
+    int batchSize = Math.max(MIN_BATCH_SIZE, SEND_BUFFER_SIZE / numPeers);
+    Batch[] batches = new Batch[numPeers];
+    PartitionRecord raw = new PartitionRecord();
+    PartitionRecord record = new PartitionRecord();
+    long sent = 0L;
+
+    Object key = in.createKey();
+    Object value = in.createValue();
+    while (in.next(key, value)) {
+      KeyValuePair<Writable, Writable> converted = converter.convertRecord(
+          new KeyValuePair<Writable, Writable>((Writable) key,
+              (Writable) value), conf);
+      if (converted == null) {
+        throw new IOException("The converted record can't be null.");
+      }
+      int index = converter.getPartitionId(converted, partitioner, conf,
+          peer, numPeers);
+
+      Batch batch = batches[index];
+      if (batch == null) {
+        batch = new Batch(converted.getKey().getClass(), key.getClass(),
+            value.getClass());
+        batches[index] = batch;
+      }
+      raw.set((Writable) key, (Writable) value);
+      record.set(converted.getKey(), raw);
+      batch.add(record);
+      sent++;
+
+      if (batch.records.getLength() >= batchSize) {
+        send(index, batch, peer, messenger);
+        batch.clear();
+      }
+    }
+
+    for (int i = 0; i < numPeers; i++) {
+      if (batches[i] != null && batches[i].count > 0) {
+        send(i, batches[i], peer, messenger);
+      }
+    }
+    LOG.info("Sent " + sent + " input records to their partitions.");
+  }
+
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private void send(int index, Batch batch, BSPPeer peer,
+      MessageManager messenger) throws IOException {
+    if (index == peer.getPeerIndex()) {
+      receive(batch);
+      return;
+    }
+    InetSocketAddress addr = BSPNetUtils.getAddress(peer.getPeerName(index));
+    BSPMessageBundle bundle = new BSPMessageBundle();
+    bundle.addMessage(batch);
+    messenger.transfer(addr, bundle);
+  }
+
+  /**
+   * Writes the records of a batch to the local input file.
+   */
+  public synchronized void receive(Batch batch) throws IOException {
+    if (input != null) {
+      throw new IOException("Input records received after the shuffle.");
+    }
+    if (writer == null) {
+      keyClass = batch.keyClass;
+      rawKeyClass = batch.rawKeyClass;
+      rawValueClass = batch.rawValueClass;
+      writer = SequenceFile.createWriter(localFs, conf, new Path(dir,
+          "received"), classForName(keyClass), PartitionRecord.class,
+          CompressionType.NONE);
+    }
+
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(batch.records.getData(), batch.records.getLength());
+    PartitionRecord record = new PartitionRecord();
+    for (int i = 0; i < batch.count; i++) {
+      record.readFields(in);
+      record.appendTo(writer);
+    }
+    records += batch.count;
+  }
+
+  /**
+   * Closes the local input file after all peers sent their records, and sorts
+   * it if needed.
+   */
+  public synchronized void finish() throws IOException {
+    if (writer == null) {
+      LOG.info("Received no input records.");
+      return;
+    }
+    writer.close();
+    writer = null;
+
+    input = new Path(dir, "received");
+    Class<?> key = classForName(keyClass);
+    if (WritableComparable.class.isAssignableFrom(key)
+        && conf.getBoolean(Constants.PARTITION_SORT_BY_KEY, false)) {
+      SequenceFile.Sorter sorter = new SequenceFile.Sorter(localFs,
+          key.asSubclass(WritableComparable.class), PartitionRecord.class,
+          conf);
+      sorter.setMemory(conf.getInt("bsp.input.runtime.partitioning.sort.mb",
+          50) * 1024 * 1024);
+      sorter.setFactor(conf.getInt(
+          "bsp.input.runtime.partitioning.sort.factor", 10));
+      Path sorted = new Path(dir, "sorted");
+      sorter.sort(input, sorted);
+      localFs.delete(input, false);
+      input = sorted;
+    }
+    LOG.info("Received " + records + " input records.");
+  }
+
+  /**
+   * @return a reader over the records this peer received.
+   */
+  public synchronized <K, V> RecordReader<K, V> open() throws IOException {
+    return new Reader<K, V>();
+  }
+
+  public synchronized void close() {
+    try {
+      if (writer != null) {
+        writer.close();
+        writer = null;
+      }
+      localFs.delete(dir, true);
+    } catch (IOException e) {
+      LOG.warn("Shuffle dir " + dir + " couldn't be deleted", e);
+    }
+  }
+
+  private Class<?> classForName(String name) throws IOException {
+    try {
+      return conf.getClassByName(name);
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Class " + name + " not found", e);
+    }
+  }
+
+  /**
+   * Reads the received records, the raw key and value of each record are
+   * deserialized into the given instances.
+   */
+  private class Reader<K, V> implements RecordReader<K, V> {
+    private final SequenceFile.Reader reader;
+    private final DataOutputBuffer key = new DataOutputBuffer();
+    private final SequenceFile.ValueBytes value;
+    private final PartitionRecord record = new PartitionRecord();
+    private long read;
+
+    Reader() throws IOException {
+      if (input == null) {
+        reader = null;
+        value = null;
+      } else {
+        reader = new SequenceFile.Reader(localFs, input, conf);
+        value = reader.createValueBytes();
+      }
+    }
+
+    @Override
+    public boolean next(K k, V v) throws IOException {
+      if (reader == null) {
+        return false;
+      }
+      key.reset();
+      if (reader.nextRaw(key, value) < 0) {
+        return false;
+      }
+      record.readFields(value);
+      record.getKey((Writable) k);
+      record.getValue((Writable) v);
+      read++;
+      return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public K createKey() {
+      return rawKeyClass == null ? null : (K) newInstance(rawKeyClass);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V createValue() {
+      return rawValueClass == null ? null : (V) newInstance(rawValueClass);
+    }
+
+    private Object newInstance(String name) {
+      try {
+        return ReflectionUtils.newInstance(classForName(name), conf);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    @Override
+    public long getPos() throws IOException {
+      return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (reader != null) {
+        reader.close();
+      }
+    }
+
+    @Override
+    public float getProgress() throws IOException {
+      return records == 0 ? 1.0f : (float) read / records;
+    }
+  }
+
+  /**
+   * A batch of records sent to one peer. Each record is the
+   * {@link PartitionRecord} of the converted key and the
+   * {@link PartitionRecord} of the raw key and value.
+   */
+  public static final class Batch implements Writable {
+    private String keyClass;
+    private String rawKeyClass;
+    private String rawValueClass;
+    private int count;
+    private final DataOutputBuffer records = new DataOutputBuffer();
+
+    public Batch() {
+    }
+
+    Batch(Class<?> keyClass, Class<?> rawKeyClass, Class<?> rawValueClass) {
+      this.keyClass = keyClass.getName();
+      this.rawKeyClass = rawKeyClass.getName();
+      this.rawValueClass = rawValueClass.getName();
+    }
+
+    void add(PartitionRecord record) throws IOException {
+      record.write(records);
+      count++;
+    }
+
+    void clear() {
+      records.reset();
+      count = 0;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      Text.writeString(out, keyClass);
+      Text.writeString(out, rawKeyClass);
+      Text.writeString(out, rawValueClass);
+      WritableUtils.writeVInt(out, count);
+      WritableUtils.writeVInt(out, records.getLength());
+      out.write(records.getData(), 0, records.getLength());
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      keyClass = Text.readString(in);
+      rawKeyClass = Text.readString(in);
+      rawValueClass = Text.readString(in);
+      count = WritableUtils.readVInt(in);
+      int length = WritableUtils.readVInt(in);
+      records.reset();
+      records.write(in, length);
+    }
+  }
+
+}
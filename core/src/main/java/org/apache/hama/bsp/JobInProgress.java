@@ -62,13 +62,15 @@ public class JobInProgress {
   }
 
   public static enum JobCounter {
-    LAUNCHED_TASKS, SUPERSTEPS
+    LAUNCHED_TASKS, SUPERSTEPS, STARTUP_LATENCY_MS
   }
 
   static final Log LOG = LogFactory.getLog(JobInProgress.class);
   boolean tasksInited = false;
 
   Configuration conf;
+  // configuration of the submitted job, null in unit tests
+  private Configuration jobConf;
   JobProfile profile;
   JobStatus status;
   Path jobFile = null;
@@ -92,6 +94,8 @@ public class JobInProgress {
   final BSPMaster master;
   TaskInProgress tasks[] = new TaskInProgress[0];
   private long superstepCounter;
+  // latest time a task of this job started its first superstep
+  private long lastTaskStartTime = 0L;
 
   private final Counters counters = new Counters();
 
@@ -156,6 +160,7 @@ public class JobInProgress {
     FileSystem fs = jobDir.getFileSystem(conf);
     fs.copyToLocalFile(jobFile, localJobFile);
     BSPJob job = new BSPJob(jobId, localJobFile.toString());
+    this.jobConf = job.getConfiguration();
     this.jobSplit = job.getConfiguration().get("bsp.job.split.file");
 
     this.numBSPTasks = job.getNumBspTask();
@@ -220,6 +225,14 @@ public class JobInProgress {
     return jobId;
   }
 
+  /**
+   * @return the configuration of the submitted job, or the master's if the job
+   *         has none.
+   */
+  Configuration getJobConfiguration() {
+    return jobConf != null ? jobConf : conf;
+  }
+
   public synchronized TaskInProgress findTaskInProgress(TaskID id) {
     if (areTasksInited()) {
       for (TaskInProgress tip : tasks) {
@@ -294,10 +307,16 @@ public class JobInProgress {
 
     tasksInited = true;
 
-    Class<?> taskAllocatorClass = conf.getClass(Constants.TASK_ALLOCATOR_CLASS,
-        BestEffortDataLocalTaskAllocator.class, TaskAllocationStrategy.class);
+    // a job can choose its own task allocator, otherwise the cluster's is used
+    Configuration allocatorConf = jobConf != null ? jobConf : conf;
+    Class<?> taskAllocatorClass = allocatorConf.getClass(
+        Constants.TASK_ALLOCATOR_CLASS, conf.getClass(
+            Constants.TASK_ALLOCATOR_CLASS,
+            BestEffortDataLocalTaskAllocator.class,
+            TaskAllocationStrategy.class), TaskAllocationStrategy.class);
     this.taskAllocationStrategy = (TaskAllocationStrategy) ReflectionUtils
         .newInstance(taskAllocatorClass, new Object[0]);
+    this.taskAllocationStrategy.initialize(allocatorConf);
 
     if (conf.getBoolean(Constants.FAULT_TOLERANCE_FLAG, false)) {
 
@@ -429,6 +448,13 @@ public class JobInProgress {
     }
 
     if (allDone) {
+      // all part files are written, mark the output as partitioned
+      try {
+        PartitionManifest.writePartitioning(getJobConfiguration(), numBSPTasks);
+      } catch (IOException e) {
+        LOG.error("The partitioning of the output couldn't be written.", e);
+      }
+
       this.status = new JobStatus(this.status.getJobID(),
           this.profile.getUser(), superstepCounter, superstepCounter,
           superstepCounter, JobStatus.SUCCEEDED, superstepCounter, counters);
@@ -530,6 +556,20 @@ public class JobInProgress {
     }
   }
 
+  /**
+   * Records the time a task started its first superstep. The startup latency
+   * of the job is the time from its submission until its last task started.
+   * 
+   * @param taskStatus the reported status of the task.
+   */
+  public synchronized void taskStarted(TaskStatus taskStatus) {
+    if (taskStatus.getFirstBarrierTime() > lastTaskStartTime) {
+      lastTaskStartTime = taskStatus.getFirstBarrierTime();
+      counters.findCounter(JobCounter.STARTUP_LATENCY_MS).setValue(
+          Math.max(0L, lastTaskStartTime - startTime));
+    }
+  }
+
   /**
    * Kill the job.
    */
@@ -0,0 +1,234 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.util.RunJar;
+import org.apache.hama.Constants;
+
+/**
+ * Groom-local cache of unpacked job jars, keyed by the MD5 of the content of
+ * the jar. Tasks of every job that ships the same jar share one download and
+ * one unpacked copy. The MD5 a job claims is verified against every jar path
+ * before its tasks get the cached classes, so a job can neither put its
+ * classes under the key of another jar nor use classes it did not ship. Entries nobody uses are evicted least recently used first
+ * once the cache grows beyond {@link Constants#GROOM_JAR_CACHE_SIZE} bytes.
+ */
+class JobJarCache {
+
+  public static final Log LOG = LogFactory.getLog(JobJarCache.class);
+
+  /** Set on the localized job conf of a task whose jar comes from the cache. */
+  static final String CACHE_KEY = "bsp.groom.jar.cache.key";
+
+  private static final class CachedJar {
+    private final File dir;
+    // the jar files whose content was verified to match the key
+    private final Set<Path> verified = new HashSet<Path>();
+    private long size;
+    private int refs;
+    private boolean ready;
+
+    CachedJar(File dir) {
+      this.dir = dir;
+    }
+  }
+
+  private final File root;
+  private final long capacity;
+  // access ordered, so iteration starts at the least recently used entry
+  private final LinkedHashMap<String, CachedJar> entries = new LinkedHashMap<String, CachedJar>(
+      16, 0.75f, true);
+  private long size = 0L;
+
+  JobJarCache(File root, long capacity) throws IOException {
+    this.root = root;
+    this.capacity = capacity;
+    FileUtil.fullyDelete(root);
+    if (!root.mkdirs()) {
+      throw new IOException("Mkdirs failed to create " + root);
+    }
+  }
+
+  /**
+   * Returns the cache key of the job jar, the MD5 the job client stored in the
+   * job configuration. It is only a claim, {@link #acquire} verifies it.
+   * 
+   * @return the key, or null if the jar can not be cached.
+   */
+  static String getKey(Configuration jobConf) {
+    String key = jobConf.get(Constants.JOB_JAR_CHECKSUM);
+    if (key != null && key.matches("[0-9a-fA-F]{32}")) {
+      return key.toLowerCase();
+    }
+    return null;
+  }
+
+  /**
+   * @return the MD5 of the content of the given file.
+   */
+  static String digest(FileSystem fs, Path file) throws IOException {
+    InputStream in = fs.open(file);
+    try {
+      return MD5Hash.digest(in).toString();
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Returns the directory the jar is unpacked in, downloading and unpacking
+   * it if it is not cached yet. Every call must be paired with a call to
+   * {@link #release(String)} once the classes are not needed anymore.
+   * 
+   * @throws IOException if the content of the jar doesn't match the key.
+   */
+  File acquire(String key, FileSystem fs, Path jar) throws IOException {
+    CachedJar entry;
+    synchronized (this) {
+      entry = entries.get(key);
+      if (entry == null) {
+        entry = new CachedJar(new File(root, key));
+        entries.put(key, entry);
+      }
+      entry.refs++;
+    }
+
+    boolean acquired = false;
+    try {
+      synchronized (entry) {
+        if (!entry.ready) {
+          long start = System.currentTimeMillis();
+          localize(key, entry, fs, jar);
+          LOG.info("Cached job jar " + jar + " as " + key + " ("
+              + entry.size + " bytes) in "
+              + (System.currentTimeMillis() - start) + " ms.");
+          synchronized (this) {
+            entry.ready = true;
+            size += entry.size;
+          }
+        } else if (!entry.verified.contains(jar)) {
+          // another path claims the cached content
+          verify(key, fs, jar);
+        }
+        entry.verified.add(jar);
+      }
+      acquired = true;
+    } finally {
+      if (!acquired) {
+        release(key);
+      }
+    }
+    evict();
+    return new File(entry.dir, "work");
+  }
+
+  private void localize(String key, CachedJar entry, FileSystem fs, Path jar)
+      throws IOException {
+    File tmp = new File(root, key + ".tmp");
+    FileUtil.fullyDelete(tmp);
+    File work = new File(tmp, "work");
+    if (!work.mkdirs()) {
+      throw new IOException("Mkdirs failed to create " + work);
+    }
+    File localJar = new File(tmp, "job.jar");
+    Path localPath = new Path(localJar.getAbsolutePath());
+    fs.copyToLocalFile(jar, localPath);
+    verify(key, FileSystem.getLocal(fs.getConf()), localPath);
+    RunJar.unJar(localJar, work);
+
+    FileUtil.fullyDelete(entry.dir);
+    if (!tmp.renameTo(entry.dir)) {
+      throw new IOException("Could not move " + tmp + " to " + entry.dir);
+    }
+    entry.size = FileUtil.getDU(entry.dir);
+  }
+
+  private static void verify(String key, FileSystem fs, Path jar)
+      throws IOException {
+    String actual = digest(fs, jar);
+    if (!key.equals(actual)) {
+      throw new IOException("The job jar " + jar + " has the MD5 " + actual
+          + ", not the claimed " + key + ".");
+    }
+  }
+
+  synchronized void release(String key) {
+    CachedJar entry = entries.get(key);
+    if (entry == null) {
+      return;
+    }
+    entry.refs--;
+    if (entry.refs <= 0 && !entry.ready) {
+      // the download failed, nobody waits for it anymore
+      entries.remove(key);
+    }
+    evict();
+  }
+
+  private synchronized void evict() {
+    Iterator<Map.Entry<String, CachedJar>> it = entries.entrySet()
+        .iterator();
+    while (size > capacity && it.hasNext()) {
+      Map.Entry<String, CachedJar> next = it.next();
+      CachedJar entry = next.getValue();
+      if (entry.refs > 0 || !entry.ready) {
+        continue;
+      }
+      it.remove();
+      size -= entry.size;
+      try {
+        FileUtil.fullyDelete(entry.dir);
+      } catch (IOException e) {
+        LOG.warn("Could not delete cached job jar " + entry.dir, e);
+      }
+      LOG.debug("Evicted cached job jar " + next.getKey());
+    }
+  }
+
+  /**
+   * @return the bytes of the cached jars.
+   */
+  synchronized long size() {
+    return size;
+  }
+
+  /**
+   * @return true if the jar with the given key is cached.
+   */
+  synchronized boolean contains(String key) {
+    CachedJar entry = entries.get(key);
+    return entry != null && entry.ready;
+  }
+
+}
@@ -0,0 +1,397 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hama.Constants;
+
+/**
+ * Keeps a pool of started child JVMs on a groom server, so that a task launch
+ * does not pay for the JVM startup and the loading of the framework classes.
+ * A pooled JVM is bound to the job of the first task it runs and then only
+ * runs further tasks of that job, up to {@link Constants#CHILD_JVM_REUSE_TASKS}
+ * tasks. Bound JVMs exit once they are used up or have been idle for
+ * {@link Constants#CHILD_JVM_IDLE_TIMEOUT} milliseconds, and the pool is
+ * refilled with unbound JVMs in the background.
+ */
+class JvmManager implements Runnable {
+
+  public static final Log LOG = LogFactory.getLog(JvmManager.class);
+
+  /** Child argument that switches {@link GroomServer.BSPPeerChild} to pool mode. */
+  static final String JVM_ARG = "-jvm";
+  /** Milliseconds an idle pooled child waits between two asks for work. */
+  static final long POLL_INTERVAL = 50L;
+
+  private static final String DEFAULT_JAVA_OPTS = "-Xmx200m";
+
+  static final class ChildJvm {
+    private final String id;
+    private Process process;
+    private BSPJobID job;
+    private int tasks;
+    private TaskRunner runner;
+    private JvmTask pending;
+    private long idleSince;
+    private boolean dead;
+
+    ChildJvm(String id) {
+      this.id = id;
+      this.idleSince = System.currentTimeMillis();
+    }
+
+    String getId() {
+      return id;
+    }
+  }
+
+  private final Configuration conf;
+  private final InetSocketAddress reportAddress;
+  private final String javaOpts;
+  private final int poolSize;
+  private final int maxTasksPerJvm;
+  private final long idleTimeout;
+  private final Map<String, ChildJvm> jvms = new LinkedHashMap<String, ChildJvm>();
+  private int nextJvmId = 0;
+  private volatile boolean running = false;
+  private Thread poolThread;
+
+  JvmManager(Configuration conf, InetSocketAddress reportAddress) {
+    this.conf = conf;
+    this.reportAddress = reportAddress;
+    this.javaOpts = conf.get("bsp.child.java.opts", DEFAULT_JAVA_OPTS);
+    this.poolSize = conf.getInt(Constants.CHILD_JVM_POOL_SIZE,
+        Constants.DEFAULT_CHILD_JVM_POOL_SIZE);
+    this.maxTasksPerJvm = Math.max(1, conf.getInt(
+        Constants.CHILD_JVM_REUSE_TASKS,
+        Constants.DEFAULT_CHILD_JVM_REUSE_TASKS));
+    this.idleTimeout = conf.getLong(Constants.CHILD_JVM_IDLE_TIMEOUT,
+        Constants.DEFAULT_CHILD_JVM_IDLE_TIMEOUT);
+  }
+
+  void start() {
+    running = true;
+    poolThread = new Thread(this, "JvmManager");
+    poolThread.setDaemon(true);
+    poolThread.start();
+  }
+
+  void shutdown() {
+    running = false;
+    if (poolThread != null) {
+      poolThread.interrupt();
+      poolThread = null;
+    }
+    List<Process> processes = new ArrayList<Process>();
+    synchronized (this) {
+      for (ChildJvm jvm : jvms.values()) {
+        jvm.dead = true;
+        if (jvm.process != null) {
+          processes.add(jvm.process);
+        }
+      }
+      jvms.clear();
+      notifyAll();
+    }
+    for (Process process : processes) {
+      process.destroy();
+    }
+  }
+
+  /**
+   * Keeps the number of unbound JVMs at the configured pool size.
+   */
+  @Override
+  public void run() {
+    while (running) {
+      int missing;
+      synchronized (this) {
+        missing = poolSize - countUnbound();
+      }
+      for (int i = 0; i < missing && running; i++) {
+        ChildJvm jvm;
+        synchronized (this) {
+          jvm = new ChildJvm("jvm_" + (nextJvmId++));
+          jvms.put(jvm.id, jvm);
+        }
+        try {
+          Process process = launch(jvm.id);
+          synchronized (this) {
+            jvm.process = process;
+            if (jvm.dead && process != null) {
+              // shut down or killed while we were launching
+              process.destroy();
+            }
+          }
+        } catch (IOException e) {
+          LOG.error("Could not start pooled child JVM " + jvm.id, e);
+          jvmExited(jvm);
+        }
+      }
+      synchronized (this) {
+        try {
+          if (running) {
+            wait(1000L);
+          }
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    }
+  }
+
+  private int countUnbound() {
+    int unbound = 0;
+    for (ChildJvm jvm : jvms.values()) {
+      if (!jvm.dead && jvm.job == null) {
+        unbound++;
+      }
+    }
+    return unbound;
+  }
+
+  /**
+   * Starts a child JVM in pool mode and a thread that copies its output to the
+   * log directory and unregisters the JVM when it exits.
+   */
+  Process launch(final String jvmId) throws IOException {
+    List<String> vargs = new ArrayList<String>();
+    vargs.add(new File(new File(System.getProperty("java.home"), "bin"),
+        "java").toString());
+    Collections.addAll(vargs, javaOpts.replace("@taskid@", jvmId).split(" "));
+    vargs.add("-classpath");
+    vargs.add(System.getProperty("java.class.path"));
+    vargs.add(GroomServer.BSPPeerChild.class.getName());
+    vargs.add(reportAddress.getHostName());
+    vargs.add(Integer.toString(reportAddress.getPort()));
+    vargs.add(JVM_ARG);
+    vargs.add(jvmId);
+
+    ProcessBuilder builder = new ProcessBuilder(vargs);
+    builder.redirectErrorStream(true);
+    final Process process = builder.start();
+    LOG.debug("Started pooled child JVM " + jvmId);
+
+    Thread waiter = new Thread("JvmManager " + jvmId) {
+      @Override
+      public void run() {
+        logOutput(jvmId, process);
+        try {
+          process.waitFor();
+        } catch (InterruptedException e) {
+          process.destroy();
+        }
+        ChildJvm jvm;
+        synchronized (JvmManager.this) {
+          jvm = jvms.get(jvmId);
+        }
+        if (jvm != null) {
+          jvmExited(jvm);
+        }
+      }
+    };
+    waiter.setDaemon(true);
+    waiter.start();
+    return process;
+  }
+
+  private void logOutput(String jvmId, Process process) {
+    File logDir = new File(System.getProperty("hama.log.dir") + File.separator
+        + "tasklogs" + File.separator + "jvm");
+    if (!logDir.exists()) {
+      logDir.mkdirs();
+    }
+    BufferedReader in = new BufferedReader(new InputStreamReader(
+        process.getInputStream()));
+    BufferedWriter writer = null;
+    try {
+      writer = new BufferedWriter(new FileWriter(new File(logDir, jvmId
+          + ".log")));
+      String line;
+      while ((line = in.readLine()) != null) {
+        writer.write(line);
+        writer.newLine();
+        writer.flush();
+      }
+    } catch (IOException e) {
+      LOG.debug("Stopped reading the output of " + jvmId, e);
+    } finally {
+      try {
+        in.close();
+      } catch (IOException e) {
+        LOG.warn("Error closing the output of " + jvmId, e);
+      }
+      if (writer != null) {
+        try {
+          writer.close();
+        } catch (IOException e) {
+          LOG.warn("Error closing the log file of " + jvmId, e);
+        }
+      }
+    }
+  }
+
+  synchronized void jvmExited(ChildJvm jvm) {
+    jvm.dead = true;
+    jvms.remove(jvm.id);
+    notifyAll();
+  }
+
+  /**
+   * Hands a task to an idle pooled JVM. A JVM already bound to the job is
+   * preferred over an unbound one.
+   * 
+   * @return the JVM that will run the task, or null if the task needs a JVM of
+   *         its own because its child opts differ from the pool's or no
+   *         pooled JVM is idle.
+   */
+  synchronized ChildJvm assign(TaskRunner runner, BSPJobID job,
+      String jobJavaOpts, JvmTask task) {
+    if (!running || !javaOpts.equals(jobJavaOpts)) {
+      return null;
+    }
+    ChildJvm candidate = null;
+    for (ChildJvm jvm : jvms.values()) {
+      if (jvm.dead || jvm.runner != null) {
+        continue;
+      }
+      if (job.equals(jvm.job)) {
+        candidate = jvm;
+        break;
+      }
+      if (jvm.job == null && candidate == null) {
+        candidate = jvm;
+      }
+    }
+    if (candidate == null) {
+      return null;
+    }
+    candidate.job = job;
+    candidate.tasks++;
+    candidate.runner = runner;
+    candidate.pending = task;
+    // wake up the pool thread to replace the JVM we just bound
+    notifyAll();
+    return candidate;
+  }
+
+  /**
+   * Blocks until the task the runner handed to the JVM has finished or the JVM
+   * has exited.
+   */
+  synchronized void awaitTask(ChildJvm jvm, TaskRunner runner)
+      throws InterruptedException {
+    while (!jvm.dead && jvm.runner == runner) {
+      wait();
+    }
+  }
+
+  /**
+   * Called when the task of the runner is done. The JVM becomes idle and waits
+   * for the next task of its job, or exits if it has run its last task.
+   */
+  synchronized void release(ChildJvm jvm, TaskRunner runner) {
+    if (jvm.runner != runner) {
+      return;
+    }
+    jvm.runner = null;
+    jvm.pending = null;
+    jvm.idleSince = System.currentTimeMillis();
+    if (jvm.tasks >= maxTasksPerJvm) {
+      // the child picks up the exit on its next poll
+      jvm.dead = true;
+    }
+    notifyAll();
+  }
+
+  /**
+   * Kills the JVM because the task of the runner has to be killed. Does nothing
+   * if the JVM has already moved on to another task. A JVM that is still being
+   * launched is marked dead and destroyed by the pool thread once its process
+   * has started.
+   */
+  void kill(ChildJvm jvm, TaskRunner runner) {
+    Process process;
+    synchronized (this) {
+      if (jvm.runner != runner) {
+        return;
+      }
+      jvm.dead = true;
+      jvms.remove(jvm.id);
+      process = jvm.process;
+      notifyAll();
+    }
+    if (process != null) {
+      process.destroy();
+    }
+  }
+
+  /**
+   * @see org.apache.hama.ipc.ChildJvmProtocol#getJvmTask(String)
+   */
+  synchronized JvmTask getJvmTask(String jvmId) {
+    ChildJvm jvm = jvms.get(jvmId);
+    if (jvm == null || jvm.dead) {
+      if (jvm != null) {
+        jvms.remove(jvmId);
+      }
+      return JvmTask.die();
+    }
+    if (jvm.pending != null) {
+      JvmTask task = jvm.pending;
+      jvm.pending = null;
+      return task;
+    }
+    if (jvm.runner == null && jvm.job != null
+        && System.currentTimeMillis() - jvm.idleSince > idleTimeout) {
+      jvms.remove(jvmId);
+      jvm.dead = true;
+      return JvmTask.die();
+    }
+    return new JvmTask();
+  }
+
+  /**
+   * @return the number of live JVMs, bound or not.
+   */
+  synchronized int size() {
+    int size = 0;
+    for (ChildJvm jvm : jvms.values()) {
+      if (!jvm.dead) {
+        size++;
+      }
+    }
+    return size;
+  }
+
+}
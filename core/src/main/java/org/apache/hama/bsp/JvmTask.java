@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * The answer of a groom server to a pooled child JVM asking for work. Carries
+ * the same arguments a forked child gets on its command line, plus the
+ * job-specific classpath the child has to load the task classes from.
+ */
+public class JvmTask implements Writable {
+
+  private TaskAttemptID taskId;
+  private boolean shouldDie;
+  private String groomHost;
+  private long superstep;
+  private TaskStatus.State state;
+  private String[] classPath;
+
+  public JvmTask() {
+  }
+
+  public JvmTask(TaskAttemptID taskId, String groomHost, long superstep,
+      TaskStatus.State state, String[] classPath) {
+    this.taskId = taskId;
+    this.groomHost = groomHost;
+    this.superstep = superstep;
+    this.state = state;
+    this.classPath = classPath;
+  }
+
+  /**
+   * @return a task telling the child JVM to exit.
+   */
+  public static JvmTask die() {
+    JvmTask task = new JvmTask();
+    task.shouldDie = true;
+    return task;
+  }
+
+  /**
+   * @return the task to run, or null if there is no work yet.
+   */
+  public TaskAttemptID getTaskId() {
+    return taskId;
+  }
+
+  public boolean shouldDie() {
+    return shouldDie;
+  }
+
+  public String getGroomHost() {
+    return groomHost;
+  }
+
+  public long getSuperstep() {
+    return superstep;
+  }
+
+  public TaskStatus.State getState() {
+    return state;
+  }
+
+  public String[] getClassPath() {
+    return classPath;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeBoolean(shouldDie);
+    out.writeBoolean(taskId != null);
+    if (taskId != null) {
+      taskId.write(out);
+      Text.writeString(out, groomHost);
+      WritableUtils.writeVLong(out, superstep);
+      WritableUtils.writeEnum(out, state);
+      WritableUtils.writeVInt(out, classPath.length);
+      for (String entry : classPath) {
+        Text.writeString(out, entry);
+      }
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    shouldDie = in.readBoolean();
+    if (in.readBoolean()) {
+      taskId = new TaskAttemptID();
+      taskId.readFields(in);
+      groomHost = Text.readString(in);
+      superstep = WritableUtils.readVLong(in);
+      state = WritableUtils.readEnum(in, TaskStatus.State.class);
+      classPath = new String[WritableUtils.readVInt(in)];
+      for (int i = 0; i < classPath.length; i++) {
+        classPath[i] = Text.readString(in);
+      }
+    } else {
+      taskId = null;
+    }
+  }
+
+}
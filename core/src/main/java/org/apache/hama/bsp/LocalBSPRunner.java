@@ -322,6 +322,12 @@ public class LocalBSPRunner implements JobSubmissionProtocol {
         }
       }
       if (success) {
+        // all part files are written, mark the output as partitioned
+        try {
+          PartitionManifest.writePartitioning(conf, numTasks);
+        } catch (IOException e) {
+          LOG.error("The partitioning of the output couldn't be written.", e);
+        }
         currentJobStatus.setState(JobStatus.State.SUCCEEDED);
         currentJobStatus.setRunState(JobStatus.SUCCEEDED);
       } else {
@@ -356,12 +362,17 @@ public class LocalBSPRunner implements JobSubmissionProtocol {
       bundle.setCompressor(compressor,
           conf.getLong("hama.messenger.compression.threshold", 512));
 
+      LocalMessageManager<M> target = MANAGER_MAP.get(addr);
+      if (target.shuffleInput(bundle)) {
+        return;
+      }
       Iterator<M> it = bundle.iterator();
+      long received = 0L;
       while (it.hasNext()) {
-        MANAGER_MAP.get(addr).localQueueForNextIteration.add(it.next());
-        peer.incrementCounter(BSPPeerImpl.PeerCounter.TOTAL_MESSAGES_RECEIVED,
-            1L);
+        target.localQueueForNextIteration.add(it.next());
+        received++;
       }
+      countReceivedMessages(received);
     }
 
     @Override
@@ -416,6 +427,12 @@ public class LocalBSPRunner implements JobSubmissionProtocol {
       return true;
     }
 
+    @Override
+    public boolean statusUpdateDelta(TaskAttemptID taskId,
+        TaskStatus taskStatus) throws IOException, InterruptedException {
+      return true;
+    }
+
     @Override
     public int getAssignedPortNum(TaskAttemptID taskid) {
       // TODO Auto-generated method stub
@@ -0,0 +1,301 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hama.Constants;
+import org.apache.hama.bsp.PartitioningRunner.DefaultRecordConverter;
+
+/**
+ * Describes the partitions the runtime partitioning wrote to
+ * {@link Constants#RUNTIME_PARTITIONING_DIR}: a fingerprint of the input
+ * files, the partitioner, record converter and input format, the number of
+ * partitions and whether they are sorted. A later job with an equal manifest
+ * reads the partitions instead of partitioning its input again.
+ * 
+ * Jobs that write their output partitioned, see
+ * {@link Constants#OUTPUT_PARTITIONED}, leave a manifest without the input in
+ * their output dir, so a job reading that output with the same partitioner
+ * and number of tasks doesn't partition it again.
+ */
+public final class PartitionManifest implements Writable {
+
+  public static final Log LOG = LogFactory.getLog(PartitionManifest.class);
+
+  /** Name of the manifest in the partition dir, hidden from input formats. */
+  public static final String MANIFEST_FILE = "_manifest";
+
+  /** Name of the manifest in the output dir of a partitioned output. */
+  public static final String PARTITIONING_FILE = "_partitioning";
+
+  private String input;
+  private String partitioner;
+  private String converter;
+  private String inputFormat;
+  private int numPartitions;
+  private boolean sorted;
+  private long createTime;
+
+  public PartitionManifest() {
+  }
+
+  /**
+   * @return the manifest of the partitions the given job's input is
+   *         partitioned into.
+   */
+  public static PartitionManifest create(BSPJob job, int numPartitions)
+      throws IOException {
+    Configuration conf = job.getConfiguration();
+    PartitionManifest manifest = create(conf, numPartitions);
+    manifest.input = fingerprint(conf, FileInputFormat.getInputPaths(job));
+    manifest.converter = conf.get(Constants.RUNTIME_PARTITION_RECORDCONVERTER,
+        DefaultRecordConverter.class.getName());
+    manifest.inputFormat = conf.get(Constants.INPUT_FORMAT_CLASS,
+        TextInputFormat.class.getName());
+    return manifest;
+  }
+
+  /**
+   * @return the manifest of records partitioned by the partitioner of the
+   *         given configuration, without an input.
+   */
+  public static PartitionManifest create(Configuration conf,
+      int numPartitions) {
+    PartitionManifest manifest = new PartitionManifest();
+    manifest.input = "";
+    manifest.converter = "";
+    manifest.inputFormat = "";
+    manifest.partitioner = conf.get(Constants.RUNTIME_PARTITIONING_CLASS,
+        HashPartitioner.class.getName());
+    if (conf.get(Constants.RUNTIME_PARTITIONING_RANGE_BOUNDARIES) != null) {
+      manifest.partitioner += " "
+          + conf.get(Constants.RUNTIME_PARTITIONING_RANGE_BOUNDARIES);
+    }
+    manifest.numPartitions = numPartitions;
+    manifest.sorted = conf.getBoolean(Constants.PARTITION_SORT_BY_KEY, false);
+    manifest.createTime = System.currentTimeMillis();
+    return manifest;
+  }
+
+  /**
+   * @return the hash of the paths, lengths and modification times of all
+   *         files under the given input paths.
+   */
+  static String fingerprint(Configuration conf, Path[] paths)
+      throws IOException {
+    List<String> files = new ArrayList<String>();
+    for (Path path : paths) {
+      FileSystem fs = path.getFileSystem(conf);
+      FileStatus[] matches = fs.globStatus(path);
+      if (matches == null) {
+        throw new IOException("Input path does not exist: " + path);
+      }
+      for (FileStatus match : matches) {
+        addFiles(fs, match, files);
+      }
+    }
+    Collections.sort(files);
+
+    StringBuilder sb = new StringBuilder();
+    for (String file : files) {
+      sb.append(file).append('\n');
+    }
+    return MD5Hash.digest(sb.toString().getBytes("UTF-8")).toString();
+  }
+
+  private static void addFiles(FileSystem fs, FileStatus stat,
+      List<String> files) throws IOException {
+    String name = stat.getPath().getName();
+    if (name.startsWith("_") || name.startsWith(".")) {
+      return;
+    }
+    if (stat.isDir()) {
+      for (FileStatus child : fs.listStatus(stat.getPath())) {
+        addFiles(fs, child, files);
+      }
+    } else {
+      files.add(stat.getPath().toUri().getPath() + " " + stat.getLen() + " "
+          + stat.getModificationTime());
+    }
+  }
+
+  /**
+   * @return true if the partitions of both manifests were made from the same
+   *         input the same way.
+   */
+  public boolean matches(PartitionManifest other) {
+    return other != null && input.equals(other.input)
+        && partitioner.equals(other.partitioner)
+        && converter.equals(other.converter)
+        && inputFormat.equals(other.inputFormat)
+        && numPartitions == other.numPartitions && sorted == other.sorted;
+  }
+
+  /**
+   * @return true if records partitioned as described by this manifest are
+   *         partitioned the way the given job manifest needs them.
+   */
+  public boolean isPartitionedLike(PartitionManifest job) {
+    return partitioner.equals(job.partitioner)
+        && numPartitions == job.numPartitions && (sorted || !job.sorted);
+  }
+
+  /**
+   * @return true if the manifest is older than the given time to live, a time
+   *         to live of zero or less never expires.
+   */
+  public boolean isExpired(long ttl, long now) {
+    return ttl > 0 && now - createTime > ttl;
+  }
+
+  public int getNumPartitions() {
+    return numPartitions;
+  }
+
+  public long getCreateTime() {
+    return createTime;
+  }
+
+  /**
+   * @return the manifest of the given partition dir, or null if it has no
+   *         readable manifest.
+   */
+  public static PartitionManifest read(FileSystem fs, Path dir) {
+    return readFile(fs, new Path(dir, MANIFEST_FILE));
+  }
+
+  /**
+   * @return the manifest of the given partitioned output dir, or null if it
+   *         has no readable manifest.
+   */
+  public static PartitionManifest readPartitioning(FileSystem fs, Path dir) {
+    return readFile(fs, new Path(dir, PARTITIONING_FILE));
+  }
+
+  private static PartitionManifest readFile(FileSystem fs, Path file) {
+    try {
+      if (!fs.exists(file)) {
+        return null;
+      }
+      FSDataInputStream in = fs.open(file);
+      try {
+        PartitionManifest manifest = new PartitionManifest();
+        manifest.readFields(in);
+        return manifest;
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      LOG.warn("Partition manifest " + file + " couldn't be read", e);
+      return null;
+    }
+  }
+
+  /**
+   * Writes the manifest to the given partition dir, once all partitions are
+   * complete.
+   */
+  public void write(FileSystem fs, Path dir) throws IOException {
+    writeFile(fs, new Path(dir, MANIFEST_FILE));
+  }
+
+  private void writeFile(FileSystem fs, Path file) throws IOException {
+    FSDataOutputStream out = fs.create(file, true);
+    try {
+      write(out);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Writes the manifest of the output of a job to its output dir, if the job
+   * writes its output partitioned. Called when all tasks of the job succeeded,
+   * so the manifest never marks an incomplete output. Partitioners that assign
+   * keys by the input of the job, like the {@link BalancedPartitioner}, can't
+   * partition other jobs the same way. The output is marked sorted only if the
+   * job sets {@link Constants#OUTPUT_SORTED}, tasks don't have to write their
+   * output in order.
+   */
+  public static void writePartitioning(Configuration conf, int numPartitions)
+      throws IOException {
+    if (!conf.getBoolean(Constants.OUTPUT_PARTITIONED, false)
+        || conf.get("bsp.output.dir") == null
+        || conf.get(Constants.RUNTIME_PARTITIONING_BALANCED_ASSIGNMENT) != null
+        || conf
+            .get(Constants.RUNTIME_PARTITIONING_STREAMING_ASSIGNMENT) != null) {
+      return;
+    }
+    Path dir = new Path(conf.get("bsp.output.dir"));
+    PartitionManifest manifest = create(conf, numPartitions);
+    manifest.sorted = conf.getBoolean(Constants.OUTPUT_SORTED, false);
+    manifest.writeFile(dir.getFileSystem(conf), new Path(dir,
+        PARTITIONING_FILE));
+  }
+
+  /**
+   * Deletes the given partition dir, so the next job partitions its input
+   * again.
+   */
+  public static void invalidate(FileSystem fs, Path dir) throws IOException {
+    if (fs.exists(dir) && !fs.delete(dir, true)) {
+      throw new IOException("Partition dir " + dir + " couldn't be deleted.");
+    }
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    Text.writeString(out, input);
+    Text.writeString(out, partitioner);
+    Text.writeString(out, converter);
+    Text.writeString(out, inputFormat);
+    WritableUtils.writeVInt(out, numPartitions);
+    out.writeBoolean(sorted);
+    out.writeLong(createTime);
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    input = Text.readString(in);
+    partitioner = Text.readString(in);
+    converter = Text.readString(in);
+    inputFormat = Text.readString(in);
+    numPartitions = WritableUtils.readVInt(in);
+    sorted = in.readBoolean();
+    createTime = in.readLong();
+  }
+
+}
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * The value of the intermediate files written by the
+ * {@link PartitioningRunner}. It holds the serialized key and value of an
+ * input record. The classes of the key and value aren't written, they are the
+ * same for all records of a job, and the record is only deserialized on
+ * demand.
+ */
+public final class PartitionRecord implements Writable {
+
+  private final DataOutputBuffer buffer = new DataOutputBuffer();
+  private final DataInputBuffer in = new DataInputBuffer();
+  private DataOutputBuffer scratch;
+  private int keyLength;
+
+  /**
+   * Serializes the given key and value into this record.
+   */
+  public void set(Writable key, Writable value) throws IOException {
+    buffer.reset();
+    key.write(buffer);
+    keyLength = buffer.getLength();
+    value.write(buffer);
+  }
+
+  /**
+   * Deserializes the key of the record into the given instance.
+   */
+  public void getKey(Writable key) throws IOException {
+    in.reset(buffer.getData(), 0, keyLength);
+    key.readFields(in);
+  }
+
+  /**
+   * Deserializes the value of the record into the given instance.
+   */
+  public void getValue(Writable value) throws IOException {
+    in.reset(buffer.getData(), keyLength, buffer.getLength() - keyLength);
+    value.readFields(in);
+  }
+
+  /**
+   * Appends the record to a writer of the record's key and value classes,
+   * without deserializing it.
+   */
+  public void appendTo(SequenceFile.Writer writer) throws IOException {
+    SequenceFile.ValueBytes value = new SequenceFile.ValueBytes() {
+      @Override
+      public void writeUncompressedBytes(DataOutputStream out)
+          throws IOException {
+        out.write(buffer.getData(), keyLength, getSize());
+      }
+
+      @Override
+      public void writeCompressedBytes(DataOutputStream out) {
+        throw new IllegalArgumentException("Record values aren't compressed.");
+      }
+
+      @Override
+      public int getSize() {
+        return buffer.getLength() - keyLength;
+      }
+    };
+    writer.appendRaw(buffer.getData(), 0, keyLength, value);
+  }
+
+  /**
+   * Reads the record from the serialized value of a raw
+   * {@link SequenceFile.Reader#nextRaw} call.
+   */
+  public void readFields(SequenceFile.ValueBytes value) throws IOException {
+    if (scratch == null) {
+      scratch = new DataOutputBuffer();
+    }
+    scratch.reset();
+    value.writeUncompressedBytes(scratch);
+    in.reset(scratch.getData(), scratch.getLength());
+    readFields(in);
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    WritableUtils.writeVInt(out, keyLength);
+    WritableUtils.writeVInt(out, buffer.getLength() - keyLength);
+    out.write(buffer.getData(), 0, buffer.getLength());
+  }
+
+  @Override
+  public void readFields(DataInput input) throws IOException {
+    keyLength = WritableUtils.readVInt(input);
+    int length = keyLength + WritableUtils.readVInt(input);
+    buffer.reset();
+    buffer.write(input, length);
+  }
+
+}
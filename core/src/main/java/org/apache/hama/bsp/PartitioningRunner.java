@@ -19,8 +19,16 @@ package org.apache.hama.bsp;
 
 import java.io.IOException;
 import java.lang.reflect.Constructor;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -28,12 +36,17 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.RawComparator;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.SequenceFile.CompressionType;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
 import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hama.Constants;
 import org.apache.hama.bsp.sync.SyncException;
@@ -103,6 +116,32 @@ public class PartitioningRunner extends
         BSPPeer peer, int numTasks);
   }
 
+  /**
+   * A record converter that weighs the converted records for the
+   * {@link BalancedPartitioner}, e.g. a vertex by the number of its edges.
+   */
+  public static interface WeightedRecordConverter extends RecordConverter {
+
+    /**
+     * @return the weight of the given converted record, at least zero.
+     */
+    public long getWeight(KeyValuePair<Writable, Writable> convertedRecord);
+  }
+
+  /**
+   * A record converter that knows the keys of the neighbors of the converted
+   * records for the {@link StreamingPartitioner}, e.g. the targets of the
+   * edges of a vertex.
+   */
+  public static interface NeighborRecordConverter extends RecordConverter {
+
+    /**
+     * @return the keys of the records the given converted record links to.
+     */
+    public Iterable<? extends Writable> getNeighbors(
+        KeyValuePair<Writable, Writable> convertedRecord);
+  }
+
   /**
    * The default converter does no conversion.
    */
@@ -131,6 +170,14 @@ public class PartitioningRunner extends
 
   }
 
+  // skips the files next to the partitions, like the balanced assignment
+  private static final PathFilter PARTITION_FILTER = new PathFilter() {
+    @Override
+    public boolean accept(Path path) {
+      return path.getName().startsWith("part-");
+    }
+  };
+
   public Map<Integer, SequenceFile.Writer> writerCache = new HashMap<Integer, SequenceFile.Writer>();
 
   @Override
@@ -141,13 +188,24 @@ public class PartitioningRunner extends
 
     int peerNum = peer.getNumPeers();
     Partitioner partitioner = getPartitioner();
+    if (partitioner instanceof BalancedPartitioner) {
+      BalancedPartitioner.balance(peer, converter, desiredNum);
+      peer.reopenInput();
+      // reads the assignment of the heavy keys
+      partitioner = getPartitioner();
+    } else if (partitioner instanceof StreamingPartitioner) {
+      StreamingPartitioner.stream(peer, converter, desiredNum);
+      peer.reopenInput();
+      // reads the placement of all records
+      partitioner = getPartitioner();
+    }
     KeyValuePair<Writable, Writable> rawRecord = null;
     KeyValuePair<Writable, Writable> convertedRecord = null;
 
     Class convertedKeyClass = null;
     Class rawKeyClass = null;
     Class rawValueClass = null;
-    MapWritable raw = null;
+    PartitionRecord raw = new PartitionRecord();
 
     while ((rawRecord = peer.readNext()) != null) {
       if (rawKeyClass == null && rawValueClass == null) {
@@ -169,15 +227,11 @@ public class PartitioningRunner extends
       if (!writerCache.containsKey(index)) {
         Path destFile = new Path(partitionDir + "/part-" + index + "/file-"
             + peer.getPeerIndex());
-        SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf,
-            destFile, convertedKeyClass, MapWritable.class,
-            CompressionType.NONE);
-        writerCache.put(index, writer);
+        writerCache.put(index, createPartitionWriter(destFile,
+            convertedKeyClass));
       }
 
-      raw = new MapWritable();
-      raw.put(rawRecord.getKey(), rawRecord.getValue());
-
+      raw.set(rawRecord.getKey(), rawRecord.getValue());
       writerCache.get(index).append(convertedKey, raw);
     }
 
@@ -186,131 +240,243 @@ public class PartitioningRunner extends
     }
 
     peer.sync();
-    FileStatus[] status = fs.listStatus(partitionDir);
+    FileStatus[] status = fs.listStatus(partitionDir, PARTITION_FILTER);
     // Call sync() one more time to avoid concurrent access
     peer.sync();
 
+    List<FileStatus> owned = new ArrayList<FileStatus>();
     for (FileStatus stat : status) {
       int partitionID = Integer
           .parseInt(stat.getPath().getName().split("[-]")[1]);
-
       if (getMergeProcessorID(partitionID, peerNum) == peer.getPeerIndex()) {
-        Path destinationFilePath = new Path(partitionDir + "/"
-            + getPartitionName(partitionID));
-
-        FileStatus[] files = fs.listStatus(stat.getPath());
-        if (convertedRecord.getKey() instanceof WritableComparable
-            && conf.getBoolean(Constants.PARTITION_SORT_BY_KEY, false)) {
-          mergeSortedFiles(files, destinationFilePath, convertedKeyClass,
-              rawKeyClass, rawValueClass);
-        } else {
-          mergeFiles(files, destinationFilePath, convertedKeyClass,
-              rawKeyClass, rawValueClass);
-        }
-        fs.delete(stat.getPath(), true);
+        owned.add(stat);
       }
     }
+
+    boolean sorted = convertedRecord != null
+        && convertedRecord.getKey() instanceof WritableComparable
+        && conf.getBoolean(Constants.PARTITION_SORT_BY_KEY, false);
+    mergePartitions(owned, sorted, convertedKeyClass, rawKeyClass,
+        rawValueClass);
   }
 
+  /**
+   * Merges the files of the given partition directories into one file per
+   * partition. Sorting the files and merging the partitions run on a pool of
+   * {@link Constants#RUNTIME_PARTITIONING_MERGE_THREADS} threads, a partition
+   * is merged as soon as its own files are sorted.
+   */
   @SuppressWarnings("rawtypes")
-  public Map<Integer, KeyValuePair<WritableComparable, MapWritable>> candidates = new HashMap<Integer, KeyValuePair<WritableComparable, MapWritable>>();
-
-  @SuppressWarnings({ "rawtypes", "unchecked" })
-  private void mergeSortedFiles(FileStatus[] status, Path destinationFilePath,
-      Class convertedKeyClass, Class rawKeyClass, Class rawValueClass)
-      throws IOException {
-    SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf,
-        destinationFilePath, rawKeyClass, rawValueClass, CompressionType.NONE);
-    WritableComparable convertedKey;
-    MapWritable value;
-
-    Map<Integer, SequenceFile.Reader> readers = new HashMap<Integer, SequenceFile.Reader>();
-    for (int i = 0; i < status.length; i++) {
-      SequenceFile.Sorter sorter = new SequenceFile.Sorter(fs,
-          convertedKeyClass, MapWritable.class, conf);
-      sorter.setMemory(conf
-          .getInt("bsp.input.runtime.partitioning.sort.mb", 50) * 1024 * 1024);
-      sorter.setFactor(conf.getInt(
-          "bsp.input.runtime.partitioning.sort.factor", 10));
-      sorter.sort(status[i].getPath(), status[i].getPath().suffix(".sorted"));
-
-      readers.put(i,
-          new SequenceFile.Reader(fs, status[i].getPath().suffix(".sorted"),
-              conf));
-    }
-
-    for (int i = 0; i < readers.size(); i++) {
-      convertedKey = (WritableComparable) ReflectionUtils.newInstance(
-          convertedKeyClass, conf);
-      value = new MapWritable();
-
-      readers.get(i).next(convertedKey, value);
-      candidates.put(i, new KeyValuePair(convertedKey, value));
+  private void mergePartitions(List<FileStatus> partitions,
+      final boolean sorted, final Class convertedKeyClass,
+      final Class rawKeyClass, final Class rawValueClass) throws IOException,
+      InterruptedException {
+    if (partitions.isEmpty()) {
+      return;
     }
+    ExecutorService pool = Executors.newFixedThreadPool(conf.getInt(
+        Constants.RUNTIME_PARTITIONING_MERGE_THREADS,
+        Constants.DEFAULT_RUNTIME_PARTITIONING_MERGE_THREADS));
+    try {
+      List<FileStatus[]> files = new ArrayList<FileStatus[]>();
+      List<List<Future<Path>>> sorts = new ArrayList<List<Future<Path>>>();
+      for (FileStatus stat : partitions) {
+        FileStatus[] partitionFiles = fs.listStatus(stat.getPath());
+        files.add(partitionFiles);
+        List<Future<Path>> partitionSorts = new ArrayList<Future<Path>>();
+        if (sorted) {
+          for (final FileStatus file : partitionFiles) {
+            partitionSorts.add(pool.submit(new Callable<Path>() {
+              @Override
+              public Path call() throws IOException {
+                return sortFile(file.getPath(), convertedKeyClass);
+              }
+            }));
+          }
+        }
+        sorts.add(partitionSorts);
+      }
 
-    while (readers.size() > 0) {
-      convertedKey = (WritableComparable) ReflectionUtils.newInstance(
-          convertedKeyClass, conf);
-      value = new MapWritable();
-
-      int readerIndex = 0;
-      WritableComparable firstKey = null;
-      MapWritable rawRecord = null;
-
-      for (Map.Entry<Integer, KeyValuePair<WritableComparable, MapWritable>> keys : candidates
-          .entrySet()) {
-        if (firstKey == null) {
-          readerIndex = keys.getKey();
-          firstKey = keys.getValue().getKey();
-          rawRecord = (MapWritable) keys.getValue().getValue();
+      List<Future<Void>> merges = new ArrayList<Future<Void>>();
+      for (int i = 0; i < partitions.size(); i++) {
+        final Path partitionPath = partitions.get(i).getPath();
+        final Path destinationFilePath = new Path(partitionDir + "/"
+            + getPartitionName(Integer.parseInt(partitionPath.getName().split(
+                "[-]")[1])));
+        final List<Path> inputs = new ArrayList<Path>();
+        if (sorted) {
+          for (Future<Path> sort : sorts.get(i)) {
+            inputs.add(get(sort));
+          }
         } else {
-          WritableComparable currentKey = keys.getValue().getKey();
-          if (firstKey.compareTo(currentKey) > 0) {
-            readerIndex = keys.getKey();
-            firstKey = currentKey;
-            rawRecord = (MapWritable) keys.getValue().getValue();
+          for (FileStatus file : files.get(i)) {
+            inputs.add(file.getPath());
           }
         }
+
+        merges.add(pool.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            if (sorted) {
+              mergeSortedFiles(inputs, destinationFilePath, convertedKeyClass,
+                  rawKeyClass, rawValueClass);
+            } else {
+              mergeFiles(inputs, destinationFilePath, rawKeyClass,
+                  rawValueClass);
+            }
+            fs.delete(partitionPath, true);
+            return null;
+          }
+        }));
       }
+      for (Future<Void> merge : merges) {
+        get(merge);
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
 
-      for (Map.Entry<Writable, Writable> e : rawRecord.entrySet()) {
-        writer.append(e.getKey(), e.getValue());
+  private static <T> T get(Future<T> future) throws IOException,
+      InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
       }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Creates a writer for the records of a partition, block compressed if
+   * {@link Constants#RUNTIME_PARTITIONING_COMPRESS} is set.
+   */
+  @SuppressWarnings("rawtypes")
+  private SequenceFile.Writer createPartitionWriter(Path file,
+      Class convertedKeyClass) throws IOException {
+    if (!conf.getBoolean(Constants.RUNTIME_PARTITIONING_COMPRESS, false)) {
+      return SequenceFile.createWriter(fs, conf, file, convertedKeyClass,
+          PartitionRecord.class, CompressionType.NONE);
+    }
+    CompressionCodec codec = ReflectionUtils.newInstance(conf.getClass(
+        Constants.RUNTIME_PARTITIONING_COMPRESS_CODEC, DefaultCodec.class,
+        CompressionCodec.class), conf);
+    return SequenceFile.createWriter(fs, conf, file, convertedKeyClass,
+        PartitionRecord.class, CompressionType.BLOCK, codec);
+  }
 
-      candidates.remove(readerIndex);
+  @SuppressWarnings("rawtypes")
+  private Path sortFile(Path file, Class convertedKeyClass) throws IOException {
+    SequenceFile.Sorter sorter = new SequenceFile.Sorter(fs, convertedKeyClass,
+        PartitionRecord.class, conf);
+    sorter.setMemory(conf.getInt("bsp.input.runtime.partitioning.sort.mb", 50)
+        * 1024 * 1024);
+    sorter.setFactor(conf.getInt("bsp.input.runtime.partitioning.sort.factor",
+        10));
+    Path sortedFile = file.suffix(".sorted");
+    sorter.sort(file, sortedFile);
+    return sortedFile;
+  }
 
-      if (readers.get(readerIndex).next(convertedKey, value)) {
-        candidates.put(readerIndex, new KeyValuePair(convertedKey, value));
-      } else {
-        readers.get(readerIndex).close();
-        readers.remove(readerIndex);
-      }
+  /**
+   * A sorted file of a partition and its current record, ordered by the raw
+   * bytes of the converted keys.
+   */
+  private static final class MergeSource implements Comparable<MergeSource> {
+    private final int index;
+    private final SequenceFile.Reader reader;
+    @SuppressWarnings("rawtypes")
+    private final RawComparator comparator;
+    private final DataOutputBuffer key = new DataOutputBuffer();
+    private final SequenceFile.ValueBytes value;
+
+    @SuppressWarnings("rawtypes")
+    MergeSource(int index, SequenceFile.Reader reader,
+        RawComparator comparator) {
+      this.index = index;
+      this.reader = reader;
+      this.comparator = comparator;
+      this.value = reader.createValueBytes();
     }
 
-    candidates.clear();
-    writer.close();
+    /**
+     * Reads the next record, its value stays serialized.
+     * 
+     * @return false if the file is exhausted.
+     */
+    boolean next() throws IOException {
+      key.reset();
+      return reader.nextRaw(key, value) >= 0;
+    }
+
+    @Override
+    public int compareTo(MergeSource other) {
+      int result = comparator.compare(key.getData(), 0, key.getLength(),
+          other.key.getData(), 0, other.key.getLength());
+      // keeps the order of equal keys stable
+      return result != 0 ? result : index - other.index;
+    }
   }
 
-  @SuppressWarnings({ "rawtypes", "unchecked" })
-  private void mergeFiles(FileStatus[] status, Path destinationFilePath,
+  @SuppressWarnings("rawtypes")
+  private void mergeSortedFiles(List<Path> files, Path destinationFilePath,
       Class convertedKeyClass, Class rawKeyClass, Class rawValueClass)
       throws IOException {
     SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf,
         destinationFilePath, rawKeyClass, rawValueClass, CompressionType.NONE);
-    Writable key;
-    MapWritable rawRecord;
-
-    for (int i = 0; i < status.length; i++) {
-      SequenceFile.Reader reader = new SequenceFile.Reader(fs,
-          status[i].getPath(), conf);
-      key = (Writable) ReflectionUtils.newInstance(convertedKeyClass, conf);
-      rawRecord = new MapWritable();
-
-      while (reader.next(key, rawRecord)) {
-        for (Map.Entry<Writable, Writable> e : rawRecord.entrySet()) {
-          writer.append(e.getKey(), e.getValue());
+    RawComparator comparator = WritableComparator.get(convertedKeyClass);
+    PriorityQueue<MergeSource> queue = new PriorityQueue<MergeSource>(Math.max(
+        1, files.size()));
+    try {
+      for (int i = 0; i < files.size(); i++) {
+        MergeSource source = new MergeSource(i, new SequenceFile.Reader(fs,
+            files.get(i), conf), comparator);
+        if (source.next()) {
+          queue.add(source);
+        } else {
+          source.reader.close();
         }
       }
+
+      PartitionRecord record = new PartitionRecord();
+      while (!queue.isEmpty()) {
+        MergeSource source = queue.poll();
+        record.readFields(source.value);
+        record.appendTo(writer);
+
+        if (source.next()) {
+          queue.add(source);
+        } else {
+          source.reader.close();
+        }
+      }
+    } finally {
+      for (MergeSource source : queue) {
+        source.reader.close();
+      }
+      writer.close();
+    }
+  }
+
+  @SuppressWarnings("rawtypes")
+  private void mergeFiles(List<Path> files, Path destinationFilePath,
+      Class rawKeyClass, Class rawValueClass) throws IOException {
+    SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf,
+        destinationFilePath, rawKeyClass, rawValueClass, CompressionType.NONE);
+    DataOutputBuffer key = new DataOutputBuffer();
+    PartitionRecord record = new PartitionRecord();
+
+    for (Path file : files) {
+      SequenceFile.Reader reader = new SequenceFile.Reader(fs, file, conf);
+      SequenceFile.ValueBytes value = reader.createValueBytes();
+      key.reset();
+      while (reader.nextRaw(key, value) >= 0) {
+        record.readFields(value);
+        record.appendTo(writer);
+        key.reset();
+      }
       reader.close();
     }
     writer.close();
@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.net.NetworkTopology;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hama.Constants;
+
+/**
+ * Reads the output of a job that wrote its output partitioned, see
+ * {@link Constants#OUTPUT_PARTITIONED}. Every file part-i is read whole by
+ * task i, on the hosts holding most of it, so the job doesn't run the runtime
+ * partitioning. The records are read with the input format in
+ * {@link Constants#PREPARTITIONED_INPUT_FORMAT}.
+ */
+public class PrepartitionedInputFormat<K, V> extends FileInputFormat<K, V> {
+
+  private static final PathFilter PARTITION_FILTER = new PathFilter() {
+    @Override
+    public boolean accept(Path path) {
+      return path.getName().startsWith("part-");
+    }
+  };
+
+  @Override
+  public InputSplit[] getSplits(BSPJob job, int numSplits) throws IOException {
+    Path[] dirs = getInputPaths(job);
+    if (dirs.length != 1) {
+      throw new IOException("Pre-partitioned input must be a single dir.");
+    }
+    FileSystem fs = dirs[0].getFileSystem(job.getConfiguration());
+    FileStatus[] files = listPartitions(fs, dirs[0]);
+    if (files == null) {
+      throw new IOException("No partitions found in " + dirs[0]);
+    }
+
+    NetworkTopology clusterMap = new NetworkTopology();
+    InputSplit[] splits = new InputSplit[files.length];
+    for (int i = 0; i < files.length; i++) {
+      Path path = files[i].getPath();
+      long length = files[i].getLen();
+      if (length != 0) {
+        BlockLocation[] blkLocations = fs.getFileBlockLocations(files[i], 0,
+            length);
+        splits[i] = new FileSplit(path, 0, length, getSplitHosts(blkLocations,
+            0, length, clusterMap));
+      } else {
+        splits[i] = new FileSplit(path, 0, length, new String[0]);
+      }
+    }
+    job.getConfiguration().setLong("bsp.input.files", files.length);
+    return splits;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public RecordReader<K, V> getRecordReader(InputSplit split, BSPJob job)
+      throws IOException {
+    InputFormat<K, V> format = ReflectionUtils.newInstance(job
+        .getConfiguration().getClass(Constants.PREPARTITIONED_INPUT_FORMAT,
+            TextInputFormat.class, InputFormat.class), job.getConfiguration());
+    return format.getRecordReader(split, job);
+  }
+
+  /**
+   * @return the partition files of the given dir ordered by their partition,
+   *         or null if they aren't numbered 0 to n-1.
+   */
+  public static FileStatus[] listPartitions(FileSystem fs, Path dir)
+      throws IOException {
+    FileStatus[] files = fs.listStatus(dir, PARTITION_FILTER);
+    if (files == null || files.length == 0) {
+      return null;
+    }
+    final int[] ids = new int[files.length];
+    Integer[] order = new Integer[files.length];
+    for (int i = 0; i < files.length; i++) {
+      String[] name = files[i].getPath().getName().split("[-]");
+      try {
+        ids[i] = Integer.parseInt(name[1]);
+      } catch (NumberFormatException e) {
+        return null;
+      }
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return ids[a] < ids[b] ? -1 : (ids[a] == ids[b] ? 0 : 1);
+      }
+    });
+
+    FileStatus[] partitions = new FileStatus[files.length];
+    for (int i = 0; i < files.length; i++) {
+      if (ids[order[i]] != i) {
+        return null;
+      }
+      partitions[i] = files[order[i]];
+    }
+    return partitions;
+  }
+}
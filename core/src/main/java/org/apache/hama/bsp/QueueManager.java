@@ -22,6 +22,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hama.Constants;
 
 /**
  * A BSPJob Queue Manager.
@@ -29,8 +30,57 @@ import org.apache.hadoop.conf.Configuration;
 public class QueueManager {
 
   private ConcurrentMap<String, Queue<JobInProgress>> queues = new ConcurrentHashMap<String, Queue<JobInProgress>>();
+  private final Configuration conf;
 
   public QueueManager(Configuration conf) {
+    this.conf = conf;
+  }
+
+  /**
+   * @return the names of the queues configured for sharing the cluster, the
+   *         first one being the default queue.
+   */
+  public String[] getQueueNames() {
+    String[] names = null;
+    if (conf != null) {
+      names = conf.getStrings(Constants.SCHEDULER_QUEUES);
+    }
+    if (names == null || names.length == 0) {
+      return new String[] { Constants.DEFAULT_SCHEDULER_QUEUE };
+    }
+    for (int i = 0; i < names.length; i++) {
+      names[i] = names[i].trim();
+    }
+    return names;
+  }
+
+  /**
+   * @return the share of the cluster of the named queue relative to the other
+   *         queues, set by bsp.scheduler.queue.&lt;name&gt;.weight.
+   */
+  public float getQueueWeight(String name) {
+    float weight = 1.0f;
+    if (conf != null) {
+      weight = conf.getFloat("bsp.scheduler.queue." + name + ".weight", 1.0f);
+    }
+    return weight > 0.0f ? weight : 1.0f;
+  }
+
+  /**
+   * @return the configured queue the job was submitted to, or the default
+   *         queue.
+   */
+  public String getQueueName(JobInProgress job) {
+    String[] names = getQueueNames();
+    String name = job.getJobConfiguration().get(Constants.JOB_QUEUE_NAME);
+    if (name != null) {
+      for (String queue : names) {
+        if (queue.equals(name)) {
+          return queue;
+        }
+      }
+    }
+    return names[0];
   }
 
   /**
@@ -0,0 +1,248 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.hama.Constants;
+import org.apache.hama.bsp.PartitioningRunner.DefaultRecordConverter;
+import org.apache.hama.bsp.PartitioningRunner.RecordConverter;
+import org.apache.hama.commons.util.KeyValuePair;
+
+/**
+ * Partitions keys into sorted ranges, so keys next to each other end up in the
+ * same partition. The range boundaries are sampled from the input splits by
+ * the job client before the input is partitioned, and stored in the job
+ * configuration under {@link Constants#RUNTIME_PARTITIONING_RANGE_BOUNDARIES}.
+ * The partition of a key is looked up with a binary search over them.
+ */
+@SuppressWarnings("rawtypes")
+public class RangePartitioner<K extends WritableComparable, V> implements
+    Partitioner<K, V>, Configurable {
+
+  public static final Log LOG = LogFactory.getLog(RangePartitioner.class);
+
+  private Configuration conf;
+  private WritableComparable[] boundaries;
+  private WritableComparator comparator;
+
+  @Override
+  public void setConf(Configuration conf) {
+    this.conf = conf;
+    try {
+      boundaries = readBoundaries(conf);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Range boundaries can't be read.", e);
+    }
+    if (boundaries != null && boundaries.length > 0) {
+      comparator = WritableComparator.get(conf.getClass(
+          Constants.RUNTIME_PARTITIONING_RANGE_KEY_CLASS, null,
+          WritableComparable.class));
+    }
+  }
+
+  @Override
+  public Configuration getConf() {
+    return conf;
+  }
+
+  /**
+   * Keys less than the first boundary belong to the first partition, keys
+   * equal to or greater than the last boundary to the last one. If the number
+   * of tasks differs from the number of sampled ranges, the ranges are spread
+   * evenly over the tasks.
+   */
+  @SuppressWarnings("unchecked")
+  @Override
+  public int getPartition(K key, V value, int numTasks) {
+    if (boundaries == null) {
+      throw new IllegalStateException("No range boundaries in "
+          + Constants.RUNTIME_PARTITIONING_RANGE_BOUNDARIES + ".");
+    }
+    int range = Arrays.binarySearch(boundaries, key, comparator);
+    range = range < 0 ? -range - 1 : range + 1;
+    int ranges = boundaries.length + 1;
+    if (ranges != numTasks) {
+      range = (int) ((long) range * numTasks / ranges);
+    }
+    return range;
+  }
+
+  /**
+   * Samples the converted keys of the given splits and stores the boundaries
+   * of numTasks ranges with about as many keys each in the job configuration.
+   * A few records are read from each of
+   * {@link Constants#RUNTIME_PARTITIONING_RANGE_SAMPLE_CHUNKS} chunks spread
+   * over every file split, so the samples cover the whole split
+   * without reading it.
+   */
+  @SuppressWarnings("unchecked")
+  public static void sample(BSPJob job, InputSplit[] splits, int numTasks)
+      throws IOException {
+    Configuration conf = job.getConfiguration();
+    int sampleSize = conf.getInt(
+        Constants.RUNTIME_PARTITIONING_RANGE_SAMPLE_SIZE,
+        Constants.DEFAULT_RUNTIME_PARTITIONING_RANGE_SAMPLE_SIZE);
+    int chunks = conf.getInt(
+        Constants.RUNTIME_PARTITIONING_RANGE_SAMPLE_CHUNKS,
+        Constants.DEFAULT_RUNTIME_PARTITIONING_RANGE_SAMPLE_CHUNKS);
+    int perChunk = Math.max(1,
+        sampleSize / Math.max(1, splits.length * chunks));
+
+    RecordConverter converter = ReflectionUtils.newInstance(conf.getClass(
+        Constants.RUNTIME_PARTITION_RECORDCONVERTER,
+        DefaultRecordConverter.class, RecordConverter.class), conf);
+    converter.setup(conf);
+
+    long start = System.currentTimeMillis();
+    List<WritableComparable> samples = new ArrayList<WritableComparable>();
+    for (InputSplit split : splits) {
+      for (InputSplit chunk : getChunks(split, chunks)) {
+        RecordReader reader = job.getInputFormat().getRecordReader(chunk, job);
+        try {
+          Object key = reader.createKey();
+          Object value = reader.createValue();
+          for (int i = 0; i < perChunk && reader.next(key, value); i++) {
+            KeyValuePair<Writable, Writable> converted = converter
+                .convertRecord(new KeyValuePair<Writable, Writable>(
+                    (Writable) key, (Writable) value), conf);
+            if (!(converted.getKey() instanceof WritableComparable)) {
+              throw new IOException("Range partitioning needs comparable keys, "
+                  + converted.getKey().getClass() + " isn't.");
+            }
+            samples.add((WritableComparable) WritableUtils.clone(
+                converted.getKey(), conf));
+          }
+        } finally {
+          reader.close();
+        }
+      }
+    }
+
+    if (samples.isEmpty()) {
+      writeBoundaries(conf, null, new WritableComparable[0]);
+      return;
+    }
+    Class<? extends WritableComparable> keyClass = samples.get(0).getClass();
+    Collections.sort(samples, WritableComparator.get(keyClass));
+    WritableComparable[] boundaries = new WritableComparable[numTasks - 1];
+    for (int i = 1; i < numTasks; i++) {
+      boundaries[i - 1] = samples.get((int) ((long) i * samples.size()
+          / numTasks));
+    }
+    writeBoundaries(conf, keyClass, boundaries);
+    LOG.info("Sampled " + samples.size() + " keys for " + numTasks
+        + " ranges in " + (System.currentTimeMillis() - start) + " ms.");
+  }
+
+  private static List<InputSplit> getChunks(InputSplit split, int chunks)
+      throws IOException {
+    List<InputSplit> result = new ArrayList<InputSplit>();
+    if (!(split instanceof FileSplit) || chunks <= 1
+        || split.getLength() < chunks) {
+      result.add(split);
+      return result;
+    }
+    FileSplit fileSplit = (FileSplit) split;
+    long length = fileSplit.getLength() / chunks;
+    for (int i = 0; i < chunks; i++) {
+      long offset = fileSplit.getStart() + i * length;
+      long chunkLength = i == chunks - 1 ? fileSplit.getStart()
+          + fileSplit.getLength() - offset : length;
+      result.add(new FileSplit(fileSplit.getPath(), offset, chunkLength,
+          new String[0]));
+    }
+    return result;
+  }
+
+  /**
+   * Stores the given sorted range boundaries in the configuration, as their
+   * number followed by the hex encoded keys. The key class may be null if
+   * there are no boundaries.
+   */
+  public static void writeBoundaries(Configuration conf,
+      Class<? extends WritableComparable> keyClass,
+      WritableComparable[] boundaries) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    sb.append(boundaries.length);
+    DataOutputBuffer out = new DataOutputBuffer();
+    for (WritableComparable boundary : boundaries) {
+      out.reset();
+      boundary.write(out);
+      sb.append(',').append(
+          StringUtils.byteToHexString(out.getData(), 0, out.getLength()));
+    }
+    if (keyClass != null) {
+      conf.setClass(Constants.RUNTIME_PARTITIONING_RANGE_KEY_CLASS, keyClass,
+          WritableComparable.class);
+    }
+    conf.set(Constants.RUNTIME_PARTITIONING_RANGE_BOUNDARIES, sb.toString());
+  }
+
+  /**
+   * @return the range boundaries stored in the configuration, or null if
+   *         there are none.
+   */
+  public static WritableComparable[] readBoundaries(Configuration conf)
+      throws IOException {
+    String value = conf.get(Constants.RUNTIME_PARTITIONING_RANGE_BOUNDARIES);
+    if (value == null) {
+      return null;
+    }
+    String[] hex = value.split(",", -1);
+    if (Integer.parseInt(hex[0]) != hex.length - 1) {
+      throw new IOException("Malformed range boundaries " + value);
+    }
+    WritableComparable[] boundaries = new WritableComparable[hex.length - 1];
+    if (boundaries.length == 0) {
+      return boundaries;
+    }
+    Class<? extends WritableComparable> keyClass = conf.getClass(
+        Constants.RUNTIME_PARTITIONING_RANGE_KEY_CLASS, null,
+        WritableComparable.class);
+    if (keyClass == null) {
+      throw new IOException("No key class in "
+          + Constants.RUNTIME_PARTITIONING_RANGE_KEY_CLASS + ".");
+    }
+    DataInputBuffer in = new DataInputBuffer();
+    for (int i = 0; i < boundaries.length; i++) {
+      byte[] bytes = StringUtils.hexStringToByte(hex[i + 1]);
+      in.reset(bytes, bytes.length);
+      boundaries[i] = ReflectionUtils.newInstance(keyClass, conf);
+      boundaries[i].readFields(in);
+    }
+    return boundaries;
+  }
+
+}
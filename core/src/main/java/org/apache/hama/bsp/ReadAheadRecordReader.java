@@ -0,0 +1,265 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hama.commons.util.KeyValuePair;
+
+/**
+ * <code>ReadAheadRecordReader</code> reads and deserializes the records of
+ * another reader on a background thread. Records are handed over in batches
+ * through a bounded ring of reusable key/value slots, so the thread reading
+ * the records only waits if the background thread falls behind.
+ * 
+ * The time the consumer waited for records and the time the background thread
+ * waited for a free batch are added to the given counters in milliseconds.
+ */
+public class ReadAheadRecordReader<K, V> implements RecordReader<K, V> {
+
+  private static final Log LOG = LogFactory.getLog(ReadAheadRecordReader.class);
+
+  private final RecordReader<K, V> rawIn;
+  private final Configuration conf;
+  private final StripedCounter consumerBlocked;
+  private final StripedCounter producerBlocked;
+
+  private final BlockingQueue<Batch> free;
+  private final BlockingQueue<Batch> full;
+  private final Thread reader;
+
+  private Batch current;
+  private boolean done;
+  // nanoseconds spent blocked by the consumer and the background thread
+  private long consumerNanos;
+  private long producerNanos;
+  private volatile boolean closed;
+  private volatile IOException error;
+
+  ReadAheadRecordReader(RecordReader<K, V> raw, Configuration conf,
+      int batchSize, int batches, String name, StripedCounter consumerBlocked,
+      StripedCounter producerBlocked) {
+    this.rawIn = raw;
+    this.conf = conf;
+    this.consumerBlocked = consumerBlocked;
+    this.producerBlocked = producerBlocked;
+    this.free = new ArrayBlockingQueue<Batch>(batches);
+    // one more for the batch that marks the end of the input
+    this.full = new ArrayBlockingQueue<Batch>(batches + 1);
+    for (int i = 0; i < batches; i++) {
+      free.add(new Batch(batchSize));
+    }
+    this.reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        readAhead();
+      }
+    }, name);
+    this.reader.setDaemon(true);
+    this.reader.start();
+  }
+
+  private void readAhead() {
+    try {
+      boolean more = true;
+      while (more && !closed) {
+        long start = System.nanoTime();
+        Batch batch = free.take();
+        producerNanos = addBlocked(producerBlocked, producerNanos, start);
+
+        batch.reset();
+        try {
+          while (batch.size < batch.keys.length) {
+            int i = batch.size;
+            if (batch.keys[i] == null) {
+              batch.keys[i] = rawIn.createKey();
+              batch.values[i] = rawIn.createValue();
+            }
+            if (!rawIn.next(batch.key(i), batch.value(i))) {
+              more = false;
+              break;
+            }
+            batch.size++;
+          }
+        } catch (IOException e) {
+          error = e;
+          more = false;
+        } catch (RuntimeException e) {
+          error = new IOException(e);
+          more = false;
+        }
+        // the records read before a failure are still handed over
+        full.put(batch);
+      }
+    } catch (InterruptedException e) {
+      // closed while waiting for a free batch
+    } finally {
+      // an empty batch marks the end of the input
+      full.offer(new Batch(0));
+    }
+  }
+
+  /**
+   * @return the next batch with unread records, or null if the input is
+   *         exhausted.
+   */
+  private Batch nextBatch() throws IOException {
+    if (current != null && current.pos < current.size) {
+      return current;
+    }
+    if (done) {
+      return null;
+    }
+    if (current != null) {
+      free.add(current);
+      current = null;
+    }
+
+    long start = System.nanoTime();
+    Batch batch;
+    try {
+      batch = full.take();
+    } catch (InterruptedException e) {
+      throw new IOException("Interrupted while waiting for input records.");
+    } finally {
+      consumerNanos = addBlocked(consumerBlocked, consumerNanos, start);
+    }
+    if (batch.size == 0) {
+      done = true;
+      if (error != null) {
+        throw error;
+      }
+      return null;
+    }
+    current = batch;
+    return current;
+  }
+
+  @Override
+  public boolean next(K key, V value) throws IOException {
+    Batch batch = nextBatch();
+    if (batch == null) {
+      return false;
+    }
+    int i = batch.pos++;
+    ReflectionUtils.copy(conf, batch.key(i), key);
+    ReflectionUtils.copy(conf, batch.value(i), value);
+    return true;
+  }
+
+  /**
+   * Hands the next record over to the caller without copying it, its slot
+   * gets a new key and value.
+   * 
+   * @return false if the input is exhausted.
+   */
+  public boolean next(KeyValuePair<K, V> pair) throws IOException {
+    Batch batch = nextBatch();
+    if (batch == null) {
+      return false;
+    }
+    int i = batch.pos++;
+    pair.setKey(batch.key(i));
+    pair.setValue(batch.value(i));
+    batch.keys[i] = null;
+    batch.values[i] = null;
+    return true;
+  }
+
+  @Override
+  public K createKey() {
+    return rawIn.createKey();
+  }
+
+  @Override
+  public V createValue() {
+    return rawIn.createValue();
+  }
+
+  @Override
+  public long getPos() throws IOException {
+    return rawIn.getPos();
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    reader.interrupt();
+    try {
+      reader.join();
+    } catch (InterruptedException e) {
+      LOG.warn("Interrupted while waiting for the read ahead thread.");
+      Thread.currentThread().interrupt();
+    }
+    rawIn.close();
+  }
+
+  @Override
+  public float getProgress() throws IOException {
+    return rawIn.getProgress();
+  }
+
+  /**
+   * Adds the time blocked since the given start to the total, and the whole
+   * milliseconds that completes to the counter.
+   * 
+   * @return the new total in nanoseconds.
+   */
+  private static long addBlocked(StripedCounter counter, long totalNanos,
+      long startNanos) {
+    long total = totalNanos + System.nanoTime() - startNanos;
+    if (counter != null) {
+      counter.increment(total / 1000000L - totalNanos / 1000000L);
+    }
+    return total;
+  }
+
+  private class Batch {
+    private final Object[] keys;
+    private final Object[] values;
+    private int size;
+    private int pos;
+
+    Batch(int capacity) {
+      keys = new Object[capacity];
+      values = new Object[capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    K key(int i) {
+      return (K) keys[i];
+    }
+
+    @SuppressWarnings("unchecked")
+    V value(int i) {
+      return (V) values[i];
+    }
+
+    void reset() {
+      size = 0;
+      pos = 0;
+    }
+  }
+
+}
@@ -21,7 +21,9 @@ import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.apache.hama.monitor.fd.NodeStatus.Dead;
 
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -45,6 +47,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hama.HamaConfiguration;
 import org.apache.hama.bsp.sync.ZKSyncBSPMasterClient;
 import org.apache.hama.ipc.GroomProtocol;
+import org.apache.hama.ipc.RPC;
 import org.apache.hama.monitor.Federator;
 import org.apache.hama.monitor.Federator.Act;
 import org.apache.hama.monitor.Federator.CollectorHandler;
@@ -63,6 +66,15 @@ class SimpleTaskScheduler extends TaskScheduler {
 
   private static final Log LOG = LogFactory.getLog(SimpleTaskScheduler.class);
 
+  private static final Method DISPATCH;
+  static {
+    try {
+      DISPATCH = GroomProtocol.class.getMethod("dispatch", Directive.class);
+    } catch (NoSuchMethodException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
   public static final String WAIT_QUEUE = "waitQueue";
   public static final String PROCESSING_QUEUE = "processingQueue";
   public static final String FINISHED_QUEUE = "finishedQueue";
@@ -116,16 +128,19 @@ class SimpleTaskScheduler extends TaskScheduler {
     public void jobAdded(JobInProgress job) throws IOException {
       queueManager.get().initJob(job); // init task
       queueManager.get().addJob(WAIT_QUEUE, job);
+      jobsChanged();
     }
 
     @Override
     public void jobRemoved(JobInProgress job) throws IOException {
       queueManager.get().moveJob(PROCESSING_QUEUE, FINISHED_QUEUE, job);
+      jobsChanged();
     }
 
     @Override
     public void recoverTaskInJob(JobInProgress job) throws IOException {
       queueManager.get().addJob(WAIT_QUEUE, job);
+      jobsChanged();
     }
 
   }
@@ -150,18 +165,20 @@ class SimpleTaskScheduler extends TaskScheduler {
             + " is not yet finished!");
       }
       while (initialized.get()) {
-        Queue<JobInProgress> queue = queueManager.get().findQueue(WAIT_QUEUE);
-        if (null == queue) {
-          LOG.error(WAIT_QUEUE + " does not exist.");
-          throw new NullPointerException(WAIT_QUEUE + " does not exist.");
-        }
         // move a job from the wait queue to the processing queue
-        JobInProgress job = queue.removeJob();
+        JobInProgress job = null;
+        try {
+          job = takeJob();
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        if (null == job) {
+          continue;
+        }
         queueManager.get().addJob(PROCESSING_QUEUE, job);
         // schedule
-        Collection<GroomServerStatus> glist = groomServerManager.get()
-            .groomServerStatusKeySet();
-        schedule(job, glist.toArray(new GroomServerStatus[glist.size()]));
+        schedule(job, getGroomsFor(job));
       }
     }
 
@@ -197,6 +214,7 @@ class SimpleTaskScheduler extends TaskScheduler {
             .append(" could not be done successfully. Killing it!").toString());
         job.kill();
       }
+      jobScheduled(job, Boolean.TRUE.equals(jobResult));
     }
 
     @Override
@@ -213,19 +231,18 @@ class SimpleTaskScheduler extends TaskScheduler {
 
     TaskWorker(final GroomServerStatus[] stus, final int num,
         final JobInProgress jip) {
-      this.groomStatuses = new HashMap<String, GroomServerStatus>(2 * num);
-      for (GroomServerStatus status : stus) {
-        this.groomStatuses.put(status.hostName, status);
-      }
-      this.groomNum = num;
-      this.jip = jip;
-      if (null == this.groomStatuses)
+      if (null == stus)
         throw new NullPointerException("Target groom server is not "
             + "specified.");
-      if (-1 == this.groomNum)
+      if (-1 == num)
         throw new IllegalArgumentException("Groom number is not specified.");
-      if (null == this.jip)
+      if (null == jip)
         throw new NullPointerException("No job is specified.");
+      // the allocator fills the least loaded grooms first
+      this.groomStatuses = GroomLoad.order(Arrays.asList(stus), repository,
+          jip.getJobConfiguration(), jip.desiredBSPTasks());
+      this.groomNum = num;
+      this.jip = jip;
     }
 
     private Boolean scheduleNewTasks() {
@@ -289,6 +306,9 @@ class SimpleTaskScheduler extends TaskScheduler {
 
     private Boolean sendDirectivesToGrooms(
         Map<GroomServerStatus, List<GroomServerAction>> actionMap) {
+      // directives are sent to all grooms at once, then their replies awaited
+      Map<GroomServerStatus, Future<Object>> pending = new HashMap<GroomServerStatus, Future<Object>>(
+          2 * actionMap.size());
       Iterator<GroomServerStatus> groomIter = actionMap.keySet().iterator();
       while ((jip.getStatus().getRunState() == JobStatus.RUNNING || jip
           .getStatus().getRunState() == JobStatus.RECOVERING)
@@ -304,16 +324,40 @@ class SimpleTaskScheduler extends TaskScheduler {
           GroomServerAction[] actions = new GroomServerAction[actionList.size()];
           actionList.toArray(actions);
           Directive d1 = new DispatchTasksDirective(actions);
-          worker.dispatch(d1);
+          if (RPC.isProxy(worker)) {
+            pending.put(groomStatus, RPC.callAsync(worker, DISPATCH, d1));
+          } else {
+            worker.dispatch(d1);
+          }
         } catch (IOException ioe) {
           LOG.error(
               "Fail to dispatch tasks to GroomServer "
                   + groomStatus.getGroomName(), ioe);
           return Boolean.FALSE;
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          return Boolean.FALSE;
         }
 
       }
 
+      Boolean result = Boolean.TRUE;
+      for (Map.Entry<GroomServerStatus, Future<Object>> e : pending.entrySet()) {
+        try {
+          e.getValue().get();
+        } catch (ExecutionException ee) {
+          LOG.error("Fail to dispatch tasks to GroomServer "
+              + e.getKey().getGroomName(), ee.getCause());
+          result = Boolean.FALSE;
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          return Boolean.FALSE;
+        }
+      }
+      if (Boolean.FALSE.equals(result)) {
+        return result;
+      }
+
       if (groomIter.hasNext()
           && (jip.getStatus().getRunState() != JobStatus.RUNNING || jip
               .getStatus().getRunState() != JobStatus.RECOVERING)) {
@@ -383,6 +427,51 @@ class SimpleTaskScheduler extends TaskScheduler {
     }
   }
 
+  /**
+   * Waits for the next job to schedule and removes it from the wait queue.
+   * 
+   * @return the job, or null to check again whether the scheduler still runs.
+   */
+  protected JobInProgress takeJob() throws InterruptedException {
+    Queue<JobInProgress> queue = queueManager.get().findQueue(WAIT_QUEUE);
+    if (null == queue) {
+      LOG.error(WAIT_QUEUE + " does not exist.");
+      throw new NullPointerException(WAIT_QUEUE + " does not exist.");
+    }
+    return queue.removeJob();
+  }
+
+  /**
+   * @return the grooms the tasks of the job may be placed on.
+   */
+  protected GroomServerStatus[] getGroomsFor(JobInProgress job) {
+    Collection<GroomServerStatus> glist = groomServerManager.get()
+        .groomServerStatusKeySet();
+    return glist.toArray(new GroomServerStatus[glist.size()]);
+  }
+
+  /**
+   * Called once the tasks of a job taken from the wait queue were dispatched.
+   * 
+   * @param scheduled false if the job could not be scheduled and was killed.
+   */
+  protected void jobScheduled(JobInProgress job, boolean scheduled) {
+  }
+
+  /**
+   * Called when a job was added to the wait queue or has finished.
+   */
+  protected void jobsChanged() {
+  }
+
+  protected QueueManager getQueueManager() {
+    return queueManager.get();
+  }
+
+  void setQueueManager(QueueManager queueManager) {
+    this.queueManager.set(queueManager);
+  }
+
   public SimpleTaskScheduler() {
     this.jobListener = new JobListener();
     this.jobProcessor = new JobProcessor();
@@ -395,7 +484,7 @@ class SimpleTaskScheduler extends TaskScheduler {
       throw new IllegalStateException(SimpleTaskScheduler.class.getSimpleName()
           + " is started.");
     }
-    this.queueManager.set(new QueueManager(getConf()));
+    setQueueManager(new QueueManager(getConf()));
     this.federator.set(new Federator((HamaConfiguration) getConf()));
     this.queueManager.get().createFCFSQueue(WAIT_QUEUE);
     this.queueManager.get().createFCFSQueue(PROCESSING_QUEUE);
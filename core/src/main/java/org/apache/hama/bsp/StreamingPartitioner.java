@@ -0,0 +1,225 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hama.Constants;
+import org.apache.hama.bsp.PartitioningRunner.NeighborRecordConverter;
+import org.apache.hama.bsp.PartitioningRunner.RecordConverter;
+import org.apache.hama.bsp.sync.SyncException;
+import org.apache.hama.commons.util.KeyValuePair;
+
+/**
+ * Places the records of a graph so few edges cross partitions, in the style
+ * of linear deterministic greedy streaming partitioning. The
+ * {@link PartitioningRunner} streams the input through
+ * {@link #stream(BSPPeer, RecordConverter, int)} before partitioning it, which
+ * places every record in the partition with most of its already placed
+ * neighbors, as long as that partition isn't full. The placement of all
+ * records is written to the dir in
+ * {@link Constants#RUNTIME_PARTITIONING_STREAMING_ASSIGNMENT}, which every
+ * instance of this partitioner reads. Keys without a placement, like the
+ * targets of edges that have no record of their own, are hashed.
+ * 
+ * Every instance keeps the placement of all records in memory.
+ */
+public class StreamingPartitioner<K extends Writable, V> implements
+    Partitioner<K, V>, Configurable {
+
+  public static final Log LOG = LogFactory.getLog(StreamingPartitioner.class);
+
+  private Configuration conf;
+  private Map<Writable, Integer> assignment;
+  private int numPartitions;
+
+  @Override
+  public void setConf(Configuration conf) {
+    this.conf = conf;
+    String path = conf.get(Constants.RUNTIME_PARTITIONING_STREAMING_ASSIGNMENT);
+    if (path == null) {
+      return;
+    }
+    try {
+      readAssignment(new Path(path));
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Assignment " + path
+          + " can't be read.", e);
+    }
+  }
+
+  @Override
+  public Configuration getConf() {
+    return conf;
+  }
+
+  @Override
+  public int getPartition(K key, V value, int numTasks) {
+    if (assignment != null && numTasks == numPartitions) {
+      Integer partition = assignment.get(key);
+      if (partition != null) {
+        return partition;
+      }
+    }
+    return Math.abs(key.hashCode() % numTasks);
+  }
+
+  private void readAssignment(Path dir) throws IOException {
+    FileSystem fs = dir.getFileSystem(conf);
+    if (!fs.exists(dir)) {
+      return;
+    }
+    assignment = new HashMap<Writable, Integer>();
+    for (FileStatus stat : fs.listStatus(dir)) {
+      FSDataInputStream in = fs.open(stat.getPath());
+      try {
+        String keyClassName = Text.readString(in);
+        numPartitions = WritableUtils.readVInt(in);
+        int size = WritableUtils.readVInt(in);
+        if (size == 0) {
+          continue;
+        }
+        Class<? extends Writable> keyClass = conf.getClassByName(keyClassName)
+            .asSubclass(Writable.class);
+        for (int i = 0; i < size; i++) {
+          Writable key = ReflectionUtils.newInstance(keyClass, conf);
+          key.readFields(in);
+          assignment.put(key, WritableUtils.readVInt(in));
+        }
+      } catch (ClassNotFoundException e) {
+        throw new IOException("Key class of " + stat.getPath() + " not found",
+            e);
+      } finally {
+        in.close();
+      }
+    }
+  }
+
+  /**
+   * Places the records of the given peer's input. Each peer counts and then
+   * places its own records, and only knows the placement of these. A record
+   * goes to the partition that holds most of its neighbors, weighed by how
+   * empty the partition is, among the partitions with less than
+   * (1 + {@link Constants#RUNTIME_PARTITIONING_STREAMING_SLACK}) times their
+   * share of the peer's records. The input of the peer has to be reopened
+   * afterwards.
+   */
+  public static void stream(BSPPeer<Writable, Writable, ?, ?, ?> peer,
+      RecordConverter converter, int numPartitions) throws IOException,
+      SyncException, InterruptedException {
+    Configuration conf = peer.getConfiguration();
+    Path dir = new Path(
+        conf.get(Constants.RUNTIME_PARTITIONING_STREAMING_ASSIGNMENT));
+    FileSystem fs = dir.getFileSystem(conf);
+    float slack = conf.getFloat(Constants.RUNTIME_PARTITIONING_STREAMING_SLACK,
+        Constants.DEFAULT_RUNTIME_PARTITIONING_STREAMING_SLACK);
+    if (!(converter instanceof NeighborRecordConverter)) {
+      LOG.warn(converter.getClass() + " doesn't know the neighbors of its"
+          + " records, they are placed round robin.");
+    }
+
+    long records = 0L;
+    while (peer.readNext() != null) {
+      records++;
+    }
+    peer.reopenInput();
+    double capacity = Math.ceil(records * (1.0 + slack) / numPartitions);
+
+    Map<Writable, Integer> placed = new HashMap<Writable, Integer>();
+    long[] sizes = new long[numPartitions];
+    int[] neighbors = new int[numPartitions];
+    long edges = 0L;
+    long localEdges = 0L;
+    String keyClass = "";
+    KeyValuePair<Writable, Writable> record = null;
+    while ((record = peer.readNext()) != null) {
+      KeyValuePair<Writable, Writable> converted = converter.convertRecord(
+          record, conf);
+      if (converted == null) {
+        throw new IOException("The converted record can't be null.");
+      }
+      Writable key = converted.getKey();
+      keyClass = key.getClass().getName();
+
+      Arrays.fill(neighbors, 0);
+      if (converter instanceof NeighborRecordConverter) {
+        for (Writable neighbor : ((NeighborRecordConverter) converter)
+            .getNeighbors(converted)) {
+          Integer partition = placed.get(neighbor);
+          if (partition != null) {
+            neighbors[partition]++;
+          }
+        }
+      }
+
+      int best = -1;
+      double bestScore = -1.0;
+      for (int i = 0; i < numPartitions; i++) {
+        if (sizes[i] >= capacity) {
+          continue;
+        }
+        double score = neighbors[i] * (1.0 - sizes[i] / capacity);
+        if (score > bestScore
+            || (score == bestScore && sizes[i] < sizes[best])) {
+          best = i;
+          bestScore = score;
+        }
+      }
+      for (int count : neighbors) {
+        edges += count;
+      }
+      localEdges += neighbors[best];
+      sizes[best]++;
+      placed.put(WritableUtils.clone(key, conf), best);
+    }
+
+    FSDataOutputStream out = fs.create(new Path(dir, "peer-"
+        + peer.getPeerIndex()), true);
+    try {
+      Text.writeString(out, keyClass);
+      WritableUtils.writeVInt(out, numPartitions);
+      WritableUtils.writeVInt(out, placed.size());
+      for (Map.Entry<Writable, Integer> entry : placed.entrySet()) {
+        entry.getKey().write(out);
+        WritableUtils.writeVInt(out, entry.getValue());
+      }
+    } finally {
+      out.close();
+    }
+    LOG.info("Placed " + placed.size() + " records, " + localEdges + " of "
+        + edges + " edges to placed neighbors are local.");
+    peer.sync();
+  }
+
+}
@@ -0,0 +1,83 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter for framework internal hot paths. Increments of concurrent
+ * threads go to different stripes, so they neither contend on a lock nor on
+ * the same cache line. The accumulated amount is folded into the task's
+ * {@link Counters} by {@link #drain()}.
+ */
+public final class StripedCounter {
+
+  // longs per stripe, keeps two stripes off the same cache line
+  private static final int PADDING = 8;
+  private static final int MAX_STRIPES = 64;
+
+  private final AtomicLongArray cells;
+  private final int mask;
+
+  public StripedCounter() {
+    this(Runtime.getRuntime().availableProcessors() * 2);
+  }
+
+  StripedCounter(int stripes) {
+    int n = 1;
+    while (n < stripes && n < MAX_STRIPES) {
+      n <<= 1;
+    }
+    this.mask = n - 1;
+    this.cells = new AtomicLongArray(n * PADDING);
+  }
+
+  /**
+   * Adds the given amount to the stripe of the calling thread.
+   */
+  public void increment(long amount) {
+    int stripe = (int) Thread.currentThread().getId() & mask;
+    cells.addAndGet(stripe * PADDING, amount);
+  }
+
+  /**
+   * @return the amount accumulated since the last drain, without resetting it.
+   */
+  public long get() {
+    long sum = 0L;
+    for (int i = 0; i <= mask; i++) {
+      sum += cells.get(i * PADDING);
+    }
+    return sum;
+  }
+
+  /**
+   * Resets the counter. Increments that race with the drain are either
+   * returned now or by the next drain, they are never lost.
+   * 
+   * @return the amount accumulated since the last drain.
+   */
+  public long drain() {
+    long sum = 0L;
+    for (int i = 0; i <= mask; i++) {
+      sum += cells.getAndSet(i * PADDING, 0L);
+    }
+    return sum;
+  }
+
+}
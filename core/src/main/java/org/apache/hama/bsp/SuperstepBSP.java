@@ -22,8 +22,8 @@ import java.io.IOException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.io.Writable;
-import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hama.bsp.sync.SyncException;
+import org.apache.hama.util.ReflectionUtils;
 
 public class SuperstepBSP<K1, V1, K2, V2, M extends Writable> extends
     BSP<K1, V1, K2, V2, M> {
@@ -48,8 +48,7 @@ public class SuperstepBSP<K1, V1, K2, V2, M extends Writable> extends
     for (int i = 0; i < classNames.length; i++) {
 
       try {
-        newInstance = (Superstep<K1, V1, K2, V2, M>) ReflectionUtils
-            .newInstance(Class.forName(classNames[i]), peer.getConfiguration());
+        newInstance = ReflectionUtils.newInstance(classNames[i]);
       } catch (ClassNotFoundException e) {
         LOG.error((new StringBuffer("Could not instantiate a Superstep class ")
             .append(classNames[i])).toString(), e);
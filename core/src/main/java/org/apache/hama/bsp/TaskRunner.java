@@ -39,6 +39,7 @@ import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.RunJar;
 
@@ -57,6 +58,7 @@ public class TaskRunner extends Thread {
 
   boolean bspKilled = false;
   private Process bspProcess;
+  private JvmManager.ChildJvm pooledJvm;
   private Thread errorLog;
   private Thread infoLog;
 
@@ -166,12 +168,23 @@ public class TaskRunner extends Thread {
     return workDir;
   }
 
-  private static String assembleClasspath(BSPJob jobConf, File workDir) {
+  private static String assembleClasspath(List<String> jobClassPath) {
     StringBuffer classPath = new StringBuffer();
     // start with same classpath as parent process
     classPath.append(System.getProperty("java.class.path"));
-    classPath.append(SYSTEM_PATH_SEPARATOR);
+    for (String entry : jobClassPath) {
+      classPath.append(SYSTEM_PATH_SEPARATOR);
+      classPath.append(entry);
+    }
+    return classPath.toString();
+  }
 
+  /**
+   * Unpacks the job jar into the work directory and returns the classpath
+   * entries it adds to the classpath of the groom server.
+   */
+  private static List<String> assembleJobClasspath(BSPJob jobConf,
+      File workDir) {
     String jar = jobConf.getJar();
     if (jar != null) { // if jar exists, it into workDir
       try {
@@ -179,20 +192,26 @@ public class TaskRunner extends Thread {
       } catch (IOException ioe) {
         LOG.error("Unable to uncompressing file to " + workDir.toString(), ioe);
       }
-      File[] libs = new File(workDir, "lib").listFiles();
-      if (libs != null) {
-        for (File lib : libs) {
-          // add libs from jar to classpath
-          classPath.append(SYSTEM_PATH_SEPARATOR);
-          classPath.append(lib);
-        }
+      return getJarClasspath(workDir);
+    }
+    return new ArrayList<String>();
+  }
+
+  /**
+   * @return the classpath entries of a job jar unpacked in the directory.
+   */
+  private static List<String> getJarClasspath(File jarDir) {
+    List<String> entries = new ArrayList<String>();
+    File[] libs = new File(jarDir, "lib").listFiles();
+    if (libs != null) {
+      for (File lib : libs) {
+        // add libs from jar to classpath
+        entries.add(lib.toString());
       }
-      classPath.append(SYSTEM_PATH_SEPARATOR);
-      classPath.append(new File(workDir, "classes"));
-      classPath.append(SYSTEM_PATH_SEPARATOR);
-      classPath.append(workDir);
     }
-    return classPath.toString();
+    entries.add(new File(jarDir, "classes").toString());
+    entries.add(jarDir.toString());
+    return entries;
   }
 
   private List<String> buildJvmArgs(BSPJob jobConf, String classPath,
@@ -225,17 +244,53 @@ public class TaskRunner extends Thread {
       vargs.add(task.getTaskID().toString());
       vargs.add(groomServer.groomHostName);
       vargs.add(Long.toString(groomServer.getStartSuperstep(task.getTaskID())));
-      TaskStatus status = groomServer.getTaskStatus(task.getTaskID());
+      vargs.add(getStartState().name());
+    }
+    return vargs;
+  }
 
-      if (status != null
-          && TaskStatus.State.RECOVERING.equals(status.getRunState())) {
-        vargs.add(TaskStatus.State.RECOVERING.name());
-      } else {
-        vargs.add(TaskStatus.State.RUNNING.name());
-      }
+  private TaskStatus.State getStartState() {
+    TaskStatus status = groomServer.getTaskStatus(task.getTaskID());
+    if (status != null
+        && TaskStatus.State.RECOVERING.equals(status.getRunState())) {
+      return TaskStatus.State.RECOVERING;
+    }
+    return TaskStatus.State.RUNNING;
+  }
 
+  /**
+   * Hands the task to an idle pooled child JVM and waits for it to finish.
+   * 
+   * @return false if the task needs a JVM of its own.
+   */
+  private boolean runInPooledJvm(JvmManager jvmManager,
+      List<String> classPath) {
+    String javaOpts = bspJob.getConfiguration().get("bsp.child.java.opts",
+        "-Xmx200m");
+    JvmTask jvmTask = new JvmTask(task.getTaskID(), groomServer.groomHostName,
+        groomServer.getStartSuperstep(task.getTaskID()), getStartState(),
+        classPath.toArray(new String[classPath.size()]));
+
+    JvmManager.ChildJvm jvm;
+    synchronized (this) {
+      if (bspKilled) {
+        return true;
+      }
+      jvm = jvmManager.assign(this, task.getJobID(), javaOpts, jvmTask);
+      if (jvm == null) {
+        return false;
+      }
+      pooledJvm = jvm;
     }
-    return vargs;
+    LOG.debug("Running " + task.getTaskID() + " in pooled child JVM "
+        + jvm.getId());
+    try {
+      jvmManager.awaitTask(jvm, this);
+    } catch (InterruptedException ie) {
+      LOG.error("BSPPeer child process is interrupted.", ie);
+      killBsp();
+    }
+    return true;
   }
 
   /**
@@ -243,9 +298,53 @@ public class TaskRunner extends Thread {
    */
   @Override
   public void run() {
+    String jarKey = bspJob.get(JobJarCache.CACHE_KEY);
+    JobJarCache jarCache = groomServer.getJarCache();
+    if (jarKey == null || jarCache == null) {
+      runTask(null);
+      return;
+    }
+
+    File jarDir;
+    try {
+      Path jar = new Path(bspJob.getJar());
+      jarDir = jarCache.acquire(jarKey,
+          jar.getFileSystem(bspJob.getConfiguration()), jar);
+    } catch (IOException ioe) {
+      // without its classes the task can't run
+      LOG.error("Unable to localize job jar " + bspJob.getJar(), ioe);
+      try {
+        groomServer.fatalError(task.getTaskID(), "Unable to localize job jar "
+            + bspJob.getJar() + ": " + ioe.getMessage());
+      } catch (IOException e) {
+        LOG.error("Could not fail task " + task.getTaskID(), e);
+      }
+      return;
+    }
+    try {
+      runTask(jarDir);
+    } finally {
+      jarCache.release(jarKey);
+    }
+  }
+
+  /**
+   * Launches the child and waits for it to finish.
+   * 
+   * @param jarDir the job jar unpacked in the jar cache, or null if the jar
+   *          is unpacked into the work directory.
+   */
+  private void runTask(File jarDir) {
     File workDir = createWorkDirectory();
     logDir = createLogDirectory();
-    String classPath = assembleClasspath(bspJob, workDir);
+    List<String> jobClassPath = jarDir != null ? getJarClasspath(jarDir)
+        : assembleJobClasspath(bspJob, workDir);
+    JvmManager jvmManager = groomServer.getJvmManager();
+    if (jvmManager != null && runInPooledJvm(jvmManager, jobClassPath)) {
+      LOG.debug("Finishes executing BSPPeer in pooled child JVM.");
+      return;
+    }
+    String classPath = assembleClasspath(jobClassPath);
     LOG.debug("Spawned child's classpath " + classPath);
     List<String> bspArgs = buildJvmArgs(bspJob, classPath,
         GroomServer.BSPPeerChild.class);
@@ -282,11 +381,39 @@ public class TaskRunner extends Thread {
     return f;
   }
 
+  /**
+   * Called when the task has reported that it is done. A forked child process
+   * is killed, a pooled child JVM goes back to wait for the next task of the
+   * job.
+   */
+  public void taskDone() {
+    JvmManager.ChildJvm jvm;
+    synchronized (this) {
+      jvm = pooledJvm;
+    }
+    JvmManager jvmManager = groomServer.getJvmManager();
+    if (jvm != null && jvmManager != null) {
+      jvmManager.release(jvm, this);
+    } else {
+      killBsp();
+    }
+  }
+
   /**
    * Kill bspPeer child process.
    */
   public void killBsp() {
-    bspKilled = true;
+    JvmManager.ChildJvm jvm;
+    synchronized (this) {
+      bspKilled = true;
+      jvm = pooledJvm;
+    }
+    if (jvm != null) {
+      JvmManager jvmManager = groomServer.getJvmManager();
+      if (jvmManager != null) {
+        jvmManager.kill(jvm, this);
+      }
+    }
 
     if (errorLog != null || infoLog != null) {
       errorLog = null;
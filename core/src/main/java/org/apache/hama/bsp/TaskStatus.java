@@ -56,6 +56,7 @@ public class TaskStatus implements Writable, Cloneable {
 
   private long startTime;
   private long finishTime;
+  private long firstBarrierTime;
 
   private volatile Phase phase = Phase.STARTING;
 
@@ -152,6 +153,24 @@ public class TaskStatus implements Writable, Cloneable {
     this.startTime = startTime;
   }
 
+  /**
+   * Get the time the task left its first barrier and started to compute.
+   * 
+   * @return 0 if the task didn't leave its first barrier yet.
+   */
+  public long getFirstBarrierTime() {
+    return firstBarrierTime;
+  }
+
+  /**
+   * Set the time the task left its first barrier.
+   * 
+   * @param firstBarrierTime time the first barrier was left
+   */
+  void setFirstBarrierTime(long firstBarrierTime) {
+    this.firstBarrierTime = firstBarrierTime;
+  }
+
   /**
    * Get current phase of this task.
    * 
@@ -219,10 +238,28 @@ public class TaskStatus implements Writable, Cloneable {
     if (status.getFinishTime() != 0) {
       this.finishTime = status.getFinishTime();
     }
+    if (status.getFirstBarrierTime() != 0) {
+      this.firstBarrierTime = status.getFirstBarrierTime();
+    }
 
     this.phase = status.getPhase();
   }
 
+  /**
+   * Update the status of the task with a status that only carries the counters
+   * that changed since the last update.
+   * 
+   * @param status updated status
+   */
+  synchronized void statusUpdateDelta(TaskStatus status) {
+    Counters current = this.counters;
+    statusUpdate(status);
+    if (current != null) {
+      current.setAllCounters(status.getCounters());
+      this.counters = current;
+    }
+  }
+
   /**
    * Update specific fields of task status
    * 
@@ -277,6 +314,7 @@ public class TaskStatus implements Writable, Cloneable {
     this.phase = WritableUtils.readEnum(in, Phase.class);
     this.startTime = in.readLong();
     this.finishTime = in.readLong();
+    this.firstBarrierTime = in.readLong();
 
     counters = new Counters();
     this.counters.readFields(in);
@@ -292,6 +330,7 @@ public class TaskStatus implements Writable, Cloneable {
     WritableUtils.writeEnum(out, phase);
     out.writeLong(startTime);
     out.writeLong(finishTime);
+    out.writeLong(firstBarrierTime);
 
     counters.write(out);
   }
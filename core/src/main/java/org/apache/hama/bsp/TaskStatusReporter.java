@@ -0,0 +1,156 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hama.bsp.Counters.Counter;
+import org.apache.hama.bsp.Counters.Group;
+import org.apache.hama.ipc.BSPPeerProtocol;
+
+/**
+ * Reports the status of a task to its groom on a background thread, so that
+ * {@link BSPPeer#sync()} never waits for the status RPC. Reports are
+ * coalesced: at most one is sent per <code>bsp.task.status.report.interval</code>
+ * milliseconds, carrying the latest status and only the counters that changed
+ * since the previous report.
+ */
+final class TaskStatusReporter extends Thread {
+
+  private static final Log LOG = LogFactory.getLog(TaskStatusReporter.class);
+
+  private final BSPPeerProtocol umbilical;
+  private final TaskAttemptID taskId;
+  private final long interval;
+
+  // guarded by this
+  private TaskStatus pending;
+  private boolean closed;
+
+  // values of the counters as last reported, only used by the reporter thread
+  private final Map<String, Long> reported = new HashMap<String, Long>();
+
+  TaskStatusReporter(BSPPeerProtocol umbilical, TaskAttemptID taskId,
+      long interval) {
+    this.umbilical = umbilical;
+    this.taskId = taskId;
+    this.interval = interval;
+    setName("Status reporter for " + taskId);
+    setDaemon(true);
+  }
+
+  /**
+   * Schedules a report of the given status and returns immediately. A status
+   * that is not sent yet is replaced. The counters are copied, so the report
+   * carries their values at the time of this call.
+   */
+  public synchronized void report(TaskStatus status) {
+    TaskStatus copy = (TaskStatus) status.clone();
+    Counters counters = new Counters();
+    synchronized (status.getCounters()) {
+      counters.incrAllCounters(status.getCounters());
+    }
+    copy.setCounters(counters);
+    pending = copy;
+    notifyAll();
+  }
+
+  /**
+   * Sends the pending report and stops the reporter thread.
+   */
+  public void close() throws InterruptedException {
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+    }
+    join();
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (true) {
+        TaskStatus status;
+        synchronized (this) {
+          while (pending == null && !closed) {
+            wait();
+          }
+          if (pending == null) {
+            return;
+          }
+          status = pending;
+          pending = null;
+        }
+
+        send(status);
+
+        synchronized (this) {
+          long deadline = System.currentTimeMillis() + interval;
+          long remaining = interval;
+          while (!closed && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      LOG.debug("Status reporter of " + taskId + " interrupted.");
+    }
+  }
+
+  private void send(TaskStatus status) throws InterruptedException {
+    TaskStatus delta = (TaskStatus) status.clone();
+    delta.setCounters(changedCounters(status.getCounters()));
+    try {
+      umbilical.statusUpdateDelta(taskId, delta);
+    } catch (IOException e) {
+      LOG.warn("Could not report the status of " + taskId, e);
+    }
+  }
+
+  /**
+   * @return the counters whose values changed since the last report.
+   */
+  private Counters changedCounters(Counters counters) {
+    Counters changed = new Counters();
+    synchronized (counters) {
+      for (Group group : counters) {
+        synchronized (group) {
+          for (Counter counter : group) {
+            String key = group.getName() + '\u0000' + counter.getName();
+            long value = counter.getValue();
+            Long last = reported.get(key);
+            if (last == null || last.longValue() != value) {
+              reported.put(key, value);
+              Counter copy = changed.findCounter(group.getName(),
+                  counter.getName());
+              copy.setDisplayName(counter.getDisplayName());
+              copy.setValue(value);
+            }
+          }
+        }
+      }
+    }
+    return changed;
+  }
+
+}
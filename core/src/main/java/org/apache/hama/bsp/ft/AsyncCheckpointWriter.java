@@ -0,0 +1,291 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp.ft;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hama.Constants;
+import org.apache.hama.bsp.BSPMessageBundle;
+import org.apache.hama.bsp.message.compress.BSPMessageCompressor;
+import org.apache.hama.bsp.message.compress.SnappyCompressor;
+
+/**
+ * <code>AsyncCheckpointWriter</code> writes received message bundles to the
+ * checkpoint files on a background thread. Bundles are queued in their
+ * serialized form and are appended to an in-memory block, which is compressed
+ * and written out once it reaches the configured block size. The message class
+ * and the compressor are stored once in the header of every file.
+ *
+ * File layout:
+ *
+ * <pre>
+ * header : UTF message class, UTF compressor class ("" if not compressed)
+ * block  : int numMessages, int rawLength, int storedLength, byte[storedLength]
+ * </pre>
+ */
+public class AsyncCheckpointWriter<M extends Writable> extends Thread {
+
+  private static final Log LOG = LogFactory.getLog(AsyncCheckpointWriter.class);
+
+  private final FileSystem fs;
+  private final BSPMessageCompressor<M> compressor;
+  private final int blockSize;
+  private final BlockingQueue<Request> requests = new LinkedBlockingQueue<Request>();
+
+  // state only touched by the writer thread
+  private Path currentPath;
+  private FSDataOutputStream currentStream;
+  private final ByteArrayOutputStream block;
+  private int blockMessages;
+
+  private volatile IOException error;
+
+  private static class Request {
+    final Path path;
+
+    Request(Path path) {
+      this.path = path;
+    }
+  }
+
+  private static class AppendRequest<M extends Writable> extends Request {
+    final BSPMessageBundle<M> bundle;
+
+    AppendRequest(Path path, BSPMessageBundle<M> bundle) {
+      super(path);
+      this.bundle = bundle;
+    }
+  }
+
+  private static class FlushRequest extends Request {
+    final CountDownLatch done = new CountDownLatch(1);
+
+    FlushRequest(Path path) {
+      super(path);
+    }
+  }
+
+  private static class CloseRequest extends Request {
+    CloseRequest() {
+      super(null);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  public AsyncCheckpointWriter(FileSystem fs, Configuration conf) {
+    this.fs = fs;
+    this.blockSize = conf.getInt(Constants.CHECKPOINT_BLOCK_SIZE,
+        Constants.DEFAULT_CHECKPOINT_BLOCK_SIZE);
+    if (conf.getBoolean(Constants.CHECKPOINT_COMPRESSION, true)) {
+      this.compressor = (BSPMessageCompressor<M>) ReflectionUtils.newInstance(
+          conf.getClass(Constants.CHECKPOINT_COMPRESSION_CLASS,
+              SnappyCompressor.class, BSPMessageCompressor.class), conf);
+    } else {
+      this.compressor = null;
+    }
+    this.block = new ByteArrayOutputStream(blockSize + blockSize / 4);
+    setName(AsyncCheckpointWriter.class.getSimpleName());
+    setDaemon(true);
+  }
+
+  /**
+   * Queues a received bundle to be appended to the checkpoint file at the
+   * given path. Empty bundles are ignored.
+   */
+  public void append(Path path, BSPMessageBundle<M> bundle) {
+    if (bundle.size() > 0) {
+      requests.add(new AppendRequest<M>(path, bundle));
+    }
+  }
+
+  /**
+   * Writes out everything queued for the given path and closes the file.
+   * Blocks until the file is complete, it does not wait for bundles queued for
+   * other checkpoint files afterwards.
+   *
+   * @throws IOException if writing any of the checkpoint files failed.
+   */
+  public void flush(Path path) throws IOException, InterruptedException {
+    FlushRequest request = new FlushRequest(path);
+    requests.add(request);
+    request.done.await();
+    if (error != null) {
+      throw error;
+    }
+  }
+
+  /**
+   * Closes the current file and stops the writer thread once the queued
+   * bundles have been written.
+   */
+  public void close() {
+    requests.add(new CloseRequest());
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public void run() {
+    try {
+      while (!Thread.interrupted()) {
+        Request request = requests.take();
+        try {
+          if (request instanceof AppendRequest) {
+            if (error == null) {
+              write(request.path, ((AppendRequest<M>) request).bundle);
+            }
+          } else if (request instanceof FlushRequest) {
+            if (error == null && request.path.equals(currentPath)) {
+              closeCurrentFile();
+            }
+            ((FlushRequest) request).done.countDown();
+          } else {
+            if (error == null) {
+              closeCurrentFile();
+            }
+            break;
+          }
+        } catch (IOException ioe) {
+          LOG.error("Fail checkpointing messages to " + request.path, ioe);
+          error = ioe;
+          if (request instanceof FlushRequest) {
+            ((FlushRequest) request).done.countDown();
+          }
+        }
+      }
+    } catch (InterruptedException ie) {
+      LOG.error(ie);
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void write(Path path, BSPMessageBundle<M> bundle) throws IOException {
+    if (!path.equals(currentPath)) {
+      closeCurrentFile();
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Creating path " + path);
+      }
+      currentStream = fs.create(path);
+      currentPath = path;
+      currentStream.writeUTF(bundle.getMessageClassName());
+      currentStream.writeUTF(compressor == null ? "" : compressor.getClass()
+          .getName());
+    }
+
+    bundle.writeSerializedMessages(block);
+    blockMessages += bundle.size();
+    if (block.size() >= blockSize) {
+      writeBlock();
+    }
+  }
+
+  private void writeBlock() throws IOException {
+    if (blockMessages == 0) {
+      return;
+    }
+    byte[] raw = block.toByteArray();
+    byte[] stored = compressor == null ? raw : compressor.compress(raw);
+    if (stored == null) {
+      throw new IOException("Failed compressing checkpoint block of "
+          + currentPath);
+    }
+    currentStream.writeInt(blockMessages);
+    currentStream.writeInt(raw.length);
+    currentStream.writeInt(stored.length);
+    currentStream.write(stored);
+
+    block.reset();
+    blockMessages = 0;
+  }
+
+  private void closeCurrentFile() throws IOException {
+    if (currentStream != null) {
+      try {
+        writeBlock();
+      } finally {
+        currentStream.close();
+        currentStream = null;
+        currentPath = null;
+        block.reset();
+        blockMessages = 0;
+      }
+    }
+  }
+
+  /**
+   * Reads back a checkpoint file written by <code>AsyncCheckpointWriter</code>
+   * into a single bundle.
+   *
+   * @param fs the file system holding the checkpoint.
+   * @param path the path of the checkpoint file.
+   * @param conf the job configuration.
+   * @return the bundle containing all checkpointed messages.
+   * @throws IOException
+   */
+  @SuppressWarnings("unchecked")
+  public static <M extends Writable> BSPMessageBundle<M> readCheckpoint(
+      FileSystem fs, Path path, Configuration conf) throws IOException {
+    BSPMessageBundle<M> bundle = new BSPMessageBundle<M>();
+    // available() isn't a valid end of stream test for distributed streams
+    long length = fs.getFileStatus(path).getLen();
+    FSDataInputStream in = fs.open(path);
+    try {
+      String className = in.readUTF();
+      String compressorClassName = in.readUTF();
+      BSPMessageCompressor<M> compressor = null;
+      if (compressorClassName.length() > 0) {
+        compressor = (BSPMessageCompressor<M>) ReflectionUtils.newInstance(
+            conf.getClassByName(compressorClassName), conf);
+      }
+
+      while (in.getPos() < length) {
+        int numMessages = in.readInt();
+        int rawLength = in.readInt();
+        byte[] stored = new byte[in.readInt()];
+        in.readFully(stored);
+
+        byte[] raw = compressor == null ? stored : compressor
+            .decompress(stored);
+        if (raw == null || raw.length != rawLength) {
+          throw new IOException("Corrupt checkpoint block in " + path);
+        }
+        bundle.addSerializedMessages(className, numMessages, raw, 0,
+            rawLength);
+      }
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Compressor class of checkpoint " + path
+          + " not found", e);
+    } finally {
+      in.close();
+    }
+    return bundle;
+  }
+
+}
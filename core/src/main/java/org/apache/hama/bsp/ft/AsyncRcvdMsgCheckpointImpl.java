@@ -17,7 +17,6 @@
  */
 package org.apache.hama.bsp.ft;
 
-import java.io.EOFException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
@@ -29,15 +28,12 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.BlockLocation;
-import org.apache.hadoop.fs.FSDataInputStream;
-import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.ArrayWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Writable;
-import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hama.Constants;
 import org.apache.hama.bsp.BSPJob;
 import org.apache.hama.bsp.BSPJobID;
@@ -52,7 +48,7 @@ import org.apache.hama.bsp.TaskAttemptID;
 import org.apache.hama.bsp.TaskID;
 import org.apache.hama.bsp.TaskInProgress;
 import org.apache.hama.bsp.TaskStatus;
-import org.apache.hama.bsp.message.MessageEventListener;
+import org.apache.hama.bsp.message.MessageEventAdapter;
 import org.apache.hama.bsp.message.MessageManager;
 import org.apache.hama.bsp.sync.MasterSyncClient;
 import org.apache.hama.bsp.sync.PeerSyncClient;
@@ -76,16 +72,15 @@ public class AsyncRcvdMsgCheckpointImpl<M extends Writable> implements
    * It is responsible to find the smallest superstep for which the
    * checkpointing is done and then restart all the peers from that superstep.
    */
-  private static class CheckpointMasterService implements
-      FaultTolerantMasterService {
+  static class CheckpointMasterService implements FaultTolerantMasterService {
 
-    private Configuration conf;
-    private TaskInProgress tasks[];
-    private BSPJobID jobId;
-    private int maxTaskAttempts;
-    private int currentAttemptId;
-    private MasterSyncClient masterSyncClient;
-    private TaskAllocationStrategy allocationStrategy;
+    protected Configuration conf;
+    protected TaskInProgress tasks[];
+    protected BSPJobID jobId;
+    protected int maxTaskAttempts;
+    protected int currentAttemptId;
+    protected MasterSyncClient masterSyncClient;
+    protected TaskAllocationStrategy allocationStrategy;
 
     /**
      * Initializes the fault tolerance service at BSPMasters
@@ -137,8 +132,9 @@ public class AsyncRcvdMsgCheckpointImpl<M extends Writable> implements
 
       long lowestSuperstepNumber = Long.MAX_VALUE;
 
+      String progressKey = progressKey(failedTasksInProgress);
       String[] taskProgress = this.masterSyncClient.getChildKeySet(
-          this.masterSyncClient.constructKey(jobId, "checkpoint"), null);
+          this.masterSyncClient.constructKey(jobId, progressKey), null);
 
       if (LOG.isDebugEnabled()) {
         StringBuffer list = new StringBuffer(25 * taskProgress.length);
@@ -155,7 +151,7 @@ public class AsyncRcvdMsgCheckpointImpl<M extends Writable> implements
           ArrayWritable progressInformation = new ArrayWritable(
               LongWritable.class);
           boolean result = this.masterSyncClient.getInformation(
-              this.masterSyncClient.constructKey(jobId, "checkpoint",
+              this.masterSyncClient.constructKey(jobId, progressKey,
                   taskProgres), progressInformation);
 
           if (!result) {
@@ -188,12 +184,20 @@ public class AsyncRcvdMsgCheckpointImpl<M extends Writable> implements
       ++currentAttemptId;
     }
 
+    /**
+     * Returns the key under which the peers stored the checkpoints the failed
+     * tasks are recovered from.
+     */
+    protected String progressKey(TaskInProgress[] failedTasksInProgress) {
+      return "checkpoint";
+    }
+
     private void clearClientForSuperstep(long superstep) {
       this.masterSyncClient.remove(
           masterSyncClient.constructKey(jobId, "sync"), null);
     }
 
-    private void populateAction(Task task, long superstep,
+    protected void populateAction(Task task, long superstep,
         GroomServerStatus groomStatus,
         Map<GroomServerStatus, List<GroomServerAction>> actionMap) {
       List<GroomServerAction> list = actionMap.get(groomStatus);
@@ -214,46 +218,55 @@ public class AsyncRcvdMsgCheckpointImpl<M extends Writable> implements
 
     }
 
+    /**
+     * Selects the groom for a failed task, preferring the hosts that store its
+     * checkpoint of the given superstep.
+     */
+    protected GroomServerStatus allocateRecoveredTask(TaskInProgress tip,
+        long superstep, Map<String, GroomServerStatus> groomStatuses,
+        Map<GroomServerStatus, Integer> taskCountInGroomMap) throws IOException {
+      // Update task count in map.
+      // TODO: This should be a responsibility of GroomServerStatus
+      Integer count = taskCountInGroomMap.get(tip.getGroomServerStatus());
+      if (count != null) {
+        count = count.intValue() - 1;
+        taskCountInGroomMap.put(tip.getGroomServerStatus(), count);
+      }
+
+      String path = conf.get("bsp.checkpoint.prefix_path", "/checkpoint/");
+      FileSystem fileSystem = FileSystem.get(conf);
+      String[] hosts = null;
+
+      StringBuffer ckptPath = new StringBuffer(path);
+      ckptPath.append(this.jobId.toString());
+      ckptPath.append("/").append(superstep).append("/")
+          .append(tip.getTaskId().getId());
+      Path checkpointPath = new Path(ckptPath.toString());
+      if (fileSystem.exists(checkpointPath)) {
+        FileStatus fileStatus = fileSystem.getFileStatus(checkpointPath);
+        BlockLocation[] blocks = fileSystem.getFileBlockLocations(fileStatus,
+            0, fileStatus.getLen());
+        hosts = blocks[0].getHosts();
+      } else {
+        hosts = new String[groomStatuses.keySet().size()];
+        groomStatuses.keySet().toArray(hosts);
+      }
+      return this.allocationStrategy.getGroomToAllocate(groomStatuses, hosts,
+          taskCountInGroomMap, new BSPResource[0], tip);
+    }
+
     private void restartJob(long superstep,
         Map<String, GroomServerStatus> groomStatuses,
         Map<TaskID, TaskInProgress> recoveryMap, TaskInProgress[] allTasks,
         Map<GroomServerStatus, Integer> taskCountInGroomMap,
         Map<GroomServerStatus, List<GroomServerAction>> actionMap)
         throws IOException {
-      String path = conf.get("bsp.checkpoint.prefix_path", "/checkpoint/");
-
       if (superstep >= 0) {
-        FileSystem fileSystem = FileSystem.get(conf);
         for (TaskInProgress allTask : allTasks) {
-          String[] hosts = null;
           if (recoveryMap.containsKey(allTask.getTaskId())) {
 
-            // Update task count in map.
-            // TODO: This should be a responsibility of GroomServerStatus
-            Integer count = taskCountInGroomMap.get(allTask
-                .getGroomServerStatus());
-            if (count != null) {
-              count = count.intValue() - 1;
-              taskCountInGroomMap.put(allTask.getGroomServerStatus(), count);
-            }
-
-            StringBuffer ckptPath = new StringBuffer(path);
-            ckptPath.append(this.jobId.toString());
-            ckptPath.append("/").append(superstep).append("/")
-                .append(allTask.getTaskId().getId());
-            Path checkpointPath = new Path(ckptPath.toString());
-            if (fileSystem.exists(checkpointPath)) {
-              FileStatus fileStatus = fileSystem.getFileStatus(checkpointPath);
-              BlockLocation[] blocks = fileSystem.getFileBlockLocations(
-                  fileStatus, 0, fileStatus.getLen());
-              hosts = blocks[0].getHosts();
-            } else {
-              hosts = new String[groomStatuses.keySet().size()];
-              groomStatuses.keySet().toArray(hosts);
-            }
-            GroomServerStatus serverStatus = this.allocationStrategy
-                .getGroomToAllocate(groomStatuses, hosts, taskCountInGroomMap,
-                    new BSPResource[0], allTask);
+            GroomServerStatus serverStatus = allocateRecoveredTask(allTask,
+                superstep, groomStatuses, taskCountInGroomMap);
             Task task = allTask.constructTask(serverStatus);
             populateAction(task, superstep, serverStatus, actionMap);
 
@@ -305,26 +318,28 @@ public class AsyncRcvdMsgCheckpointImpl<M extends Writable> implements
    * Initializes the peer fault tolerance by checkpointing service. For
    * recovery, on peer initialization, it reads all the checkpointed messages to
    * recover the state of the peer. During normal working, it checkpoints all
-   * the messages it received in the previous superstep. It also stores the
-   * superstep progress in the global synchronization area.
+   * the messages it received in the previous superstep. The received bundles
+   * are handed to an {@link AsyncCheckpointWriter}, so the receiving threads
+   * never block on the file system. It also stores the superstep progress in
+   * the global synchronization area.
    * 
    */
-  public static class CheckpointPeerService<M extends Writable> implements
-      FaultTolerantPeerService<M>, MessageEventListener<M> {
+  public static class CheckpointPeerService<M extends Writable> extends
+      MessageEventAdapter<M> implements FaultTolerantPeerService<M> {
 
-    private BSPJob job;
+    protected BSPJob job;
     @SuppressWarnings("rawtypes")
-    private BSPPeer peer;
-    private PeerSyncClient syncClient;
-    private long superstep;
-    private Configuration conf;
-    private MessageManager<M> messenger;
-    private FileSystem fs;
+    protected BSPPeer peer;
+    protected PeerSyncClient syncClient;
+    protected long superstep;
+    protected Configuration conf;
+    protected MessageManager<M> messenger;
+    protected FileSystem fs;
     private int checkPointInterval;
-    volatile private long lastCheckPointStep;
-    volatile private boolean checkpointState;
-    volatile private FSDataOutputStream checkpointStream;
+    volatile protected long lastCheckPointStep;
+    volatile protected boolean checkpointState;
     volatile private long checkpointMessageCount;
+    private AsyncCheckpointWriter<M> checkpointWriter;
 
     public void initialize(BSPJob job,
         @SuppressWarnings("rawtypes") BSPPeer bspPeer,
@@ -341,21 +356,24 @@ public class AsyncRcvdMsgCheckpointImpl<M extends Writable> implements
       this.fs = FileSystem.get(conf);
       this.checkPointInterval = conf.getInt(Constants.CHECKPOINT_INTERVAL,
           Constants.DEFAULT_CHECKPOINT_INTERVAL);
-      this.checkPointInterval = conf.getInt(Constants.CHECKPOINT_INTERVAL,
-          Constants.DEFAULT_CHECKPOINT_INTERVAL);
 
       this.checkpointState = conf.getBoolean(Constants.CHECKPOINT_ENABLED,
           false);
 
       if (superstep > 0) {
         this.lastCheckPointStep = this.superstep;
+        // the replayed messages of the restored checkpoint aren't received
+        // again, so the next checkpoint is due after the interval
+        this.checkpointState = false;
       } else {
         this.lastCheckPointStep = 1;
       }
       this.checkpointMessageCount = 0L;
+      this.checkpointWriter = new AsyncCheckpointWriter<M>(fs, conf);
+      this.checkpointWriter.start();
     }
 
-    private String checkpointPath(long step) {
+    protected String checkpointPath(long step) {
       String backup = conf.get("bsp.checkpoint.prefix_path", "checkpoint/");
       String ckptPath = backup + job.getJobID().toString() + "/" + (step) + "/"
           + peer.getPeerIndex();
@@ -368,16 +386,7 @@ public class AsyncRcvdMsgCheckpointImpl<M extends Writable> implements
     public TaskStatus.State onPeerInitialized(TaskStatus.State state)
         throws Exception {
       if (this.superstep >= 0 && state.equals(TaskStatus.State.RECOVERING)) {
-        ArrayWritable progressArr = new ArrayWritable(LongWritable.class);
-        boolean result = this.syncClient.getInformation(
-            this.syncClient.constructKey(job.getJobID(), "checkpoint",
-                String.valueOf(peer.getPeerIndex())), progressArr);
-
-        if (!result) {
-          throw new IOException("No data found to restore peer state.");
-        }
-
-        Writable[] progressInfo = progressArr.get();
+        Writable[] progressInfo = readProgress();
         long superstepProgress = ((LongWritable) progressInfo[0]).get();
         long numMessages = ((LongWritable) progressInfo[1]).get();
 
@@ -387,25 +396,13 @@ public class AsyncRcvdMsgCheckpointImpl<M extends Writable> implements
         }
 
         if (numMessages > 0) {
-          Path path = new Path(checkpointPath(superstepProgress));
-          FSDataInputStream in = this.fs.open(path);
-          BSPMessageBundle<M> bundle = new BSPMessageBundle<M>();
-          try {
-            for (int i = 0; i < numMessages; ++i) {
-              String className = in.readUTF();
-              @SuppressWarnings("unchecked")
-              M message = (M) ReflectionUtils.newInstance(
-                  Class.forName(className), conf);
-              message.readFields(in);
-              bundle.addMessage(message);
-            }
-            messenger.loopBackMessages(bundle);
-          } catch (EOFException e) {
-            LOG.error("Error recovering from checkpointing", e);
-            throw new IOException(e);
-          } finally {
-            this.fs.close();
+          BSPMessageBundle<M> bundle = readCheckpoint(superstepProgress);
+          if (bundle.size() != numMessages) {
+            throw new IOException("Expected " + numMessages
+                + " checkpointed messages of superstep " + superstepProgress
+                + " but found " + bundle.size());
           }
+          messenger.loopBackMessages(bundle);
         }
       }
       this.messenger.registerListener(this);
@@ -413,6 +410,47 @@ public class AsyncRcvdMsgCheckpointImpl<M extends Writable> implements
 
     }
 
+    /**
+     * Reads the superstep and the number of messages of the last checkpoint of
+     * this peer from the global synchronization area.
+     */
+    protected Writable[] readProgress() throws IOException {
+      ArrayWritable progressArr = new ArrayWritable(LongWritable.class);
+      boolean result = this.syncClient.getInformation(
+          this.syncClient.constructKey(job.getJobID(), "checkpoint",
+              String.valueOf(peer.getPeerIndex())), progressArr);
+
+      if (!result) {
+        throw new IOException("No data found to restore peer state.");
+      }
+      return progressArr.get();
+    }
+
+    /**
+     * Reads the messages checkpointed in the given superstep.
+     */
+    protected BSPMessageBundle<M> readCheckpoint(long step) throws IOException {
+      return AsyncCheckpointWriter.readCheckpoint(this.fs,
+          new Path(checkpointPath(step)), conf);
+    }
+
+    /**
+     * Adds received messages to the checkpoint of the given superstep.
+     */
+    protected void writeCheckpoint(long step, BSPMessageBundle<M> bundle) {
+      this.checkpointWriter.append(new Path(checkpointPath(step)), bundle);
+    }
+
+    /**
+     * Makes the checkpoint of the given superstep durable, before its progress
+     * is published.
+     */
+    protected void completeCheckpoint(long step, long numMessages)
+        throws Exception {
+      // only waits for the bundles received in the finished superstep
+      this.checkpointWriter.flush(new Path(checkpointPath(step)));
+    }
+
     public final boolean isReadyToCheckpoint() {
 
       checkPointInterval = conf.getInt(Constants.CHECKPOINT_INTERVAL, 1);
@@ -435,6 +473,15 @@ public class AsyncRcvdMsgCheckpointImpl<M extends Writable> implements
 
     }
 
+    /**
+     * Returns true while the peer re-executes supersteps that the other peers
+     * have already completed. The peer then neither enters the global barrier
+     * nor sends messages to the other peers.
+     */
+    public boolean isReplaying() {
+      return false;
+    }
+
     @Override
     public void beforeBarrier() throws Exception {
     }
@@ -446,14 +493,12 @@ public class AsyncRcvdMsgCheckpointImpl<M extends Writable> implements
     @Override
     public void afterBarrier() throws Exception {
 
+      if (checkpointState) {
+        completeCheckpoint(peer.getSuperstepCount(), checkpointMessageCount);
+      }
+
       synchronized (this) {
         if (checkpointState) {
-
-          if (checkpointStream != null) {
-            this.checkpointStream.close();
-            this.checkpointStream = null;
-          }
-
           lastCheckPointStep = peer.getSuperstepCount();
 
           ArrayWritable writableArray = new ArrayWritable(LongWritable.class);
@@ -491,50 +536,33 @@ public class AsyncRcvdMsgCheckpointImpl<M extends Writable> implements
 
     @Override
     public void onMessageReceived(M message) {
-      String checkpointedPath = null;
-
       if (message == null) {
         LOG.error("Message M is found to be null");
+        return;
       }
 
+      BSPMessageBundle<M> bundle = new BSPMessageBundle<M>();
+      bundle.addMessage(message);
+      onBundleReceived(bundle);
+    }
+
+    @Override
+    public void onBundleReceived(BSPMessageBundle<M> bundle) {
       synchronized (this) {
         if (checkpointState) {
-          if (this.checkpointStream == null) {
-            checkpointedPath = checkpointPath(peer.getSuperstepCount() + 1);
-            try {
-              LOG.info("Creating path " + checkpointedPath);
-              if (LOG.isDebugEnabled()) {
-                LOG.debug("Creating path " + checkpointedPath);
-              }
-              checkpointStream = this.fs.create(new Path(checkpointedPath));
-            } catch (IOException ioe) {
-              LOG.error("Fail checkpointing messages to " + checkpointedPath,
-                  ioe);
-              throw new RuntimeException("Failed opening HDFS file "
-                  + checkpointedPath, ioe);
-            }
-          }
-          try {
-            ++checkpointMessageCount;
-            checkpointStream.writeUTF(message.getClass().getCanonicalName());
-            message.write(checkpointStream);
-          } catch (IOException ioe) {
-            LOG.error("Fail checkpointing messages to " + checkpointedPath, ioe);
-            throw new RuntimeException("Failed writing to HDFS file "
-                + checkpointedPath, ioe);
-          }
+          checkpointMessageCount += bundle.size();
+          writeCheckpoint(peer.getSuperstepCount() + 1, bundle);
 
           if (LOG.isDebugEnabled()) {
             LOG.debug("message count = " + checkpointMessageCount);
           }
         }
       }
-
     }
 
     @Override
     public void onClose() {
-
+      this.checkpointWriter.close();
     }
 
   }
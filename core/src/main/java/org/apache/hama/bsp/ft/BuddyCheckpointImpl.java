@@ -0,0 +1,556 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp.ft;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.ArrayWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hama.Constants;
+import org.apache.hama.bsp.BSPJob;
+import org.apache.hama.bsp.BSPJobID;
+import org.apache.hama.bsp.BSPMessageBundle;
+import org.apache.hama.bsp.BSPPeer;
+import org.apache.hama.bsp.GroomServerAction;
+import org.apache.hama.bsp.GroomServerStatus;
+import org.apache.hama.bsp.JobInProgress;
+import org.apache.hama.bsp.TaskAttemptID;
+import org.apache.hama.bsp.TaskInProgress;
+import org.apache.hama.bsp.message.MessageManager;
+import org.apache.hama.bsp.sync.MasterSyncClient;
+import org.apache.hama.bsp.sync.PeerSyncClient;
+import org.apache.hama.bsp.taskallocation.TaskAllocationStrategy;
+import org.apache.hama.ipc.RPC;
+import org.apache.hama.ipc.RPC.Server;
+import org.apache.hama.util.BSPNetUtils;
+
+/**
+ * <code>BuddyCheckpointImpl</code> checkpoints the received messages like
+ * {@link AsyncRcvdMsgCheckpointImpl}, but instead of writing every checkpoint
+ * to the distributed file system, a peer sends it to
+ * <code>bsp.checkpoint.buddy.replicas</code> buddy peers, preferably on other
+ * grooms, which keep it on their local disk. Every
+ * <code>bsp.checkpoint.buddy.hdfs.interval</code>-th checkpoint is additionally
+ * written to the file system. On recovery a peer fetches its checkpoint from
+ * the buddies. If the failed tasks ran on more grooms than there are buddy
+ * replicas, the job is restarted from the last checkpoint on the file system.
+ * 
+ * The messages of a checkpoint are kept in memory up to
+ * <code>bsp.checkpoint.buddy.memory</code> bytes and spilled to the local disk
+ * beyond that, then they are sent to the buddies in chunks of that size.
+ */
+public class BuddyCheckpointImpl<M extends Writable> extends
+    AsyncRcvdMsgCheckpointImpl<M> {
+
+  private static final Log LOG = LogFactory.getLog(BuddyCheckpointImpl.class);
+
+  /**
+   * Key under which every peer publishes the address of its buddy store.
+   */
+  static final String BUDDY_CHECKPOINT_KEY = "buddycheckpoint";
+
+  /**
+   * Key under which the progress of the checkpoints on the file system is
+   * stored.
+   */
+  static final String HDFS_CHECKPOINT_KEY = "hdfscheckpoint";
+
+  /**
+   * Key under which the master marks a recovery from the file system.
+   */
+  static final String HDFS_RECOVERY_KEY = "hdfsrecovery";
+
+  private static final long FETCH_TIMEOUT = 60000L;
+
+  /**
+   * Restarts from the buddy checkpoints, or from the file system if the buddy
+   * replicas may have been lost together with the failed tasks.
+   */
+  private static class BuddyMasterService extends CheckpointMasterService {
+
+    @Override
+    public void recoverTasks(JobInProgress jip,
+        Map<String, GroomServerStatus> groomStatuses,
+        TaskInProgress[] failedTasksInProgress,
+        TaskInProgress[] allTasksInProgress,
+        Map<GroomServerStatus, Integer> taskCountInGroomMap,
+        Map<GroomServerStatus, List<GroomServerAction>> actionMap)
+        throws IOException {
+      String recoveryKey = masterSyncClient.constructKey(jobId,
+          HDFS_RECOVERY_KEY);
+      if (HDFS_CHECKPOINT_KEY.equals(progressKey(failedTasksInProgress))) {
+        masterSyncClient.storeInformation(recoveryKey, new LongWritable(
+            currentAttemptId), true, null);
+      } else {
+        masterSyncClient.remove(recoveryKey, null);
+      }
+      super.recoverTasks(jip, groomStatuses, failedTasksInProgress,
+          allTasksInProgress, taskCountInGroomMap, actionMap);
+    }
+
+    @Override
+    protected String progressKey(TaskInProgress[] failedTasksInProgress) {
+      Set<String> failedGrooms = new HashSet<String>();
+      for (TaskInProgress tip : failedTasksInProgress) {
+        if (tip.getGroomServerStatus() != null) {
+          failedGrooms.add(tip.getGroomServerStatus().getGroomHostName());
+        }
+      }
+      int replicas = conf.getInt(Constants.CHECKPOINT_BUDDY_REPLICAS,
+          Constants.DEFAULT_CHECKPOINT_BUDDY_REPLICAS);
+      if (failedGrooms.size() > replicas) {
+        return HDFS_CHECKPOINT_KEY;
+      }
+      return super.progressKey(failedTasksInProgress);
+    }
+
+  }
+
+  /**
+   * Replicates the checkpoints of this peer to its buddies and holds the
+   * checkpoints of the peers it is a buddy of.
+   */
+  public static class BuddyPeerService<M extends Writable> extends
+      CheckpointPeerService<M> implements BuddyCheckpointProtocol<M> {
+
+    private BuddyCheckpointStore<M> store;
+    private Server storeServer;
+    private final Map<Integer, BuddyCheckpointProtocol<M>> proxies = new HashMap<Integer, BuddyCheckpointProtocol<M>>();
+    private int replicas;
+    private int hdfsInterval;
+    volatile private long checkpointCount;
+
+    private int memoryLimit;
+    private FileSystem localFs;
+    private Path spillDir;
+    // messages of the pending checkpoint that weren't spilled yet
+    private BSPMessageBundle<M> pendingBundle;
+    private long pendingStep = -1L;
+    private Path pendingSpill;
+    private FSDataOutputStream spillStream;
+    private IOException spillError;
+    private boolean recoverFromHdfs;
+
+    @Override
+    public void initialize(BSPJob job,
+        @SuppressWarnings("rawtypes") BSPPeer bspPeer,
+        PeerSyncClient syncClient, InetSocketAddress peerAddress,
+        TaskAttemptID taskAttemptId, long superstep, Configuration conf,
+        MessageManager<M> messenger) throws IOException {
+      super.initialize(job, bspPeer, syncClient, peerAddress, taskAttemptId,
+          superstep, conf, messenger);
+      this.replicas = conf.getInt(Constants.CHECKPOINT_BUDDY_REPLICAS,
+          Constants.DEFAULT_CHECKPOINT_BUDDY_REPLICAS);
+      this.hdfsInterval = conf.getInt(Constants.CHECKPOINT_BUDDY_HDFS_INTERVAL,
+          Constants.DEFAULT_CHECKPOINT_BUDDY_HDFS_INTERVAL);
+      this.memoryLimit = conf.getInt(Constants.CHECKPOINT_BUDDY_MEMORY,
+          Constants.DEFAULT_CHECKPOINT_BUDDY_MEMORY);
+      this.localFs = FileSystem.getLocal(conf);
+      this.spillDir = new Path(new Path(new Path(conf.get("bsp.local.dir",
+          "/tmp/hama"), "buddyspill"), job.getJobID().toString()),
+          taskAttemptId.toString());
+      this.store = new BuddyCheckpointStore<M>(conf, job.getJobID(),
+          bspPeer.getPeerIndex());
+
+      String host = peerAddress == null ? BSPNetUtils.getCanonicalHostname()
+          : peerAddress.getHostName();
+      this.storeServer = RPC.getServer(this, host, 0, 1, false, conf);
+      this.storeServer.start();
+      this.syncClient.storeInformation(this.syncClient.constructKey(
+          job.getJobID(), BUDDY_CHECKPOINT_KEY,
+          String.valueOf(bspPeer.getPeerIndex())), new Text(host + ":"
+          + storeServer.getListenerAddress().getPort()), true, null);
+    }
+
+    @Override
+    protected Writable[] readProgress() throws IOException {
+      if (!this.syncClient.hasKey(this.syncClient.constructKey(
+          job.getJobID(), HDFS_RECOVERY_KEY))) {
+        return super.readProgress();
+      }
+
+      // the master chose to restart from the file system checkpoints
+      LOG.info("Recovering from the file system checkpoints.");
+      ArrayWritable progressArr = new ArrayWritable(LongWritable.class);
+      if (!this.syncClient.getInformation(this.syncClient.constructKey(
+          job.getJobID(), HDFS_CHECKPOINT_KEY,
+          String.valueOf(peer.getPeerIndex())), progressArr)) {
+        throw new IOException("No checkpoint of superstep " + this.superstep
+            + " found to restore peer state.");
+      }
+      recoverFromHdfs = true;
+      return progressArr.get();
+    }
+
+    @Override
+    protected BSPMessageBundle<M> readCheckpoint(long step) throws IOException {
+      if (!recoverFromHdfs) {
+        long deadline = System.currentTimeMillis() + FETCH_TIMEOUT;
+        Set<Integer> pending = new HashSet<Integer>();
+        for (int i = 0; i < peer.getNumPeers(); i++) {
+          if (i != peer.getPeerIndex()) {
+            pending.add(i);
+          }
+        }
+
+        // the other peers may be restarting as well, so retry until every
+        // peer has answered or the timeout expires.
+        while (!pending.isEmpty() && System.currentTimeMillis() < deadline) {
+          for (Integer index : new ArrayList<Integer>(pending)) {
+            try {
+              BuddyCheckpointProtocol<M> buddy = getBuddy(index);
+              if (buddy.hasCheckpoint(peer.getPeerIndex(), step)) {
+                LOG.info("Restoring checkpoint of superstep " + step
+                    + " from peer " + index);
+                return buddy.getCheckpoint(peer.getPeerIndex(), step);
+              }
+              pending.remove(index);
+            } catch (IOException e) {
+              LOG.debug("Buddy " + index + " not reachable yet", e);
+              removeBuddy(index);
+            }
+          }
+          if (!pending.isEmpty()) {
+            try {
+              Thread.sleep(1000L);
+            } catch (InterruptedException e) {
+              throw new IOException(e);
+            }
+          }
+        }
+        LOG.warn("No buddy holds the checkpoint of superstep " + step
+            + ", reading it from the file system.");
+      }
+      return super.readCheckpoint(step);
+    }
+
+    @Override
+    protected void writeCheckpoint(long step, BSPMessageBundle<M> bundle) {
+      if (isHdfsCheckpoint()) {
+        super.writeCheckpoint(step, bundle);
+      }
+      if (pendingStep != step) {
+        discardPending();
+        pendingBundle = new BSPMessageBundle<M>();
+        pendingStep = step;
+      }
+      if (spillError != null) {
+        return;
+      }
+      try {
+        pendingBundle.addBundle(bundle);
+        if (pendingBundle.getSerializedLength() >= memoryLimit) {
+          spillPending();
+        }
+      } catch (IOException e) {
+        LOG.error("Fail spilling checkpoint of superstep " + step, e);
+        spillError = e;
+      }
+    }
+
+    private void spillPending() throws IOException {
+      if (spillStream == null) {
+        pendingSpill = new Path(spillDir, String.valueOf(pendingStep));
+        spillStream = localFs.create(pendingSpill, true);
+      }
+      pendingBundle.write(spillStream);
+      pendingBundle = new BSPMessageBundle<M>();
+    }
+
+    private void discardPending() {
+      if (spillStream != null) {
+        try {
+          spillStream.close();
+          localFs.delete(pendingSpill, false);
+        } catch (IOException e) {
+          LOG.warn("Spilled checkpoint " + pendingSpill
+              + " couldn't be deleted", e);
+        }
+      }
+      pendingBundle = null;
+      pendingStep = -1L;
+      pendingSpill = null;
+      spillStream = null;
+      spillError = null;
+    }
+
+    @Override
+    protected void completeCheckpoint(long step, long numMessages)
+        throws Exception {
+      BSPMessageBundle<M> bundle;
+      Path spill;
+      IOException error;
+      synchronized (this) {
+        if (pendingStep == step) {
+          bundle = pendingBundle;
+          spill = pendingSpill;
+          error = spillError;
+          if (spillStream != null) {
+            spillStream.close();
+          }
+        } else {
+          bundle = new BSPMessageBundle<M>();
+          spill = null;
+          error = null;
+        }
+        pendingBundle = null;
+        pendingStep = -1L;
+        pendingSpill = null;
+        spillStream = null;
+        spillError = null;
+      }
+
+      try {
+        if (error != null) {
+          throw error;
+        }
+        if (numMessages > 0) {
+          replicate(step, spill, bundle);
+        }
+      } finally {
+        if (spill != null) {
+          localFs.delete(spill, false);
+        }
+      }
+
+      if (isHdfsCheckpoint()) {
+        super.completeCheckpoint(step, numMessages);
+        ArrayWritable writableArray = new ArrayWritable(LongWritable.class);
+        writableArray.set(new Writable[] { new LongWritable(step),
+            new LongWritable(numMessages) });
+        this.syncClient.storeInformation(this.syncClient.constructKey(
+            job.getJobID(), HDFS_CHECKPOINT_KEY,
+            String.valueOf(peer.getPeerIndex())), writableArray, true, null);
+      }
+      ++checkpointCount;
+    }
+
+    /**
+     * Sends the spilled and the in-memory messages of the checkpoint of the
+     * given superstep to the buddies, chunk by chunk.
+     */
+    private void replicate(long step, Path spill, BSPMessageBundle<M> bundle)
+        throws IOException {
+      List<Integer> buddies = selectBuddies();
+      if (spill != null) {
+        long length = localFs.getFileStatus(spill).getLen();
+        FSDataInputStream in = localFs.open(spill);
+        try {
+          while (in.getPos() < length) {
+            BSPMessageBundle<M> chunk = new BSPMessageBundle<M>();
+            chunk.readFields(in);
+            append(buddies, step, chunk);
+          }
+        } finally {
+          in.close();
+        }
+      }
+      if (bundle.size() > 0) {
+        append(buddies, step, bundle);
+      }
+
+      int stored = 0;
+      for (int index : buddies) {
+        try {
+          getBuddy(index).commitCheckpoint(peer.getPeerIndex(), step);
+          ++stored;
+        } catch (IOException e) {
+          LOG.warn("Could not replicate checkpoint of superstep " + step
+              + " to peer " + index, e);
+          removeBuddy(index);
+        }
+      }
+      if (stored == 0) {
+        throw new IOException("Checkpoint of superstep " + step
+            + " could not be replicated to any buddy.");
+      }
+    }
+
+    private void append(List<Integer> buddies, long step,
+        BSPMessageBundle<M> chunk) {
+      Iterator<Integer> it = buddies.iterator();
+      while (it.hasNext()) {
+        int index = it.next();
+        try {
+          getBuddy(index).appendCheckpoint(peer.getPeerIndex(), step, chunk);
+        } catch (IOException e) {
+          LOG.warn("Could not replicate checkpoint of superstep " + step
+              + " to peer " + index, e);
+          removeBuddy(index);
+          it.remove();
+        }
+      }
+    }
+
+    @Override
+    public void onClose() {
+      super.onClose();
+      synchronized (this) {
+        discardPending();
+      }
+      try {
+        localFs.delete(spillDir, true);
+      } catch (IOException e) {
+        LOG.warn("Checkpoint spill dir " + spillDir + " couldn't be deleted", e);
+      }
+      if (storeServer != null) {
+        storeServer.stop();
+      }
+      for (BuddyCheckpointProtocol<M> proxy : proxies.values()) {
+        RPC.stopProxy(proxy);
+      }
+      store.close();
+    }
+
+    @Override
+    public void appendCheckpoint(int peerIndex, long superstep,
+        BSPMessageBundle<M> bundle) throws IOException {
+      store.append(peerIndex, superstep, bundle);
+    }
+
+    @Override
+    public void commitCheckpoint(int peerIndex, long superstep)
+        throws IOException {
+      store.commit(peerIndex, superstep);
+    }
+
+    @Override
+    public boolean hasCheckpoint(int peerIndex, long superstep) {
+      try {
+        return store.contains(peerIndex, superstep);
+      } catch (IOException e) {
+        LOG.error("Fail looking up checkpoint of peer " + peerIndex, e);
+        return false;
+      }
+    }
+
+    @Override
+    public BSPMessageBundle<M> getCheckpoint(int peerIndex, long superstep)
+        throws IOException {
+      return store.get(peerIndex, superstep);
+    }
+
+    @Override
+    public long getProtocolVersion(String protocol, long clientVersion)
+        throws IOException {
+      return versionID;
+    }
+
+    private boolean isHdfsCheckpoint() {
+      return hdfsInterval > 0 && (checkpointCount + 1) % hdfsInterval == 0;
+    }
+
+    /**
+     * Selects the peers following this one that run on distinct other hosts,
+     * then any other peers if there are not enough hosts.
+     */
+    private List<Integer> selectBuddies() {
+      String[] names = peer.getAllPeerNames();
+      int self = peer.getPeerIndex();
+      Set<String> hosts = new HashSet<String>();
+      hosts.add(hostOf(names[self]));
+
+      List<Integer> buddies = new ArrayList<Integer>(replicas);
+      for (int i = 1; i < names.length && buddies.size() < replicas; i++) {
+        int index = (self + i) % names.length;
+        if (hosts.add(hostOf(names[index]))) {
+          buddies.add(index);
+        }
+      }
+      for (int i = 1; i < names.length && buddies.size() < replicas; i++) {
+        int index = (self + i) % names.length;
+        if (!buddies.contains(index)) {
+          buddies.add(index);
+        }
+      }
+      return buddies;
+    }
+
+    private static String hostOf(String peerName) {
+      int colon = peerName.lastIndexOf(':');
+      return colon < 0 ? peerName : peerName.substring(0, colon);
+    }
+
+    @SuppressWarnings("unchecked")
+    private BuddyCheckpointProtocol<M> getBuddy(int index) throws IOException {
+      BuddyCheckpointProtocol<M> proxy = proxies.get(index);
+      if (proxy == null) {
+        Text address = new Text();
+        if (!this.syncClient.getInformation(this.syncClient.constructKey(
+            job.getJobID(), BUDDY_CHECKPOINT_KEY, String.valueOf(index)),
+            address)) {
+          throw new IOException("No buddy store found for peer " + index);
+        }
+        proxy = (BuddyCheckpointProtocol<M>) RPC.getProxy(
+            BuddyCheckpointProtocol.class, BuddyCheckpointProtocol.versionID,
+            BSPNetUtils.getAddress(address.toString()), conf);
+        proxies.put(index, proxy);
+      }
+      return proxy;
+    }
+
+    private void removeBuddy(int index) {
+      BuddyCheckpointProtocol<M> proxy = proxies.remove(index);
+      if (proxy != null) {
+        RPC.stopProxy(proxy);
+      }
+    }
+
+  }
+
+  @Override
+  public FaultTolerantPeerService<M> constructPeerFaultTolerance(BSPJob job,
+      @SuppressWarnings("rawtypes") BSPPeer bspPeer, PeerSyncClient syncClient,
+      InetSocketAddress peerAddress, TaskAttemptID taskAttemptId,
+      long superstep, Configuration conf, MessageManager<M> messenger)
+      throws Exception {
+    BuddyPeerService<M> service = new BuddyPeerService<M>();
+    service.initialize(job, bspPeer, syncClient, peerAddress, taskAttemptId,
+        superstep, conf, messenger);
+    return service;
+  }
+
+  @Override
+  public FaultTolerantMasterService constructMasterFaultTolerance(
+      BSPJobID jobId, int maxTaskAttempts, TaskInProgress[] tasks,
+      Configuration conf, MasterSyncClient masterClient,
+      TaskAllocationStrategy allocationStrategy) throws Exception {
+    BuddyMasterService service = new BuddyMasterService();
+    service.initialize(jobId, maxTaskAttempts, tasks, conf, masterClient,
+        allocationStrategy);
+    return service;
+  }
+
+}
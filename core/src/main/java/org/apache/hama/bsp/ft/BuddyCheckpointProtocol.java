@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp.ft;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hama.bsp.BSPMessageBundle;
+import org.apache.hama.ipc.HamaRPCProtocolVersion;
+
+/**
+ * Protocol through which a peer hands its checkpoints to its buddy peers and
+ * through which a restarted peer fetches them back.
+ */
+public interface BuddyCheckpointProtocol<M extends Writable> extends
+    HamaRPCProtocolVersion {
+
+  /**
+   * Appends a chunk of the messages the given peer checkpointed in the given
+   * superstep.
+   * 
+   * @param peerIndex The index of the peer that owns the checkpoint.
+   * @param superstep The superstep of the checkpoint.
+   * @param bundle The checkpointed messages.
+   */
+  public void appendCheckpoint(int peerIndex, long superstep,
+      BSPMessageBundle<M> bundle) throws IOException;
+
+  /**
+   * Completes the checkpoint of the given peer and superstep, after all of
+   * its chunks have been appended.
+   */
+  public void commitCheckpoint(int peerIndex, long superstep)
+      throws IOException;
+
+  /**
+   * @return true if this peer holds the checkpoint of the given peer and
+   *         superstep.
+   */
+  public boolean hasCheckpoint(int peerIndex, long superstep);
+
+  /**
+   * Returns the messages the given peer checkpointed in the given superstep.
+   */
+  public BSPMessageBundle<M> getCheckpoint(int peerIndex, long superstep)
+      throws IOException;
+
+}
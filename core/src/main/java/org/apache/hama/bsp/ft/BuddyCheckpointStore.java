@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp.ft;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Writable;
+import org.apache.hama.bsp.BSPJobID;
+import org.apache.hama.bsp.BSPMessageBundle;
+
+/**
+ * <code>BuddyCheckpointStore</code> keeps the checkpoints that other peers
+ * replicated to this peer on the local disk of the groom, under
+ * <code>bsp.local.dir/buddycheckpoint/&lt;job&gt;/&lt;holder&gt;/&lt;peer&gt;/&lt;superstep&gt;</code>.
+ * The files outlive the task, so a peer that is restarted on the same groom
+ * during a recovery can still serve them. Only the two latest checkpoints of
+ * every peer are kept, the older one is needed until the progress of the
+ * latest one has been published.
+ * 
+ * A checkpoint is appended in chunks and becomes visible once it is
+ * committed, so neither side has to hold the whole checkpoint in memory.
+ */
+public class BuddyCheckpointStore<M extends Writable> {
+
+  private static final Log LOG = LogFactory.getLog(BuddyCheckpointStore.class);
+
+  private final FileSystem localFs;
+  private final Path storeDir;
+  // checkpoints being appended, by the index of their peer
+  private final Map<Integer, Path> openFiles = new HashMap<Integer, Path>();
+  private final Map<Integer, FSDataOutputStream> openStreams = new HashMap<Integer, FSDataOutputStream>();
+
+  public BuddyCheckpointStore(Configuration conf, BSPJobID jobId,
+      int holderIndex) throws IOException {
+    this.localFs = FileSystem.getLocal(conf);
+    this.storeDir = new Path(new Path(new Path(conf.get("bsp.local.dir",
+        "/tmp/hama"), "buddycheckpoint"), jobId.toString()),
+        String.valueOf(holderIndex));
+  }
+
+  /**
+   * Stores the checkpoint of the given peer and superstep at once.
+   */
+  public synchronized void store(int peerIndex, long superstep,
+      BSPMessageBundle<M> bundle) throws IOException {
+    append(peerIndex, superstep, bundle);
+    commit(peerIndex, superstep);
+  }
+
+  /**
+   * Appends a chunk of the checkpoint of the given peer and superstep. An
+   * uncommitted checkpoint of another superstep of that peer is discarded.
+   */
+  public synchronized void append(int peerIndex, long superstep,
+      BSPMessageBundle<M> bundle) throws IOException {
+    Path tmp = new Path(new Path(storeDir, String.valueOf(peerIndex)),
+        superstep + ".tmp");
+    if (!tmp.equals(openFiles.get(peerIndex))) {
+      discard(peerIndex);
+      openStreams.put(peerIndex, localFs.create(tmp, true));
+      openFiles.put(peerIndex, tmp);
+    }
+    bundle.write(openStreams.get(peerIndex));
+  }
+
+  /**
+   * Makes the appended checkpoint of the given peer and superstep visible and
+   * drops the checkpoints of that peer older than the previous one.
+   */
+  public synchronized void commit(int peerIndex, long superstep)
+      throws IOException {
+    Path peerDir = new Path(storeDir, String.valueOf(peerIndex));
+    Path tmp = new Path(peerDir, superstep + ".tmp");
+    if (!tmp.equals(openFiles.get(peerIndex))) {
+      throw new IOException("No checkpoint of superstep " + superstep
+          + " of peer " + peerIndex + " to commit.");
+    }
+    openFiles.remove(peerIndex);
+    openStreams.remove(peerIndex).close();
+
+    Path file = new Path(peerDir, String.valueOf(superstep));
+    localFs.delete(file, false);
+    if (!localFs.rename(tmp, file)) {
+      throw new IOException("Could not store checkpoint " + file);
+    }
+
+    long previous = -1L;
+    FileStatus[] files = localFs.listStatus(peerDir);
+    for (FileStatus status : files) {
+      long step = stepOf(status.getPath());
+      if (step < superstep && step > previous) {
+        previous = step;
+      }
+    }
+    for (FileStatus status : files) {
+      long step = stepOf(status.getPath());
+      if (step >= 0 && step < previous) {
+        localFs.delete(status.getPath(), false);
+      }
+    }
+  }
+
+  public synchronized boolean contains(int peerIndex, long superstep)
+      throws IOException {
+    return localFs.exists(path(peerIndex, superstep));
+  }
+
+  /**
+   * Reads the checkpoint of the given peer and superstep.
+   */
+  public synchronized BSPMessageBundle<M> get(int peerIndex, long superstep)
+      throws IOException {
+    BSPMessageBundle<M> bundle = new BSPMessageBundle<M>();
+    Path file = path(peerIndex, superstep);
+    long length = localFs.getFileStatus(file).getLen();
+    FSDataInputStream in = localFs.open(file);
+    try {
+      // readFields appends the messages of every chunk to the bundle
+      while (in.getPos() < length) {
+        bundle.readFields(in);
+      }
+    } finally {
+      in.close();
+    }
+    return bundle;
+  }
+
+  /**
+   * Deletes all checkpoints held by this peer.
+   */
+  public synchronized void close() {
+    for (Integer peerIndex : openFiles.keySet().toArray(new Integer[0])) {
+      discard(peerIndex);
+    }
+    try {
+      localFs.delete(storeDir, true);
+    } catch (IOException e) {
+      LOG.warn("Buddy checkpoint dir " + storeDir + " couldn't be deleted", e);
+    }
+  }
+
+  private void discard(int peerIndex) {
+    Path tmp = openFiles.remove(peerIndex);
+    if (tmp != null) {
+      try {
+        openStreams.remove(peerIndex).close();
+        localFs.delete(tmp, false);
+      } catch (IOException e) {
+        LOG.warn("Uncommitted checkpoint " + tmp + " couldn't be deleted", e);
+      }
+    }
+  }
+
+  private Path path(int peerIndex, long superstep) {
+    return new Path(new Path(storeDir, String.valueOf(peerIndex)),
+        String.valueOf(superstep));
+  }
+
+  private static long stepOf(Path path) {
+    try {
+      return Long.parseLong(path.getName());
+    } catch (NumberFormatException e) {
+      return -1L;
+    }
+  }
+
+}
@@ -0,0 +1,380 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp.ft;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.ArrayWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hama.bsp.BSPJob;
+import org.apache.hama.bsp.BSPJobID;
+import org.apache.hama.bsp.BSPMessageBundle;
+import org.apache.hama.bsp.BSPPeer;
+import org.apache.hama.bsp.BSPPeerImpl;
+import org.apache.hama.bsp.GroomServerAction;
+import org.apache.hama.bsp.GroomServerStatus;
+import org.apache.hama.bsp.JobInProgress;
+import org.apache.hama.bsp.Task;
+import org.apache.hama.bsp.TaskAttemptID;
+import org.apache.hama.bsp.TaskInProgress;
+import org.apache.hama.bsp.TaskStatus;
+import org.apache.hama.bsp.message.MessageManager;
+import org.apache.hama.bsp.sync.MasterSyncClient;
+import org.apache.hama.bsp.sync.PeerSyncClient;
+import org.apache.hama.bsp.taskallocation.TaskAllocationStrategy;
+import org.apache.hama.ipc.RPC;
+import org.apache.hama.ipc.RPC.Server;
+import org.apache.hama.util.BSPNetUtils;
+
+/**
+ * <code>ConfinedRecoveryImpl</code> rolls back only the failed task. Like
+ * {@link AsyncRcvdMsgCheckpointImpl} every peer checkpoints the messages it
+ * received, and in addition keeps a {@link SentMessageLog} of the messages it
+ * sent since the last checkpoint. When a single task fails it is restarted
+ * from its own last checkpoint while the other peers keep waiting in their
+ * barrier. The restarted peer re-executes the missed supersteps without
+ * entering the barrier, fetching the messages of every superstep from the
+ * message logs of the surviving peers, and joins the others once it reaches
+ * their superstep. If more than one task fails at the same time, all tasks are
+ * restarted as in {@link AsyncRcvdMsgCheckpointImpl}.
+ *
+ * In the superstep it failed in, the restarted peer sends all of its messages
+ * again, though the failed attempt may have delivered some of them already.
+ * Bundles are tagged with the index and superstep of their sender, so the
+ * other peers drop the bundles they already received.
+ *
+ * The re-execution relies on the supersteps of the failed task being
+ * deterministic given the received messages.
+ */
+public class ConfinedRecoveryImpl<M extends Writable> extends
+    AsyncRcvdMsgCheckpointImpl<M> {
+
+  private static final Log LOG = LogFactory.getLog(ConfinedRecoveryImpl.class);
+
+  /**
+   * Key under which the master marks a task that recovers alone.
+   */
+  static final String CONFINED_RECOVERY_KEY = "confinedrecovery";
+
+  /**
+   * Key under which every peer publishes the address of its message log.
+   */
+  static final String MESSAGE_LOG_KEY = "messagelog";
+
+  /**
+   * Restarts a single failed task from its last checkpoint and leaves the
+   * other tasks running.
+   */
+  private static class ConfinedMasterService extends CheckpointMasterService {
+
+    @Override
+    public void recoverTasks(JobInProgress jip,
+        Map<String, GroomServerStatus> groomStatuses,
+        TaskInProgress[] failedTasksInProgress,
+        TaskInProgress[] allTasksInProgress,
+        Map<GroomServerStatus, Integer> taskCountInGroomMap,
+        Map<GroomServerStatus, List<GroomServerAction>> actionMap)
+        throws IOException {
+
+      long superstep = -1L;
+      if (failedTasksInProgress.length == 1) {
+        superstep = lastCheckpoint(failedTasksInProgress[0]);
+      }
+
+      if (superstep < 0) {
+        LOG.info("Restarting all tasks of " + jobId + " to recover "
+            + failedTasksInProgress.length + " failed task(s).");
+        this.masterSyncClient.remove(
+            masterSyncClient.constructKey(jobId, CONFINED_RECOVERY_KEY), null);
+        super.recoverTasks(jip, groomStatuses, failedTasksInProgress,
+            allTasksInProgress, taskCountInGroomMap, actionMap);
+        return;
+      }
+
+      TaskInProgress tip = failedTasksInProgress[0];
+      LOG.info("Restarting " + tip.getTaskId() + " alone from superstep "
+          + superstep);
+
+      this.masterSyncClient.storeInformation(masterSyncClient.constructKey(
+          jobId, CONFINED_RECOVERY_KEY, String.valueOf(tip.getTaskId().getId())),
+          new LongWritable(superstep), true, null);
+
+      GroomServerStatus serverStatus = allocateRecoveredTask(tip, superstep,
+          groomStatuses, taskCountInGroomMap);
+      Task task = tip.constructTask(serverStatus);
+      populateAction(task, superstep, serverStatus, actionMap);
+
+      ++currentAttemptId;
+    }
+
+    private long lastCheckpoint(TaskInProgress tip) {
+      ArrayWritable progressInformation = new ArrayWritable(LongWritable.class);
+      boolean result = this.masterSyncClient.getInformation(
+          this.masterSyncClient.constructKey(jobId, "checkpoint",
+              String.valueOf(tip.getTaskId().getId())), progressInformation);
+      if (!result) {
+        return -1L;
+      }
+      return ((LongWritable) progressInformation.get()[0]).get();
+    }
+
+  }
+
+  /**
+   * Checkpoints the received messages, logs the sent messages and serves them
+   * to a restarted peer. When the peer itself has been restarted alone, it
+   * replays the supersteps the other peers have already completed.
+   */
+  public static class ConfinedPeerService<M extends Writable> extends
+      CheckpointPeerService<M> implements MessageLogProtocol<M> {
+
+    private SentMessageLog<M> sentMessages;
+    private Server logServer;
+    private final Map<String, Integer> peerIndices = new HashMap<String, Integer>();
+    private final Map<Integer, MessageLogProtocol<M>> logProxies = new HashMap<Integer, MessageLogProtocol<M>>();
+    // names of peers that were restarted, applied after the next barrier
+    private final Map<Integer, String> restartedPeers = new HashMap<Integer, String>();
+    private long previousCheckpointStep = 0L;
+
+    volatile private boolean recovering;
+    private long targetSuperstep;
+
+    @Override
+    public void initialize(BSPJob job,
+        @SuppressWarnings("rawtypes") BSPPeer bspPeer,
+        PeerSyncClient syncClient, InetSocketAddress peerAddress,
+        TaskAttemptID taskAttemptId, long superstep, Configuration conf,
+        MessageManager<M> messenger) throws IOException {
+      super.initialize(job, bspPeer, syncClient, peerAddress, taskAttemptId,
+          superstep, conf, messenger);
+      this.sentMessages = new SentMessageLog<M>(conf, taskAttemptId);
+
+      String host = peerAddress == null ? BSPNetUtils.getCanonicalHostname()
+          : peerAddress.getHostName();
+      this.logServer = RPC.getServer(this, host, 0, 1, false, conf);
+      this.logServer.start();
+      InetSocketAddress logAddress = this.logServer.getListenerAddress();
+      this.syncClient.storeInformation(this.syncClient.constructKey(
+          job.getJobID(), MESSAGE_LOG_KEY,
+          String.valueOf(bspPeer.getPeerIndex())), new Text(host + ":"
+          + logAddress.getPort()), true, null);
+    }
+
+    @Override
+    public TaskStatus.State onPeerInitialized(TaskStatus.State state)
+        throws Exception {
+      String confinedKey = this.syncClient.constructKey(job.getJobID(),
+          CONFINED_RECOVERY_KEY, String.valueOf(peer.getPeerIndex()));
+      if (!state.equals(TaskStatus.State.RECOVERING)
+          || !this.syncClient.hasKey(confinedKey)) {
+        return super.onPeerInitialized(state);
+      }
+
+      super.onPeerInitialized(state);
+      this.syncClient.remove(confinedKey, null);
+      // the peer doesn't enter the first barrier, which would make the
+      // restored messages current
+      messenger.clearOutgoingMessages();
+
+      targetSuperstep = peer.getSuperstepCount();
+      for (int i = 0; i < peer.getNumPeers(); i++) {
+        if (i != peer.getPeerIndex()) {
+          targetSuperstep = Math.max(targetSuperstep, getMessageLog(i)
+              .getCurrentSuperstep());
+        }
+      }
+      recovering = true;
+      LOG.info("Replaying supersteps " + peer.getSuperstepCount() + " to "
+          + targetSuperstep + " of peer " + peer.getPeerIndex());
+      return TaskStatus.State.RECOVERING;
+    }
+
+    @Override
+    public boolean isReplaying() {
+      return recovering && peer.getSuperstepCount() < targetSuperstep;
+    }
+
+    @Override
+    public void beforeBarrier() throws Exception {
+      super.beforeBarrier();
+      if (isReplaying()) {
+        fetchLoggedMessages(peer.getSuperstepCount());
+      }
+    }
+
+    @Override
+    public void duringBarrier() throws Exception {
+      super.duringBarrier();
+      if (recovering) {
+        // all peers have entered the barrier, so their logs are complete
+        fetchLoggedMessages(peer.getSuperstepCount());
+        recovering = false;
+        LOG.info("Peer " + peer.getPeerIndex() + " caught up at superstep "
+            + peer.getSuperstepCount());
+      }
+    }
+
+    @Override
+    public void afterBarrier() throws Exception {
+      boolean checkpointed = checkpointState;
+      super.afterBarrier();
+
+      if (checkpointed) {
+        // the failed peer restarts at its last checkpoint, which is at least
+        // the previous one of this peer.
+        sentMessages.truncate(previousCheckpointStep);
+        previousCheckpointStep = lastCheckPointStep;
+      }
+
+      synchronized (restartedPeers) {
+        if (peer instanceof BSPPeerImpl) {
+          for (Map.Entry<Integer, String> entry : restartedPeers.entrySet()) {
+            ((BSPPeerImpl<?, ?, ?, ?, ?>) peer).updatePeerName(entry.getKey(),
+                entry.getValue());
+          }
+        }
+        restartedPeers.clear();
+      }
+    }
+
+    @Override
+    public void onMessageSent(String peerName, M message) {
+      try {
+        sentMessages.add(peer.getSuperstepCount(), getPeerIndex(peerName),
+            message);
+      } catch (IOException ioe) {
+        LOG.error("Fail logging message sent to " + peerName, ioe);
+        throw new RuntimeException("Failed logging sent message", ioe);
+      }
+    }
+
+    @Override
+    public void onClose() {
+      super.onClose();
+      if (logServer != null) {
+        logServer.stop();
+      }
+      for (MessageLogProtocol<M> proxy : logProxies.values()) {
+        RPC.stopProxy(proxy);
+      }
+      sentMessages.close();
+    }
+
+    @Override
+    public BSPMessageBundle<M> getLoggedMessages(int peerIndex,
+        String peerName, long superstep) throws IOException {
+      synchronized (restartedPeers) {
+        restartedPeers.put(peerIndex, peerName);
+      }
+      BSPMessageBundle<M> bundle = sentMessages.get(superstep, peerIndex);
+      // tagged like the bundles sent in the superstep, so the restarted peer
+      // drops the ones it received directly already
+      bundle.setSource(peer.getPeerIndex(), superstep);
+      return bundle;
+    }
+
+    @Override
+    public long getCurrentSuperstep() {
+      return peer.getSuperstepCount();
+    }
+
+    @Override
+    public long getProtocolVersion(String protocol, long clientVersion)
+        throws IOException {
+      return versionID;
+    }
+
+    private void fetchLoggedMessages(long superstep) throws IOException {
+      for (int i = 0; i < peer.getNumPeers(); i++) {
+        if (i != peer.getPeerIndex()) {
+          BSPMessageBundle<M> bundle = getMessageLog(i).getLoggedMessages(
+              peer.getPeerIndex(), peer.getPeerName(), superstep);
+          if (bundle.size() > 0) {
+            messenger.loopBackMessages(bundle);
+          }
+        }
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private MessageLogProtocol<M> getMessageLog(int index) throws IOException {
+      MessageLogProtocol<M> proxy = logProxies.get(index);
+      if (proxy == null) {
+        Text address = new Text();
+        if (!this.syncClient.getInformation(this.syncClient.constructKey(
+            job.getJobID(), MESSAGE_LOG_KEY, String.valueOf(index)), address)) {
+          throw new IOException("No message log found for peer " + index);
+        }
+        proxy = (MessageLogProtocol<M>) RPC.getProxy(MessageLogProtocol.class,
+            MessageLogProtocol.versionID,
+            BSPNetUtils.getAddress(address.toString()), conf);
+        logProxies.put(index, proxy);
+      }
+      return proxy;
+    }
+
+    private int getPeerIndex(String peerName) {
+      Integer index = peerIndices.get(peerName);
+      if (index == null) {
+        String[] names = peer.getAllPeerNames();
+        for (int i = 0; i < names.length; i++) {
+          peerIndices.put(names[i], i);
+        }
+        index = peerIndices.get(peerName);
+        if (index == null) {
+          throw new IllegalArgumentException("Unknown peer " + peerName);
+        }
+      }
+      return index;
+    }
+
+  }
+
+  @Override
+  public FaultTolerantPeerService<M> constructPeerFaultTolerance(BSPJob job,
+      @SuppressWarnings("rawtypes") BSPPeer bspPeer, PeerSyncClient syncClient,
+      InetSocketAddress peerAddress, TaskAttemptID taskAttemptId,
+      long superstep, Configuration conf, MessageManager<M> messenger)
+      throws Exception {
+    ConfinedPeerService<M> service = new ConfinedPeerService<M>();
+    service.initialize(job, bspPeer, syncClient, peerAddress, taskAttemptId,
+        superstep, conf, messenger);
+    return service;
+  }
+
+  @Override
+  public FaultTolerantMasterService constructMasterFaultTolerance(
+      BSPJobID jobId, int maxTaskAttempts, TaskInProgress[] tasks,
+      Configuration conf, MasterSyncClient masterClient,
+      TaskAllocationStrategy allocationStrategy) throws Exception {
+    ConfinedMasterService service = new ConfinedMasterService();
+    service.initialize(jobId, maxTaskAttempts, tasks, conf, masterClient,
+        allocationStrategy);
+    return service;
+  }
+
+}
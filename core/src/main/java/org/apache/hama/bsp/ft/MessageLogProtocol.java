@@ -0,0 +1,50 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp.ft;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hama.bsp.BSPMessageBundle;
+import org.apache.hama.ipc.HamaRPCProtocolVersion;
+
+/**
+ * Protocol through which a restarted peer fetches the messages the other peers
+ * sent to its failed attempt.
+ */
+public interface MessageLogProtocol<M extends Writable> extends
+    HamaRPCProtocolVersion {
+
+  /**
+   * Returns the messages sent in the given superstep to the peer with the
+   * given index.
+   * 
+   * @param peerIndex The index of the restarted peer.
+   * @param peerName The name of the restarted peer, which replaces the name of
+   *          the failed attempt.
+   * @param superstep The superstep in which the messages were sent.
+   */
+  public BSPMessageBundle<M> getLoggedMessages(int peerIndex, String peerName,
+      long superstep) throws IOException;
+
+  /**
+   * @return the superstep the peer currently is in.
+   */
+  public long getCurrentSuperstep();
+
+}
@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp.ft;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Writable;
+import org.apache.hama.Constants;
+import org.apache.hama.bsp.BSPMessageBundle;
+import org.apache.hama.bsp.TaskAttemptID;
+
+/**
+ * <code>SentMessageLog</code> keeps the messages a peer sent, grouped by
+ * superstep and destination peer index, so that they can be replayed to a
+ * single restarted peer. The log is kept in memory up to a configured number
+ * of bytes, older supersteps are spilled to the local disk beyond that.
+ */
+public class SentMessageLog<M extends Writable> {
+
+  private static final Log LOG = LogFactory.getLog(SentMessageLog.class);
+
+  private final FileSystem localFs;
+  private final Path logDir;
+  private final long memoryLimit;
+  private long memoryUsed;
+  private int spillCount;
+
+  // superstep -> destination peer index -> messages
+  private final TreeMap<Long, Map<Integer, BSPMessageBundle<M>>> inMemory = new TreeMap<Long, Map<Integer, BSPMessageBundle<M>>>();
+  private final TreeMap<Long, List<Path>> spilled = new TreeMap<Long, List<Path>>();
+
+  public SentMessageLog(Configuration conf, TaskAttemptID taskId)
+      throws IOException {
+    this.localFs = FileSystem.getLocal(conf);
+    this.logDir = new Path(new Path(new Path(conf.get("bsp.local.dir",
+        "/tmp/hama"), "sendlog"), taskId.getJobID().toString()),
+        taskId.toString());
+    this.memoryLimit = conf.getLong(Constants.FT_MESSAGE_LOG_MEMORY,
+        Constants.DEFAULT_FT_MESSAGE_LOG_MEMORY);
+  }
+
+  /**
+   * Logs a message sent in the given superstep to the peer with the given
+   * index.
+   */
+  public synchronized void add(long superstep, int peerIndex, M message)
+      throws IOException {
+    Map<Integer, BSPMessageBundle<M>> bundles = inMemory.get(superstep);
+    if (bundles == null) {
+      bundles = new HashMap<Integer, BSPMessageBundle<M>>();
+      inMemory.put(superstep, bundles);
+    }
+    BSPMessageBundle<M> bundle = bundles.get(peerIndex);
+    if (bundle == null) {
+      bundle = new BSPMessageBundle<M>();
+      bundles.put(peerIndex, bundle);
+    }
+
+    int before = bundle.getSerializedLength();
+    bundle.addMessage(message);
+    memoryUsed += bundle.getSerializedLength() - before;
+
+    while (memoryUsed > memoryLimit && !inMemory.isEmpty()) {
+      spill(inMemory.firstKey());
+    }
+  }
+
+  /**
+   * Returns all messages sent in the given superstep to the peer with the
+   * given index.
+   */
+  public synchronized BSPMessageBundle<M> get(long superstep, int peerIndex)
+      throws IOException {
+    BSPMessageBundle<M> result = new BSPMessageBundle<M>();
+
+    List<Path> files = spilled.get(superstep);
+    if (files != null) {
+      for (Path file : files) {
+        long length = localFs.getFileStatus(file).getLen();
+        FSDataInputStream in = localFs.open(file);
+        try {
+          while (in.getPos() < length) {
+            int index = in.readInt();
+            BSPMessageBundle<M> bundle = new BSPMessageBundle<M>();
+            bundle.readFields(in);
+            if (index == peerIndex) {
+              result.addBundle(bundle);
+            }
+          }
+        } finally {
+          in.close();
+        }
+      }
+    }
+
+    Map<Integer, BSPMessageBundle<M>> bundles = inMemory.get(superstep);
+    if (bundles != null && bundles.containsKey(peerIndex)) {
+      result.addBundle(bundles.get(peerIndex));
+    }
+    return result;
+  }
+
+  /**
+   * Drops everything that was logged before the given superstep.
+   */
+  public synchronized void truncate(long superstep) throws IOException {
+    Iterator<Map.Entry<Long, Map<Integer, BSPMessageBundle<M>>>> it = inMemory
+        .headMap(superstep).entrySet().iterator();
+    while (it.hasNext()) {
+      for (BSPMessageBundle<M> bundle : it.next().getValue().values()) {
+        memoryUsed -= bundle.getSerializedLength();
+      }
+      it.remove();
+    }
+
+    Iterator<List<Path>> files = spilled.headMap(superstep).values()
+        .iterator();
+    while (files.hasNext()) {
+      for (Path file : files.next()) {
+        localFs.delete(file, false);
+      }
+      files.remove();
+    }
+  }
+
+  public synchronized void close() {
+    inMemory.clear();
+    spilled.clear();
+    memoryUsed = 0L;
+    try {
+      localFs.delete(logDir, true);
+    } catch (IOException e) {
+      LOG.warn("Message log dir " + logDir + " couldn't be deleted", e);
+    }
+  }
+
+  private void spill(long superstep) throws IOException {
+    Map<Integer, BSPMessageBundle<M>> bundles = inMemory.remove(superstep);
+    Path file = new Path(logDir, superstep + "_" + (spillCount++));
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Spilling sent messages of superstep " + superstep + " to "
+          + file);
+    }
+
+    FSDataOutputStream out = localFs.create(file, true);
+    try {
+      for (Map.Entry<Integer, BSPMessageBundle<M>> entry : bundles.entrySet()) {
+        out.writeInt(entry.getKey());
+        entry.getValue().write(out);
+        memoryUsed -= entry.getValue().getSerializedLength();
+      }
+    } finally {
+      out.close();
+    }
+
+    List<Path> files = spilled.get(superstep);
+    if (files == null) {
+      files = new ArrayList<Path>();
+      spilled.put(superstep, files);
+    }
+    files.add(file);
+  }
+
+}
@@ -24,8 +24,8 @@ import java.util.HashSet;
 
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableUtils;
-import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hama.bsp.InputSplit;
+import org.apache.hama.util.ReflectionUtils;
 
 /**
  * This InputSplit contains a set of child InputSplits. Any InputSplit inserted
@@ -137,11 +137,11 @@ public class CompositeInputSplit implements InputSplit {
     Class<? extends InputSplit>[] cls = new Class[card];
     try {
       for (int i = 0; i < card; ++i) {
-        cls[i] = Class.forName(Text.readString(in))
+        cls[i] = ReflectionUtils.classForName(Text.readString(in))
             .asSubclass(InputSplit.class);
       }
       for (int i = 0; i < card; ++i) {
-        splits[i] = ReflectionUtils.newInstance(cls[i], null);
+        splits[i] = ReflectionUtils.newInstance(cls[i]);
         splits[i].readFields(in);
       }
     } catch (ClassNotFoundException e) {
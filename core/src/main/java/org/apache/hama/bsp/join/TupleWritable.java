@@ -26,6 +26,7 @@ import java.util.NoSuchElementException;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableUtils;
+import org.apache.hama.util.ReflectionUtils;
 
 /**
  * Writable type storing multiple {@link org.apache.hadoop.io.Writable}s.
@@ -188,7 +189,8 @@ public class TupleWritable implements Writable, Iterable<Writable> {
     Class<? extends Writable>[] cls = new Class[card];
     try {
       for (int i = 0; i < card; ++i) {
-        cls[i] = Class.forName(Text.readString(in)).asSubclass(Writable.class);
+        cls[i] = ReflectionUtils.classForName(Text.readString(in)).asSubclass(
+            Writable.class);
       }
       for (int i = 0; i < card; ++i) {
         values[i] = cls[i].newInstance();
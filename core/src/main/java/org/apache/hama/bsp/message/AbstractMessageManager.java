@@ -19,10 +19,13 @@ package org.apache.hama.bsp.message;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Map.Entry;
 import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -34,6 +37,8 @@ import org.apache.hama.HamaConfiguration;
 import org.apache.hama.bsp.BSPMessageBundle;
 import org.apache.hama.bsp.BSPPeer;
 import org.apache.hama.bsp.BSPPeerImpl;
+import org.apache.hama.bsp.InputShuffle;
+import org.apache.hama.bsp.StripedCounter;
 import org.apache.hama.bsp.TaskAttemptID;
 import org.apache.hama.bsp.message.compress.BSPMessageCompressor;
 import org.apache.hama.bsp.message.compress.BSPMessageCompressorFactory;
@@ -65,6 +70,9 @@ public abstract class AbstractMessageManager<M extends Writable> implements
   protected SynchronizedQueue<M> localQueueForNextIteration;
   // this peer object is just used for counter incrementation
   protected BSPPeer<?, ?, ?, ?, M> peer;
+  // pre-resolved counter handles, null if the peer has no striped counters
+  private StripedCounter messagesSent;
+  private StripedCounter messagesReceived;
 
   // the task attempt id
   protected TaskAttemptID attemptId;
@@ -77,6 +85,12 @@ public abstract class AbstractMessageManager<M extends Writable> implements
 
   protected BSPMessageCompressor<M> compressor;
 
+  // receives the input records of a runtime partitioning shuffle
+  private volatile InputShuffle inputShuffle;
+
+  // senders of the tagged bundles received per superstep
+  private final TreeMap<Long, Set<Integer>> receivedSources = new TreeMap<Long, Set<Integer>>();
+
   /*
    * (non-Javadoc)
    * @see org.apache.hama.bsp.message.MessageManager#init(org.apache.hama.bsp.
@@ -89,6 +103,13 @@ public abstract class AbstractMessageManager<M extends Writable> implements
     this.messageListenerQueue = new LinkedList<MessageEventListener<M>>();
     this.attemptId = attemptId;
     this.peer = peer;
+    if (peer instanceof BSPPeerImpl) {
+      BSPPeerImpl<?, ?, ?, ?, M> impl = (BSPPeerImpl<?, ?, ?, ?, M>) peer;
+      this.messagesSent = impl
+          .getStripedCounter(BSPPeerImpl.PeerCounter.TOTAL_MESSAGES_SENT);
+      this.messagesReceived = impl
+          .getStripedCounter(BSPPeerImpl.PeerCounter.TOTAL_MESSAGES_RECEIVED);
+    }
     this.conf = conf;
     this.localQueue = getReceiverQueue();
     this.localQueueForNextIteration = getSynchronizedReceiverQueue();
@@ -193,7 +214,11 @@ public abstract class AbstractMessageManager<M extends Writable> implements
   @Override
   public void send(String peerName, M msg) throws IOException {
     outgoingMessageManager.addMessage(peerName, msg);
-    peer.incrementCounter(BSPPeerImpl.PeerCounter.TOTAL_MESSAGES_SENT, 1L);
+    if (messagesSent != null) {
+      messagesSent.increment(1L);
+    } else {
+      peer.incrementCounter(BSPPeerImpl.PeerCounter.TOTAL_MESSAGES_SENT, 1L);
+    }
     notifySentMessage(peerName, msg);
   }
 
@@ -257,6 +282,22 @@ public abstract class AbstractMessageManager<M extends Writable> implements
     }
   }
 
+  @SuppressWarnings("unchecked")
+  private void notifyReceivedBundle(BSPMessageBundle<M> bundle)
+      throws IOException {
+    for (MessageEventListener<M> aMessageListenerQueue : this.messageListenerQueue) {
+      if (aMessageListenerQueue instanceof MessageEventAdapter) {
+        ((MessageEventAdapter<M>) aMessageListenerQueue)
+            .onBundleReceived(bundle);
+      } else {
+        Iterator<M> it = bundle.iterator();
+        while (it.hasNext()) {
+          aMessageListenerQueue.onMessageReceived(it.next());
+        }
+      }
+    }
+  }
+
   private void notifyInit() {
     for (MessageEventListener<M> aMessageListenerQueue : this.messageListenerQueue) {
       aMessageListenerQueue.onInitialized();
@@ -277,22 +318,99 @@ public abstract class AbstractMessageManager<M extends Writable> implements
 
   }
 
+  /**
+   * Adds to the received messages counter of the peer.
+   */
+  protected final void countReceivedMessages(long amount) {
+    if (messagesReceived != null) {
+      messagesReceived.increment(amount);
+    } else {
+      peer.incrementCounter(BSPPeerImpl.PeerCounter.TOTAL_MESSAGES_RECEIVED,
+          amount);
+    }
+  }
+
+  /**
+   * Hands the input records of a runtime partitioning shuffle to the given
+   * shuffle instead of queueing them.
+   */
+  public final void setInputShuffle(InputShuffle inputShuffle) {
+    this.inputShuffle = inputShuffle;
+  }
+
+  /**
+   * Hands the given bundle to the input shuffle if it holds shuffled input
+   * records.
+   * 
+   * @return true if the bundle was consumed by the shuffle.
+   */
+  protected final boolean shuffleInput(BSPMessageBundle<M> bundle)
+      throws IOException {
+    if (inputShuffle == null
+        || !InputShuffle.Batch.class.getName().equals(
+            bundle.getMessageClassName())) {
+      return false;
+    }
+    Iterator<M> it = bundle.iterator();
+    while (it.hasNext()) {
+      inputShuffle.receive((InputShuffle.Batch) it.next());
+    }
+    return true;
+  }
+
+  /**
+   * A peer that was restarted alone sends the bundles of the superstep it
+   * failed in again, while the other peers may have received some of them
+   * from the failed attempt already.
+   * 
+   * @return true if a bundle from the same peer and superstep was received
+   *         before.
+   */
+  private boolean isResent(BSPMessageBundle<M> bundle) {
+    if (bundle.getSourcePeer() < 0) {
+      return false;
+    }
+    synchronized (receivedSources) {
+      Set<Integer> sources = receivedSources.get(bundle.getSourceSuperstep());
+      if (sources == null) {
+        // all peers that send are in the same superstep, older ones are done
+        receivedSources.headMap(bundle.getSourceSuperstep() - 1).clear();
+        sources = new HashSet<Integer>();
+        receivedSources.put(bundle.getSourceSuperstep(), sources);
+      }
+      return !sources.add(bundle.getSourcePeer());
+    }
+  }
+
   @Override
   public void loopBackMessages(BSPMessageBundle<M> bundle) throws IOException {
     bundle.setCompressor(compressor,
         conf.getLong("hama.messenger.compression.threshold", 128));
+    if (shuffleInput(bundle)) {
+      return;
+    }
+    if (isResent(bundle)) {
+      LOG.info("Dropping the bundle peer " + bundle.getSourcePeer()
+          + " sent again in superstep " + bundle.getSourceSuperstep());
+      return;
+    }
+
+    notifyReceivedBundle(bundle);
 
-    Iterator<? extends Writable> it = bundle.iterator();
+    Iterator<M> it = bundle.iterator();
+    long received = 0L;
     while (it.hasNext()) {
-      loopBackMessage(it.next());
+      this.localQueueForNextIteration.add(it.next());
+      received++;
     }
+    countReceivedMessages(received);
   }
 
   @SuppressWarnings("unchecked")
   @Override
   public void loopBackMessage(Writable message) throws IOException {
     this.localQueueForNextIteration.add((M) message);
-    peer.incrementCounter(BSPPeerImpl.PeerCounter.TOTAL_MESSAGES_RECEIVED, 1L);
+    countReceivedMessages(1L);
     notifyReceivedMessage((M) message);
 
   }
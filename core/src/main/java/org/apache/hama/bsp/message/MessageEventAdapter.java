@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp.message;
+
+import java.util.Iterator;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hama.bsp.BSPMessageBundle;
+
+/**
+ * A {@link MessageEventListener} that ignores all events. A message manager
+ * reports a received bundle to an adapter as a whole through
+ * {@link #onBundleReceived(BSPMessageBundle)}, and to other listeners message
+ * by message through {@link #onMessageReceived(Object)}.
+ */
+public class MessageEventAdapter<M extends Writable> implements
+    MessageEventListener<M> {
+
+  @Override
+  public void onInitialized() {
+  }
+
+  @Override
+  public void onMessageSent(String peerName, M message) {
+  }
+
+  @Override
+  public void onMessageReceived(M message) {
+  }
+
+  /**
+   * The function to handle the event when a bundle of messages is received.
+   * The messages of the bundle are not reported again through
+   * {@link #onMessageReceived(Object)}, which this implementation calls for
+   * each of them. <code>bundle</code> should not be modified.
+   * 
+   * @param bundle The bundle received.
+   */
+  public void onBundleReceived(BSPMessageBundle<M> bundle) {
+    Iterator<M> it = bundle.iterator();
+    while (it.hasNext()) {
+      onMessageReceived(it.next());
+    }
+  }
+
+  @Override
+  public void onClose() {
+  }
+
+}
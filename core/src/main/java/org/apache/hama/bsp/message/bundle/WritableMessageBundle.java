@@ -26,7 +26,7 @@ import java.util.List;
 import java.util.Map.Entry;
 
 import org.apache.hadoop.io.Writable;
-import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hama.util.ReflectionUtils;
 
 public class WritableMessageBundle<M extends Writable> extends
     POJOMessageBundle<M> implements Writable {
@@ -64,7 +64,7 @@ public class WritableMessageBundle<M extends Writable> extends
         Class<M> clazz = null;
         if ((clazz = classCache.get(className)) == null) {
           try {
-            clazz = (Class<M>) Class.forName(className);
+            clazz = (Class<M>) ReflectionUtils.classForName(className);
             classCache.put(className, clazz);
           } catch (ClassNotFoundException e) {
             LOG.error("Class was not found.", e);
@@ -72,7 +72,7 @@ public class WritableMessageBundle<M extends Writable> extends
         }
 
         for (int i = 0; i < size; i++) {
-          M msg = ReflectionUtils.newInstance(clazz, null);
+          M msg = ReflectionUtils.newInstance(clazz);
           msg.readFields(in);
           msgList.add(msg);
         }
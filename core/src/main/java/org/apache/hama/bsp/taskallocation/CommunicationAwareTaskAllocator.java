@@ -0,0 +1,229 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp.taskallocation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.net.DNSToSwitchMapping;
+import org.apache.hadoop.net.NetworkTopology;
+import org.apache.hadoop.net.ScriptBasedMapping;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hama.Constants;
+import org.apache.hama.bsp.GroomServerStatus;
+import org.apache.hama.bsp.TaskInProgress;
+
+/**
+ * <code>CommunicationAwareTaskAllocator</code> places tasks that exchange many
+ * messages close to each other. The bytes exchanged between pairs of tasks are
+ * read from {@link Constants#TASK_TRAFFIC_PATH}, see {@link TaskTraffic}. A
+ * task goes to the groom with a free slot where its messages to the tasks that
+ * are already placed are cheapest: free on the same groom, one unit per byte
+ * within the rack and {@link Constants#TASK_TRAFFIC_CROSS_RACK_COST} units per
+ * byte across racks. A groom without slots left for the heaviest partners that
+ * are not placed yet costs one unit per byte of those. Ties, and tasks without
+ * known traffic, are placed like {@link BestEffortDataLocalTaskAllocator} does.
+ */
+public class CommunicationAwareTaskAllocator implements TaskAllocationStrategy {
+
+  private static final Log LOG = LogFactory
+      .getLog(CommunicationAwareTaskAllocator.class);
+
+  private final BestEffortDataLocalTaskAllocator dataLocal = new BestEffortDataLocalTaskAllocator();
+  private TaskTraffic traffic = new TaskTraffic();
+  private float crossRackCost = Constants.DEFAULT_TASK_TRAFFIC_CROSS_RACK_COST;
+  private DNSToSwitchMapping rackMapping;
+  private final Map<String, String> racks = new HashMap<String, String>();
+  // groom of every task placed so far, by task id
+  private final Map<Integer, GroomServerStatus> placed = new HashMap<Integer, GroomServerStatus>();
+
+  @Override
+  public void initialize(Configuration conf) {
+    dataLocal.initialize(conf);
+    crossRackCost = conf.getFloat(Constants.TASK_TRAFFIC_CROSS_RACK_COST,
+        Constants.DEFAULT_TASK_TRAFFIC_CROSS_RACK_COST);
+    rackMapping = ReflectionUtils.newInstance(conf.getClass(
+        "topology.node.switch.mapping.impl", ScriptBasedMapping.class,
+        DNSToSwitchMapping.class), conf);
+
+    String path = conf.get(Constants.TASK_TRAFFIC_PATH);
+    if (path != null) {
+      Path trafficPath = new Path(path);
+      try {
+        traffic = TaskTraffic.read(trafficPath.getFileSystem(conf),
+            trafficPath);
+      } catch (IOException e) {
+        LOG.warn("Could not read the task traffic from " + path
+            + ", placing tasks by data locality only.", e);
+      }
+    }
+  }
+
+  /**
+   * Sets the traffic to place the tasks by.
+   */
+  public void setTraffic(TaskTraffic traffic) {
+    this.traffic = traffic;
+  }
+
+  private String getRack(String host) {
+    String rack = racks.get(host);
+    if (rack == null) {
+      List<String> resolved = rackMapping == null ? null : rackMapping
+          .resolve(Arrays.asList(host));
+      rack = resolved == null || resolved.isEmpty() ? NetworkTopology.DEFAULT_RACK
+          : resolved.get(0);
+      racks.put(host, rack);
+    }
+    return rack;
+  }
+
+  /**
+   * @return the cost of the messages the task would exchange with its partners
+   *         if it ran on the groom. Partners that are not placed yet count one
+   *         unit per byte if the groom has no slot left for them.
+   */
+  private double getCost(GroomServerStatus groom, Map<Integer, Long> partners,
+      long[] unplaced, int freeSlots) {
+    double cost = 0.0d;
+    String rack = getRack(groom.getGroomHostName());
+    for (Map.Entry<Integer, Long> partner : partners.entrySet()) {
+      GroomServerStatus other = placed.get(partner.getKey());
+      if (other == null || other.equals(groom)) {
+        continue;
+      }
+      if (rack.equals(getRack(other.getGroomHostName()))) {
+        cost += partner.getValue();
+      } else {
+        cost += partner.getValue() * (double) crossRackCost;
+      }
+    }
+    // the heaviest unplaced partners take the slots left on the groom
+    for (int i = Math.max(0, freeSlots - 1); i < unplaced.length; i++) {
+      cost += unplaced[i];
+    }
+    return cost;
+  }
+
+  /**
+   * @return the bytes exchanged with the partners that are not placed yet,
+   *         heaviest first.
+   */
+  private long[] getUnplaced(Map<Integer, Long> partners) {
+    List<Long> bytes = new ArrayList<Long>();
+    for (Map.Entry<Integer, Long> partner : partners.entrySet()) {
+      if (!placed.containsKey(partner.getKey())) {
+        bytes.add(partner.getValue());
+      }
+    }
+    Collections.sort(bytes, Collections.reverseOrder());
+    long[] result = new long[bytes.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = bytes.get(i);
+    }
+    return result;
+  }
+
+  private static int getFreeSlots(GroomServerStatus groom,
+      Map<GroomServerStatus, Integer> taskCountInGroomMap) {
+    Integer tasksInGroom = taskCountInGroomMap.get(groom);
+    return groom.getMaxTasks() - (tasksInGroom == null ? 0 : tasksInGroom);
+  }
+
+  @Override
+  public GroomServerStatus getGroomToAllocate(
+      Map<String, GroomServerStatus> groomStatuses, String[] selectedGrooms,
+      Map<GroomServerStatus, Integer> taskCountInGroomMap,
+      BSPResource[] resources, TaskInProgress taskInProgress) {
+    if (!taskInProgress.canStartTask()) {
+      return null;
+    }
+
+    int task = taskInProgress.idWithinJob();
+    // the data local choice breaks ties
+    GroomServerStatus best = dataLocal.getGroomToAllocate(groomStatuses,
+        selectedGrooms, taskCountInGroomMap, resources, taskInProgress);
+    Map<Integer, Long> partners = traffic.getPartners(task);
+
+    if (best != null && !partners.isEmpty()) {
+      // a data local groom wins ties, otherwise the groom with the most free
+      // slots, which leaves room for the partners placed later
+      boolean local = selectedGrooms != null
+          && Arrays.asList(selectedGrooms).contains(best.getGroomHostName());
+      long[] unplaced = getUnplaced(partners);
+      int bestFree = getFreeSlots(best, taskCountInGroomMap);
+      double bestCost = getCost(best, partners, unplaced, bestFree);
+      for (GroomServerStatus groom : groomStatuses.values()) {
+        if (groom == null) {
+          continue;
+        }
+        int free = getFreeSlots(groom, taskCountInGroomMap);
+        if (free <= 0) {
+          continue;
+        }
+        double cost = getCost(groom, partners, unplaced, free);
+        if (cost < bestCost || (cost == bestCost && !local && free > bestFree)) {
+          best = groom;
+          bestCost = cost;
+          bestFree = free;
+          local = false;
+        }
+      }
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Placing task " + task + " on " + best.getGroomHostName()
+            + " with a message cost of " + bestCost);
+      }
+    }
+
+    if (best != null) {
+      placed.put(task, best);
+    }
+    return best;
+  }
+
+  @Override
+  public String[] selectGrooms(Map<String, GroomServerStatus> groomStatuses,
+      Map<GroomServerStatus, Integer> taskCountInGroomMap,
+      BSPResource[] resources, TaskInProgress taskInProgress) {
+    return dataLocal.selectGrooms(groomStatuses, taskCountInGroomMap,
+        resources, taskInProgress);
+  }
+
+  /**
+   * This operation is not supported.
+   */
+  @Override
+  public Set<GroomServerStatus> getGroomsToAllocate(
+      Map<String, GroomServerStatus> groomStatuses, String[] selectedGrooms,
+      Map<GroomServerStatus, Integer> taskCountInGroomMap,
+      BSPResource[] resources, TaskInProgress taskInProgress) {
+    throw new UnsupportedOperationException(
+        "This API is not supported for the called API function call.");
+  }
+
+}
@@ -0,0 +1,153 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp.taskallocation;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * <code>TaskTraffic</code> holds the bytes exchanged between pairs of tasks of
+ * a job, in both directions added up. It is read from a text file, or a
+ * directory of text files, with one <code>source destination bytes</code>
+ * line per pair of task ids. Lines starting with <code>#</code> are ignored.
+ * Peers write such files when {@link org.apache.hama.Constants#TASK_TRAFFIC_RECORD}
+ * is set, so the traffic of a run can be used to place the tasks of the next
+ * run of the same job.
+ */
+public class TaskTraffic {
+
+  private static final Log LOG = LogFactory.getLog(TaskTraffic.class);
+
+  private final Map<Integer, Map<Integer, Long>> traffic = new HashMap<Integer, Map<Integer, Long>>();
+
+  /**
+   * Adds bytes sent from one task to another.
+   */
+  public void add(int source, int destination, long bytes) {
+    if (source == destination || bytes <= 0) {
+      return;
+    }
+    addDirected(source, destination, bytes);
+    addDirected(destination, source, bytes);
+  }
+
+  private void addDirected(int from, int to, long bytes) {
+    Map<Integer, Long> partners = traffic.get(from);
+    if (partners == null) {
+      partners = new HashMap<Integer, Long>();
+      traffic.put(from, partners);
+    }
+    Long old = partners.get(to);
+    partners.put(to, old == null ? bytes : old + bytes);
+  }
+
+  /**
+   * @return the bytes the task exchanges with each of its partners.
+   */
+  public Map<Integer, Long> getPartners(int task) {
+    Map<Integer, Long> partners = traffic.get(task);
+    if (partners == null) {
+      return Collections.emptyMap();
+    }
+    return partners;
+  }
+
+  /**
+   * @return the bytes exchanged between two tasks.
+   */
+  public long get(int task, int other) {
+    Long bytes = getPartners(task).get(other);
+    return bytes == null ? 0L : bytes;
+  }
+
+  public boolean isEmpty() {
+    return traffic.isEmpty();
+  }
+
+  /**
+   * Reads the traffic from a file or from all files of a directory.
+   */
+  public static TaskTraffic read(FileSystem fs, Path path) throws IOException {
+    TaskTraffic result = new TaskTraffic();
+    if (!fs.exists(path)) {
+      return result;
+    }
+    FileStatus[] files = fs.getFileStatus(path).isDir() ? fs.listStatus(path)
+        : new FileStatus[] { fs.getFileStatus(path) };
+    for (FileStatus file : files) {
+      if (file.isDir()) {
+        continue;
+      }
+      BufferedReader reader = new BufferedReader(new InputStreamReader(
+          fs.open(file.getPath())));
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          line = line.trim();
+          if (line.length() == 0 || line.startsWith("#")) {
+            continue;
+          }
+          String[] fields = line.split("\\s+");
+          try {
+            result.add(Integer.parseInt(fields[0]),
+                Integer.parseInt(fields[1]), Long.parseLong(fields[2]));
+          } catch (RuntimeException e) {
+            LOG.warn("Skipping malformed traffic line in " + file.getPath()
+                + ": " + line);
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Writes the bytes one task has sent to each other task.
+   * 
+   * @param bytesSent the bytes sent, indexed by destination task id
+   */
+  public static void write(FileSystem fs, Path file, int source,
+      long[] bytesSent) throws IOException {
+    FSDataOutputStream out = fs.create(file, true);
+    PrintWriter writer = new PrintWriter(out);
+    try {
+      for (int i = 0; i < bytesSent.length; i++) {
+        if (i != source && bytesSent[i] > 0) {
+          writer.println(source + " " + i + " " + bytesSent[i]);
+        }
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+}
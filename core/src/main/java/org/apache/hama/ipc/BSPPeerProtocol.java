@@ -67,6 +67,19 @@ public interface BSPPeerProtocol extends HamaRPCProtocolVersion, Closeable,
   boolean statusUpdate(TaskAttemptID taskId, TaskStatus taskStatus)
       throws IOException, InterruptedException;
 
+  /**
+   * Report child's progress to parent, with only the counters that changed
+   * since the previous report.
+   * 
+   * @param taskId task-id of the child
+   * @param taskStatus status of the child
+   * @throws IOException
+   * @throws InterruptedException
+   * @return True if the task is known
+   */
+  boolean statusUpdateDelta(TaskAttemptID taskId, TaskStatus taskStatus)
+      throws IOException, InterruptedException;
+
   int getAssignedPortNum(TaskAttemptID taskid);
 
 }
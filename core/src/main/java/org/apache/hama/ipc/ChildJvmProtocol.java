@@ -0,0 +1,38 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.ipc;
+
+import java.io.IOException;
+
+import org.apache.hama.bsp.JvmTask;
+
+/**
+ * Protocol that a pooled child JVM uses to ask its groom server for work.
+ */
+public interface ChildJvmProtocol extends HamaRPCProtocolVersion {
+
+  /**
+   * Called repeatedly by an idle pooled child JVM.
+   * 
+   * @param jvmId the id the groom server assigned to the JVM on launch
+   * @return the next task to run, an empty task when there is no work yet, or
+   *         a task that tells the JVM to exit
+   */
+  JvmTask getJvmTask(String jvmId) throws IOException;
+
+}
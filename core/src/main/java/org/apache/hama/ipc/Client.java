@@ -35,7 +35,10 @@ import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -718,6 +721,108 @@ public class Client {
     }
   }
 
+  /**
+   * Receives the outcome of an asynchronous call. It is invoked by the thread
+   * that reads the responses of the connection, so it must not block.
+   */
+  public static interface Callback {
+
+    /**
+     * @param value the return value, null if the call failed.
+     * @param error the remote or local exception, null if the call succeeded.
+     */
+    public void callComplete(Writable value, IOException error);
+  }
+
+  /** Call implementation used for asynchronous calls. */
+  private class AsyncCall extends Call implements Future<Writable> {
+    private final InetSocketAddress address;
+    private final Callback callback;
+
+    public AsyncCall(Writable param, InetSocketAddress address,
+        Callback callback) {
+      super(param);
+      this.address = address;
+      this.callback = callback;
+    }
+
+    @Override
+    public synchronized void setException(IOException error) {
+      if (!done) { // a failed connection may report the call twice
+        super.setException(error);
+      }
+    }
+
+    @Override
+    public synchronized void setValue(Writable value) {
+      if (!done) {
+        super.setValue(value);
+      }
+    }
+
+    @Override
+    protected synchronized void callComplete() {
+      if (error != null && !(error instanceof RemoteException)) {
+        error = wrapException(address, error);
+      }
+      this.done = true;
+      notifyAll();
+      if (callback != null) {
+        try {
+          callback.callComplete(value, error);
+        } catch (RuntimeException e) {
+          LOG.warn("Callback of call #" + id + " failed", e);
+        }
+      }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      // the request may already be on the wire
+      return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+      return done;
+    }
+
+    @Override
+    public synchronized Writable get() throws InterruptedException,
+        ExecutionException {
+      while (!done) {
+        wait();
+      }
+      return result();
+    }
+
+    @Override
+    public synchronized Writable get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      while (!done) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          throw new TimeoutException("Call #" + id + " timed out");
+        }
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
+      return result();
+    }
+
+    private Writable result() throws ExecutionException {
+      if (error != null) {
+        throw new ExecutionException(error);
+      }
+      return value;
+    }
+  }
+
   /** Call implementation used for parallel calls. */
   private class ParallelCall extends Call {
     private ParallelResults results;
@@ -918,6 +1023,28 @@ public class Client {
     }
   }
 
+  /**
+   * Make a call, passing <code>param</code>, to the IPC server defined by
+   * <code>remoteId</code> without waiting for its value. Calls to the same
+   * server share one connection and may be outstanding at the same time, the
+   * responses are matched by call id.
+   * 
+   * @param callback notified when the call completes, may be null.
+   * @return the future value of the call. Remote or network errors surface as
+   *         the cause of the {@link ExecutionException} thrown by get.
+   */
+  public Future<Writable> asyncCall(Writable param, ConnectionId remoteId,
+      Callback callback) throws InterruptedException {
+    AsyncCall call = new AsyncCall(param, remoteId.getAddress(), callback);
+    try {
+      Connection connection = getConnection(remoteId, call);
+      connection.sendParam(call); // errors are delivered through the call
+    } catch (IOException e) {
+      call.setException(e);
+    }
+    return call;
+  }
+
   /**
    * Take an IOException and the address we were trying to connect to and return
    * an IOException with the input exception as the cause. The new exception
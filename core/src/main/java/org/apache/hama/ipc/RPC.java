@@ -29,8 +29,14 @@ import java.lang.reflect.Proxy;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.net.SocketTimeoutException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.net.SocketFactory;
 
@@ -245,6 +251,16 @@ public class RPC {
       return value.get();
     }
 
+    /**
+     * Sends the invocation over the proxy's connection without waiting for
+     * the value.
+     */
+    public Future<Object> invokeAsync(Method method, Object[] args)
+        throws InterruptedException {
+      return new ValueFuture(client.asyncCall(new Invocation(method, args),
+          remoteId, null));
+    }
+
     /* close the IPC client that's responsible for this invoker's RPCs */
     synchronized private void close() {
       if (!isClosed) {
@@ -254,6 +270,41 @@ public class RPC {
     }
   }
 
+  /** Unwraps the {@link ObjectWritable} value of an asynchronous call. */
+  private static class ValueFuture implements Future<Object> {
+    private final Future<Writable> call;
+
+    private ValueFuture(Future<Writable> call) {
+      this.call = call;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return call.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return call.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+      return call.isDone();
+    }
+
+    @Override
+    public Object get() throws InterruptedException, ExecutionException {
+      return ((ObjectWritable) call.get()).get();
+    }
+
+    @Override
+    public Object get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      return ((ObjectWritable) call.get(timeout, unit)).get();
+    }
+  }
+
   /**
    * A version mismatch for the RPC protocol.
    */
@@ -478,6 +529,30 @@ public class RPC {
     }
   }
 
+  /**
+   * Invokes a method of the protocol through the connection of the given
+   * proxy without blocking the caller. Any number of calls may be outstanding
+   * on the same connection.
+   * 
+   * @param proxy a proxy obtained from {@link #getProxy}.
+   * @return the future return value of the method, null for void methods.
+   *         Exceptions of the call are the cause of the
+   *         {@link ExecutionException} thrown by get.
+   */
+  public static Future<Object> callAsync(VersionedProtocol proxy,
+      Method method, Object... args) throws InterruptedException {
+    return ((Invoker) Proxy.getInvocationHandler(proxy)).invokeAsync(method,
+        args);
+  }
+
+  /**
+   * @return true if the object is a proxy obtained from {@link #getProxy}.
+   */
+  public static boolean isProxy(Object proxy) {
+    return proxy != null && Proxy.isProxyClass(proxy.getClass())
+        && Proxy.getInvocationHandler(proxy) instanceof Invoker;
+  }
+
   /**
    * Expert: Make multiple, parallel calls to a set of servers.
    * 
@@ -558,6 +633,20 @@ public class RPC {
   public static class Server extends org.apache.hama.ipc.Server {
     private Object instance;
     private boolean verbose;
+    // protocol -> method name -> overloads, resolved once per protocol
+    private final Map<Class<?>, Map<String, ProtocolMethod[]>> dispatch = new ConcurrentHashMap<Class<?>, Map<String, ProtocolMethod[]>>();
+
+    /** A resolved protocol method. */
+    private static final class ProtocolMethod {
+      final Method method;
+      final Class<?>[] parameterTypes;
+
+      ProtocolMethod(Method method) {
+        this.method = method;
+        this.parameterTypes = method.getParameterTypes();
+        method.setAccessible(true);
+      }
+    }
 
     /**
      * Construct an RPC server.
@@ -598,6 +687,46 @@ public class RPC {
           classNameBase(instance.getClass().getName()), secretManager);
       this.instance = instance;
       this.verbose = verbose;
+      for (Class<?> c = instance.getClass(); c != null; c = c.getSuperclass()) {
+        for (Class<?> protocol : c.getInterfaces()) {
+          if (VersionedProtocol.class.isAssignableFrom(protocol)) {
+            dispatchTable(protocol);
+          }
+        }
+      }
+    }
+
+    private Map<String, ProtocolMethod[]> dispatchTable(Class<?> protocol) {
+      Map<String, ProtocolMethod[]> table = dispatch.get(protocol);
+      if (table == null) {
+        table = new HashMap<String, ProtocolMethod[]>();
+        for (Method method : protocol.getMethods()) {
+          ProtocolMethod[] overloads = table.get(method.getName());
+          if (overloads == null) {
+            overloads = new ProtocolMethod[] { new ProtocolMethod(method) };
+          } else {
+            overloads = Arrays.copyOf(overloads, overloads.length + 1);
+            overloads[overloads.length - 1] = new ProtocolMethod(method);
+          }
+          table.put(method.getName(), overloads);
+        }
+        dispatch.put(protocol, table);
+      }
+      return table;
+    }
+
+    private Method getMethod(Class<?> protocol, String name,
+        Class<?>[] parameterTypes) throws NoSuchMethodException {
+      ProtocolMethod[] overloads = dispatchTable(protocol).get(name);
+      if (overloads != null) {
+        for (ProtocolMethod handle : overloads) {
+          if (Arrays.equals(handle.parameterTypes, parameterTypes)) {
+            return handle.method;
+          }
+        }
+      }
+      throw new NoSuchMethodException(protocol.getName() + "." + name
+          + Arrays.toString(parameterTypes));
     }
 
     public Writable call(Class<?> protocol, Writable param, long receivedTime)
@@ -607,9 +736,8 @@ public class RPC {
         if (verbose)
           log("Call: " + call);
 
-        Method method = protocol.getMethod(call.getMethodName(),
+        Method method = getMethod(protocol, call.getMethodName(),
             call.getParameterClasses());
-        method.setAccessible(true);
 
         long startTime = System.currentTimeMillis();
         Object value = method.invoke(instance, call.getParameters());
@@ -221,6 +221,8 @@ public abstract class Server {
 
   volatile private boolean running = true; // true while server runs
   private BlockingQueue<Call> callQueue; // queued calls
+  // response buffers the responder has finished writing
+  private BlockingQueue<ResponseBuffer> responseBuffers;
 
   private List<Connection> connectionList = Collections
       .synchronizedList(new LinkedList<Connection>());
@@ -271,6 +273,7 @@ public abstract class Server {
     private long timestamp; // the time received when response is null
                             // the time served when response is not null
     private ByteBuffer response; // the response for this call
+    private ResponseBuffer responseBuffer; // pooled buffer backing response
 
     public Call(int id, Writable param, Connection connection) {
       this.id = id;
@@ -290,6 +293,42 @@ public abstract class Server {
     }
   }
 
+  /** A response buffer whose array is handed to the responder without copy. */
+  private static class ResponseBuffer extends ByteArrayOutputStream {
+    ResponseBuffer() {
+      super(INITIAL_RESP_BUF_SIZE);
+    }
+
+    ByteBuffer wrap() {
+      return ByteBuffer.wrap(buf, 0, count);
+    }
+
+    int capacity() {
+      return buf.length;
+    }
+  }
+
+  /**
+   * Takes a response buffer from the pool, buffers are returned once the
+   * responder has written their response.
+   */
+  private ResponseBuffer takeResponseBuffer() {
+    ResponseBuffer buf = responseBuffers.poll();
+    return buf == null ? new ResponseBuffer() : buf;
+  }
+
+  private void releaseResponseBuffer(Call call) {
+    ResponseBuffer buf = call.responseBuffer;
+    if (buf != null) {
+      call.responseBuffer = null;
+      call.response = null;
+      // discard large buffers to free up heap
+      if (buf.capacity() <= maxRespSize) {
+        responseBuffers.offer(buf);
+      }
+    }
+  }
+
   /** Listens on the socket. Creates jobs for the handler threads */
   private class Listener extends Thread {
 
@@ -786,6 +825,7 @@ public abstract class Server {
             return true;
           }
           if (!call.response.hasRemaining()) {
+            releaseResponseBuffer(call);
             call.connection.decRpcCount();
             if (numElements == 1) { // last call fully processes.
               done = true; // no more data for this channel.
@@ -1181,8 +1221,6 @@ public abstract class Server {
     public void run() {
       LOG.info(getName() + ": starting");
       SERVER.set(Server.this);
-      ByteArrayOutputStream buf = new ByteArrayOutputStream(
-          INITIAL_RESP_BUF_SIZE);
       while (running) {
         try {
           final Call call = callQueue.take(); // pop the queue; maybe blocked
@@ -1237,14 +1275,12 @@ public abstract class Server {
             // responder.doResponse() since setupResponse may use
             // SASL to encrypt response data and SASL enforces
             // its own message ordering.
+            ResponseBuffer buf = takeResponseBuffer();
             setupResponse(buf, call, (error == null) ? Status.SUCCESS
                 : Status.ERROR, value, errorClass, error);
-            // Discard the large buf and reset it back to
-            // smaller size to freeup heap
             if (buf.size() > maxRespSize) {
               LOG.warn("Large response size " + buf.size() + " for call "
                   + call.toString());
-              buf = new ByteArrayOutputStream(INITIAL_RESP_BUF_SIZE);
             }
             responder.doRespond(call);
           }
@@ -1301,6 +1337,8 @@ public abstract class Server {
     this.readThreads = conf.getInt(IPC_SERVER_RPC_READ_THREADS_KEY,
         IPC_SERVER_RPC_READ_THREADS_DEFAULT);
     this.callQueue = new LinkedBlockingQueue<Call>(maxQueueSize);
+    this.responseBuffers = new LinkedBlockingQueue<ResponseBuffer>(
+        2 * handlerCount);
     this.maxIdleTime = 2 * conf.getInt("ipc.client.connection.maxidletime",
         1000);
     this.maxConnectionsToNuke = conf.getInt("ipc.client.kill.max", 10);
@@ -1354,7 +1392,12 @@ public abstract class Server {
       WritableUtils.writeString(out, errorClass);
       WritableUtils.writeString(out, error);
     }
-    call.setResponse(ByteBuffer.wrap(response.toByteArray()));
+    if (response instanceof ResponseBuffer) {
+      call.responseBuffer = (ResponseBuffer) response;
+      call.setResponse(call.responseBuffer.wrap());
+    } else {
+      call.setResponse(ByteBuffer.wrap(response.toByteArray()));
+    }
   }
 
   Configuration getConf() {
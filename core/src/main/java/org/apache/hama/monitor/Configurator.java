@@ -67,6 +67,7 @@ public final class Configurator {
         Task t = load(jar, loader);
         if (null != t) {
           t.setListener(listener);
+          t.setConfiguration(conf);
           taskList.put(jarPath, t);
           repos.put(jarPath, jar.lastModified());
           LOG.debug(jar.getName() + " is loaded.");
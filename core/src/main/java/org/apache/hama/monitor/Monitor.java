@@ -155,6 +155,7 @@ public final class Monitor extends Thread implements MonitorListener {
 
     final String name;
     final AtomicReference<MonitorListener> listener = new AtomicReference<MonitorListener>();
+    final AtomicReference<Configuration> configuration = new AtomicReference<Configuration>();
 
     public Task(String name) {
       this.name = name;
@@ -175,6 +176,22 @@ public final class Monitor extends Thread implements MonitorListener {
       return this.listener.get();
     }
 
+    /**
+     * This is only used by Configurator so a task can read the configuration
+     * of the groom server.
+     */
+    final void setConfiguration(Configuration configuration) {
+      this.configuration.set(configuration);
+    }
+
+    /**
+     * Configuration of the groom server, null if the task was not loaded by
+     * the Configurator.
+     */
+    public final Configuration getConfiguration() {
+      return this.configuration.get();
+    }
+
     /**
      * The name of this task.
      */
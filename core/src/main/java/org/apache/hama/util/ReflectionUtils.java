@@ -35,10 +35,28 @@ public class ReflectionUtils {
 
   private static final Map<Class<?>, Constructor<?>> CONSTRUCTOR_CACHE = new ConcurrentHashMap<Class<?>, Constructor<?>>();
 
+  /**
+   * Load a class through the context class loader of the current thread,
+   * falling back to the loader of this class. Child JVMs that run tasks of
+   * several jobs set a per-job context loader, so user classes must not be
+   * resolved through the system class loader.
+   * 
+   * @param className is the binary name of the class.
+   * @exception ClassNotFoundException
+   */
+  public static Class<?> classForName(String className)
+      throws ClassNotFoundException {
+    ClassLoader loader = Thread.currentThread().getContextClassLoader();
+    if (loader == null) {
+      loader = ReflectionUtils.class.getClassLoader();
+    }
+    return Class.forName(className, true, loader);
+  }
+
   @SuppressWarnings("unchecked")
   public static <T> T newInstance(String className)
       throws ClassNotFoundException {
-    return newInstance((Class<T>) Class.forName(className));
+    return newInstance((Class<T>) classForName(className));
   }
 
   @SuppressWarnings("unchecked")
@@ -69,7 +87,7 @@ public class ReflectionUtils {
   @SuppressWarnings("unchecked")
   public static <T> T newInstance(String className, Object[] values)
       throws ClassNotFoundException {
-    return newInstance((Class<T>) Class.forName(className), values);
+    return newInstance((Class<T>) classForName(className), values);
   }
 
   /**
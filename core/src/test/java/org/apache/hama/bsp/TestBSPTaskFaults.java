@@ -148,6 +148,12 @@ public class TestBSPTaskFaults extends TestCase {
       return true;
     }
 
+    @Override
+    public boolean statusUpdateDelta(TaskAttemptID taskId,
+        TaskStatus taskStatus) throws IOException, InterruptedException {
+      return true;
+    }
+
     public synchronized int getPingCount() {
       return pingCount;
     }
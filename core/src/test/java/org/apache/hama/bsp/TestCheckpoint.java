@@ -35,8 +35,6 @@ import junit.framework.TestCase;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FSDataInputStream;
-import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.ArrayWritable;
@@ -44,12 +42,15 @@ import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
-import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hama.Constants;
 import org.apache.hama.HamaConfiguration;
 import org.apache.hama.bsp.Counters.Counter;
+import org.apache.hama.bsp.ft.AsyncCheckpointWriter;
 import org.apache.hama.bsp.ft.AsyncRcvdMsgCheckpointImpl;
+import org.apache.hama.bsp.ft.BuddyCheckpointStore;
 import org.apache.hama.bsp.ft.FaultTolerantPeerService;
+import org.apache.hama.bsp.ft.SentMessageLog;
+import org.apache.hama.bsp.message.MessageEventAdapter;
 import org.apache.hama.bsp.message.MessageEventListener;
 import org.apache.hama.bsp.message.MessageManager;
 import org.apache.hama.bsp.sync.BSPPeerSyncClient;
@@ -593,14 +594,11 @@ public class TestCheckpoint extends TestCase {
 
     // Checking the messages for superstep 2 and peer id 1
     String expectedPath = "checkpoint/job_checkpttest_0001/2/1";
-    FSDataInputStream in = dfs.open(new Path(expectedPath));
+    BSPMessageBundle<Text> bundle = AsyncCheckpointWriter.readCheckpoint(dfs,
+        new Path(expectedPath), config);
 
-    String className = in.readUTF();
-    Text message = (Text) ReflectionUtils.newInstance(Class.forName(className),
-        config);
-    message.readFields(in);
-
-    assertEquals("data", message.toString());
+    assertEquals(1, bundle.size());
+    assertEquals("data", bundle.iterator().next().toString());
 
     dfs.delete(new Path("checkpoint"), true);
   }
@@ -638,13 +636,17 @@ public class TestCheckpoint extends TestCase {
     arrWritable.set(writableArr);
     syncClient.storeInformation(writeKey, arrWritable, true, null);
 
-    String writePath = "checkpoint/job_checkpttest_0001/3/1";
-    FSDataOutputStream out = dfs.create(new Path(writePath));
+    Path writePath = new Path("checkpoint/job_checkpttest_0001/3/1");
+    AsyncCheckpointWriter<Text> writer = new AsyncCheckpointWriter<Text>(dfs,
+        config);
+    writer.start();
     for (int i = 0; i < 5; ++i) {
-      out.writeUTF(txtMessage.getClass().getCanonicalName());
-      txtMessage.write(out);
+      BSPMessageBundle<Text> bundle = new BSPMessageBundle<Text>();
+      bundle.addMessage(txtMessage);
+      writer.append(writePath, bundle);
     }
-    out.close();
+    writer.flush(writePath);
+    writer.close();
 
     @SuppressWarnings("unused")
     BSPPeer<?, ?, ?, ?, Text> bspTask = new TestBSPPeer(job, config, taskId,
@@ -659,4 +661,140 @@ public class TestCheckpoint extends TestCase {
     dfs.delete(new Path("checkpoint"), true);
   }
 
+  public void testCheckpointWriterBlocks() throws Exception {
+    Configuration config = new Configuration();
+    config.setInt(Constants.CHECKPOINT_BLOCK_SIZE, 64);
+    FileSystem dfs = FileSystem.get(config);
+
+    for (boolean compressed : new boolean[] { true, false }) {
+      config.setBoolean(Constants.CHECKPOINT_COMPRESSION, compressed);
+      Path path = new Path("checkpoint/job_checkpttest_0001/7/1");
+      AsyncCheckpointWriter<Text> writer = new AsyncCheckpointWriter<Text>(
+          dfs, config);
+      writer.start();
+
+      int count = 0;
+      for (int i = 0; i < 20; ++i) {
+        BSPMessageBundle<Text> bundle = new BSPMessageBundle<Text>();
+        for (int j = 0; j < i; ++j) {
+          bundle.addMessage(new Text("message-" + count++));
+        }
+        writer.append(path, bundle);
+      }
+      writer.flush(path);
+      writer.close();
+
+      BSPMessageBundle<Text> bundleRead = AsyncCheckpointWriter.readCheckpoint(
+          dfs, path, config);
+      assertEquals(count, bundleRead.size());
+      Iterator<Text> it = bundleRead.iterator();
+      for (int i = 0; i < count; ++i) {
+        assertEquals("message-" + i, it.next().toString());
+      }
+      assertFalse(it.hasNext());
+    }
+    dfs.delete(new Path("checkpoint"), true);
+  }
+
+  public void testMessageEventAdapter() throws Exception {
+    final List<String> received = new ArrayList<String>();
+    MessageEventAdapter<Text> listener = new MessageEventAdapter<Text>() {
+      @Override
+      public void onMessageReceived(Text message) {
+        received.add(message.toString());
+      }
+    };
+
+    BSPMessageBundle<Text> bundle = new BSPMessageBundle<Text>();
+    for (int i = 0; i < 3; ++i) {
+      bundle.addMessage(new Text("message-" + i));
+    }
+    listener.onBundleReceived(bundle);
+    assertEquals(3, received.size());
+    assertEquals("message-2", received.get(2));
+  }
+
+  public void testSentMessageLog() throws Exception {
+    Configuration config = new Configuration();
+    config.set("bsp.local.dir", "/tmp/hama-test/sendlog");
+    config.setLong(Constants.FT_MESSAGE_LOG_MEMORY, 128L);
+    TaskAttemptID attemptId = new TaskAttemptID(new TaskID(new BSPJobID(
+        "sendlogtest", 1), 1), 1);
+    SentMessageLog<Text> log = new SentMessageLog<Text>(config, attemptId);
+
+    for (long step = 0; step < 5; ++step) {
+      for (int i = 0; i < 10; ++i) {
+        log.add(step, i % 2, new Text(step + "-" + i));
+      }
+    }
+
+    // older supersteps were spilled to disk beyond the memory limit
+    for (long step = 0; step < 5; ++step) {
+      BSPMessageBundle<Text> bundle = log.get(step, 1);
+      assertEquals(5, bundle.size());
+      Iterator<Text> it = bundle.iterator();
+      for (int i = 1; i < 10; i += 2) {
+        assertEquals(step + "-" + i, it.next().toString());
+      }
+    }
+    assertEquals(0, log.get(2, 3).size());
+
+    log.truncate(3);
+    assertEquals(0, log.get(0, 0).size());
+    assertEquals(0, log.get(2, 1).size());
+    assertEquals(5, log.get(3, 0).size());
+    assertEquals(5, log.get(4, 0).size());
+    log.close();
+  }
+
+  public void testBuddyCheckpointStore() throws Exception {
+    Configuration config = new Configuration();
+    config.set("bsp.local.dir", "/tmp/hama-test/buddy");
+    BSPJobID jobId = new BSPJobID("buddytest", 1);
+    BuddyCheckpointStore<Text> store = new BuddyCheckpointStore<Text>(config,
+        jobId, 0);
+
+    for (long step = 1; step <= 3; ++step) {
+      BSPMessageBundle<Text> bundle = new BSPMessageBundle<Text>();
+      for (int i = 0; i < step; ++i) {
+        bundle.addMessage(new Text(step + "-" + i));
+      }
+      store.store(1, step, bundle);
+    }
+
+    // only the two latest checkpoints are kept
+    assertFalse(store.contains(1, 1));
+    assertTrue(store.contains(1, 2));
+    assertTrue(store.contains(1, 3));
+    assertFalse(store.contains(2, 3));
+
+    BSPMessageBundle<Text> bundle = store.get(1, 3);
+    assertEquals(3, bundle.size());
+    Iterator<Text> it = bundle.iterator();
+    for (int i = 0; i < 3; ++i) {
+      assertEquals("3-" + i, it.next().toString());
+    }
+
+    // checkpoints appended in chunks are visible once committed
+    for (int chunk = 0; chunk < 3; ++chunk) {
+      BSPMessageBundle<Text> part = new BSPMessageBundle<Text>();
+      part.addMessage(new Text("4-" + chunk));
+      store.append(1, 4, part);
+    }
+    assertFalse(store.contains(1, 4));
+    store.commit(1, 4);
+    assertTrue(store.contains(1, 4));
+    it = store.get(1, 4).iterator();
+    for (int i = 0; i < 3; ++i) {
+      assertEquals("4-" + i, it.next().toString());
+    }
+    assertFalse(it.hasNext());
+
+    // a restarted holder finds the checkpoints on the local disk
+    store = new BuddyCheckpointStore<Text>(config, jobId, 0);
+    assertTrue(store.contains(1, 3));
+    store.close();
+    assertFalse(store.contains(1, 3));
+  }
+
 }
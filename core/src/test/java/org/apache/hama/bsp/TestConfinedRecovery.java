@@ -0,0 +1,207 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.ArrayWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hama.Constants;
+import org.apache.hama.HamaConfiguration;
+import org.apache.hama.bsp.ft.BSPFaultTolerantService;
+import org.apache.hama.bsp.ft.ConfinedRecoveryImpl;
+import org.apache.hama.bsp.sync.SyncException;
+
+/**
+ * Fails a single peer of a job with confined recovery and checks that only
+ * this peer is restarted, that it replays the missed supersteps from the
+ * messages logged by the other peers, and that the job computes the same
+ * result as a job without failure.
+ */
+public class TestConfinedRecovery extends TestCase {
+
+  private static final int NUM_PEERS = 3;
+  private static final long SUPERSTEPS = 9L;
+  private static final long TIMEOUT_SECONDS = 60L;
+
+  private HamaConfiguration conf;
+  private FileSystem fs;
+  private final Path dir = new Path("/tmp/hama-test/confinedrecovery");
+
+  /**
+   * Every peer sends a value derived from the sum of its received messages to
+   * all peers, including itself, so the state of a peer is restored with its
+   * messages.
+   */
+  public static class SumBSP extends
+      BSP<NullWritable, NullWritable, NullWritable, NullWritable, LongWritable> {
+
+    // peer 1 fails once when it computes this superstep
+    static volatile long failSuperstep = -1L;
+    static final Map<Integer, Long> results =
+        new ConcurrentHashMap<Integer, Long>();
+    // the number of supersteps each peer computed
+    static final Map<Integer, AtomicInteger> computed =
+        new ConcurrentHashMap<Integer, AtomicInteger>();
+
+    @Override
+    public void bsp(
+        BSPPeer<NullWritable, NullWritable, NullWritable, NullWritable, LongWritable> peer)
+        throws IOException, SyncException, InterruptedException {
+      while (peer.getSuperstepCount() < SUPERSTEPS) {
+        long value = peer.getSuperstepCount() == 0 ? peer.getPeerIndex() + 1
+            : sumMessages(peer);
+        computed.get(peer.getPeerIndex()).incrementAndGet();
+        if (peer.getSuperstepCount() == failSuperstep
+            && peer.getPeerIndex() == 1) {
+          failSuperstep = -1L;
+          throw new IOException("Failing in superstep "
+              + peer.getSuperstepCount());
+        }
+
+        String[] peers = peer.getAllPeerNames();
+        for (int i = 0; i < peers.length; i++) {
+          peer.send(peers[i], new LongWritable(value * (i + 1)
+              + peer.getPeerIndex()));
+        }
+        peer.sync();
+      }
+      results.put(peer.getPeerIndex(), sumMessages(peer));
+    }
+
+    private static long sumMessages(
+        BSPPeer<NullWritable, NullWritable, NullWritable, NullWritable, LongWritable> peer)
+        throws IOException {
+      long sum = 0L;
+      LongWritable message;
+      while ((message = peer.getCurrentMessage()) != null) {
+        sum += message.get();
+      }
+      return sum % 1000003L;
+    }
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    conf = new HamaConfiguration();
+    fs = FileSystem.get(conf);
+    fs.delete(dir, true);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    fs.delete(dir, true);
+  }
+
+  public void testRecoverSingleTask() throws Exception {
+    Map<Integer, Long> expected = runJob(1, -1L);
+    assertEquals(NUM_PEERS, expected.size());
+
+    assertEquals(expected, runJob(2, 6L));
+  }
+
+  /**
+   * Runs a job, if peer 1 fails in the given superstep only this peer is
+   * restarted at its last checkpoint.
+   * 
+   * @return the results of the peers by index.
+   */
+  private Map<Integer, Long> runJob(int id, long failSuperstep)
+      throws Exception {
+    BSPJob job = newJob();
+    ThreadedBSPRunner runner = new ThreadedBSPRunner(job, new BSPJobID(
+        "confinedrecovery", id));
+    SumBSP.results.clear();
+    for (int i = 0; i < NUM_PEERS; i++) {
+      SumBSP.computed.put(i, new AtomicInteger());
+    }
+    SumBSP.failSuperstep = failSuperstep;
+    try {
+      @SuppressWarnings("unchecked")
+      Future<BSPPeerImpl<?, ?, ?, ?, ?>>[] attempts = new Future[NUM_PEERS];
+      for (int i = 0; i < NUM_PEERS; i++) {
+        attempts[i] = runner.start(i, 0, -1L, TaskStatus.State.RUNNING, false);
+      }
+
+      if (failSuperstep >= 0) {
+        try {
+          attempts[1].get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+          fail("Peer 1 should have failed.");
+        } catch (ExecutionException e) {
+          assertTrue(e.getCause() instanceof IOException);
+        }
+
+        // restart peer 1 alone like the master does
+        String jobId = job.getJobID().toString();
+        ArrayWritable progress = new ArrayWritable(LongWritable.class);
+        assertTrue(runner.getInformation(jobId + "/checkpoint/1", progress));
+        long superstep = ((LongWritable) progress.get()[0]).get();
+        assertTrue(superstep > 0 && superstep < failSuperstep);
+        assertTrue(runner.storeInformation(jobId + "/confinedrecovery/1",
+            new LongWritable(superstep)));
+        attempts[1] = runner.start(1, 1, superstep,
+            TaskStatus.State.RECOVERING, false);
+
+        for (Future<BSPPeerImpl<?, ?, ?, ?, ?>> attempt : attempts) {
+          attempt.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        // only peer 1 computed its supersteps up to the failure again
+        assertEquals(SUPERSTEPS, SumBSP.computed.get(0).get());
+        assertEquals(SUPERSTEPS, SumBSP.computed.get(2).get());
+        assertEquals(failSuperstep + 1 + SUPERSTEPS - superstep,
+            SumBSP.computed.get(1).get());
+      } else {
+        for (Future<BSPPeerImpl<?, ?, ?, ?, ?>> attempt : attempts) {
+          attempt.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+      }
+    } finally {
+      runner.shutdown();
+    }
+    return new HashMap<Integer, Long>(SumBSP.results);
+  }
+
+  private BSPJob newJob() throws IOException {
+    BSPJob job = new BSPJob(new HamaConfiguration(conf));
+    job.setNumBspTask(NUM_PEERS);
+    job.setBspClass(SumBSP.class);
+    job.setInputFormat(NullInputFormat.class);
+    job.setOutputFormat(NullOutputFormat.class);
+
+    job.setBoolean(Constants.FAULT_TOLERANCE_FLAG, true);
+    job.getConfiguration().setClass(Constants.FAULT_TOLERANCE_CLASS,
+        ConfinedRecoveryImpl.class, BSPFaultTolerantService.class);
+    job.setBoolean(Constants.CHECKPOINT_ENABLED, true);
+    job.getConfiguration().setInt(Constants.CHECKPOINT_INTERVAL, 2);
+    job.set("bsp.checkpoint.prefix_path", dir + "/checkpoint/");
+    job.set("bsp.local.dir", dir + "/local");
+    return job;
+  }
+}
@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hama.Constants;
+
+public class TestFairShareTaskScheduler extends TestCase {
+
+  private FairShareTaskScheduler scheduler;
+  private List<GroomServerStatus> grooms;
+  private int jobs = 0;
+
+  @Override
+  protected void setUp() throws Exception {
+    Configuration conf = new Configuration();
+    conf.set(Constants.SCHEDULER_QUEUES, "default, research");
+    conf.setFloat("bsp.scheduler.queue.research.weight", 2.0f);
+    conf.setLong(Constants.SCHEDULER_BACKFILL_TIMEOUT, 1000L);
+    scheduler = new FairShareTaskScheduler();
+    scheduler.setConf(conf);
+    scheduler.setQueueManager(new QueueManager(conf));
+
+    grooms = new ArrayList<GroomServerStatus>();
+    for (int i = 0; i < 2; i++) {
+      String name = "host" + i;
+      grooms.add(new GroomServerStatus(name, new ArrayList<TaskStatus>(), 0,
+          4, name + ":40000", name));
+    }
+  }
+
+  private JobInProgress job(String queue, int tasks, long startTime) {
+    Configuration conf = new Configuration();
+    if (queue != null) {
+      conf.set(Constants.JOB_QUEUE_NAME, queue);
+    }
+    BSPJobID id = new BSPJobID("test", ++jobs);
+    JobInProgress job = new JobInProgress(id, conf);
+    job.status = new JobStatus(id, null, 0L, JobStatus.PREP, null);
+    job.recoveryTasks = new HashSet<TaskInProgress>();
+    job.numBSPTasks = tasks;
+    job.startTime = startTime;
+    return job;
+  }
+
+  private void start(JobInProgress job, int groom, int tasks) {
+    job.taskCountInGroomMap = new HashMap<GroomServerStatus, Integer>();
+    job.taskCountInGroomMap.put(grooms.get(groom), tasks);
+    job.status.setRunState(JobStatus.RUNNING);
+    scheduler.jobScheduled(job, true);
+  }
+
+  private Map<GroomServerStatus, Integer> free() {
+    return scheduler.getFreeSlots(grooms);
+  }
+
+  public void testGangAdmissionAndBackfill() {
+    JobInProgress running = job(null, 4, 0L);
+    start(running, 0, 4);
+    assertEquals(0, free().get(grooms.get(0)).intValue());
+
+    List<JobInProgress> waiting = new ArrayList<JobInProgress>();
+    JobInProgress large = job(null, 6, 1000L);
+    JobInProgress small = job(null, 2, 1500L);
+    waiting.add(large);
+    waiting.add(small);
+
+    // the large job does not fit, the small one fills the gap
+    assertSame(small, scheduler.selectJob(waiting, free(), 1200L));
+    // once the large job waited too long, nothing else is started
+    assertNull(scheduler.selectJob(waiting, free(), 2500L));
+
+    // slots of finished jobs are free again
+    running.status.setRunState(JobStatus.SUCCEEDED);
+    assertSame(large, scheduler.selectJob(waiting, free(), 2500L));
+    assertEquals(8, free().get(grooms.get(0)) + free().get(grooms.get(1)));
+  }
+
+  public void testWeightedQueues() {
+    // the default queue uses 2 slots, research 3 slots at twice the weight
+    start(job("default", 2, 0L), 0, 2);
+    start(job("research", 3, 0L), 1, 3);
+
+    List<JobInProgress> waiting = new ArrayList<JobInProgress>();
+    JobInProgress first = job("default", 1, 100L);
+    JobInProgress second = job("research", 1, 200L);
+    waiting.add(first);
+    waiting.add(second);
+    assertSame(second, scheduler.selectJob(waiting, free(), 300L));
+
+    // unknown queues fall back to the first queue
+    assertEquals("default", scheduler.getQueueManager().getQueueName(
+        job("unknown", 1, 0L)));
+  }
+
+  public void testJobLargerThanCluster() {
+    List<JobInProgress> waiting = new ArrayList<JobInProgress>();
+    JobInProgress huge = job(null, 9, 0L);
+    waiting.add(huge);
+    assertSame(huge, scheduler.selectJob(waiting, free(), 0L));
+  }
+
+}
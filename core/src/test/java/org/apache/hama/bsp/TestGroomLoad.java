@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hama.Constants;
+import org.apache.hama.monitor.Metric;
+import org.apache.hama.monitor.MetricsRecord;
+
+public class TestGroomLoad extends TestCase {
+
+  private static GroomServerStatus groom(String name) {
+    return new GroomServerStatus(name, new ArrayList<TaskStatus>(0), 0, 2, "",
+        name);
+  }
+
+  private static MetricsRecord record(double load, int processors,
+      long memory, long disk) {
+    MetricsRecord record = new MetricsRecord("jvm");
+    record.add(new Metric<Double>(GroomLoad.SYSTEM_LOAD_AVERAGE, load));
+    record.add(new Metric<Integer>(GroomLoad.AVAILABLE_PROCESSORS, processors));
+    record.add(new Metric<Long>(GroomLoad.MEM_FREE, memory));
+    record.add(new Metric<Long>(GroomLoad.DISK_FREE, disk));
+    return record;
+  }
+
+  public void testTaskMemory() {
+    Configuration conf = new Configuration();
+    conf.set("bsp.child.java.opts", "-server -Xmx2g -XX:+UseParallelGC");
+    assertEquals(2048L, GroomLoad.getTaskMemoryMB(conf));
+    conf.set("bsp.child.java.opts", "-Xmx512m");
+    assertEquals(512L, GroomLoad.getTaskMemoryMB(conf));
+    conf.setLong(Constants.TASK_MEMORY_MB, 100L);
+    assertEquals(100L, GroomLoad.getTaskMemoryMB(conf));
+  }
+
+  public void testOrder() {
+    List<GroomServerStatus> grooms = new ArrayList<GroomServerStatus>();
+    for (String name : new String[] { "a", "b", "c", "d" }) {
+      grooms.add(groom(name));
+    }
+    Map<String, MetricsRecord> records = new HashMap<String, MetricsRecord>();
+    records.put("a", record(8.0d, 4, 4096L, 10000L));
+    records.put("b", record(1.0d, 4, 4096L, 10000L));
+    // cool, but without memory for a task
+    records.put("c", record(0.0d, 4, 100L, 10000L));
+
+    Configuration conf = new Configuration();
+    conf.set("bsp.child.java.opts", "-Xmx1024m");
+    conf.setLong(Constants.TASK_MIN_FREE_DISK_MB, 1000L);
+
+    Map<String, GroomServerStatus> ordered = GroomLoad.order(grooms, records,
+        conf, 4);
+    assertEquals("[b, a, d]", ordered.keySet().toString());
+
+    // not enough slots left, so the groom without memory is used last
+    ordered = GroomLoad.order(grooms, records, conf, 8);
+    assertEquals("[b, a, d, c]", ordered.keySet().toString());
+
+    // without any metrics the order is kept
+    ordered = GroomLoad.order(grooms, new HashMap<String, MetricsRecord>(),
+        conf, 8);
+    assertEquals("[a, b, c, d]", ordered.keySet().toString());
+  }
+
+  public void testMemoryOfAllSlots() {
+    List<GroomServerStatus> grooms = new ArrayList<GroomServerStatus>();
+    for (String name : new String[] { "a", "b" }) {
+      grooms.add(groom(name));
+    }
+    Map<String, MetricsRecord> records = new HashMap<String, MetricsRecord>();
+    // memory for one task only
+    records.put("a", record(0.0d, 4, 1500L, 10000L));
+    records.put("b", record(1.0d, 4, 4096L, 10000L));
+
+    Configuration conf = new Configuration();
+    conf.set("bsp.child.java.opts", "-Xmx1024m");
+    conf.setLong(Constants.TASK_MIN_FREE_DISK_MB, 1000L);
+
+    assertEquals("[a, b]", GroomLoad.order(grooms, records, conf, 1).keySet()
+        .toString());
+    // both slots of a would be used
+    assertEquals("[b]", GroomLoad.order(grooms, records, conf, 2).keySet()
+        .toString());
+    assertEquals("[b, a]", GroomLoad.order(grooms, records, conf, 3).keySet()
+        .toString());
+  }
+
+}
@@ -0,0 +1,172 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hama.Constants;
+import org.apache.hama.HamaConfiguration;
+
+public class TestInputCache extends TestCase {
+
+  private final File testDir = new File(System.getProperty("java.io.tmpdir"),
+      "TestInputCache");
+  private final TaskAttemptID taskId = new TaskAttemptID(new TaskID(
+      new BSPJobID("test", 1), 1), 1);
+
+  @Override
+  protected void setUp() throws Exception {
+    FileUtil.fullyDelete(testDir);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.fullyDelete(testDir);
+  }
+
+  private InputCache<LongWritable, Text> newCache(long memory)
+      throws IOException {
+    HamaConfiguration conf = new HamaConfiguration();
+    conf.set("bsp.local.dir", testDir.getAbsolutePath());
+    conf.setLong(Constants.INPUT_CACHE_MEMORY, memory);
+    return new InputCache<LongWritable, Text>(conf, taskId);
+  }
+
+  private static int readAll(RecordReader<LongWritable, Text> reader)
+      throws IOException {
+    LongWritable key = reader.createKey();
+    Text value = reader.createValue();
+    int count = 0;
+    while (reader.next(key, value)) {
+      assertEquals(count, key.get());
+      assertEquals("record-" + count, value.toString());
+      count++;
+    }
+    return count;
+  }
+
+  public void testReplayWithSpill() throws Exception {
+    // a few records fit into memory, the rest is spilled
+    InputCache<LongWritable, Text> cache = newCache(64L);
+    RecordReader<LongWritable, Text> reader = cache.record(new Records(100));
+    assertFalse(cache.isComplete());
+    assertEquals(100, readAll(reader));
+    reader.close();
+    assertTrue(cache.isComplete());
+    assertEquals(100L, cache.getRecordCount());
+    assertTrue(cache.getSpilledBytes() > 0);
+
+    Counters counters = new Counters();
+    Counters.Counter records = counters
+        .findCounter(BSPPeerImpl.PeerCounter.TASK_INPUT_RECORDS);
+    for (int i = 0; i < 3; i++) {
+      reader = cache.replay(records);
+      assertEquals(100, readAll(reader));
+      assertEquals(1.0f, reader.getProgress());
+      reader.close();
+    }
+    assertEquals(300L, records.getCounter());
+
+    cache.close();
+    assertFalse(new File(new File(new File(testDir, "inputcache"), taskId
+        .getJobID().toString()), taskId.toString()).exists());
+  }
+
+  public void testIncompletePass() throws Exception {
+    InputCache<LongWritable, Text> cache = newCache(1024L);
+    RecordReader<LongWritable, Text> reader = cache.record(new Records(10));
+    assertTrue(reader.next(reader.createKey(), reader.createValue()));
+    reader.close();
+    assertFalse(cache.isComplete());
+    try {
+      cache.replay(null);
+      fail();
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    // a new pass drops the partial records
+    reader = cache.record(new Records(10));
+    assertEquals(10, readAll(reader));
+    assertTrue(cache.isComplete());
+    assertEquals(10L, cache.getRecordCount());
+    assertEquals(0L, cache.getSpilledBytes());
+    assertEquals(10, readAll(cache.replay(null)));
+    cache.close();
+  }
+
+  public void testEmptySplit() throws Exception {
+    InputCache<LongWritable, Text> cache = newCache(1024L);
+    assertEquals(0, readAll(cache.record(new Records(0))));
+    assertTrue(cache.isComplete());
+    RecordReader<LongWritable, Text> reader = cache.replay(null);
+    assertFalse(reader.next(new LongWritable(), new Text()));
+    cache.close();
+  }
+
+  private static class Records implements RecordReader<LongWritable, Text> {
+    private final int count;
+    private int pos;
+
+    Records(int count) {
+      this.count = count;
+    }
+
+    @Override
+    public boolean next(LongWritable key, Text value) throws IOException {
+      if (pos >= count) {
+        return false;
+      }
+      key.set(pos);
+      value.set("record-" + pos);
+      pos++;
+      return true;
+    }
+
+    @Override
+    public LongWritable createKey() {
+      return new LongWritable();
+    }
+
+    @Override
+    public Text createValue() {
+      return new Text();
+    }
+
+    @Override
+    public long getPos() throws IOException {
+      return pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    @Override
+    public float getProgress() throws IOException {
+      return count == 0 ? 1.0f : (float) pos / count;
+    }
+  }
+
+}
@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hama.Constants;
+import org.apache.hama.HamaConfiguration;
+
+public class TestJobJarCache extends TestCase {
+
+  private final File testDir = new File(System.getProperty("java.io.tmpdir"),
+      "TestJobJarCache");
+  private FileSystem fs;
+
+  @Override
+  protected void setUp() throws Exception {
+    FileUtil.fullyDelete(testDir);
+    assertTrue(testDir.mkdirs());
+    fs = FileSystem.getLocal(new HamaConfiguration());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.fullyDelete(testDir);
+  }
+
+  private Path writeJar(String name, int payload) throws IOException {
+    File jar = new File(testDir, name);
+    JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+    try {
+      out.putNextEntry(new JarEntry("classes/Payload.class"));
+      // jars of the same size differ in their content by the name
+      byte[] content = new byte[payload];
+      Arrays.fill(content, (byte) name.hashCode());
+      out.write(content);
+      out.closeEntry();
+      out.putNextEntry(new JarEntry("lib/dependency.jar"));
+      out.write(new byte[16]);
+      out.closeEntry();
+    } finally {
+      out.close();
+    }
+    return new Path(jar.getAbsolutePath());
+  }
+
+  public void testSharedAndEvicted() throws Exception {
+    Path first = writeJar("first.jar", 6000);
+    Path second = writeJar("second.jar", 6000);
+    String aa = JobJarCache.digest(fs, first);
+    String bb = JobJarCache.digest(fs, second);
+    // room for one unpacked jar only
+    JobJarCache cache = new JobJarCache(new File(testDir, "cache"), 10000L);
+
+    File dir = cache.acquire(aa, fs, first);
+    assertTrue(new File(dir, "classes/Payload.class").isFile());
+    assertTrue(new File(dir, "lib/dependency.jar").isFile());
+    assertEquals(dir, cache.acquire(aa, fs, first));
+    long size = cache.size();
+    assertTrue(size > 6000);
+
+    // the first jar is in use and must survive the second one
+    File other = cache.acquire(bb, fs, second);
+    assertTrue(dir.isDirectory());
+    assertTrue(other.isDirectory());
+    cache.release(bb);
+    assertFalse(cache.contains(bb));
+    assertFalse(other.exists());
+
+    cache.release(aa);
+    cache.release(aa);
+    assertTrue(cache.contains(aa));
+    cache.acquire(bb, fs, second);
+    assertFalse(cache.contains(aa));
+    assertFalse(dir.exists());
+    assertEquals(size, cache.size());
+  }
+
+  public void testFailedDownload() throws Exception {
+    JobJarCache cache = new JobJarCache(new File(testDir, "cache"), 10000L);
+    try {
+      cache.acquire("cc", fs, new Path(testDir.getAbsolutePath(), "missing"));
+      fail();
+    } catch (IOException expected) {
+    }
+    assertFalse(cache.contains("cc"));
+    assertEquals(0L, cache.size());
+  }
+
+  public void testKey() throws Exception {
+    Configuration conf = new HamaConfiguration();
+    conf.set(Constants.JOB_JAR_CHECKSUM, "0123456789ABCDEF0123456789ABCDEF");
+    assertEquals("0123456789abcdef0123456789abcdef", JobJarCache.getKey(conf));
+    conf.set(Constants.JOB_JAR_CHECKSUM, "../etc");
+    assertNull(JobJarCache.getKey(conf));
+  }
+
+  public void testClaimedKey() throws Exception {
+    Path honest = writeJar("honest.jar", 16);
+    Path other = writeJar("other.jar", 32);
+    String key = JobJarCache.digest(fs, honest);
+    JobJarCache cache = new JobJarCache(new File(testDir, "cache"), 10000L);
+
+    // a jar can't be cached under the MD5 of another jar
+    try {
+      cache.acquire(key, fs, other);
+      fail();
+    } catch (IOException expected) {
+    }
+    assertFalse(cache.contains(key));
+
+    // nor can it use the classes cached for the other jar
+    cache.acquire(key, fs, honest);
+    try {
+      cache.acquire(key, fs, other);
+      fail();
+    } catch (IOException expected) {
+    }
+    cache.release(key);
+    assertTrue(cache.contains(key));
+  }
+}
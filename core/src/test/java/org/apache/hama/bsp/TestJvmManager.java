@@ -0,0 +1,252 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hama.Constants;
+import org.apache.hama.HamaConfiguration;
+
+public class TestJvmManager extends TestCase {
+
+  /**
+   * Registers JVMs without starting processes.
+   */
+  private static class NoProcessJvmManager extends JvmManager {
+    final List<String> launched = new ArrayList<String>();
+
+    NoProcessJvmManager(Configuration conf) {
+      super(conf, new InetSocketAddress("localhost", 0));
+    }
+
+    @Override
+    Process launch(String jvmId) throws IOException {
+      synchronized (launched) {
+        launched.add(jvmId);
+        launched.notifyAll();
+      }
+      return null;
+    }
+
+    void awaitLaunched(int count) throws InterruptedException {
+      synchronized (launched) {
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (launched.size() < count
+            && System.currentTimeMillis() < deadline) {
+          launched.wait(100L);
+        }
+      }
+      assertEquals(count, launched.size());
+    }
+  }
+
+  /**
+   * A process that only records whether it was destroyed.
+   */
+  private static class FakeProcess extends Process {
+    final CountDownLatch destroyed = new CountDownLatch(1);
+
+    @Override
+    public OutputStream getOutputStream() {
+      return new ByteArrayOutputStream();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override
+    public int waitFor() throws InterruptedException {
+      destroyed.await();
+      return 1;
+    }
+
+    @Override
+    public int exitValue() {
+      return 1;
+    }
+
+    @Override
+    public void destroy() {
+      destroyed.countDown();
+    }
+  }
+
+  private static final BSPJobID JOB = new BSPJobID("test", 1);
+  private static final BSPJobID OTHER_JOB = new BSPJobID("test", 2);
+
+  private static JvmTask task(BSPJobID job, int id) {
+    return new JvmTask(new TaskAttemptID(job.getJtIdentifier(), job.getId(),
+        id, 0), "localhost", 0L, TaskStatus.State.RUNNING, new String[] {
+        "/tmp/lib.jar", "/tmp/classes" });
+  }
+
+  private NoProcessJvmManager start(int poolSize, int reuse) {
+    Configuration conf = new HamaConfiguration();
+    conf.set("bsp.child.java.opts", "-Xmx200m");
+    conf.setInt(Constants.CHILD_JVM_POOL_SIZE, poolSize);
+    conf.setInt(Constants.CHILD_JVM_REUSE_TASKS, reuse);
+    NoProcessJvmManager manager = new NoProcessJvmManager(conf);
+    manager.start();
+    return manager;
+  }
+
+  public void testPoolIsRefilled() throws Exception {
+    NoProcessJvmManager manager = start(2, 1);
+    try {
+      manager.awaitLaunched(2);
+      String first = manager.launched.get(0);
+      assertNull(manager.getJvmTask(first).getTaskId());
+      assertFalse(manager.getJvmTask(first).shouldDie());
+
+      JvmTask task = task(JOB, 1);
+      JvmManager.ChildJvm jvm = manager.assign(new TaskRunner(null, null,
+          null), JOB, "-Xmx200m", task);
+      assertNotNull(jvm);
+      assertEquals(first, jvm.getId());
+      assertEquals(task.getTaskId(),
+          manager.getJvmTask(jvm.getId()).getTaskId());
+
+      // the bound JVM is replaced by a new unbound one
+      manager.awaitLaunched(3);
+      assertEquals(3, manager.size());
+    } finally {
+      manager.shutdown();
+    }
+    assertTrue(manager.getJvmTask("jvm_0").shouldDie());
+  }
+
+  public void testReuseWithinJob() throws Exception {
+    NoProcessJvmManager manager = start(1, 2);
+    try {
+      manager.awaitLaunched(1);
+      TaskRunner runner = new TaskRunner(null, null, null);
+      JvmManager.ChildJvm jvm = manager.assign(runner, JOB, "-Xmx200m",
+          task(JOB, 1));
+      assertNotNull(jvm);
+      manager.getJvmTask(jvm.getId());
+      manager.awaitLaunched(2);
+
+      // jobs with other child opts need a JVM of their own
+      assertNull(manager.assign(new TaskRunner(null, null, null), OTHER_JOB,
+          "-Xmx1g", task(OTHER_JOB, 1)));
+
+      manager.release(jvm, runner);
+      manager.awaitTask(jvm, runner);
+
+      // the next task of the job goes to the JVM that is already bound to it
+      TaskRunner second = new TaskRunner(null, null, null);
+      assertSame(jvm, manager.assign(second, JOB, "-Xmx200m", task(JOB, 2)));
+      assertEquals(2, manager.getJvmTask(jvm.getId()).getTaskId().getTaskID()
+          .getId());
+
+      // a killed runner does not take the JVM of another task down
+      manager.kill(jvm, runner);
+      assertFalse(manager.getJvmTask(jvm.getId()).shouldDie());
+
+      // the JVM has run its last task
+      manager.release(jvm, second);
+      assertTrue(manager.getJvmTask(jvm.getId()).shouldDie());
+    } finally {
+      manager.shutdown();
+    }
+  }
+
+  public void testKillWhileLaunching() throws Exception {
+    final CountDownLatch launching = new CountDownLatch(1);
+    final CountDownLatch started = new CountDownLatch(1);
+    final FakeProcess process = new FakeProcess();
+    Configuration conf = new HamaConfiguration();
+    conf.set("bsp.child.java.opts", "-Xmx200m");
+    conf.setInt(Constants.CHILD_JVM_POOL_SIZE, 1);
+    JvmManager manager = new JvmManager(conf, new InetSocketAddress(
+        "localhost", 0)) {
+      @Override
+      Process launch(String jvmId) throws IOException {
+        launching.countDown();
+        try {
+          started.await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        return process;
+      }
+    };
+    manager.start();
+    try {
+      assertTrue(launching.await(10, TimeUnit.SECONDS));
+      TaskRunner runner = new TaskRunner(null, null, null);
+      JvmManager.ChildJvm jvm = manager.assign(runner, JOB, "-Xmx200m",
+          task(JOB, 1));
+      assertNotNull(jvm);
+
+      // the kill comes before the process has been started
+      manager.kill(jvm, runner);
+      assertEquals(1, process.destroyed.getCount());
+      started.countDown();
+      assertTrue(process.destroyed.await(10, TimeUnit.SECONDS));
+    } finally {
+      started.countDown();
+      manager.shutdown();
+    }
+  }
+
+  public void testJvmTaskWritable() throws Exception {
+    JvmTask task = task(JOB, 3);
+    DataOutputBuffer out = new DataOutputBuffer();
+    task.write(out);
+    JvmTask.die().write(out);
+    new JvmTask().write(out);
+
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    JvmTask read = new JvmTask();
+    read.readFields(in);
+    assertEquals(task.getTaskId(), read.getTaskId());
+    assertEquals(TaskStatus.State.RUNNING, read.getState());
+    assertEquals(2, read.getClassPath().length);
+    assertEquals("/tmp/classes", read.getClassPath()[1]);
+
+    read.readFields(in);
+    assertTrue(read.shouldDie());
+    assertNull(read.getTaskId());
+    read.readFields(in);
+    assertFalse(read.shouldDie());
+    assertNull(read.getTaskId());
+  }
+}
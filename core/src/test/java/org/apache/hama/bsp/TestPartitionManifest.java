@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hama.Constants;
+import org.apache.hama.HamaConfiguration;
+
+public class TestPartitionManifest extends TestCase {
+
+  private final File testDir = new File(System.getProperty("java.io.tmpdir"),
+      "TestPartitionManifest");
+  private final Path input = new Path(testDir.getAbsolutePath(), "input");
+  private final Path parts = new Path(testDir.getAbsolutePath(), "parts");
+  private FileSystem fs;
+
+  @Override
+  protected void setUp() throws Exception {
+    FileUtil.fullyDelete(testDir);
+    fs = FileSystem.getLocal(new HamaConfiguration());
+    writeFile(new Path(input, "part-0"), "a\nb\n");
+    writeFile(new Path(input, "part-1"), "c\n");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.fullyDelete(testDir);
+  }
+
+  private void writeFile(Path file, String content) throws IOException {
+    FSDataOutputStream out = fs.create(file, true);
+    out.writeBytes(content);
+    out.close();
+  }
+
+  private BSPJob newJob() throws IOException {
+    BSPJob job = new BSPJob(new HamaConfiguration());
+    job.setInputFormat(TextInputFormat.class);
+    job.setPartitioner(HashPartitioner.class);
+    FileInputFormat.setInputPaths(job, input);
+    return job;
+  }
+
+  public void testMatches() throws Exception {
+    PartitionManifest manifest = PartitionManifest.create(newJob(), 3);
+    assertTrue(manifest.matches(PartitionManifest.create(newJob(), 3)));
+    assertFalse(manifest.matches(PartitionManifest.create(newJob(), 4)));
+
+    BSPJob sorted = newJob();
+    sorted.setBoolean(Constants.PARTITION_SORT_BY_KEY, true);
+    assertFalse(manifest.matches(PartitionManifest.create(sorted, 3)));
+
+    // hidden files don't change the input
+    writeFile(new Path(input, "_SUCCESS"), "");
+    assertTrue(manifest.matches(PartitionManifest.create(newJob(), 3)));
+
+    writeFile(new Path(input, "part-1"), "c\nd\n");
+    assertFalse(manifest.matches(PartitionManifest.create(newJob(), 3)));
+  }
+
+  public void testReadWrite() throws Exception {
+    assertNull(PartitionManifest.read(fs, parts));
+
+    PartitionManifest manifest = PartitionManifest.create(newJob(), 2);
+    manifest.write(fs, parts);
+    PartitionManifest read = PartitionManifest.read(fs, parts);
+    assertTrue(manifest.matches(read));
+    assertEquals(2, read.getNumPartitions());
+    assertEquals(manifest.getCreateTime(), read.getCreateTime());
+
+    assertFalse(read.isExpired(0L, read.getCreateTime() + 1000L));
+    assertFalse(read.isExpired(1000L, read.getCreateTime() + 1000L));
+    assertTrue(read.isExpired(1000L, read.getCreateTime() + 1001L));
+
+    PartitionManifest.invalidate(fs, parts);
+    assertFalse(fs.exists(parts));
+    assertNull(PartitionManifest.read(fs, parts));
+  }
+
+  public void testPartitionCached() throws Exception {
+    BSPJob job = newJob();
+    assertFalse(BSPJobClient.isPartitionCached(job,
+        PartitionManifest.create(job, 2), parts));
+
+    // files without a manifest may not be partitions, they are kept
+    writeFile(new Path(parts, "part-0"), "");
+    try {
+      BSPJobClient.isPartitionCached(job, PartitionManifest.create(job, 2),
+          parts);
+      fail("A dir without a manifest must not be used.");
+    } catch (IOException e) {
+      assertTrue(fs.exists(new Path(parts, "part-0")));
+    }
+
+    PartitionManifest.create(job, 2).write(fs, parts);
+    assertTrue(BSPJobClient.isPartitionCached(job,
+        PartitionManifest.create(job, 2), parts));
+    assertFalse(BSPJobClient.isPartitionCached(job,
+        PartitionManifest.create(job, 3), parts));
+    assertFalse(fs.exists(parts));
+
+    PartitionManifest.create(job, 2).write(fs, parts);
+    job.setBoolean(Constants.RUNTIME_PARTITIONING_CACHE_INVALIDATE, true);
+    assertFalse(BSPJobClient.isPartitionCached(job,
+        PartitionManifest.create(job, 2), parts));
+    assertFalse(fs.exists(parts));
+  }
+
+}
@@ -18,18 +18,26 @@
 package org.apache.hama.bsp;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hama.Constants;
 import org.apache.hama.HamaCluster;
 import org.apache.hama.HamaConfiguration;
+import org.apache.hama.bsp.PartitioningRunner.NeighborRecordConverter;
+import org.apache.hama.bsp.PartitioningRunner.RecordConverter;
+import org.apache.hama.bsp.PartitioningRunner.WeightedRecordConverter;
 import org.apache.hama.bsp.message.queue.DiskQueue;
 import org.apache.hama.bsp.sync.SyncException;
 import org.apache.hama.commons.util.KeyValuePair;
@@ -84,7 +92,7 @@ public class TestPartitioning extends HamaCluster {
     conf.setInt(Constants.ZOOKEEPER_SESSION_TIMEOUT, 600);
     bsp.setInputFormat(TextInputFormat.class);
     bsp.setOutputFormat(NullOutputFormat.class);
-    FileInputFormat.setInputPaths(bsp, "../CHANGES.txt,../README.txt");
+    FileInputFormat.setInputPaths(bsp, "../CHANGES.txt,../README.md");
     bsp.setPartitioner(HashPartitioner.class);
     assertTrue(bsp.waitForCompletion(true));
 
@@ -92,6 +100,241 @@ public class TestPartitioning extends HamaCluster {
     fs.delete(OUTPUT_PATH, true);
     
     getMergeProcessorID();
+    sortedPartitions();
+    shuffledPartitions();
+    cachedPartitions();
+    rangePartitions();
+    balancedPartitions();
+    streamingPartitions();
+    prepartitionedInput();
+  }
+
+  public void sortedPartitions() throws Exception {
+    Configuration conf = new Configuration();
+    conf.set("bsp.local.dir", "/tmp/hama-test/partitioning");
+    conf.setBoolean("bsp.input.runtime.partitioning", true);
+    conf.setBoolean(Constants.PARTITION_SORT_BY_KEY, true);
+    conf.setInt(Constants.RUNTIME_PARTITIONING_MERGE_THREADS, 2);
+    conf.setBoolean(Constants.RUNTIME_PARTITIONING_COMPRESS, true);
+    FileSystem fs = FileSystem.get(conf);
+    Path input = new Path(TMP_OUTPUT + "sorted-input");
+    for (int i = 0; i < 3; i++) {
+      FSDataOutputStream out = fs.create(new Path(input, "part-" + i));
+      for (int line = 0; line < 500; line++) {
+        out.writeBytes("file " + i + " line " + line + "\n");
+      }
+      out.close();
+    }
+
+    BSPJob bsp = new BSPJob(new HamaConfiguration(conf));
+    bsp.setJobName("Test sorted partitioning");
+    bsp.setBspClass(SortedPartitionBSP.class);
+    bsp.setNumBspTask(2);
+    bsp.setInputFormat(TextInputFormat.class);
+    bsp.setOutputFormat(NullOutputFormat.class);
+    FileInputFormat.setInputPaths(bsp, input);
+    bsp.setPartitioner(HashPartitioner.class);
+    assertTrue(bsp.waitForCompletion(true));
+    fs.delete(input, true);
+  }
+
+  public void shuffledPartitions() throws Exception {
+    Configuration conf = new Configuration();
+    conf.set("bsp.local.dir", "/tmp/hama-test/partitioning");
+    conf.setBoolean("bsp.input.runtime.partitioning", true);
+    conf.setBoolean(Constants.PARTITION_SORT_BY_KEY, true);
+    conf.setBoolean(Constants.RUNTIME_PARTITIONING_SHUFFLE, true);
+    FileSystem fs = FileSystem.get(conf);
+    Path input = new Path(TMP_OUTPUT + "shuffled-input");
+    for (int i = 0; i < 2; i++) {
+      FSDataOutputStream out = fs.create(new Path(input, "part-" + i));
+      for (int line = 0; line < 500; line++) {
+        out.writeBytes("file " + i + " line " + line + "\n");
+      }
+      out.close();
+    }
+
+    // more tasks than splits, the third peer only receives records
+    BSPJob bsp = new BSPJob(new HamaConfiguration(conf));
+    bsp.setJobName("Test shuffled partitioning");
+    bsp.setBspClass(ShuffledPartitionBSP.class);
+    bsp.setNumBspTask(3);
+    bsp.setInputFormat(TextInputFormat.class);
+    bsp.setOutputFormat(NullOutputFormat.class);
+    FileInputFormat.setInputPaths(bsp, input);
+    bsp.setPartitioner(HashPartitioner.class);
+    assertTrue(bsp.waitForCompletion(true));
+    assertTrue(bsp.getConfiguration().getBoolean(
+        Constants.RUNTIME_PARTITIONING_SHUFFLED, false));
+    fs.delete(input, true);
+  }
+
+  public void cachedPartitions() throws Exception {
+    Configuration conf = new Configuration();
+    conf.set("bsp.local.dir", "/tmp/hama-test/partitioning");
+    conf.setBoolean("bsp.input.runtime.partitioning", true);
+    conf.setBoolean(Constants.RUNTIME_PARTITIONING_CACHE, true);
+    Path parts = new Path(TMP_OUTPUT + "cached-parts");
+    conf.set(Constants.RUNTIME_PARTITIONING_DIR, parts.toString());
+    FileSystem fs = FileSystem.get(conf);
+    fs.delete(parts, true);
+
+    long created = 0L;
+    for (int run = 0; run < 2; run++) {
+      BSPJob bsp = new BSPJob(new HamaConfiguration(conf));
+      bsp.setJobName("Test cached partitioning");
+      bsp.setBspClass(PartionedBSP.class);
+      bsp.setNumBspTask(2);
+      bsp.setInputFormat(TextInputFormat.class);
+      bsp.setOutputFormat(NullOutputFormat.class);
+      FileInputFormat.setInputPaths(bsp, "../CHANGES.txt,../README.md");
+      bsp.setPartitioner(HashPartitioner.class);
+      assertTrue(bsp.waitForCompletion(true));
+
+      PartitionManifest manifest = PartitionManifest.read(fs, parts);
+      assertNotNull(manifest);
+      if (run == 0) {
+        created = manifest.getCreateTime();
+      } else {
+        // the second job read the partitions of the first one
+        assertEquals(created, manifest.getCreateTime());
+      }
+    }
+    fs.delete(parts, true);
+  }
+
+  public void rangePartitions() throws Exception {
+    Configuration conf = new Configuration();
+    conf.set("bsp.local.dir", "/tmp/hama-test/partitioning");
+    conf.setBoolean("bsp.input.runtime.partitioning", true);
+    BSPJob bsp = new BSPJob(new HamaConfiguration(conf));
+    bsp.setJobName("Test range partitioning");
+    bsp.setBspClass(RangePartitionBSP.class);
+    bsp.setNumBspTask(3);
+    bsp.setInputFormat(TextInputFormat.class);
+    bsp.setOutputFormat(NullOutputFormat.class);
+    FileInputFormat.setInputPaths(bsp, "../CHANGES.txt,../README.md");
+    bsp.setPartitioner(RangePartitioner.class);
+    assertTrue(bsp.waitForCompletion(true));
+    assertEquals(2, RangePartitioner.readBoundaries(bsp.getConfiguration()).length);
+  }
+
+  public void balancedPartitions() throws Exception {
+    Configuration conf = new Configuration();
+    conf.set("bsp.local.dir", "/tmp/hama-test/partitioning");
+    conf.setBoolean("bsp.input.runtime.partitioning", true);
+    conf.setClass(Constants.RUNTIME_PARTITION_RECORDCONVERTER,
+        WeightedLineConverter.class, RecordConverter.class);
+    FileSystem fs = FileSystem.get(conf);
+    Path input = new Path(TMP_OUTPUT + "weighted-input");
+    // four heavy keys that hash to the same partition and many light ones
+    FSDataOutputStream out = fs.create(new Path(input, "part-0"));
+    int heavy = 0;
+    for (int key = 0; key < 1000; key++) {
+      long weight = 1;
+      if (heavy < 4 && new HashPartitioner<Text, Text>().getPartition(
+          new Text("key" + key), null, 2) == 0) {
+        weight = 1000;
+        heavy++;
+      }
+      out.writeBytes("key" + key + " " + weight + "\n");
+    }
+    out.close();
+
+    BSPJob bsp = new BSPJob(new HamaConfiguration(conf));
+    bsp.setJobName("Test balanced partitioning");
+    bsp.setBspClass(BalancedPartitionBSP.class);
+    bsp.setNumBspTask(2);
+    bsp.setInputFormat(TextInputFormat.class);
+    bsp.setOutputFormat(NullOutputFormat.class);
+    FileInputFormat.setInputPaths(bsp, input);
+    bsp.setPartitioner(BalancedPartitioner.class);
+    assertTrue(bsp.waitForCompletion(true));
+    fs.delete(input, true);
+  }
+
+  public void streamingPartitions() throws Exception {
+    Configuration conf = new Configuration();
+    conf.set("bsp.local.dir", "/tmp/hama-test/partitioning");
+    conf.setBoolean("bsp.input.runtime.partitioning", true);
+    conf.setClass(Constants.RUNTIME_PARTITION_RECORDCONVERTER,
+        AdjacencyLineConverter.class, RecordConverter.class);
+    FileSystem fs = FileSystem.get(conf);
+    Path input = new Path(TMP_OUTPUT + "adjacency-input");
+    // four chains of vertices, the vertices of a chain link to each other
+    FSDataOutputStream out = fs.create(new Path(input, "part-0"));
+    for (int chain = 0; chain < 4; chain++) {
+      for (int i = 0; i < 100; i++) {
+        out.writeBytes(chain + "-" + i);
+        if (i > 0) {
+          out.writeBytes(" " + chain + "-" + (i - 1));
+        }
+        if (i < 99) {
+          out.writeBytes(" " + chain + "-" + (i + 1));
+        }
+        out.writeBytes("\n");
+      }
+    }
+    out.close();
+
+    BSPJob bsp = new BSPJob(new HamaConfiguration(conf));
+    bsp.setJobName("Test streaming partitioning");
+    bsp.setBspClass(StreamingPartitionBSP.class);
+    bsp.setNumBspTask(2);
+    bsp.setInputFormat(TextInputFormat.class);
+    bsp.setOutputFormat(NullOutputFormat.class);
+    FileInputFormat.setInputPaths(bsp, input);
+    bsp.setPartitioner(StreamingPartitioner.class);
+    assertTrue(bsp.waitForCompletion(true));
+    fs.delete(input, true);
+  }
+
+  public void prepartitionedInput() throws Exception {
+    Configuration conf = new Configuration();
+    conf.set("bsp.local.dir", "/tmp/hama-test/partitioning");
+    conf.setBoolean("bsp.input.runtime.partitioning", true);
+    Path output = new Path(TMP_OUTPUT + "partitioned-output");
+    FileSystem fs = FileSystem.get(conf);
+    fs.delete(output, true);
+
+    // the first job writes the records of its partitions as they are
+    BSPJob writer = new BSPJob(new HamaConfiguration(conf));
+    writer.setJobName("Test partitioned output");
+    writer.setBspClass(PartitionedOutputBSP.class);
+    writer.setNumBspTask(2);
+    writer.setInputFormat(TextInputFormat.class);
+    writer.setOutputFormat(SequenceFileOutputFormat.class);
+    writer.setOutputKeyClass(LongWritable.class);
+    writer.setOutputValueClass(Text.class);
+    writer.setOutputPath(output);
+    writer.setBoolean(Constants.OUTPUT_PARTITIONED, true);
+    FileInputFormat.setInputPaths(writer, "../CHANGES.txt,../README.md");
+    writer.setPartitioner(HashPartitioner.class);
+    assertTrue(writer.waitForCompletion(true));
+    assertNotNull(PartitionManifest.readPartitioning(fs, output));
+
+    // the second job reads them without partitioning them again
+    BSPJob reader = new BSPJob(new HamaConfiguration(conf));
+    reader.setJobName("Test pre-partitioned input");
+    reader.setBspClass(PrepartitionedInputBSP.class);
+    reader.setNumBspTask(2);
+    reader.setInputFormat(SequenceFileInputFormat.class);
+    reader.setOutputFormat(NullOutputFormat.class);
+    FileInputFormat.setInputPaths(reader, output);
+    reader.setPartitioner(HashPartitioner.class);
+    assertTrue(reader.waitForCompletion(true));
+    assertEquals(PrepartitionedInputFormat.class, reader.getInputFormat()
+        .getClass());
+
+    // another number of tasks needs the runtime partitioning
+    BSPJob other = new BSPJob(new HamaConfiguration(conf));
+    other.setInputFormat(SequenceFileInputFormat.class);
+    FileInputFormat.setInputPaths(other, output);
+    other.setPartitioner(HashPartitioner.class);
+    assertFalse(BSPJobClient.isPrepartitioned(other, 3, 10));
+    assertTrue(BSPJobClient.isPrepartitioned(other, 0, 10));
+    assertEquals(2, other.getNumBspTask());
+    fs.delete(output, true);
   }
 
   public void getMergeProcessorID() {
@@ -120,4 +363,259 @@ public class TestPartitioning extends HamaCluster {
     }
   }
 
+  public static class SortedPartitionBSP extends
+      BSP<LongWritable, Text, NullWritable, NullWritable, NullWritable> {
+
+    @Override
+    public void bsp(
+        BSPPeer<LongWritable, Text, NullWritable, NullWritable, NullWritable> peer)
+        throws IOException, SyncException, InterruptedException {
+      long numOfPairs = 0;
+      long lastKey = Long.MIN_VALUE;
+      KeyValuePair<LongWritable, Text> readNext = null;
+      while ((readNext = peer.readNext()) != null) {
+        // the merged partition is ordered by the byte offsets of the lines
+        assertTrue(readNext.getKey().get() >= lastKey);
+        lastKey = readNext.getKey().get();
+        numOfPairs++;
+      }
+
+      // every peer got the lines of a third of the offsets, three files each
+      assertTrue(numOfPairs > 100);
+    }
+  }
+
+  public static class RangePartitionBSP extends
+      BSP<LongWritable, Text, NullWritable, NullWritable, NullWritable> {
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void bsp(
+        BSPPeer<LongWritable, Text, NullWritable, NullWritable, NullWritable> peer)
+        throws IOException, SyncException, InterruptedException {
+      RangePartitioner<LongWritable, Text> partitioner = ReflectionUtils
+          .newInstance(RangePartitioner.class, peer.getConfiguration());
+      long numOfPairs = 0;
+      KeyValuePair<LongWritable, Text> readNext = null;
+      while ((readNext = peer.readNext()) != null) {
+        // every peer holds the offsets of its own range
+        assertEquals(peer.getPeerIndex(), partitioner.getPartition(
+            readNext.getKey(), readNext.getValue(), peer.getNumPeers()));
+        numOfPairs++;
+      }
+      assertTrue(numOfPairs > 2);
+    }
+  }
+
+  public static class WeightedLineConverter implements WeightedRecordConverter {
+
+    @Override
+    public void setup(Configuration conf) {
+    }
+
+    @Override
+    public KeyValuePair<Writable, Writable> convertRecord(
+        KeyValuePair<Writable, Writable> inputRecord, Configuration conf) {
+      return new KeyValuePair<Writable, Writable>(getKey((Text) inputRecord
+          .getValue()), inputRecord.getValue());
+    }
+
+    @Override
+    public long getWeight(KeyValuePair<Writable, Writable> convertedRecord) {
+      return getWeight((Text) convertedRecord.getValue());
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    public int getPartitionId(KeyValuePair<Writable, Writable> inputRecord,
+        Partitioner partitioner, Configuration conf, BSPPeer peer, int numTasks) {
+      return Math.abs(partitioner.getPartition(inputRecord.getKey(),
+          inputRecord.getValue(), numTasks));
+    }
+
+    static Text getKey(Text line) {
+      return new Text(line.toString().split(" ")[0]);
+    }
+
+    static long getWeight(Text line) {
+      return Long.parseLong(line.toString().split(" ")[1]);
+    }
+  }
+
+  public static class BalancedPartitionBSP extends
+      BSP<LongWritable, Text, NullWritable, NullWritable, LongWritable> {
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void bsp(
+        BSPPeer<LongWritable, Text, NullWritable, NullWritable, LongWritable> peer)
+        throws IOException, SyncException, InterruptedException {
+      BalancedPartitioner<Text, Text> partitioner = ReflectionUtils
+          .newInstance(BalancedPartitioner.class, peer.getConfiguration());
+      long weight = 0;
+      KeyValuePair<LongWritable, Text> readNext = null;
+      while ((readNext = peer.readNext()) != null) {
+        // the peers of the job know the assignment of the heavy keys
+        assertEquals(peer.getPeerIndex(), partitioner.getPartition(
+            WeightedLineConverter.getKey(readNext.getValue()), null,
+            peer.getNumPeers()));
+        weight += WeightedLineConverter.getWeight(readNext.getValue());
+      }
+
+      peer.send(peer.getPeerName(0), new LongWritable(weight));
+      peer.sync();
+      if (peer.getPeerIndex() == 0) {
+        long max = 0;
+        long total = 0;
+        LongWritable received = null;
+        while ((received = peer.getCurrentMessage()) != null) {
+          max = Math.max(max, received.get());
+          total += received.get();
+        }
+        assertEquals(4996, total);
+        // two heavy keys per peer
+        assertTrue(max < total / 2 * 1.1);
+      }
+    }
+  }
+
+  public static class AdjacencyLineConverter implements
+      NeighborRecordConverter {
+
+    @Override
+    public void setup(Configuration conf) {
+    }
+
+    @Override
+    public KeyValuePair<Writable, Writable> convertRecord(
+        KeyValuePair<Writable, Writable> inputRecord, Configuration conf) {
+      return new KeyValuePair<Writable, Writable>(
+          getVertices((Text) inputRecord.getValue()).get(0),
+          inputRecord.getValue());
+    }
+
+    @Override
+    public Iterable<? extends Writable> getNeighbors(
+        KeyValuePair<Writable, Writable> convertedRecord) {
+      List<Text> vertices = getVertices((Text) convertedRecord.getValue());
+      return vertices.subList(1, vertices.size());
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    public int getPartitionId(KeyValuePair<Writable, Writable> inputRecord,
+        Partitioner partitioner, Configuration conf, BSPPeer peer, int numTasks) {
+      return Math.abs(partitioner.getPartition(inputRecord.getKey(),
+          inputRecord.getValue(), numTasks));
+    }
+
+    static List<Text> getVertices(Text line) {
+      List<Text> vertices = new ArrayList<Text>();
+      for (String vertex : line.toString().split(" ")) {
+        vertices.add(new Text(vertex));
+      }
+      return vertices;
+    }
+  }
+
+  public static class StreamingPartitionBSP extends
+      BSP<LongWritable, Text, NullWritable, NullWritable, LongWritable> {
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void bsp(
+        BSPPeer<LongWritable, Text, NullWritable, NullWritable, LongWritable> peer)
+        throws IOException, SyncException, InterruptedException {
+      StreamingPartitioner<Text, Text> partitioner = ReflectionUtils
+          .newInstance(StreamingPartitioner.class, peer.getConfiguration());
+      long vertices = 0;
+      long remoteEdges = 0;
+      KeyValuePair<LongWritable, Text> readNext = null;
+      while ((readNext = peer.readNext()) != null) {
+        List<Text> line = AdjacencyLineConverter.getVertices(readNext
+            .getValue());
+        assertEquals(peer.getPeerIndex(),
+            partitioner.getPartition(line.get(0), null, peer.getNumPeers()));
+        for (Text neighbor : line.subList(1, line.size())) {
+          if (partitioner.getPartition(neighbor, null, peer.getNumPeers()) != peer
+              .getPeerIndex()) {
+            remoteEdges++;
+          }
+        }
+        vertices++;
+      }
+
+      // at most ten percent more vertices than the even share
+      assertTrue(vertices <= 220);
+      // hashing would make about half of the 792 edges remote
+      assertTrue("Too many remote edges: " + remoteEdges, remoteEdges < 40);
+    }
+  }
+
+  public static class PartitionedOutputBSP extends
+      BSP<LongWritable, Text, LongWritable, Text, NullWritable> {
+
+    @Override
+    public void bsp(
+        BSPPeer<LongWritable, Text, LongWritable, Text, NullWritable> peer)
+        throws IOException, SyncException, InterruptedException {
+      KeyValuePair<LongWritable, Text> readNext = null;
+      while ((readNext = peer.readNext()) != null) {
+        peer.write(readNext.getKey(), readNext.getValue());
+      }
+    }
+  }
+
+  public static class PrepartitionedInputBSP extends
+      BSP<LongWritable, Text, NullWritable, NullWritable, NullWritable> {
+
+    @Override
+    public void bsp(
+        BSPPeer<LongWritable, Text, NullWritable, NullWritable, NullWritable> peer)
+        throws IOException, SyncException, InterruptedException {
+      long numOfPairs = 0;
+      KeyValuePair<LongWritable, Text> readNext = null;
+      while ((readNext = peer.readNext()) != null) {
+        // task i reads the partition the first job wrote in task i
+        assertEquals(peer.getPeerIndex(), Math.abs(readNext.getKey()
+            .hashCode() % peer.getNumPeers()));
+        numOfPairs++;
+      }
+
+      assertTrue(numOfPairs > 2);
+    }
+  }
+
+  public static class ShuffledPartitionBSP extends
+      BSP<LongWritable, Text, NullWritable, NullWritable, LongWritable> {
+
+    @Override
+    public void bsp(
+        BSPPeer<LongWritable, Text, NullWritable, NullWritable, LongWritable> peer)
+        throws IOException, SyncException, InterruptedException {
+      long numOfPairs = 0;
+      long lastKey = Long.MIN_VALUE;
+      KeyValuePair<LongWritable, Text> readNext = null;
+      while ((readNext = peer.readNext()) != null) {
+        assertEquals(peer.getPeerIndex(), Math.abs(readNext.getKey().hashCode()
+            % peer.getNumPeers()));
+        assertTrue(readNext.getKey().get() >= lastKey);
+        lastKey = readNext.getKey().get();
+        numOfPairs++;
+      }
+
+      peer.send(peer.getPeerName(0), new LongWritable(numOfPairs));
+      peer.sync();
+      if (peer.getPeerIndex() == 0) {
+        long total = 0;
+        LongWritable count = null;
+        while ((count = peer.getCurrentMessage()) != null) {
+          total += count.get();
+        }
+        // no record is lost or duplicated by the shuffle
+        assertEquals(1000, total);
+      }
+    }
+  }
+
 }
@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hama.HamaConfiguration;
+
+public class TestRangePartitioner extends TestCase {
+
+  private final File testDir = new File(System.getProperty("java.io.tmpdir"),
+      "TestRangePartitioner");
+
+  @Override
+  protected void setUp() throws Exception {
+    FileUtil.fullyDelete(testDir);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.fullyDelete(testDir);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static RangePartitioner<IntWritable, NullWritable> newPartitioner(
+      Configuration conf) {
+    return ReflectionUtils.newInstance(RangePartitioner.class, conf);
+  }
+
+  public void testGetPartition() throws Exception {
+    HamaConfiguration conf = new HamaConfiguration();
+    RangePartitioner.writeBoundaries(conf, IntWritable.class,
+        new WritableComparable[] { new IntWritable(10), new IntWritable(20) });
+    RangePartitioner<IntWritable, NullWritable> partitioner = newPartitioner(conf);
+
+    assertEquals(0, partitioner.getPartition(new IntWritable(-5), null, 3));
+    assertEquals(0, partitioner.getPartition(new IntWritable(9), null, 3));
+    assertEquals(1, partitioner.getPartition(new IntWritable(10), null, 3));
+    assertEquals(1, partitioner.getPartition(new IntWritable(19), null, 3));
+    assertEquals(2, partitioner.getPartition(new IntWritable(20), null, 3));
+    assertEquals(2, partitioner.getPartition(new IntWritable(1000), null, 3));
+
+    // three ranges spread over more tasks keep their order
+    assertEquals(0, partitioner.getPartition(new IntWritable(0), null, 6));
+    assertEquals(2, partitioner.getPartition(new IntWritable(15), null, 6));
+    assertEquals(4, partitioner.getPartition(new IntWritable(25), null, 6));
+
+    RangePartitioner.writeBoundaries(conf, IntWritable.class,
+        new WritableComparable[0]);
+    partitioner = newPartitioner(conf);
+    assertEquals(0, partitioner.getPartition(new IntWritable(7), null, 1));
+  }
+
+  public void testSample() throws Exception {
+    HamaConfiguration conf = new HamaConfiguration();
+    FileSystem fs = FileSystem.getLocal(conf);
+    Path input = new Path(testDir.getAbsolutePath(), "input");
+    // the keys are skewed, the first file holds fewer keys than the second
+    int key = 0;
+    for (int file = 0; file < 2; file++) {
+      SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf,
+          new Path(input, "part-" + file), IntWritable.class,
+          NullWritable.class);
+      for (int i = 0; i < (file + 1) * 4000; i++) {
+        writer.append(new IntWritable(key++ * 3), NullWritable.get());
+      }
+      writer.close();
+    }
+
+    BSPJob job = new BSPJob(conf);
+    job.setInputFormat(SequenceFileInputFormat.class);
+    FileInputFormat.setInputPaths(job, input);
+    InputSplit[] splits = job.getInputFormat().getSplits(job, 2);
+    RangePartitioner.sample(job, splits, 4);
+
+    RangePartitioner<IntWritable, NullWritable> partitioner = newPartitioner(job
+        .getConfiguration());
+    int[] counts = new int[4];
+    int last = 0;
+    for (int i = 0; i < key; i++) {
+      int partition = partitioner.getPartition(new IntWritable(i * 3), null, 4);
+      assertTrue(partition >= last);
+      last = partition;
+      counts[partition]++;
+    }
+    for (int count : counts) {
+      assertTrue("Unbalanced range of " + count + " keys",
+          Math.abs(count - key / 4) < key / 10);
+    }
+  }
+
+}
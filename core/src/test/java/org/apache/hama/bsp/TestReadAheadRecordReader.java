@@ -0,0 +1,169 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hama.HamaConfiguration;
+import org.apache.hama.commons.util.KeyValuePair;
+
+public class TestReadAheadRecordReader extends TestCase {
+
+  private final HamaConfiguration conf = new HamaConfiguration();
+
+  private ReadAheadRecordReader<LongWritable, Text> newReader(
+      RecordReader<LongWritable, Text> raw, StripedCounter blocked) {
+    return new ReadAheadRecordReader<LongWritable, Text>(raw, conf, 7, 3,
+        "TestReadAhead", blocked, new StripedCounter());
+  }
+
+  public void testCopyingNext() throws Exception {
+    StripedCounter blocked = new StripedCounter();
+    // a slow reader, the consumer has to wait for it
+    ReadAheadRecordReader<LongWritable, Text> reader = newReader(new Records(
+        50, -1, 1L), blocked);
+    LongWritable key = reader.createKey();
+    Text value = reader.createValue();
+    int count = 0;
+    while (reader.next(key, value)) {
+      assertEquals(count, key.get());
+      assertEquals("record-" + count, value.toString());
+      count++;
+    }
+    assertEquals(50, count);
+    assertFalse(reader.next(key, value));
+    reader.close();
+    assertTrue(blocked.get() > 0);
+  }
+
+  public void testHandOver() throws Exception {
+    ReadAheadRecordReader<LongWritable, Text> reader = newReader(new Records(
+        100, -1, 0L), null);
+    KeyValuePair<LongWritable, Text> pair = new KeyValuePair<LongWritable, Text>();
+    Set<Text> values = new HashSet<Text>();
+    int count = 0;
+    while (reader.next(pair)) {
+      assertEquals(count, pair.getKey().get());
+      assertEquals("record-" + count, pair.getValue().toString());
+      // records are handed over, never reused for later ones
+      for (Text previous : values) {
+        assertNotSame(previous, pair.getValue());
+      }
+      values.add(pair.getValue());
+      count++;
+    }
+    assertEquals(100, count);
+    for (Text value : values) {
+      assertTrue(value.toString().startsWith("record-"));
+    }
+    reader.close();
+  }
+
+  public void testError() throws Exception {
+    ReadAheadRecordReader<LongWritable, Text> reader = newReader(new Records(
+        100, 30, 0L), null);
+    LongWritable key = reader.createKey();
+    Text value = reader.createValue();
+    int count = 0;
+    try {
+      while (reader.next(key, value)) {
+        count++;
+      }
+      fail();
+    } catch (IOException e) {
+      assertEquals("broken", e.getMessage());
+    }
+    assertEquals(30, count);
+    reader.close();
+  }
+
+  public void testCloseEarly() throws Exception {
+    Records raw = new Records(100000, -1, 0L);
+    ReadAheadRecordReader<LongWritable, Text> reader = newReader(raw, null);
+    assertTrue(reader.next(reader.createKey(), reader.createValue()));
+    reader.close();
+    assertTrue(raw.closed);
+  }
+
+  private static class Records implements RecordReader<LongWritable, Text> {
+    private final int count;
+    private final int failAt;
+    private final long delay;
+    private int pos;
+    private volatile boolean closed;
+
+    Records(int count, int failAt, long delay) {
+      this.count = count;
+      this.failAt = failAt;
+      this.delay = delay;
+    }
+
+    @Override
+    public boolean next(LongWritable key, Text value) throws IOException {
+      if (pos == failAt) {
+        throw new IOException("broken");
+      }
+      if (pos >= count) {
+        return false;
+      }
+      if (delay > 0) {
+        try {
+          Thread.sleep(delay);
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+      }
+      key.set(pos);
+      value.set("record-" + pos);
+      pos++;
+      return true;
+    }
+
+    @Override
+    public LongWritable createKey() {
+      return new LongWritable();
+    }
+
+    @Override
+    public Text createValue() {
+      return new Text();
+    }
+
+    @Override
+    public long getPos() throws IOException {
+      return pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+      closed = true;
+    }
+
+    @Override
+    public float getProgress() throws IOException {
+      return (float) pos / count;
+    }
+  }
+
+}
@@ -27,11 +27,15 @@ import junit.framework.TestCase;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hama.bsp.BSPJobClient.RawSplit;
 import org.apache.hama.bsp.taskallocation.BSPResource;
 import org.apache.hama.bsp.taskallocation.BestEffortDataLocalTaskAllocator;
+import org.apache.hama.bsp.taskallocation.CommunicationAwareTaskAllocator;
 import org.apache.hama.bsp.taskallocation.TaskAllocationStrategy;
+import org.apache.hama.bsp.taskallocation.TaskTraffic;
 
 public class TestTaskAllocation extends TestCase {
 
@@ -100,4 +104,70 @@ public class TestTaskAllocation extends TestCase {
 
   }
 
+  public void testCommunicationAwareAllocation() throws Exception {
+    Configuration conf = new Configuration();
+    BSPJobID jobId = new BSPJobID("commtest", 1);
+    JobInProgress jobProgress = new JobInProgress(jobId, conf);
+
+    Map<String, GroomServerStatus> groomStatuses = new HashMap<String, GroomServerStatus>();
+    Map<GroomServerStatus, Integer> taskCountInGroomMap = new HashMap<GroomServerStatus, Integer>();
+    for (int i = 0; i < 3; ++i) {
+      String name = "host" + i;
+      groomStatuses.put(name, new GroomServerStatus(name,
+          new ArrayList<TaskStatus>(), 0, 2, name + ":40000", name));
+    }
+
+    // three pairs of tasks that only talk to each other
+    TaskTraffic traffic = new TaskTraffic();
+    traffic.add(0, 5, 1000L);
+    traffic.add(1, 4, 2000L);
+    traffic.add(3, 2, 3000L);
+    traffic.add(0, 1, 10L);
+
+    CommunicationAwareTaskAllocator strategy = new CommunicationAwareTaskAllocator();
+    strategy.initialize(conf);
+    strategy.setTraffic(traffic);
+
+    GroomServerStatus[] placed = new GroomServerStatus[6];
+    for (int i = 0; i < placed.length; ++i) {
+      TaskInProgress tip = new TaskInProgress(jobId, "job.xml", null, conf,
+          jobProgress, i);
+      String[] selected = strategy.selectGrooms(groomStatuses,
+          taskCountInGroomMap, new BSPResource[0], tip);
+      placed[i] = strategy.getGroomToAllocate(groomStatuses, selected,
+          taskCountInGroomMap, new BSPResource[0], tip);
+      assertNotNull(placed[i]);
+      Integer count = taskCountInGroomMap.get(placed[i]);
+      taskCountInGroomMap.put(placed[i], count == null ? 1 : count + 1);
+    }
+
+    assertEquals(placed[0], placed[5]);
+    assertEquals(placed[1], placed[4]);
+    assertEquals(placed[2], placed[3]);
+    assertFalse(placed[0].equals(placed[1]));
+  }
+
+  public void testTaskTrafficFiles() throws Exception {
+    Configuration conf = new Configuration();
+    FileSystem fs = FileSystem.getLocal(conf);
+    Path dir = new Path(System.getProperty("java.io.tmpdir"),
+        "TestTaskAllocation-traffic");
+    fs.delete(dir, true);
+    try {
+      TaskTraffic.write(fs, new Path(dir, "task-0"), 0, new long[] { 0L, 5L,
+          7L });
+      TaskTraffic.write(fs, new Path(dir, "task-1"), 1, new long[] { 3L, 0L,
+          0L });
+
+      TaskTraffic traffic = TaskTraffic.read(fs, dir);
+      assertEquals(8L, traffic.get(0, 1));
+      assertEquals(8L, traffic.get(1, 0));
+      assertEquals(7L, traffic.get(2, 0));
+      assertEquals(0L, traffic.get(1, 2));
+      assertTrue(TaskTraffic.read(fs, new Path(dir, "missing")).isEmpty());
+    } finally {
+      fs.delete(dir, true);
+    }
+  }
+
 }
@@ -0,0 +1,169 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hama.bsp.BSPPeerImpl.PeerCounter;
+import org.apache.hama.ipc.BSPPeerProtocol;
+import org.apache.hama.ipc.HamaRPCProtocolVersion;
+
+public class TestTaskStatusReporter extends TestCase {
+
+  private static class RecordingUmbilical implements BSPPeerProtocol {
+    final List<TaskStatus> updates = new ArrayList<TaskStatus>();
+    final TaskStatus merged = new TaskStatus(new BSPJobID(),
+        new TaskAttemptID(), 0f, TaskStatus.State.RUNNING, "", "",
+        TaskStatus.Phase.STARTING, new Counters());
+
+    @Override
+    public long getProtocolVersion(String protocol, long clientVersion)
+        throws IOException {
+      return HamaRPCProtocolVersion.versionID;
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    @Override
+    public Task getTask(TaskAttemptID taskid) throws IOException {
+      return null;
+    }
+
+    @Override
+    public boolean ping(TaskAttemptID taskid) throws IOException {
+      return true;
+    }
+
+    @Override
+    public void done(TaskAttemptID taskid) throws IOException {
+    }
+
+    @Override
+    public void fsError(TaskAttemptID taskId, String message)
+        throws IOException {
+    }
+
+    @Override
+    public void fatalError(TaskAttemptID taskId, String message)
+        throws IOException {
+    }
+
+    @Override
+    public boolean statusUpdate(TaskAttemptID taskId, TaskStatus taskStatus)
+        throws IOException, InterruptedException {
+      fail("Full status updates are not expected");
+      return false;
+    }
+
+    @Override
+    public synchronized boolean statusUpdateDelta(TaskAttemptID taskId,
+        TaskStatus taskStatus) throws IOException, InterruptedException {
+      updates.add(taskStatus);
+      merged.statusUpdateDelta(taskStatus);
+      return true;
+    }
+
+    @Override
+    public int getAssignedPortNum(TaskAttemptID taskid) {
+      return 0;
+    }
+  }
+
+  public void testDeltaReports() throws Exception {
+    RecordingUmbilical umbilical = new RecordingUmbilical();
+    TaskAttemptID taskId = new TaskAttemptID("reportertest", 1, 1, 0);
+    Counters counters = new Counters();
+    TaskStatus status = new TaskStatus(taskId.getJobID(), taskId, 1.0f,
+        TaskStatus.State.RUNNING, "running", "localhost",
+        TaskStatus.Phase.COMPUTE, counters);
+
+    // a long interval coalesces all but the first report
+    TaskStatusReporter reporter = new TaskStatusReporter(umbilical, taskId,
+        60000L);
+    reporter.start();
+
+    counters.incrCounter(PeerCounter.SUPERSTEP_SUM, 1L);
+    counters.incrCounter(PeerCounter.TOTAL_MESSAGES_SENT, 10L);
+    status.setFirstBarrierTime(42L);
+    reporter.report(status);
+    while (true) {
+      synchronized (umbilical) {
+        if (umbilical.updates.size() == 1) {
+          break;
+        }
+      }
+      Thread.sleep(10L);
+    }
+
+    for (int i = 0; i < 5; i++) {
+      counters.incrCounter(PeerCounter.SUPERSTEP_SUM, 1L);
+      reporter.report(status);
+    }
+    reporter.close();
+
+    assertEquals(2, umbilical.updates.size());
+    Counters first = umbilical.updates.get(0).getCounters();
+    assertEquals(1L, first.getCounter(PeerCounter.SUPERSTEP_SUM));
+    assertEquals(10L, first.getCounter(PeerCounter.TOTAL_MESSAGES_SENT));
+
+    // only the changed counter is sent again
+    Counters second = umbilical.updates.get(1).getCounters();
+    assertEquals(1, second.size());
+    assertEquals(6L, second.getCounter(PeerCounter.SUPERSTEP_SUM));
+
+    assertEquals(6L, umbilical.merged.getSuperstepCount());
+    assertEquals(10L,
+        umbilical.merged.getCounters().getCounter(
+            PeerCounter.TOTAL_MESSAGES_SENT));
+    assertEquals(TaskStatus.Phase.COMPUTE, umbilical.merged.getPhase());
+    assertEquals(42L, umbilical.merged.getFirstBarrierTime());
+    assertEquals(0L, umbilical.merged.getStartTime());
+  }
+
+  public void testReportCopiesCounters() throws Exception {
+    RecordingUmbilical umbilical = new RecordingUmbilical();
+    TaskAttemptID taskId = new TaskAttemptID("reportertest", 1, 1, 0);
+    Counters counters = new Counters();
+    TaskStatus status = new TaskStatus(taskId.getJobID(), taskId, 1.0f,
+        TaskStatus.State.RUNNING, "running", "localhost",
+        TaskStatus.Phase.COMPUTE, counters);
+
+    TaskStatusReporter reporter = new TaskStatusReporter(umbilical, taskId,
+        60000L);
+    counters.incrCounter(PeerCounter.SUPERSTEP_SUM, 1L);
+    reporter.report(status);
+    // the task goes on while the report is pending
+    counters.incrCounter(PeerCounter.SUPERSTEP_SUM, 1L);
+    counters.incrCounter(PeerCounter.TOTAL_MESSAGES_SENT, 10L);
+
+    reporter.start();
+    reporter.close();
+
+    assertEquals(1, umbilical.updates.size());
+    Counters sent = umbilical.updates.get(0).getCounters();
+    assertEquals(1, sent.size());
+    assertEquals(1L, sent.getCounter(PeerCounter.SUPERSTEP_SUM));
+  }
+
+}
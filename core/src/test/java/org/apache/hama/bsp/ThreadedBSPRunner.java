@@ -0,0 +1,482 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.bsp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hama.Constants;
+import org.apache.hama.HamaConfiguration;
+import org.apache.hama.bsp.message.AbstractMessageManager;
+import org.apache.hama.bsp.message.MessageManager;
+import org.apache.hama.bsp.message.MessageManagerFactory;
+import org.apache.hama.bsp.sync.BSPPeerSyncClient;
+import org.apache.hama.bsp.sync.SyncClient;
+import org.apache.hama.bsp.sync.SyncEvent;
+import org.apache.hama.bsp.sync.SyncEventListener;
+import org.apache.hama.bsp.sync.SyncException;
+import org.apache.hama.bsp.sync.SyncServiceFactory;
+
+/**
+ * Runs the peers of a job on threads of the test JVM, like the
+ * {@link LocalBSPRunner}. Unlike the local runner, the sync client stores
+ * information and the message manager notifies its listeners, so the fault
+ * tolerance services work and a test can fail peers and start them again.
+ * 
+ * Only one job runs at a time, the barrier, the stored information and the
+ * message managers are shared by all peers of the JVM.
+ */
+public class ThreadedBSPRunner {
+
+  private static final Log LOG = LogFactory.getLog(ThreadedBSPRunner.class);
+
+  private static final Map<InetSocketAddress, ThreadedMessageManager<?>>
+      MANAGERS = new ConcurrentHashMap<InetSocketAddress, ThreadedMessageManager<?>>();
+  private static final Map<String, byte[]> INFORMATION =
+      new ConcurrentHashMap<String, byte[]>();
+  private static volatile Barrier barrier;
+  private static volatile String[] peerNames;
+
+  private final BSPJob job;
+  private final int numPeers;
+  private final ExecutorService executor;
+  private String splitClass;
+  private BytesWritable[] splits;
+
+  public ThreadedBSPRunner(BSPJob job, BSPJobID jobId) {
+    this.job = job;
+    this.numPeers = job.getNumBspTask();
+    this.executor = Executors.newFixedThreadPool(numPeers);
+
+    job.setJobID(jobId);
+    job.getConfiguration().setClass(
+        MessageManagerFactory.MESSAGE_MANAGER_CLASS,
+        ThreadedMessageManager.class, MessageManager.class);
+    job.getConfiguration().setClass(SyncServiceFactory.SYNC_PEER_CLASS,
+        ThreadedSyncClient.class, SyncClient.class);
+
+    INFORMATION.clear();
+    peerNames = new String[numPeers];
+    for (int i = 0; i < numPeers; i++) {
+      peerNames[i] = "localhost:" + i;
+    }
+    newBarrier();
+  }
+
+  /**
+   * Sets the input splits of the peers, the split of a peer is its index.
+   */
+  public void setSplits(String splitClass, BytesWritable[] splits) {
+    this.splitClass = splitClass;
+    this.splits = splits;
+  }
+
+  /**
+   * Serializes the given split for {@link #setSplits(String, BytesWritable[])}.
+   */
+  public static BytesWritable toBytes(Writable split) throws IOException {
+    DataOutputBuffer buffer = new DataOutputBuffer();
+    split.write(buffer);
+    BytesWritable bytes = new BytesWritable();
+    bytes.set(buffer.getData(), 0, buffer.getLength());
+    return bytes;
+  }
+
+  /**
+   * Replaces the barrier, peers waiting at the current one fail.
+   */
+  public void newBarrier() {
+    if (barrier != null) {
+      barrier.abort();
+    }
+    barrier = new Barrier(numPeers);
+  }
+
+  /**
+   * Starts an attempt of the given peer. If the attempt fails, the barrier is
+   * aborted and the peers waiting at it fail too.
+   * 
+   * @return the future of the attempt, which throws its first exception.
+   */
+  public Future<BSPPeerImpl<?, ?, ?, ?, ?>> start(int peerIndex, int attempt,
+      long superstep, TaskStatus.State state) {
+    return start(peerIndex, attempt, superstep, state, true);
+  }
+
+  /**
+   * Starts an attempt of the given peer. If the attempt fails and
+   * <code>abortOnFailure</code> is false, the other peers keep waiting at the
+   * barrier for a new attempt of the peer.
+   * 
+   * @return the future of the attempt, which throws its first exception.
+   */
+  public Future<BSPPeerImpl<?, ?, ?, ?, ?>> start(final int peerIndex,
+      final int attempt, final long superstep, final TaskStatus.State state,
+      final boolean abortOnFailure) {
+    return executor.submit(new Callable<BSPPeerImpl<?, ?, ?, ?, ?>>() {
+      @Override
+      public BSPPeerImpl<?, ?, ?, ?, ?> call() throws Exception {
+        try {
+          return run(peerIndex, attempt, superstep, state);
+        } catch (Exception e) {
+          if (abortOnFailure) {
+            LOG.info("Peer " + peerIndex + " failed, aborting the barrier.", e);
+            barrier.abort();
+          } else {
+            LOG.info("Peer " + peerIndex + " failed.", e);
+          }
+          throw e;
+        }
+      }
+    });
+  }
+
+  /**
+   * Runs an attempt of all peers starting at the given superstep.
+   * 
+   * @return true if all peers succeeded.
+   */
+  public boolean runAll(int attempt, long superstep, TaskStatus.State state)
+      throws InterruptedException {
+    List<Future<BSPPeerImpl<?, ?, ?, ?, ?>>> futures =
+        new ArrayList<Future<BSPPeerImpl<?, ?, ?, ?, ?>>>();
+    for (int i = 0; i < numPeers; i++) {
+      futures.add(start(i, attempt, superstep, state));
+    }
+    boolean success = true;
+    for (Future<BSPPeerImpl<?, ?, ?, ?, ?>> future : futures) {
+      try {
+        future.get();
+      } catch (Exception e) {
+        success = false;
+      }
+    }
+    return success;
+  }
+
+  /**
+   * Reads information stored by the peers.
+   */
+  public boolean getInformation(String key, Writable valueHolder)
+      throws IOException {
+    return read(key, valueHolder);
+  }
+
+  /**
+   * Stores information for the peers, like the master does.
+   */
+  public boolean storeInformation(String key, Writable value) {
+    return new ThreadedSyncClient().storeInformation(key, value, true, null);
+  }
+
+  public void shutdown() {
+    executor.shutdownNow();
+    MANAGERS.clear();
+    INFORMATION.clear();
+  }
+
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private BSPPeerImpl<?, ?, ?, ?, ?> run(int peerIndex, int attempt,
+      long superstep, TaskStatus.State state) throws Exception {
+    HamaConfiguration conf = new HamaConfiguration(job.getConfiguration());
+    conf.set(Constants.PEER_HOST, "localhost");
+    conf.setInt(Constants.PEER_PORT, peerIndex);
+    BSP bsp = (BSP) ReflectionUtils.newInstance(
+        conf.getClass("bsp.work.class", BSP.class), conf);
+
+    BSPPeerImpl<?, ?, ?, ?, ?> peer = new BSPPeerImpl(job, conf,
+        new TaskAttemptID(new TaskID(job.getJobID(), peerIndex), attempt),
+        new LocalBSPRunner.LocalUmbilical(), peerIndex, splitClass,
+        splits == null ? null : splits[peerIndex], new Counters(), superstep,
+        state);
+    Exception failure = null;
+    try {
+      bsp.setup(peer);
+      bsp.bsp(peer);
+    } catch (Exception e) {
+      failure = e;
+    } finally {
+      try {
+        bsp.cleanup(peer);
+      } catch (Exception e) {
+        if (failure == null) {
+          failure = e;
+        }
+      }
+      peer.clear();
+      peer.close();
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    return peer;
+  }
+
+  private static boolean read(String key, Writable valueHolder)
+      throws IOException {
+    byte[] data = INFORMATION.get(key);
+    if (data == null) {
+      return false;
+    }
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(data, data.length);
+    valueHolder.readFields(in);
+    return true;
+  }
+
+  /**
+   * A barrier that can be aborted, unlike a cyclic barrier a peer arriving
+   * after the abort fails too. The bundles sent before a barrier are delivered
+   * when all peers have arrived at it, so a peer receives them after it
+   * finished the previous superstep.
+   */
+  private static final class Barrier {
+    private final int parties;
+    private final List<Delivery> deliveries = new ArrayList<Delivery>();
+    private int arrived;
+    private long generation;
+    private boolean aborted;
+
+    Barrier(int parties) {
+      this.parties = parties;
+    }
+
+    synchronized void deliver(InetSocketAddress target,
+        BSPMessageBundle<?> bundle) {
+      deliveries.add(new Delivery(target, bundle));
+    }
+
+    synchronized void await() throws SyncException {
+      if (aborted) {
+        throw new SyncException("The barrier was aborted.");
+      }
+      long current = generation;
+      if (++arrived == parties) {
+        for (Delivery delivery : deliveries) {
+          delivery.run();
+        }
+        deliveries.clear();
+        arrived = 0;
+        generation++;
+        notifyAll();
+        return;
+      }
+      while (current == generation && !aborted) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          throw new SyncException(e.toString());
+        }
+      }
+      if (current == generation) {
+        throw new SyncException("The barrier was aborted.");
+      }
+    }
+
+    synchronized void abort() {
+      aborted = true;
+      deliveries.clear();
+      notifyAll();
+    }
+  }
+
+  /**
+   * A bundle for the peer at an address, it is handed to the message manager
+   * of the peer's current attempt.
+   */
+  private static final class Delivery {
+    private final InetSocketAddress target;
+    private final BSPMessageBundle<?> bundle;
+
+    Delivery(InetSocketAddress target, BSPMessageBundle<?> bundle) {
+      this.target = target;
+      this.bundle = bundle;
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    void run() {
+      try {
+        ((ThreadedMessageManager) MANAGERS.get(target))
+            .loopBackMessages(bundle);
+      } catch (IOException e) {
+        LOG.error("Could not deliver a bundle to " + target, e);
+      }
+    }
+  }
+
+  public static class ThreadedSyncClient extends BSPPeerSyncClient {
+
+    @Override
+    public void init(Configuration conf, BSPJobID jobId, TaskAttemptID taskId)
+        throws Exception {
+    }
+
+    @Override
+    public void enterBarrier(BSPJobID jobId, TaskAttemptID taskId,
+        long superstep) throws SyncException {
+      barrier.await();
+    }
+
+    @Override
+    public void leaveBarrier(BSPJobID jobId, TaskAttemptID taskId,
+        long superstep) throws SyncException {
+      barrier.await();
+    }
+
+    @Override
+    public void register(BSPJobID jobId, TaskAttemptID taskId,
+        String hostAddress, long port) {
+    }
+
+    @Override
+    public String[] getAllPeerNames(BSPJobID jobID) {
+      return peerNames;
+    }
+
+    @Override
+    public void deregisterFromBarrier(BSPJobID jobId, TaskAttemptID taskId,
+        String hostAddress, long port) {
+    }
+
+    @Override
+    public void stopServer() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String constructKey(BSPJobID jobId, String... args) {
+      StringBuilder key = new StringBuilder(jobId.toString());
+      for (String arg : args) {
+        key.append('/').append(arg);
+      }
+      return key.toString();
+    }
+
+    @Override
+    public boolean storeInformation(String key, Writable value,
+        boolean permanent, SyncEventListener listener) {
+      DataOutputBuffer out = new DataOutputBuffer();
+      try {
+        value.write(out);
+      } catch (IOException e) {
+        LOG.error("Could not store " + key, e);
+        return false;
+      }
+      byte[] data = new byte[out.getLength()];
+      System.arraycopy(out.getData(), 0, data, 0, data.length);
+      INFORMATION.put(key, data);
+      return true;
+    }
+
+    @Override
+    public boolean getInformation(String key, Writable valueHolder) {
+      try {
+        return read(key, valueHolder);
+      } catch (IOException e) {
+        LOG.error("Could not read " + key, e);
+        return false;
+      }
+    }
+
+    @Override
+    public boolean addKey(String key, boolean permanent,
+        SyncEventListener listener) {
+      return storeInformation(key, NullWritable.get(), permanent, listener);
+    }
+
+    @Override
+    public boolean hasKey(String key) {
+      return INFORMATION.containsKey(key);
+    }
+
+    @Override
+    public String[] getChildKeySet(String key, SyncEventListener listener) {
+      List<String> children = new ArrayList<String>();
+      for (String stored : INFORMATION.keySet()) {
+        if (stored.startsWith(key + "/")) {
+          children.add(stored);
+        }
+      }
+      return children.toArray(new String[children.size()]);
+    }
+
+    @Override
+    public boolean registerListener(String key, SyncEvent event,
+        SyncEventListener listener) {
+      return false;
+    }
+
+    @Override
+    public boolean remove(String key, SyncEventListener listener) {
+      return INFORMATION.remove(key) != null;
+    }
+  }
+
+  /**
+   * Delivers bundles to the message manager of the target peer at the next
+   * barrier, which notifies its listeners like a manager receiving them over
+   * the network.
+   */
+  public static class ThreadedMessageManager<M extends Writable> extends
+      AbstractMessageManager<M> {
+
+    private InetSocketAddress selfAddress;
+
+    @Override
+    public void init(TaskAttemptID attemptId, BSPPeer<?, ?, ?, ?, M> peer,
+        HamaConfiguration conf, InetSocketAddress peerAddress) {
+      super.init(attemptId, peer, conf, peerAddress);
+      MANAGERS.put(peerAddress, this);
+      selfAddress = peerAddress;
+    }
+
+    @Override
+    public void transfer(InetSocketAddress addr, BSPMessageBundle<M> bundle)
+        throws IOException {
+      if (!MANAGERS.containsKey(addr)) {
+        throw new IOException("No peer listens on " + addr);
+      }
+      barrier.deliver(addr, bundle);
+    }
+
+    @Override
+    public InetSocketAddress getListenerAddress() {
+      return selfAddress;
+    }
+  }
+}
@@ -61,6 +61,62 @@ public class TestHamaMessageManager extends TestCase {
     messagingInternal(conf);
   }
 
+  public void testResentBundles() throws Exception {
+    HamaConfiguration conf = new HamaConfiguration();
+    conf.setClass(MessageManager.RECEIVE_QUEUE_TYPE_CLASS, MemoryQueue.class,
+        MessageQueue.class);
+    conf.set(DiskQueue.DISK_QUEUE_PATH_KEY, TMP_OUTPUT_PATH);
+    conf.set(MessageManagerFactory.MESSAGE_MANAGER_CLASS,
+        "org.apache.hama.bsp.message.HamaMessageManagerImpl");
+    conf.set(Constants.PEER_HOST, Constants.DEFAULT_PEER_HOST);
+    conf.setInt(Constants.PEER_PORT, Constants.DEFAULT_PEER_PORT);
+
+    MessageManager<IntWritable> survivor = newMessageManager(conf, 0);
+    InetSocketAddress survivorAddress = survivor.getListenerAddress();
+
+    // peer 1 sends its bundle of superstep 3 and is killed before the barrier
+    MessageManager<IntWritable> failed = newMessageManager(conf, 1);
+    failed.transfer(survivorAddress, newBundle(1, 3, 10));
+    failed.close();
+
+    // the restarted peer 1 sends the same bundle again
+    MessageManager<IntWritable> restarted = newMessageManager(conf, 1);
+    restarted.transfer(survivorAddress, newBundle(1, 3, 10));
+    // bundles of other peers and supersteps are still received
+    restarted.transfer(survivorAddress, newBundle(2, 3, 20));
+    restarted.transfer(survivorAddress, newBundle(1, 4, 30));
+    restarted.close();
+
+    survivor.clearOutgoingMessages();
+    assertEquals(3, survivor.getNumCurrentMessages());
+    assertEquals(10, survivor.getCurrentMessage().get());
+    assertEquals(20, survivor.getCurrentMessage().get());
+    assertEquals(30, survivor.getCurrentMessage().get());
+    survivor.close();
+  }
+
+  private static MessageManager<IntWritable> newMessageManager(
+      HamaConfiguration conf, int index) throws Exception {
+    MessageManager<IntWritable> messageManager = MessageManagerFactory
+        .getMessageManager(conf);
+    InetSocketAddress peer = new InetSocketAddress(
+        BSPNetUtils.getCanonicalHostname(), BSPNetUtils.getFreePort()
+            + (increment++));
+    BSPPeer<?, ?, ?, ?, IntWritable> dummyPeer = new BSPPeerImpl<NullWritable, NullWritable, NullWritable, NullWritable, IntWritable>(
+        conf, FileSystem.get(conf), new Counters());
+    messageManager.init(new TaskAttemptID("1", 1, index, increment++),
+        dummyPeer, conf, peer);
+    return messageManager;
+  }
+
+  private static BSPMessageBundle<IntWritable> newBundle(int sourcePeer,
+      long superstep, int message) {
+    BSPMessageBundle<IntWritable> bundle = new BSPMessageBundle<IntWritable>();
+    bundle.addMessage(new IntWritable(message));
+    bundle.setSource(sourcePeer, superstep);
+    return bundle;
+  }
+
   private static void messagingInternal(HamaConfiguration conf)
       throws Exception {
     conf.set(MessageManagerFactory.MESSAGE_MANAGER_CLASS,
@@ -84,6 +140,9 @@ public class TestHamaMessageManager extends TestCase {
     String peerName = peer.getHostName() + ":" + peer.getPort();
     System.out.println("Peer is " + peerName);
     messageManager.send(peerName, new IntWritable(1337));
+    assertEquals(1L,
+        dummyPeer.getCounter(BSPPeerImpl.PeerCounter.TOTAL_MESSAGES_SENT)
+            .getCounter());
 
     Iterator<Entry<InetSocketAddress, BSPMessageBundle<IntWritable>>> messageIterator = messageManager
         .getOutgoingBundles();
@@ -109,6 +168,8 @@ public class TestHamaMessageManager extends TestCase {
     IntWritable currentMessage = messageManager.getCurrentMessage();
 
     assertEquals(currentMessage.get(), 1337);
+    assertTrue(dummyPeer.getCounter(
+        BSPPeerImpl.PeerCounter.MESSAGE_BYTES_TRANSFERED).getCounter() > 0);
     messageManager.close();
   }
 }
@@ -0,0 +1,115 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.ipc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Measures the RPC calls per second a server sustains for a small and a
+ * message bundle sized payload. Not run by the test suite, start it with
+ * <code>RPCCallBenchmark [threads] [seconds]</code>.
+ */
+public class RPCCallBenchmark {
+
+  public interface BenchmarkProtocol extends VersionedProtocol {
+    public static final long versionID = 1L;
+
+    int add(int v1, int v2) throws IOException;
+
+    Writable echo(Writable value) throws IOException;
+  }
+
+  public static class BenchmarkImpl implements BenchmarkProtocol {
+    @Override
+    public long getProtocolVersion(String protocol, long clientVersion) {
+      return versionID;
+    }
+
+    @Override
+    public int add(int v1, int v2) {
+      return v1 + v2;
+    }
+
+    @Override
+    public Writable echo(Writable value) {
+      return value;
+    }
+  }
+
+  private static long run(final BenchmarkProtocol proxy, int threads,
+      long millis, final int payloadSize) throws InterruptedException {
+    final AtomicLong calls = new AtomicLong();
+    final long deadline = System.currentTimeMillis() + millis;
+    Thread[] callers = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      callers[i] = new Thread() {
+        @Override
+        public void run() {
+          BytesWritable payload = new BytesWritable(new byte[payloadSize]);
+          try {
+            while (System.currentTimeMillis() < deadline) {
+              if (payloadSize == 0) {
+                proxy.add(1, 2);
+              } else {
+                proxy.echo(payload);
+              }
+              calls.incrementAndGet();
+            }
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      };
+      callers[i].start();
+    }
+    for (Thread caller : callers) {
+      caller.join();
+    }
+    return calls.get() * 1000L / millis;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+    long millis = (args.length > 1 ? Long.parseLong(args[1]) : 10) * 1000L;
+
+    Configuration conf = new Configuration();
+    Server server = RPC.getServer(new BenchmarkImpl(), "0.0.0.0", 0, 4,
+        false, conf);
+    server.start();
+    BenchmarkProtocol proxy = (BenchmarkProtocol) RPC.getProxy(
+        BenchmarkProtocol.class, BenchmarkProtocol.versionID,
+        new InetSocketAddress("localhost", server.getListenerAddress()
+            .getPort()), conf);
+
+    // warm up the dispatch path and the JIT
+    run(proxy, threads, 2000L, 0);
+    System.out.println("add:        " + run(proxy, threads, millis, 0)
+        + " calls/s");
+    System.out.println("echo 16 KB: " + run(proxy, threads, millis, 16384)
+        + " calls/s");
+
+    RPC.stopProxy(proxy);
+    server.stop();
+  }
+}
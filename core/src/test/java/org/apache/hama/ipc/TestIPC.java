@@ -19,7 +19,13 @@ package org.apache.hama.ipc;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.TestCase;
 
@@ -211,6 +217,43 @@ public class TestIPC extends TestCase {
     }
   }
 
+  public void testAsyncCalls() throws Exception {
+    Server server = new TestServer(4, false);
+    InetSocketAddress addr = BSPNetUtils.getConnectAddress(server);
+    server.start();
+    Client client = new Client(LongWritable.class, conf);
+    Client.ConnectionId remoteId = Client.ConnectionId.getConnectionId(addr,
+        null, null, 0, conf);
+
+    final int calls = 1000;
+    final CountDownLatch latch = new CountDownLatch(calls);
+    final AtomicInteger mismatches = new AtomicInteger();
+    List<Future<Writable>> futures = new ArrayList<Future<Writable>>();
+    for (int i = 0; i < calls; i++) {
+      final long param = i;
+      futures.add(client.asyncCall(new LongWritable(param), remoteId,
+          new Client.Callback() {
+            @Override
+            public void callComplete(Writable value, IOException error) {
+              if (error != null || ((LongWritable) value).get() != param) {
+                mismatches.incrementAndGet();
+              }
+              latch.countDown();
+            }
+          }));
+    }
+    assertTrue(latch.await(60, TimeUnit.SECONDS));
+    assertEquals(0, mismatches.get());
+    for (int i = 0; i < calls; i++) {
+      assertEquals(i, ((LongWritable) futures.get(i).get()).get());
+    }
+    // all calls were multiplexed over one connection
+    assertEquals(1, client.getConnectionIds().size());
+
+    client.stop();
+    server.stop();
+  }
+
   @SuppressWarnings("deprecation")
   public void testStandAloneClient() throws Exception {
     testParallel(10, false, 2, 4, 2, 4, 100);
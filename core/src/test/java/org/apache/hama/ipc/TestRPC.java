@@ -20,7 +20,11 @@ package org.apache.hama.ipc;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import junit.framework.TestCase;
 
@@ -173,6 +177,39 @@ public class TestRPC extends TestCase {
     server.stop();
   }
 
+  public void testAsyncCalls() throws Exception {
+    Server server = RPC.getServer(new TestImpl(), ADDRESS, PORT + 1, conf);
+    server.start();
+
+    InetSocketAddress addr = new InetSocketAddress(PORT + 1);
+    TestProtocol proxy = (TestProtocol) RPC.getProxy(TestProtocol.class,
+        TestProtocol.versionID, addr, conf);
+
+    Method add = TestProtocol.class.getMethod("add", new Class[] { int.class,
+        int.class });
+    List<Future<Object>> results = new ArrayList<Future<Object>>();
+    for (int i = 0; i < 100; i++) {
+      results.add(RPC.callAsync(proxy, add, i, 1));
+    }
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i + 1, ((Integer) results.get(i).get()).intValue());
+    }
+
+    Method ping = TestProtocol.class.getMethod("ping", new Class[] {});
+    assertNull(RPC.callAsync(proxy, ping).get());
+
+    Method error = TestProtocol.class.getMethod("error", new Class[] {});
+    try {
+      RPC.callAsync(proxy, error).get();
+      fail("Remote exception expected");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof RemoteException);
+    }
+
+    RPC.stopProxy(proxy);
+    server.stop();
+  }
+
   public static void main(String[] args) throws Exception {
 
     new TestRPC("test").testCalls();
@@ -52,12 +52,16 @@ public final class AggregationRunner<V extends WritableComparable, E extends Wri
   private Aggregator<M>[] masterAggregator;
 
   private boolean enabled = false;
+  // the master only watches the superstep times to request migrations
+  private boolean sendSuperstepTime = false;
   private Configuration conf;
 
   @SuppressWarnings("unchecked")
   public void setupAggregators(
       BSPPeer<Writable, Writable, Writable, Writable, GraphJobMessage> peer) {
     this.conf = peer.getConfiguration();
+    this.sendSuperstepTime = conf.getBoolean(GraphJob.VERTEX_MIGRATION_ATTR,
+        false);
     String aggregatorClasses = peer.getConfiguration().get(
         GraphJob.AGGREGATOR_CLASS_ATTR);
     if (aggregatorClasses != null) {
@@ -97,10 +101,28 @@ public final class AggregationRunner<V extends WritableComparable, E extends Wri
   public void sendAggregatorValues(
       BSPPeer<Writable, Writable, Writable, Writable, GraphJobMessage> peer,
       int activeVertices, int changedVertexCnt) throws IOException {
+    sendAggregatorValues(peer, activeVertices, changedVertexCnt, -1L);
+  }
+
+  /**
+   * Runs the aggregators by sending their values to the master task, together
+   * with the time the peer spent computing the superstep if vertex migration
+   * is enabled.
+   * 
+   * @param superstepMillis the compute time, not sent if negative.
+   */
+  public void sendAggregatorValues(
+      BSPPeer<Writable, Writable, Writable, Writable, GraphJobMessage> peer,
+      int activeVertices, int changedVertexCnt, long superstepMillis)
+      throws IOException {
     // send msgCounts to the master task
     MapWritable updatedCnt = new MapWritable();
     updatedCnt.put(GraphJobRunner.FLAG_MESSAGE_COUNTS, new IntWritable(
         activeVertices));
+    if (sendSuperstepTime && superstepMillis >= 0) {
+      updatedCnt.put(new Text(GraphJobRunner.S_FLAG_SUPERSTEP_TIME + ";"
+          + peer.getPeerIndex()), new LongWritable(superstepMillis));
+    }
     // send total number of vertices changes
     updatedCnt.put(GraphJobRunner.FLAG_VERTEX_ALTER_COUNTER, new LongWritable(
         changedVertexCnt));
@@ -67,6 +67,7 @@ public final class DiskVerticesInfo<V extends WritableComparable, E extends Writ
   private long[] staticOffsets;
 
   private ArrayList<Long> tmpSoftOffsets;
+  private BitSet tmpHaltedVertices;
   private ArrayList<Long> tmpStaticOffsets;
 
   private int size;
@@ -85,6 +86,7 @@ public final class DiskVerticesInfo<V extends WritableComparable, E extends Writ
     this.runner = runner;
     this.conf = conf;
     tmpSoftOffsets = new ArrayList<Long>();
+    tmpHaltedVertices = new BitSet();
     tmpStaticOffsets = new ArrayList<Long>();
     String p = conf.get(DISK_VERTICES_PATH_KEY, "/tmp/graph/");
     rootPath = p + attempt.getJobID().toString() + "/" + attempt.toString()
@@ -124,6 +126,8 @@ public final class DiskVerticesInfo<V extends WritableComparable, E extends Writ
     }
 
     serializeSoft(vertex, -1, null, softGraphPartsDos);
+    // vertices restored from a checkpoint may already be halted
+    tmpHaltedVertices.set(size, vertex.isHalted());
 
     size++;
   }
@@ -174,10 +178,11 @@ public final class DiskVerticesInfo<V extends WritableComparable, E extends Writ
     softValueOffsets = copy(tmpSoftOffsets);
     softValueOffsetsNextIteration = copy(tmpSoftOffsets);
     staticOffsets = copy(tmpStaticOffsets);
-    activeVertices = new BitSet(size);
+    activeVertices = tmpHaltedVertices;
 
     tmpStaticOffsets = null;
     tmpSoftOffsets = null;
+    tmpHaltedVertices = null;
     IOUtils.cleanup(null, staticGraphPartsDos, softGraphPartsDos);
     // prevent additional vertices from beeing added
     lockedAdditions = true;
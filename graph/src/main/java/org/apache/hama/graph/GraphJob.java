@@ -47,6 +47,13 @@ public class GraphJob extends BSPJob {
   public final static String VERTEX_OUTPUT_WRITER_CLASS_ATTR = "hama.graph.vertex.output.writer.class";
   public final static String AGGREGATOR_CLASS_ATTR = "hama.graph.aggregator.class";
 
+  public final static String VERTEX_CHECKPOINT_ATTR = "hama.graph.checkpoint.enabled";
+  public final static String VERTEX_CHECKPOINT_COMPACTION_ATTR = "hama.graph.checkpoint.compaction";
+
+  public final static String VERTEX_MIGRATION_ATTR = "hama.graph.migration.enabled";
+  public final static String STRAGGLER_RATIO_ATTR = "hama.graph.straggler.ratio";
+  public final static String STRAGGLER_SUPERSTEPS_ATTR = "hama.graph.straggler.supersteps";
+
   /**
    * Creates a new Graph Job with the given configuration and an exampleClass.
    * The exampleClass is used to determine the user's jar to distribute in the
@@ -174,6 +181,26 @@ public class GraphJob extends BSPJob {
     conf.setInt("hama.graph.max.iteration", maxIteration);
   }
 
+  /**
+   * Enables the incremental checkpointing of the vertices every
+   * <code>bsp.checkpoint.interval</code> supersteps, so that recovering tasks
+   * restore their vertices without reading the input again.
+   */
+  public void setVertexCheckpointing(boolean enabled) {
+    conf.setBoolean(VERTEX_CHECKPOINT_ATTR, enabled);
+  }
+
+  /**
+   * Set to true to let a peer whose supersteps stay slower than the others
+   * move a range of its vertices to the fastest peer. Needs a
+   * {@link VerticesInfo} that supports removals, like {@link MapVerticesInfo},
+   * otherwise it stops after the first attempt. Ignored if vertex
+   * checkpointing is enabled.
+   */
+  public void setVertexMigration(boolean enabled) {
+    conf.setBoolean(VERTEX_MIGRATION_ATTR, enabled);
+  }
+
   @Override
   public void submit() throws IOException, InterruptedException {
     Preconditions.checkArgument(
@@ -201,6 +228,18 @@ public class GraphJob extends BSPJob {
       this.setVertexOutputWriterClass(DefaultVertexOutputWriter.class);
     }
 
+    // the runner writes the vertices in the order of their IDs, so the
+    // default writer writes a partitioned output sorted by key
+    if (this.getConfiguration().get(Constants.OUTPUT_SORTED) == null
+        && this.getConfiguration().getClass(VERTEX_OUTPUT_WRITER_CLASS_ATTR,
+            null) == DefaultVertexOutputWriter.class) {
+      this.setBoolean(Constants.OUTPUT_SORTED, true);
+    }
+    // migrated vertices are written by another task than their partition's
+    if (this.getConfiguration().getBoolean(VERTEX_MIGRATION_ATTR, false)) {
+      this.setBoolean(Constants.OUTPUT_PARTITIONED, false);
+    }
+
     // add the default message queue to the sorted one
     this.getConfiguration().setClass(MessageManager.RECEIVE_QUEUE_TYPE_CLASS,
         SortedMemoryQueue.class, MessageQueue.class);
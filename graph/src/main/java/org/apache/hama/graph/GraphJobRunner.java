@@ -18,7 +18,9 @@
 package org.apache.hama.graph;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map.Entry;
 
 import org.apache.commons.logging.Log;
@@ -41,6 +43,7 @@ import org.apache.hama.bsp.PartitioningRunner.RecordConverter;
 import org.apache.hama.bsp.sync.SyncException;
 import org.apache.hama.commons.util.KeyValuePair;
 import org.apache.hama.graph.IDSkippingIterator.Strategy;
+import org.apache.hama.graph.StragglerDetector.Migration;
 import org.apache.hama.util.ReflectionUtils;
 
 /**
@@ -55,7 +58,8 @@ public final class GraphJobRunner<V extends WritableComparable, E extends Writab
     extends BSP<Writable, Writable, Writable, Writable, GraphJobMessage> {
 
   public static enum GraphJobCounter {
-    MULTISTEP_PARTITIONING, ITERATIONS, INPUT_VERTICES, AGGREGATE_VERTICES
+    MULTISTEP_PARTITIONING, ITERATIONS, INPUT_VERTICES, AGGREGATE_VERTICES,
+    MIGRATED_VERTICES
   }
 
   private static final Log LOG = LogFactory.getLog(GraphJobRunner.class);
@@ -68,6 +72,10 @@ public final class GraphJobRunner<V extends WritableComparable, E extends Writab
   public static final String S_FLAG_VERTEX_DECREASE = "hama.4";
   public static final String S_FLAG_VERTEX_ALTER_COUNTER = "hama.5";
   public static final String S_FLAG_VERTEX_TOTAL_VERTICES = "hama.6";
+  public static final String S_FLAG_SUPERSTEP_TIME = "hama.7";
+  public static final String S_FLAG_MIGRATION = "hama.8";
+  public static final String S_FLAG_VERTEX_MIGRATE = "hama.9";
+  public static final String S_FLAG_MIGRATION_UNSUPPORTED = "hama.8;unsupported";
   public static final Text FLAG_MESSAGE_COUNTS = new Text(S_FLAG_MESSAGE_COUNTS);
   public static final Text FLAG_VERTEX_INCREASE = new Text(
       S_FLAG_VERTEX_INCREASE);
@@ -77,6 +85,11 @@ public final class GraphJobRunner<V extends WritableComparable, E extends Writab
       S_FLAG_VERTEX_ALTER_COUNTER);
   public static final Text FLAG_VERTEX_TOTAL_VERTICES = new Text(
       S_FLAG_VERTEX_TOTAL_VERTICES);
+  public static final Text FLAG_MIGRATION = new Text(S_FLAG_MIGRATION);
+  public static final Text FLAG_VERTEX_MIGRATE = new Text(
+      S_FLAG_VERTEX_MIGRATE);
+  public static final Text FLAG_MIGRATION_UNSUPPORTED = new Text(
+      S_FLAG_MIGRATION_UNSUPPORTED);
 
   public static final String VERTEX_CLASS_KEY = "hama.graph.vertex.class";
 
@@ -90,6 +103,7 @@ public final class GraphJobRunner<V extends WritableComparable, E extends Writab
   public static Class<Vertex<?, ?, ?>> vertexClass;
 
   private VerticesInfo<V, E, M> vertices;
+  private VertexCheckpointer<V, E, M> checkpointer;
   private boolean updated = true;
   private int globalUpdateCounts = 0;
   private int changedVertexCnt = 0;
@@ -100,6 +114,12 @@ public final class GraphJobRunner<V extends WritableComparable, E extends Writab
   private long iteration;
 
   private AggregationRunner<V, E, M> aggregationRunner;
+  // only set on the master task if vertex migration is enabled
+  private StragglerDetector stragglerDetector;
+  // migration the master asked for, done at the start of the next superstep
+  private Migration pendingMigration;
+  // ranges of vertices that were moved away from their partition
+  private final List<VertexRoute<V>> routes = new ArrayList<VertexRoute<V>>();
   private VertexOutputWriter<Writable, Writable, V, E, M> vertexOutputWriter;
 
   private BSPPeer<Writable, Writable, Writable, Writable, GraphJobMessage> peer;
@@ -111,6 +131,11 @@ public final class GraphJobRunner<V extends WritableComparable, E extends Writab
 
     setupFields(peer);
 
+    if (checkpointer != null && peer.getSuperstepCount() > 0
+        && restoreVertices(peer)) {
+      return;
+    }
+
     loadVertices(peer);
 
     countGlobalVertexCount(peer);
@@ -134,6 +159,9 @@ public final class GraphJobRunner<V extends WritableComparable, E extends Writab
 
       // note that the messages must be parsed here
       GraphJobMessage firstVertexMessage = parseMessages(peer);
+      if (pendingMigration != null && updated) {
+        firstVertexMessage = migrateVertices(firstVertexMessage, peer);
+      }
       // master/slaves needs to update
       firstVertexMessage = doAggregationUpdates(firstVertexMessage, peer);
       // check if updated changed by our aggregators
@@ -165,6 +193,9 @@ public final class GraphJobRunner<V extends WritableComparable, E extends Writab
       vertexOutputWriter.write(skippingIterator.next(), peer);
     }
     vertices.cleanup(conf, peer.getTaskId());
+    if (checkpointer != null) {
+      checkpointer.close();
+    }
   }
 
   /**
@@ -190,6 +221,13 @@ public final class GraphJobRunner<V extends WritableComparable, E extends Writab
         updatedCnt.put(FLAG_MESSAGE_COUNTS, new IntWritable(Integer.MIN_VALUE));
       } else {
         getAggregationRunner().doMasterAggregation(updatedCnt);
+        if (stragglerDetector != null) {
+          Migration migration = stragglerDetector.check();
+          if (migration != null) {
+            LOG.info("Requesting " + migration);
+            updatedCnt.put(FLAG_MIGRATION, migration.toText());
+          }
+        }
       }
       // send the updates from the master tasks back to the slaves
       for (String peerName : peer.getAllPeerNames()) {
@@ -210,8 +248,13 @@ public final class GraphJobRunner<V extends WritableComparable, E extends Writab
       // now sync
       peer.sync();
       // now the map message must be read that might be send from the master
-      updated = getAggregationRunner().receiveAggregatedValues(
-          peer.getCurrentMessage().getMap(), iteration);
+      MapWritable masterValues = peer.getCurrentMessage().getMap();
+      updated = getAggregationRunner().receiveAggregatedValues(masterValues,
+          iteration);
+      if (masterValues.containsKey(FLAG_MIGRATION)) {
+        pendingMigration = Migration.parse((Text) masterValues
+            .get(FLAG_MIGRATION));
+      }
       // set the first vertex message back to the message it had before sync
       firstVertexMessage = peer.getCurrentMessage();
     }
@@ -229,6 +272,9 @@ public final class GraphJobRunner<V extends WritableComparable, E extends Writab
     int activeVertices = 0;
     this.changedVertexCnt = 0;
     vertices.startSuperstep();
+    if (checkpointer != null) {
+      checkpointer.startSuperstep(peer.getSuperstepCount());
+    }
 
     /*
      * We iterate over our messages and vertices in sorted order. That means
@@ -239,6 +285,7 @@ public final class GraphJobRunner<V extends WritableComparable, E extends Writab
     VertexMessageIterable<V, M> iterable = null;
     Vertex<V, E, M> vertex = null;
 
+    final long start = System.currentTimeMillis();
     // note that can't skip inactive vertices because we have to rewrite the
     // complete vertex file in each iteration
     while (iterator.hasNext(
@@ -265,6 +312,9 @@ public final class GraphJobRunner<V extends WritableComparable, E extends Writab
         activeVertices++;
       }
 
+      if (checkpointer != null) {
+        checkpointer.vertexComputed(vertex);
+      }
       // note that we even need to rewrite the vertex if it is halted for
       // consistency reasons
       vertices.finishVertexComputation(vertex);
@@ -272,8 +322,11 @@ public final class GraphJobRunner<V extends WritableComparable, E extends Writab
     vertices.finishSuperstep();
 
     getAggregationRunner().sendAggregatorValues(peer, activeVertices,
-        this.changedVertexCnt);
+        this.changedVertexCnt, System.currentTimeMillis() - start);
     iteration++;
+    if (checkpointer != null) {
+      checkpointer.finishSuperstep(iteration, numberVertices);
+    }
   }
 
   /**
@@ -372,6 +425,20 @@ public final class GraphJobRunner<V extends WritableComparable, E extends Writab
             VerticesInfo.class);
     vertices = ReflectionUtils.newInstance(verticesInfoClass);
     vertices.init(this, conf, peer.getTaskId());
+
+    if (conf.getBoolean(GraphJob.VERTEX_CHECKPOINT_ATTR, false)) {
+      checkpointer = new VertexCheckpointer<V, E, M>(this, peer, conf);
+    }
+
+    // routes are not checkpointed, so a restored peer could not find the
+    // migrated vertices
+    if (conf.getBoolean(GraphJob.VERTEX_MIGRATION_ATTR, false)
+        && checkpointer == null && isMasterTask(peer)
+        && peer.getNumPeers() > 1) {
+      stragglerDetector = new StragglerDetector(peer.getNumPeers(),
+          conf.getFloat(GraphJob.STRAGGLER_RATIO_ATTR, 1.5f), conf.getInt(
+              GraphJob.STRAGGLER_SUPERSTEPS_ATTR, 3));
+    }
   }
 
   @SuppressWarnings("unchecked")
@@ -456,6 +523,33 @@ public final class GraphJobRunner<V extends WritableComparable, E extends Writab
     LOG.debug("Starting Vertex processing!");
   }
 
+  /**
+   * Restores the vertices of a recovering peer from the vertex checkpoints
+   * instead of loading them from the input.
+   * 
+   * @return false if not all peers have a vertex checkpoint of the same
+   *         superstep, then all peers load their vertices from the input.
+   */
+  private boolean restoreVertices(
+      BSPPeer<Writable, Writable, Writable, Writable, GraphJobMessage> peer)
+      throws IOException {
+    long superstep = peer.getSuperstepCount();
+    if (!checkpointer.isRestorable(superstep, peer.getNumPeers())
+        || !checkpointer.restore(superstep, vertices)) {
+      return false;
+    }
+    iteration = checkpointer.getRestoredIteration();
+    numberVertices = checkpointer.getRestoredNumberVertices();
+    // countGlobalVertexCount is skipped, the counter of the new master task
+    // must hold the global count again
+    if (isMasterTask(peer)) {
+      peer.getCounter(GraphJobCounter.INPUT_VERTICES).increment(numberVertices);
+    }
+    LOG.info(vertices.size() + " vertices of iteration " + iteration
+        + " are restored into " + peer.getPeerName());
+    return true;
+  }
+
   /**
    * Add new vertex into memory of each peer.
    *
@@ -491,6 +585,9 @@ public final class GraphJobRunner<V extends WritableComparable, E extends Writab
    * @throws IOException
    */
   private void finishAdditions() throws IOException {
+    if (checkpointer != null) {
+      checkpointer.structureChanged();
+    }
     vertices.finishAdditions();
     // finish the "superstep" because we have written a new file here
     vertices.finishSuperstep();
@@ -502,11 +599,123 @@ public final class GraphJobRunner<V extends WritableComparable, E extends Writab
    * @throws IOException
    */
   private void finishRemovals() throws IOException {
+    if (checkpointer != null) {
+      checkpointer.structureChanged();
+    }
     vertices.finishRemovals();
     // finish the "superstep" because we have written a new file here
     vertices.finishSuperstep();
   }
 
+  /**
+   * Moves the vertices of a range to the target peer of a migration. All peers
+   * replay their pending vertex messages, the source peer forwarding those of
+   * the moved vertices to the target, and sync once more so the moved vertices
+   * and the new route arrive before the superstep is computed.
+   *
+   * @return the first vertex message after the migration, null if none.
+   */
+  @SuppressWarnings("unchecked")
+  private GraphJobMessage migrateVertices(GraphJobMessage firstVertexMessage,
+      BSPPeer<Writable, Writable, Writable, Writable, GraphJobMessage> peer)
+      throws IOException, SyncException, InterruptedException {
+    Migration migration = pendingMigration;
+    pendingMigration = null;
+
+    VertexRoute<V> route = null;
+    if (peer.getPeerIndex() == migration.getSource()) {
+      List<Vertex<V, E, M>> moved = selectVertices(migration.getFraction());
+      if (moved == null) {
+        // tell the master to stop requesting migrations
+        MapWritable msg = new MapWritable();
+        msg.put(FLAG_MIGRATION_UNSUPPORTED,
+            new IntWritable(peer.getPeerIndex()));
+        peer.send(getMasterTask(peer), new GraphJobMessage(msg));
+      } else if (!moved.isEmpty()) {
+        route = new VertexRoute<V>(migration.getSource(),
+            migration.getTarget(), moved.get(0).getVertexID(), moved.get(
+                moved.size() - 1).getVertexID());
+        String target = peer.getPeerName(migration.getTarget());
+        for (Vertex<V, E, M> vertex : moved) {
+          MapWritable msg = new MapWritable();
+          msg.put(FLAG_VERTEX_MIGRATE, vertex);
+          peer.send(target, new GraphJobMessage(msg));
+        }
+        for (String peerName : peer.getAllPeerNames()) {
+          MapWritable msg = new MapWritable();
+          msg.put(FLAG_VERTEX_MIGRATE, route);
+          peer.send(peerName, new GraphJobMessage(msg));
+        }
+        peer.getCounter(GraphJobCounter.MIGRATED_VERTICES).increment(
+            moved.size());
+        LOG.info("Migrating " + moved.size() + " vertices " + route);
+      }
+    }
+
+    // pending messages would be lost by the sync, so they are sent again
+    GraphJobMessage msg = firstVertexMessage;
+    while (msg != null) {
+      if (route != null
+          && route.contains((V) msg.getVertexId(), peer.getPeerIndex())) {
+        peer.send(peer.getPeerName(route.getTarget()), msg);
+      } else {
+        peer.send(peer.getPeerName(), msg);
+      }
+      msg = peer.getCurrentMessage();
+    }
+    peer.sync();
+
+    return parseMessages(peer);
+  }
+
+  /**
+   * Removes the vertices with the highest IDs, the given fraction of all
+   * vertices of this peer.
+   *
+   * @return the removed vertices in ID order, null if the vertices can't be
+   *         removed.
+   */
+  private List<Vertex<V, E, M>> selectVertices(float fraction)
+      throws IOException {
+    List<Vertex<V, E, M>> moved = new ArrayList<Vertex<V, E, M>>();
+    int size = vertices.size();
+    int count = (int) (size * fraction);
+    if (count <= 0 || count >= size) {
+      return moved;
+    }
+    int skip = size - count;
+    IDSkippingIterator<V, E, M> iterator = vertices.skippingIterator();
+    while (iterator.hasNext()) {
+      Vertex<V, E, M> vertex = iterator.next();
+      if (skip-- <= 0) {
+        moved.add(vertex);
+      }
+    }
+    try {
+      for (Vertex<V, E, M> vertex : moved) {
+        vertices.removeVertex(vertex.getVertexID());
+      }
+    } catch (UnsupportedOperationException e) {
+      LOG.warn("Vertices can't be migrated: " + e.getMessage());
+      return null;
+    }
+    finishRemovals();
+    return moved;
+  }
+
+  /**
+   * @return the partition of the vertex, after applying the routes of the
+   *         vertices that were migrated.
+   */
+  public final int getPartition(V vertexID, M value) {
+    int partition = partitioner.getPartition(vertexID, value,
+        peer.getNumPeers());
+    for (int i = 0; i < routes.size(); i++) {
+      partition = routes.get(i).apply(vertexID, partition);
+    }
+    return partition;
+  }
+
   /**
    * Counts vertices globally by sending the count of vertices in the map to the
    * other peers.
@@ -577,6 +786,28 @@ public final class GraphJobRunner<V extends WritableComparable, E extends Writab
           } else if (FLAG_VERTEX_DECREASE.equals(vertexID)) {
             dynamicRemovals = true;
             removeVertex((V) e.getValue());
+          } else if (FLAG_VERTEX_MIGRATE.equals(vertexID)) {
+            if (e.getValue() instanceof VertexRoute) {
+              routes.add((VertexRoute<V>) e.getValue());
+            } else {
+              Vertex<V, E, M> vertex = (Vertex<V, E, M>) e.getValue();
+              vertex.setRunner(this);
+              vertices.addVertex(vertex);
+              dynamicAdditions = true;
+            }
+          } else if (FLAG_MIGRATION.equals(vertexID)) {
+            pendingMigration = Migration.parse((Text) e.getValue());
+          } else if (FLAG_MIGRATION_UNSUPPORTED.equals(vertexID)) {
+            if (stragglerDetector != null) {
+              LOG.warn("Vertex migration is disabled, the vertices of peer "
+                  + e.getValue() + " can't be removed.");
+              stragglerDetector = null;
+            }
+          } else if (stragglerDetector != null
+              && vertexID.toString().startsWith(S_FLAG_SUPERSTEP_TIME)) {
+            stragglerDetector.record(
+                Integer.parseInt(vertexID.toString().split(";")[1]),
+                ((LongWritable) e.getValue()).get());
           } else if (FLAG_VERTEX_TOTAL_VERTICES.equals(vertexID)) {
             this.numberVertices = ((LongWritable) e.getValue()).get();
           } else if (FLAG_VERTEX_ALTER_COUNTER.equals(vertexID)) {
@@ -0,0 +1,166 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.graph;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * Tracks the compute time of every peer per superstep on the master task and
+ * decides when a persistently slow peer should hand part of its vertices to
+ * the fastest peer.
+ */
+final class StragglerDetector {
+
+  // supersteps faster than this are not worth a migration
+  static final long MIN_MILLIS = 50L;
+
+  private final long[] times;
+  private final float ratio;
+  private final int supersteps;
+
+  private int reported = 0;
+  private int slowPeer = -1;
+  private int slowCount = 0;
+  private int cooldown = 0;
+
+  /**
+   * @param numPeers the number of peers of the job.
+   * @param ratio a peer is slow if its time exceeds the mean times the ratio.
+   * @param supersteps how many supersteps in a row a peer must be slow before
+   *          it is migrated, and how many supersteps to wait afterwards.
+   */
+  StragglerDetector(int numPeers, float ratio, int supersteps) {
+    this.times = new long[numPeers];
+    this.ratio = ratio;
+    this.supersteps = Math.max(1, supersteps);
+    Arrays.fill(times, -1L);
+  }
+
+  /**
+   * Records the compute time of a peer in the last superstep.
+   */
+  void record(int peerIndex, long millis) {
+    if (times[peerIndex] < 0) {
+      reported++;
+    }
+    times[peerIndex] = Math.max(0L, millis);
+  }
+
+  /**
+   * Evaluates the times recorded since the last call.
+   * 
+   * @return the migration to do, or null.
+   */
+  Migration check() {
+    if (reported < times.length) {
+      reset();
+      return null;
+    }
+    long sum = 0L;
+    int slowest = 0;
+    int fastest = 0;
+    for (int i = 0; i < times.length; i++) {
+      sum += times[i];
+      if (times[i] > times[slowest]) {
+        slowest = i;
+      }
+      if (times[i] < times[fastest]) {
+        fastest = i;
+      }
+    }
+    long max = times[slowest];
+    long min = times[fastest];
+    double mean = (double) sum / times.length;
+    reset();
+
+    if (cooldown > 0) {
+      cooldown--;
+      return null;
+    }
+    if (max < MIN_MILLIS || max <= mean * ratio) {
+      slowPeer = -1;
+      slowCount = 0;
+      return null;
+    }
+    if (slowest == slowPeer) {
+      slowCount++;
+    } else {
+      slowPeer = slowest;
+      slowCount = 1;
+    }
+    if (slowCount < supersteps) {
+      return null;
+    }
+    slowPeer = -1;
+    slowCount = 0;
+    cooldown = supersteps;
+    // the share of work that levels the slowest and the fastest peer
+    return new Migration(slowest, fastest, (float) (max - min) / (2.0f * max));
+  }
+
+  private void reset() {
+    Arrays.fill(times, -1L);
+    reported = 0;
+  }
+
+  /**
+   * Request to move the given fraction of the vertices of a peer to another.
+   */
+  static final class Migration {
+    private final int source;
+    private final int target;
+    private final float fraction;
+
+    Migration(int source, int target, float fraction) {
+      this.source = source;
+      this.target = target;
+      this.fraction = fraction;
+    }
+
+    int getSource() {
+      return source;
+    }
+
+    int getTarget() {
+      return target;
+    }
+
+    float getFraction() {
+      return fraction;
+    }
+
+    Text toText() {
+      return new Text(source + ";" + target + ";" + fraction);
+    }
+
+    static Migration parse(Text text) {
+      String[] split = text.toString().split(";");
+      return new Migration(Integer.parseInt(split[0]),
+          Integer.parseInt(split[1]), Float.parseFloat(split[2]));
+    }
+
+    @Override
+    public String toString() {
+      return "migration of " + fraction + " of the vertices of peer " + source
+          + " to peer " + target;
+    }
+  }
+
+}
@@ -90,12 +90,10 @@ public abstract class Vertex<V extends WritableComparable, E extends Writable, M
 
   /**
    * @return the destination peer name of the given vertex id, determined by the
-   *         partitioner.
+   *         partitioner and the routes of migrated vertices.
    */
   public String getDestinationPeerName(V vertexId) {
-    return runner.getPeer().getPeerName(
-        getPartitioner().getPartition(vertexId, value,
-            runner.getPeer().getNumPeers()));
+    return runner.getPeer().getPeerName(runner.getPartition(vertexId, value));
   }
 
   @Override
@@ -108,8 +106,7 @@ public abstract class Vertex<V extends WritableComparable, E extends Writable, M
 
   @Override
   public void sendMessage(V destinationVertexID, M msg) throws IOException {
-    int partition = getPartitioner().getPartition(destinationVertexID, msg,
-        runner.getPeer().getNumPeers());
+    int partition = runner.getPartition(destinationVertexID, msg);
     String destPeer = runner.getPeer().getAllPeerNames()[partition];
     runner.getPeer().send(destPeer,
         new GraphJobMessage(destinationVertexID, msg));
@@ -132,8 +129,7 @@ public abstract class Vertex<V extends WritableComparable, E extends Writable, M
 
     msg.put(GraphJobRunner.FLAG_VERTEX_INCREASE, vertex);
     // Find the proper partition to host the new vertex.
-    int partition = getPartitioner().getPartition(vertexID, value,
-        runner.getPeer().getNumPeers());
+    int partition = runner.getPartition(vertexID, value);
     String destPeer = runner.getPeer().getAllPeerNames()[partition];
 
     runner.getPeer().send(destPeer, new GraphJobMessage(msg));
@@ -0,0 +1,523 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.graph;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hama.Constants;
+import org.apache.hama.HamaConfiguration;
+import org.apache.hama.bsp.BSPPeer;
+
+/**
+ * Checkpoints the vertices of a peer incrementally. The first checkpoint, and
+ * every checkpoint after the vertex set changed, writes a full snapshot with
+ * the edges. The following checkpoints only write the vertices whose value,
+ * halted flag or state changed since the last checkpoint, detected by a 64-bit
+ * FNV-1a hash of their serialized state. Only the hashes are kept, not the
+ * states, so a changed state whose hash collides with the hash of the previous
+ * state is missed and a restore returns the previous state of that vertex. The
+ * chance of this is 2^-64 per changed vertex. After
+ * <code>hama.graph.checkpoint.compaction</code> deltas, the state of all
+ * vertices is written again without the edges.
+ * 
+ * The vertices are checkpointed at the same supersteps as the received
+ * messages, and a checkpoint is named after the superstep a recovering peer
+ * restarts at: the vertices computed in superstep s are the state the peers
+ * resume from with the messages checkpointed for superstep s + 1.
+ * 
+ * All files are written in the iteration order of the vertices, which is
+ * sorted by vertex ID, so a recovering peer restores the vertices by merging
+ * the files in a single pass, without parsing the input again.
+ * 
+ * Files are stored under
+ * <code>bsp.checkpoint.prefix_path/&lt;job&gt;/vertices/&lt;peer&gt;/</code>
+ * as <code>full_&lt;superstep&gt;</code>,
+ * <code>values_&lt;superstep&gt;</code> and
+ * <code>delta_&lt;superstep&gt;</code>.
+ */
+@SuppressWarnings("rawtypes")
+public final class VertexCheckpointer<V extends WritableComparable, E extends Writable, M extends Writable> {
+
+  private static final Log LOG = LogFactory.getLog(VertexCheckpointer.class);
+
+  private static enum Mode {
+    FULL, VALUES, DELTA;
+
+    String prefix() {
+      return name().toLowerCase() + "_";
+    }
+
+    String fileName(long superstep) {
+      return prefix() + superstep;
+    }
+  }
+
+  private final GraphJobRunner<V, E, M> runner;
+  private final FileSystem fs;
+  private final Path dir;
+  private final int interval;
+  private final int compaction;
+
+  // like the message checkpoints, the first checkpoint is taken after
+  // bsp.checkpoint.interval supersteps
+  private long lastCheckpointStep = 1L;
+  private int deltasSinceSnapshot = 0;
+  private boolean structureChanged = true;
+  private long snapshotStep = -1L;
+
+  // hashes of the checkpointed vertex states, in iteration order
+  private long[] hashes = new long[0];
+  private int position;
+
+  // the checkpoint written in the current superstep
+  private Mode mode;
+  private long step;
+  private Path tmpPath;
+  private DataOutputStream out;
+  private long written;
+  private final DataOutputBuffer stateBuffer = new DataOutputBuffer();
+
+  private long restoredIteration;
+  private long restoredNumberVertices;
+
+  public VertexCheckpointer(GraphJobRunner<V, E, M> runner,
+      BSPPeer<?, ?, ?, ?, ?> peer, HamaConfiguration conf) throws IOException {
+    this(runner, conf, new Path(conf.get("bsp.checkpoint.prefix_path",
+        "checkpoint/")
+        + peer.getTaskId().getJobID().toString()
+        + "/vertices/"
+        + peer.getPeerIndex()));
+  }
+
+  VertexCheckpointer(GraphJobRunner<V, E, M> runner, HamaConfiguration conf,
+      Path dir) throws IOException {
+    this.runner = runner;
+    this.fs = FileSystem.get(conf);
+    this.dir = dir;
+    this.interval = conf.getInt(Constants.CHECKPOINT_INTERVAL,
+        Constants.DEFAULT_CHECKPOINT_INTERVAL);
+    this.compaction = conf.getInt(GraphJob.VERTEX_CHECKPOINT_COMPACTION_ATTR,
+        10);
+  }
+
+  /**
+   * Must be called when vertices were added or removed, the next checkpoint
+   * will then write a full snapshot.
+   */
+  public void structureChanged() {
+    structureChanged = true;
+  }
+
+  /**
+   * Decides whether the vertices are checkpointed in the given superstep, by
+   * the same rule the messages of the next superstep are checkpointed by.
+   */
+  public void startSuperstep(long superstep) throws IOException {
+    mode = null;
+    position = 0;
+    if (interval <= 0 || superstep + 1 - lastCheckpointStep < interval) {
+      return;
+    }
+
+    step = superstep + 1;
+    if (structureChanged) {
+      mode = Mode.FULL;
+    } else if (deltasSinceSnapshot >= compaction) {
+      mode = Mode.VALUES;
+    } else {
+      mode = Mode.DELTA;
+    }
+    tmpPath = new Path(dir, "_" + mode.fileName(step));
+    out = fs.create(tmpPath, true);
+    written = 0L;
+  }
+
+  /**
+   * Adds a vertex to the checkpoint of the current superstep, if it is part of
+   * it. Must be called for every vertex in iteration order.
+   */
+  public void vertexComputed(Vertex<V, E, M> vertex) throws IOException {
+    if (mode == null) {
+      return;
+    }
+
+    stateBuffer.reset();
+    writeState(vertex, stateBuffer);
+    long hash = hash(stateBuffer.getData(), stateBuffer.getLength());
+    if (position >= hashes.length) {
+      hashes = Arrays.copyOf(hashes, Math.max(16, hashes.length * 2));
+    }
+
+    if (mode == Mode.FULL) {
+      out.writeBoolean(true);
+      vertex.write(out);
+      written++;
+    } else if (mode == Mode.VALUES || hashes[position] != hash) {
+      out.writeBoolean(true);
+      vertex.getVertexID().write(out);
+      out.write(stateBuffer.getData(), 0, stateBuffer.getLength());
+      written++;
+    }
+    hashes[position++] = hash;
+  }
+
+  /**
+   * Completes the checkpoint of the current superstep.
+   * 
+   * @param iteration the iteration the runner continues with.
+   * @param numberVertices the global number of vertices.
+   */
+  public void finishSuperstep(long iteration, long numberVertices)
+      throws IOException {
+    if (mode == null) {
+      return;
+    }
+
+    out.writeBoolean(false);
+    out.writeLong(iteration);
+    out.writeLong(numberVertices);
+    out.close();
+    out = null;
+
+    Path path = new Path(dir, mode.fileName(step));
+    if (!fs.rename(tmpPath, path)) {
+      throw new IOException("Could not commit vertex checkpoint " + path);
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Checkpointed " + written + " vertices to " + path);
+    }
+
+    lastCheckpointStep = step;
+    if (mode == Mode.DELTA) {
+      deltasSinceSnapshot++;
+    } else {
+      if (mode == Mode.FULL) {
+        structureChanged = false;
+        hashes = Arrays.copyOf(hashes, position);
+      }
+      deleteObsolete(snapshotStep);
+      snapshotStep = step;
+      deltasSinceSnapshot = 0;
+    }
+    mode = null;
+  }
+
+  /**
+   * Checks whether every peer has a checkpoint of the given superstep to
+   * restore from. All peers read the same checkpoint directories and come to
+   * the same decision, so that either all of them restore their vertices or
+   * all of them load the input again and run the same barriers.
+   */
+  public boolean isRestorable(long superstep, int numPeers) throws IOException {
+    for (int i = 0; i < numPeers; i++) {
+      if (select(new Path(dir.getParent(), String.valueOf(i)), superstep)
+          .latestStep() != superstep) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Restores the vertices of the checkpoint of the given superstep into the
+   * given storage.
+   * 
+   * @return false if there is no checkpoint of the superstep.
+   */
+  @SuppressWarnings("unchecked")
+  public boolean restore(long superstep, VerticesInfo<V, E, M> vertices)
+      throws IOException {
+    Selection selection = select(dir, superstep);
+    long fullStep = selection.fullStep;
+    long valuesStep = selection.valuesStep;
+    List<Long> deltaSteps = selection.deltaSteps;
+    if (selection.latestStep() != superstep) {
+      return false;
+    }
+    long base = Math.max(fullStep, valuesStep);
+
+    List<Path> statePaths = new ArrayList<Path>();
+    if (valuesStep >= 0) {
+      statePaths.add(new Path(dir, Mode.VALUES.fileName(valuesStep)));
+    }
+    for (Long deltaStep : deltaSteps) {
+      statePaths.add(new Path(dir, Mode.DELTA.fileName(deltaStep)));
+    }
+    Path fullPath = new Path(dir, Mode.FULL.fileName(fullStep));
+    LOG.info("Restoring vertices from " + fullPath + " and " + statePaths);
+
+    DataInputStream full = fs.open(fullPath);
+    List<StateReader> readers = new ArrayList<StateReader>();
+    try {
+      for (Path path : statePaths) {
+        readers.add(new StateReader(fs.open(path)));
+      }
+
+      int count = 0;
+      while (full.readBoolean()) {
+        Vertex<V, E, M> vertex = GraphJobRunner
+            .<V, E, M> newVertexInstance(GraphJobRunner.VERTEX_CLASS);
+        vertex.readFields(full);
+        vertex.setRunner(runner);
+        for (StateReader reader : readers) {
+          reader.apply(vertex);
+        }
+        vertices.addVertex(vertex);
+        stateBuffer.reset();
+        writeState(vertex, stateBuffer);
+        if (count >= hashes.length) {
+          hashes = Arrays.copyOf(hashes, Math.max(16, hashes.length * 2));
+        }
+        hashes[count++] = hash(stateBuffer.getData(), stateBuffer.getLength());
+      }
+      hashes = Arrays.copyOf(hashes, count);
+
+      restoredIteration = full.readLong();
+      restoredNumberVertices = full.readLong();
+      for (StateReader reader : readers) {
+        reader.finish();
+        restoredIteration = reader.iteration;
+        restoredNumberVertices = reader.numberVertices;
+      }
+    } finally {
+      full.close();
+      for (StateReader reader : readers) {
+        reader.in.close();
+      }
+    }
+
+    vertices.finishAdditions();
+    vertices.finishSuperstep();
+
+    lastCheckpointStep = selection.latestStep();
+    snapshotStep = base;
+    deltasSinceSnapshot = deltaSteps.size();
+    structureChanged = false;
+    return true;
+  }
+
+  /**
+   * The files of a peer a restore reads: the latest full snapshot up to the
+   * restart superstep, the latest values file after it and the deltas after
+   * both.
+   */
+  private static final class Selection {
+    long fullStep = -1L;
+    long valuesStep = -1L;
+    final List<Long> deltaSteps = new ArrayList<Long>();
+
+    /**
+     * @return the superstep of the checkpoint restored from these files, -1 if
+     *         there is no full snapshot.
+     */
+    long latestStep() {
+      if (fullStep < 0) {
+        return -1L;
+      }
+      return deltaSteps.isEmpty() ? Math.max(fullStep, valuesStep)
+          : deltaSteps.get(deltaSteps.size() - 1);
+    }
+  }
+
+  private Selection select(Path peerDir, long superstep) throws IOException {
+    Selection selection = new Selection();
+    FileStatus[] files = fs.exists(peerDir) ? fs.listStatus(peerDir)
+        : new FileStatus[0];
+    for (FileStatus file : files) {
+      long fileStep = stepOf(file.getPath(), Mode.FULL);
+      if (fileStep >= 0 && fileStep <= superstep
+          && fileStep > selection.fullStep) {
+        selection.fullStep = fileStep;
+      }
+    }
+    if (selection.fullStep < 0) {
+      return selection;
+    }
+    for (FileStatus file : files) {
+      long fileStep = stepOf(file.getPath(), Mode.VALUES);
+      if (fileStep > selection.fullStep && fileStep <= superstep
+          && fileStep > selection.valuesStep) {
+        selection.valuesStep = fileStep;
+      }
+    }
+    long base = Math.max(selection.fullStep, selection.valuesStep);
+    for (FileStatus file : files) {
+      long fileStep = stepOf(file.getPath(), Mode.DELTA);
+      if (fileStep > base && fileStep <= superstep) {
+        selection.deltaSteps.add(fileStep);
+      }
+    }
+    Collections.sort(selection.deltaSteps);
+    return selection;
+  }
+
+  /**
+   * @return the iteration stored with the restored checkpoint.
+   */
+  public long getRestoredIteration() {
+    return restoredIteration;
+  }
+
+  /**
+   * @return the global number of vertices stored with the restored checkpoint.
+   */
+  public long getRestoredNumberVertices() {
+    return restoredNumberVertices;
+  }
+
+  public void close() throws IOException {
+    if (out != null) {
+      out.close();
+      fs.delete(tmpPath, false);
+      out = null;
+    }
+  }
+
+  /**
+   * Reads the vertex states of a values or delta file, which are sorted by
+   * vertex ID like the full snapshot.
+   */
+  private final class StateReader {
+    final DataInputStream in;
+    V currentId;
+    long iteration;
+    long numberVertices;
+
+    StateReader(DataInputStream in) throws IOException {
+      this.in = in;
+      advance();
+    }
+
+    @SuppressWarnings("unchecked")
+    void apply(Vertex<V, E, M> vertex) throws IOException {
+      if (currentId != null && currentId.compareTo(vertex.getVertexID()) == 0) {
+        readState(vertex, in);
+        advance();
+      }
+    }
+
+    void finish() throws IOException {
+      if (currentId != null) {
+        throw new IOException("Vertex " + currentId
+            + " of the vertex checkpoint was not found in the snapshot.");
+      }
+    }
+
+    private void advance() throws IOException {
+      if (in.readBoolean()) {
+        currentId = GraphJobRunner.createVertexIDObject();
+        currentId.readFields(in);
+      } else {
+        currentId = null;
+        iteration = in.readLong();
+        numberVertices = in.readLong();
+      }
+    }
+  }
+
+  private static void writeState(Vertex<?, ?, ?> vertex,
+      DataOutputBuffer out) throws IOException {
+    if (vertex.getValue() == null) {
+      out.writeBoolean(false);
+    } else {
+      out.writeBoolean(true);
+      vertex.getValue().write(out);
+    }
+    out.writeBoolean(vertex.isHalted());
+    vertex.writeState(out);
+  }
+
+  private void readState(Vertex<V, E, M> vertex, DataInputStream in)
+      throws IOException {
+    if (in.readBoolean()) {
+      M value = GraphJobRunner.createVertexValue();
+      value.readFields(in);
+      vertex.setValue(value);
+    } else {
+      vertex.setValue(null);
+    }
+    vertex.setVotedToHalt(in.readBoolean());
+    vertex.readState(in);
+  }
+
+  // 64 bit FNV-1a
+  private static long hash(byte[] data, int length) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < length; i++) {
+      hash ^= data[i] & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  /**
+   * Deletes the files that are no longer needed by a restore from the previous
+   * snapshot or a later one.
+   */
+  private void deleteObsolete(long previousSnapshot) throws IOException {
+    if (previousSnapshot < 0) {
+      return;
+    }
+    FileStatus[] files = fs.listStatus(dir);
+    long keptFull = -1L;
+    for (FileStatus file : files) {
+      long fileStep = stepOf(file.getPath(), Mode.FULL);
+      if (fileStep <= previousSnapshot && fileStep > keptFull) {
+        keptFull = fileStep;
+      }
+    }
+    for (FileStatus file : files) {
+      for (Mode fileMode : Mode.values()) {
+        long fileStep = stepOf(file.getPath(), fileMode);
+        if (fileStep >= 0 && fileStep < previousSnapshot
+            && !(fileMode == Mode.FULL && fileStep == keptFull)) {
+          fs.delete(file.getPath(), false);
+        }
+      }
+    }
+  }
+
+  private static long stepOf(Path path, Mode fileMode) {
+    String name = path.getName();
+    String prefix = fileMode.prefix();
+    if (!name.startsWith(prefix)) {
+      return -1L;
+    }
+    try {
+      return Long.parseLong(name.substring(prefix.length()));
+    } catch (NumberFormatException e) {
+      return -1L;
+    }
+  }
+
+}
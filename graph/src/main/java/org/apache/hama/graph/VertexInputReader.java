@@ -18,13 +18,16 @@
 package org.apache.hama.graph;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
 import org.apache.hama.bsp.BSPPeer;
 import org.apache.hama.bsp.Partitioner;
-import org.apache.hama.bsp.PartitioningRunner.RecordConverter;
+import org.apache.hama.bsp.PartitioningRunner.NeighborRecordConverter;
+import org.apache.hama.bsp.PartitioningRunner.WeightedRecordConverter;
 import org.apache.hama.commons.util.KeyValuePair;
 
 /**
@@ -39,7 +42,7 @@ import org.apache.hama.commons.util.KeyValuePair;
  */
 @SuppressWarnings("rawtypes")
 public abstract class VertexInputReader<KEYIN extends Writable, VALUEIN extends Writable, V extends WritableComparable, E extends Writable, M extends Writable>
-    implements RecordConverter {
+    implements WeightedRecordConverter, NeighborRecordConverter {
 
   @SuppressWarnings("unchecked")
   @Override
@@ -84,6 +87,32 @@ public abstract class VertexInputReader<KEYIN extends Writable, VALUEIN extends
     return outputRecord;
   }
 
+  /**
+   * Weighs a vertex by the number of its edges, plus one for the vertex
+   * itself.
+   */
+  @SuppressWarnings("unchecked")
+  @Override
+  public long getWeight(KeyValuePair<Writable, Writable> convertedRecord) {
+    Vertex<V, E, M> vertex = (Vertex<V, E, M>) convertedRecord.getValue();
+    return 1L + vertex.getEdges().size();
+  }
+
+  /**
+   * @return the IDs of the vertices the edges of a vertex point to.
+   */
+  @SuppressWarnings("unchecked")
+  @Override
+  public Iterable<? extends Writable> getNeighbors(
+      KeyValuePair<Writable, Writable> convertedRecord) {
+    Vertex<V, E, M> vertex = (Vertex<V, E, M>) convertedRecord.getValue();
+    List<V> neighbors = new ArrayList<V>(vertex.getEdges().size());
+    for (Edge<V, E> edge : vertex.getEdges()) {
+      neighbors.add(edge.getDestinationVertexID());
+    }
+    return neighbors;
+  }
+
   @SuppressWarnings("unchecked")
   @Override
   public int getPartitionId(KeyValuePair<Writable, Writable> inputRecord,
@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.graph;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * A range of vertex IDs that was migrated from one peer to another. Vertices
+ * the partitioner assigns to the source peer and whose ID lies within the range
+ * belong to the target peer.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public final class VertexRoute<V extends WritableComparable> implements
+    Writable {
+
+  private int source;
+  private int target;
+  private V first;
+  private V last;
+
+  public VertexRoute() {
+  }
+
+  public VertexRoute(int source, int target, V first, V last) {
+    this.source = source;
+    this.target = target;
+    this.first = first;
+    this.last = last;
+  }
+
+  /**
+   * @return true if the vertex in the given partition is within this route.
+   */
+  public boolean contains(V vertexID, int partition) {
+    return partition == source && first.compareTo(vertexID) <= 0
+        && last.compareTo(vertexID) >= 0;
+  }
+
+  /**
+   * @return the partition of the vertex after this route is applied.
+   */
+  public int apply(V vertexID, int partition) {
+    return contains(vertexID, partition) ? target : partition;
+  }
+
+  public int getSource() {
+    return source;
+  }
+
+  public int getTarget() {
+    return target;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeInt(source);
+    out.writeInt(target);
+    first.write(out);
+    last.write(out);
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    source = in.readInt();
+    target = in.readInt();
+    first = (V) GraphJobRunner.createVertexIDObject();
+    first.readFields(in);
+    last = (V) GraphJobRunner.createVertexIDObject();
+    last.readFields(in);
+  }
+
+  @Override
+  public String toString() {
+    return "[" + first + ", " + last + "] of peer " + source + " -> peer "
+        + target;
+  }
+
+}
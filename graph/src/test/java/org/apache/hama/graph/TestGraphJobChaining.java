@@ -0,0 +1,172 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.graph;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hama.Constants;
+import org.apache.hama.HamaConfiguration;
+import org.apache.hama.bsp.HashPartitioner;
+import org.apache.hama.bsp.PartitionManifest;
+import org.apache.hama.bsp.PrepartitionedInputFormat;
+import org.apache.hama.bsp.SequenceFileInputFormat;
+import org.apache.hama.bsp.SequenceFileOutputFormat;
+
+/**
+ * Chains graph jobs, the second job reads the partitioned output of the first
+ * one without partitioning it again.
+ */
+public class TestGraphJobChaining extends TestCase {
+
+  private static final int NUM_VERTICES = 20;
+
+  private HamaConfiguration conf;
+  private FileSystem fs;
+  private final Path dir = new Path("/tmp/hama-test/graphchaining");
+
+  public static class ChainVertex extends
+      Vertex<Text, NullWritable, LongWritable> {
+
+    @Override
+    public void compute(Iterable<LongWritable> messages) throws IOException {
+      long sum = getValue().get();
+      for (LongWritable message : messages) {
+        sum += message.get();
+      }
+      setValue(new LongWritable(sum % 1000003L));
+      sendMessageToNeighbors(getValue());
+    }
+  }
+
+  /**
+   * Reads the value of a vertex of a ring with chords, the edges follow from
+   * its ID.
+   */
+  public static class RingReader extends
+      VertexInputReader<Text, LongWritable, Text, NullWritable, LongWritable> {
+
+    @Override
+    public boolean parseVertex(Text key, LongWritable value,
+        Vertex<Text, NullWritable, LongWritable> vertex) throws Exception {
+      int id = Integer.parseInt(key.toString());
+      vertex.setVertexID(new Text(key));
+      vertex.setValue(new LongWritable(value.get()));
+      vertex.addEdge(new Edge<Text, NullWritable>(new Text(String
+          .valueOf((id + 1) % NUM_VERTICES)), null));
+      vertex.addEdge(new Edge<Text, NullWritable>(new Text(String
+          .valueOf((id + 7) % NUM_VERTICES)), null));
+      return true;
+    }
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    conf = new HamaConfiguration();
+    conf.set("bsp.local.dir", dir + "/local");
+    fs = FileSystem.get(conf);
+    fs.delete(dir, true);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    fs.delete(dir, true);
+  }
+
+  public void testChainedJobs() throws Exception {
+    Path input = new Path(dir, "input.seq");
+    SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf, input,
+        Text.class, LongWritable.class);
+    for (int i = NUM_VERTICES - 1; i >= 0; i--) {
+      writer.append(new Text(String.valueOf(i)), new LongWritable(i + 1));
+    }
+    writer.close();
+
+    Path first = new Path(dir, "first");
+    assertTrue(newJob(input, first).waitForCompletion(true));
+    assertNotNull(PartitionManifest.readPartitioning(fs, first));
+
+    // the output is sorted by vertex ID, so it isn't partitioned again
+    Path second = new Path(dir, "second");
+    GraphJob chained = newJob(first, second);
+    assertTrue(chained.waitForCompletion(true));
+    assertEquals(PrepartitionedInputFormat.class, chained.getInputFormat()
+        .getClass());
+
+    // without the manifest the runtime partitioning computes the same result
+    fs.delete(new Path(first, PartitionManifest.PARTITIONING_FILE), false);
+    Path third = new Path(dir, "third");
+    GraphJob partitioned = newJob(first, third);
+    assertTrue(partitioned.waitForCompletion(true));
+    assertFalse(PrepartitionedInputFormat.class.equals(partitioned
+        .getInputFormat().getClass()));
+
+    Map<String, Long> values = readOutput(second);
+    assertEquals(NUM_VERTICES, values.size());
+    assertEquals(readOutput(third), values);
+  }
+
+  private GraphJob newJob(Path input, Path output) throws IOException {
+    GraphJob job = new GraphJob(new HamaConfiguration(conf), ChainVertex.class);
+    job.setJobName("Chained graph job");
+    job.setVertexClass(ChainVertex.class);
+    job.setVertexIDClass(Text.class);
+    job.setVertexValueClass(LongWritable.class);
+    job.setEdgeValueClass(NullWritable.class);
+    job.setVertexInputReaderClass(RingReader.class);
+    job.setPartitioner(HashPartitioner.class);
+    job.setNumBspTask(2);
+    job.setMaxIteration(3);
+
+    job.setInputFormat(SequenceFileInputFormat.class);
+    job.setInputKeyClass(Text.class);
+    job.setInputValueClass(LongWritable.class);
+    job.setInputPath(input);
+    job.setOutputFormat(SequenceFileOutputFormat.class);
+    job.setOutputKeyClass(Text.class);
+    job.setOutputValueClass(LongWritable.class);
+    job.setOutputPath(output);
+    job.setBoolean(Constants.OUTPUT_PARTITIONED, true);
+    return job;
+  }
+
+  private Map<String, Long> readOutput(Path output) throws IOException {
+    Map<String, Long> values = new HashMap<String, Long>();
+    for (FileStatus file : fs.globStatus(new Path(output, "part-*"))) {
+      SequenceFile.Reader reader = new SequenceFile.Reader(fs, file.getPath(),
+          conf);
+      Text key = new Text();
+      LongWritable value = new LongWritable();
+      while (reader.next(key, value)) {
+        values.put(key.toString(), value.get());
+      }
+      reader.close();
+    }
+    return values;
+  }
+}
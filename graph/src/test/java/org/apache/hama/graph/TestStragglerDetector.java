@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.graph;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hama.graph.StragglerDetector.Migration;
+import org.junit.Test;
+
+public class TestStragglerDetector extends TestCase {
+
+  private static Migration superstep(StragglerDetector detector,
+      long... times) {
+    for (int i = 0; i < times.length; i++) {
+      detector.record(i, times[i]);
+    }
+    return detector.check();
+  }
+
+  @Test
+  public void testPersistentStraggler() {
+    StragglerDetector detector = new StragglerDetector(3, 1.5f, 2);
+    assertNull(superstep(detector, 300, 100, 100));
+    Migration migration = superstep(detector, 300, 100, 50);
+    assertNotNull(migration);
+    assertEquals(0, migration.getSource());
+    assertEquals(2, migration.getTarget());
+    assertEquals(250f / 600f, migration.getFraction(), 0.0001f);
+
+    // waits before it watches the peers again
+    assertNull(superstep(detector, 300, 100, 50));
+    assertNull(superstep(detector, 300, 100, 50));
+    assertNull(superstep(detector, 300, 100, 50));
+    assertNotNull(superstep(detector, 300, 100, 50));
+  }
+
+  @Test
+  public void testNoStraggler() {
+    StragglerDetector detector = new StragglerDetector(3, 1.5f, 1);
+    // balanced
+    assertNull(superstep(detector, 120, 100, 100));
+    // too short to matter
+    assertNull(superstep(detector, 30, 1, 1));
+    // a peer did not report
+    detector.record(0, 300);
+    detector.record(1, 100);
+    assertNull(detector.check());
+  }
+
+  @Test
+  public void testChangingStraggler() {
+    StragglerDetector detector = new StragglerDetector(2, 1.2f, 2);
+    assertNull(superstep(detector, 300, 100));
+    assertNull(superstep(detector, 100, 300));
+    assertNotNull(superstep(detector, 100, 300));
+  }
+
+  @Test
+  public void testMigrationText() {
+    Migration migration = Migration.parse(new Migration(3, 1, 0.25f)
+        .toText());
+    assertEquals(3, migration.getSource());
+    assertEquals(1, migration.getTarget());
+    assertEquals(0.25f, migration.getFraction());
+    assertEquals(new Text("3;1;0.25"), migration.toText());
+  }
+
+}
@@ -0,0 +1,181 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.graph;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hama.HamaConfiguration;
+import org.apache.hama.bsp.TaskAttemptID;
+import org.apache.hama.graph.example.PageRank.PageRankVertex;
+
+public class TestVertexCheckpointer extends TestCase {
+
+  private HamaConfiguration conf;
+  private final Path dir = new Path("/tmp/hama-test/vertexcheckpoint");
+  private final TaskAttemptID attempt = new TaskAttemptID("omg", 1, 1, 0);
+
+  @Override
+  protected void setUp() throws Exception {
+    conf = new HamaConfiguration();
+    conf.set(GraphJob.VERTEX_CLASS_ATTR, PageRankVertex.class.getName());
+    conf.set(GraphJob.VERTEX_EDGE_VALUE_CLASS_ATTR,
+        NullWritable.class.getName());
+    conf.set(GraphJob.VERTEX_ID_CLASS_ATTR, Text.class.getName());
+    conf.set(GraphJob.VERTEX_VALUE_CLASS_ATTR, DoubleWritable.class.getName());
+    conf.setInt(GraphJob.VERTEX_CHECKPOINT_COMPACTION_ATTR, 2);
+    GraphJobRunner.<Text, NullWritable, DoubleWritable> initClasses(conf);
+    FileSystem.get(conf).delete(dir, true);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileSystem.get(conf).delete(dir, true);
+  }
+
+  public void testIncrementalCheckpoints() throws Exception {
+    DiskVerticesInfo<Text, NullWritable, DoubleWritable> info = new DiskVerticesInfo<Text, NullWritable, DoubleWritable>();
+    info.init(null, conf, attempt);
+    for (int i = 0; i < 10; i++) {
+      PageRankVertex v = new PageRankVertex();
+      v.setVertexID(new Text(String.valueOf(i)));
+      v.setValue(new DoubleWritable(i));
+      v.addEdge(new Edge<Text, NullWritable>(new Text(String.valueOf(9 - i)),
+          null));
+      info.addVertex(v);
+    }
+    info.finishAdditions();
+    info.finishSuperstep();
+
+    VertexCheckpointer<Text, NullWritable, DoubleWritable> checkpointer = new VertexCheckpointer<Text, NullWritable, DoubleWritable>(
+        null, conf, dir);
+
+    // superstep 1 writes the full snapshot, 2 and 3 only the vertex 3 and 4,
+    // 4 compacts the values of all vertices. Each checkpoint is named after
+    // the superstep that restores it.
+    for (int step = 1; step <= 5; step++) {
+      superstep(info, checkpointer, step);
+    }
+
+    FileSystem fs = FileSystem.get(conf);
+    assertTrue(fs.exists(new Path(dir, "full_2")));
+    assertTrue(fs.exists(new Path(dir, "delta_3")));
+    assertTrue(fs.exists(new Path(dir, "delta_4")));
+    assertTrue(fs.exists(new Path(dir, "values_5")));
+    assertTrue(fs.exists(new Path(dir, "delta_6")));
+
+    assertRestored(3, 2);
+    assertRestored(5, 4);
+    assertRestored(6, 5);
+    // there is no checkpoint of superstep 7 yet
+    assertFalse(new VertexCheckpointer<Text, NullWritable, DoubleWritable>(
+        null, conf, dir).restore(7, info));
+
+    // a new full snapshot makes the checkpoints before the previous one
+    // obsolete
+    checkpointer.structureChanged();
+    superstep(info, checkpointer, 6);
+    superstep(info, checkpointer, 7);
+    assertTrue(fs.exists(new Path(dir, "full_7")));
+    assertTrue(fs.exists(new Path(dir, "full_2")));
+    assertFalse(fs.exists(new Path(dir, "delta_3")));
+    assertRestored(8, 7);
+    info.cleanup(conf, attempt);
+  }
+
+  public void testRestoreNeedsAllPeers() throws Exception {
+    Path root = new Path("/tmp/hama-test/vertexcheckpoints");
+    FileSystem fs = FileSystem.get(conf);
+    fs.delete(root, true);
+    VertexCheckpointer<Text, NullWritable, DoubleWritable> checkpointer = new VertexCheckpointer<Text, NullWritable, DoubleWritable>(
+        null, conf, new Path(root, "0"));
+    fs.create(new Path(root, "0/full_2")).close();
+    assertFalse(checkpointer.isRestorable(2, 2));
+
+    fs.create(new Path(root, "1/full_2")).close();
+    assertTrue(checkpointer.isRestorable(2, 2));
+    // the vertices must be of the superstep the peers restart at
+    assertFalse(checkpointer.isRestorable(3, 2));
+
+    // peer 0 failed before it wrote the delta of superstep 3
+    fs.create(new Path(root, "1/delta_3")).close();
+    assertFalse(checkpointer.isRestorable(3, 2));
+    assertTrue(checkpointer.isRestorable(2, 2));
+    fs.delete(root, true);
+  }
+
+  private void superstep(
+      DiskVerticesInfo<Text, NullWritable, DoubleWritable> info,
+      VertexCheckpointer<Text, NullWritable, DoubleWritable> checkpointer,
+      int step) throws Exception {
+    info.startSuperstep();
+    checkpointer.startSuperstep(step);
+    IDSkippingIterator<Text, NullWritable, DoubleWritable> iterator = info
+        .skippingIterator();
+    while (iterator.hasNext()) {
+      Vertex<Text, NullWritable, DoubleWritable> next = iterator.next();
+      int id = Integer.parseInt(next.getVertexID().toString());
+      if (step > 1 && (id == 3 || id == 4)) {
+        next.setValue(new DoubleWritable(id + 100 * step));
+      }
+      if (step == 5 && id == 7) {
+        next.voteToHalt();
+      }
+      checkpointer.vertexComputed(next);
+      info.finishVertexComputation(next);
+    }
+    info.finishSuperstep();
+    checkpointer.finishSuperstep(step, 10);
+  }
+
+  private void assertRestored(long superstep, int expectedStep)
+      throws Exception {
+    DiskVerticesInfo<Text, NullWritable, DoubleWritable> restored = new DiskVerticesInfo<Text, NullWritable, DoubleWritable>();
+    TaskAttemptID restoredAttempt = new TaskAttemptID("omg", 1, 1, 1);
+    restored.init(null, conf, restoredAttempt);
+    VertexCheckpointer<Text, NullWritable, DoubleWritable> checkpointer = new VertexCheckpointer<Text, NullWritable, DoubleWritable>(
+        null, conf, dir);
+    assertTrue(checkpointer.restore(superstep, restored));
+    assertEquals(expectedStep, checkpointer.getRestoredIteration());
+    assertEquals(10, checkpointer.getRestoredNumberVertices());
+
+    restored.startSuperstep();
+    IDSkippingIterator<Text, NullWritable, DoubleWritable> iterator = restored
+        .skippingIterator();
+    int i = 0;
+    while (iterator.hasNext()) {
+      Vertex<Text, NullWritable, DoubleWritable> v = iterator.next();
+      assertEquals(String.valueOf(i), v.getVertexID().toString());
+      double expected = (i == 3 || i == 4) && expectedStep > 1 ? i + 100
+          * expectedStep : i;
+      assertEquals(expected, v.getValue().get());
+      assertEquals(i == 7 && expectedStep >= 5, v.isHalted());
+      assertEquals(1, v.getEdges().size());
+      assertEquals(String.valueOf(9 - i), v.getEdges().get(0)
+          .getDestinationVertexID().toString());
+      i++;
+    }
+    assertEquals(10, i);
+    restored.cleanup(conf, restoredAttempt);
+  }
+
+}
@@ -0,0 +1,174 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.graph;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hama.HamaConfiguration;
+import org.apache.hama.bsp.HashPartitioner;
+import org.apache.hama.bsp.SequenceFileInputFormat;
+import org.apache.hama.bsp.SequenceFileOutputFormat;
+import org.apache.hama.graph.TestGraphJobChaining.RingReader;
+
+/**
+ * Slows down a peer of a graph job until its vertices are migrated and checks
+ * that the messages to the migrated vertices follow them to their new peer.
+ */
+public class TestVertexMigration extends TestCase {
+
+  private static final int NUM_VERTICES = 20;
+
+  private HamaConfiguration conf;
+  private FileSystem fs;
+  private final Path dir = new Path("/tmp/hama-test/vertexmigration");
+
+  public static class SlowVertex extends
+      Vertex<Text, NullWritable, LongWritable> {
+
+    // peer 1 computes its vertices slowly if set
+    static volatile boolean slow = false;
+    // the peer that computed a vertex last
+    static final Map<String, Integer> computedBy =
+        new ConcurrentHashMap<String, Integer>();
+
+    @Override
+    public void compute(Iterable<LongWritable> messages) throws IOException {
+      int peerIndex = getPeer().getPeerIndex();
+      computedBy.put(getVertexID().toString(), peerIndex);
+      if (slow && peerIndex == 1) {
+        try {
+          Thread.sleep(10L);
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+      }
+
+      long sum = getValue().get();
+      for (LongWritable message : messages) {
+        sum += message.get();
+      }
+      setValue(new LongWritable(sum % 1000003L));
+      sendMessageToNeighbors(getValue());
+    }
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    conf = new HamaConfiguration();
+    conf.set("bsp.local.dir", dir + "/local");
+    fs = FileSystem.get(conf);
+    fs.delete(dir, true);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    SlowVertex.slow = false;
+    fs.delete(dir, true);
+  }
+
+  public void testMigrateSlowPeer() throws Exception {
+    Path input = new Path(dir, "input.seq");
+    SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf, input,
+        Text.class, LongWritable.class);
+    for (int i = 0; i < NUM_VERTICES; i++) {
+      writer.append(new Text(String.valueOf(i)), new LongWritable(i + 1));
+    }
+    writer.close();
+
+    Path expected = new Path(dir, "expected");
+    assertTrue(newJob(input, expected, false).waitForCompletion(true));
+
+    SlowVertex.slow = true;
+    SlowVertex.computedBy.clear();
+    Path migrated = new Path(dir, "migrated");
+    assertTrue(newJob(input, migrated, true).waitForCompletion(true));
+
+    // some vertices of peer 1 ended up on peer 0
+    HashPartitioner<Text, LongWritable> partitioner =
+        new HashPartitioner<Text, LongWritable>();
+    int moved = 0;
+    for (Map.Entry<String, Integer> entry : SlowVertex.computedBy.entrySet()) {
+      int partition = partitioner.getPartition(new Text(entry.getKey()), null,
+          2);
+      if (partition == 1 && entry.getValue() == 0) {
+        moved++;
+      }
+    }
+    assertTrue(moved > 0);
+
+    Map<String, Long> values = readOutput(migrated);
+    assertEquals(NUM_VERTICES, values.size());
+    assertEquals(readOutput(expected), values);
+  }
+
+  private GraphJob newJob(Path input, Path output, boolean migration)
+      throws IOException {
+    GraphJob job = new GraphJob(new HamaConfiguration(conf), SlowVertex.class);
+    job.setJobName("Vertex migration");
+    job.setVertexClass(SlowVertex.class);
+    job.setVertexIDClass(Text.class);
+    job.setVertexValueClass(LongWritable.class);
+    job.setEdgeValueClass(NullWritable.class);
+    job.setVertexInputReaderClass(RingReader.class);
+    job.setPartitioner(HashPartitioner.class);
+    job.setNumBspTask(2);
+    job.setMaxIteration(6);
+    job.getConfiguration().setClass("hama.graph.vertices.info",
+        MapVerticesInfo.class, VerticesInfo.class);
+
+    job.setVertexMigration(migration);
+    job.getConfiguration().setInt(GraphJob.STRAGGLER_SUPERSTEPS_ATTR, 1);
+
+    job.setInputFormat(SequenceFileInputFormat.class);
+    job.setInputKeyClass(Text.class);
+    job.setInputValueClass(LongWritable.class);
+    job.setInputPath(input);
+    job.setOutputFormat(SequenceFileOutputFormat.class);
+    job.setOutputKeyClass(Text.class);
+    job.setOutputValueClass(LongWritable.class);
+    job.setOutputPath(output);
+    return job;
+  }
+
+  private Map<String, Long> readOutput(Path output) throws IOException {
+    Map<String, Long> values = new HashMap<String, Long>();
+    for (FileStatus file : fs.globStatus(new Path(output, "part-*"))) {
+      SequenceFile.Reader reader = new SequenceFile.Reader(fs, file.getPath(),
+          conf);
+      Text key = new Text();
+      LongWritable value = new LongWritable();
+      while (reader.next(key, value)) {
+        values.put(key.toString(), value.get());
+      }
+      reader.close();
+    }
+    return values;
+  }
+}
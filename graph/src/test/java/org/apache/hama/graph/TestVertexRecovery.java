@@ -0,0 +1,247 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hama.graph;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.ArrayWritable;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hama.Constants;
+import org.apache.hama.HamaConfiguration;
+import org.apache.hama.bsp.BSPJobID;
+import org.apache.hama.bsp.FileSplit;
+import org.apache.hama.bsp.HashPartitioner;
+import org.apache.hama.bsp.SequenceFileInputFormat;
+import org.apache.hama.bsp.SequenceFileOutputFormat;
+import org.apache.hama.bsp.TaskStatus;
+import org.apache.hama.bsp.ThreadedBSPRunner;
+import org.apache.hama.bsp.message.MessageManager;
+import org.apache.hama.bsp.message.queue.MessageQueue;
+import org.apache.hama.bsp.message.queue.SortedMemoryQueue;
+
+/**
+ * Fails a peer of a graph job with vertex checkpoints and checks that the
+ * restarted peers restore their vertices and messages and compute the same
+ * result as a job without failure.
+ */
+public class TestVertexRecovery extends TestCase {
+
+  private static final int NUM_PEERS = 2;
+  private static final int NUM_VERTICES = 20;
+
+  private HamaConfiguration conf;
+  private FileSystem fs;
+  private final Path dir = new Path("/tmp/hama-test/vertexrecovery");
+
+  public static class SumVertex extends
+      Vertex<Text, NullWritable, LongWritable> {
+
+    // peer 1 fails once when it computes this iteration
+    static volatile long failIteration = -1L;
+    // the first iteration computed since the last reset
+    static volatile long firstIteration = -1L;
+
+    @Override
+    public void compute(Iterable<LongWritable> messages) throws IOException {
+      if (getSuperstepCount() == failIteration
+          && getPeer().getPeerIndex() == 1) {
+        failIteration = -1L;
+        throw new IOException("Failing in iteration " + getSuperstepCount());
+      }
+      synchronized (SumVertex.class) {
+        if (firstIteration < 0) {
+          firstIteration = getSuperstepCount();
+        }
+      }
+
+      long sum = getValue().get();
+      for (LongWritable message : messages) {
+        sum += message.get();
+      }
+      setValue(new LongWritable(sum % 1000003L));
+      sendMessageToNeighbors(getValue());
+    }
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    conf = new HamaConfiguration();
+    fs = FileSystem.get(conf);
+    fs.delete(dir, true);
+    writeInput();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    fs.delete(dir, true);
+  }
+
+  public void testRecoverFromVertexCheckpoint() throws Exception {
+    Map<String, Long> expected = runJob(1, -1L);
+    assertEquals(NUM_VERTICES, expected.size());
+
+    SumVertex.failIteration = 4L;
+    assertEquals(expected, runJob(2, 4L));
+  }
+
+  /**
+   * Runs a job, if a peer fails in the given iteration all peers are restarted
+   * at their last checkpoint.
+   * 
+   * @return the values of the vertices by ID.
+   */
+  private Map<String, Long> runJob(int id, long failIteration)
+      throws Exception {
+    GraphJob job = newJob(new Path(dir, "output" + id));
+    ThreadedBSPRunner runner = new ThreadedBSPRunner(job, new BSPJobID(
+        "vertexrecovery", id));
+    try {
+      BytesWritable[] splits = new BytesWritable[NUM_PEERS];
+      for (int i = 0; i < NUM_PEERS; i++) {
+        Path input = new Path(dir, "input/part-" + i);
+        splits[i] = ThreadedBSPRunner.toBytes(new FileSplit(input, 0, fs
+            .getFileStatus(input).getLen(), new String[0]));
+      }
+      runner.setSplits(FileSplit.class.getName(), splits);
+
+      SumVertex.firstIteration = -1L;
+      boolean succeeded = runner.runAll(0, -1L, TaskStatus.State.RUNNING);
+      if (failIteration < 0) {
+        assertTrue(succeeded);
+      } else {
+        assertFalse(succeeded);
+
+        long superstep = -1L;
+        for (int i = 0; i < NUM_PEERS; i++) {
+          ArrayWritable progress = new ArrayWritable(LongWritable.class);
+          assertTrue(runner.getInformation(
+              job.getJobID().toString() + "/checkpoint/" + i, progress));
+          long step = ((LongWritable) progress.get()[0]).get();
+          assertTrue(superstep < 0 || superstep == step);
+          superstep = step;
+        }
+
+        runner.newBarrier();
+        SumVertex.firstIteration = -1L;
+        assertTrue(runner.runAll(1, superstep, TaskStatus.State.RECOVERING));
+        // the vertices were restored, not loaded from the input
+        assertEquals(failIteration, SumVertex.firstIteration);
+      }
+    } finally {
+      runner.shutdown();
+    }
+    return readOutput(new Path(dir, "output" + id));
+  }
+
+  private GraphJob newJob(Path output) throws IOException {
+    GraphJob job = new GraphJob(new HamaConfiguration(conf), SumVertex.class);
+    job.setNumBspTask(NUM_PEERS);
+    job.setVertexClass(SumVertex.class);
+    job.setVertexIDClass(Text.class);
+    job.setVertexValueClass(LongWritable.class);
+    job.setEdgeValueClass(NullWritable.class);
+    job.setMaxIteration(8);
+    job.setVertexCheckpointing(true);
+    // set by GraphJob#submit, which the threaded runner doesn't call
+    job.setVertexOutputWriterClass(DefaultVertexOutputWriter.class);
+    job.getConfiguration().setClass(MessageManager.RECEIVE_QUEUE_TYPE_CLASS,
+        SortedMemoryQueue.class, MessageQueue.class);
+
+    job.setInputFormat(SequenceFileInputFormat.class);
+    job.setInputKeyClass(Text.class);
+    job.setInputValueClass(SumVertex.class);
+    job.setOutputFormat(SequenceFileOutputFormat.class);
+    job.setOutputKeyClass(Text.class);
+    job.setOutputValueClass(LongWritable.class);
+    job.setOutputPath(output);
+
+    job.setBoolean(Constants.FAULT_TOLERANCE_FLAG, true);
+    job.setBoolean(Constants.CHECKPOINT_ENABLED, true);
+    job.getConfiguration().setInt(Constants.CHECKPOINT_INTERVAL, 2);
+    job.set("bsp.checkpoint.prefix_path", dir + "/checkpoint/");
+    return job;
+  }
+
+  /**
+   * Writes a ring with chords, partitioned like the graph job partitions it
+   * and sorted by vertex ID.
+   */
+  private void writeInput() throws IOException {
+    HamaConfiguration vertexConf = new HamaConfiguration(conf);
+    vertexConf.set(GraphJob.VERTEX_CLASS_ATTR, SumVertex.class.getName());
+    vertexConf.set(GraphJob.VERTEX_ID_CLASS_ATTR, Text.class.getName());
+    vertexConf.set(GraphJob.VERTEX_VALUE_CLASS_ATTR,
+        LongWritable.class.getName());
+    vertexConf.set(GraphJob.VERTEX_EDGE_VALUE_CLASS_ATTR,
+        NullWritable.class.getName());
+    GraphJobRunner.<Text, NullWritable, LongWritable> initClasses(vertexConf);
+
+    HashPartitioner<Text, SumVertex> partitioner =
+        new HashPartitioner<Text, SumVertex>();
+    SequenceFile.Writer[] writers = new SequenceFile.Writer[NUM_PEERS];
+    for (int i = 0; i < NUM_PEERS; i++) {
+      writers[i] = SequenceFile.createWriter(fs, conf, new Path(dir,
+          "input/part-" + i), Text.class, SumVertex.class);
+    }
+
+    Map<Text, SumVertex> sorted = new TreeMap<Text, SumVertex>();
+    for (int i = 0; i < NUM_VERTICES; i++) {
+      SumVertex vertex = new SumVertex();
+      vertex.setVertexID(new Text(String.valueOf(i)));
+      vertex.setValue(new LongWritable(i + 1));
+      vertex.addEdge(new Edge<Text, NullWritable>(new Text(String
+          .valueOf((i + 1) % NUM_VERTICES)), null));
+      vertex.addEdge(new Edge<Text, NullWritable>(new Text(String
+          .valueOf((i + 7) % NUM_VERTICES)), null));
+      sorted.put(vertex.getVertexID(), vertex);
+    }
+    for (SumVertex vertex : sorted.values()) {
+      writers[partitioner.getPartition(vertex.getVertexID(), vertex, NUM_PEERS)]
+          .append(vertex.getVertexID(), vertex);
+    }
+    for (SequenceFile.Writer writer : writers) {
+      writer.close();
+    }
+  }
+
+  private Map<String, Long> readOutput(Path output) throws IOException {
+    Map<String, Long> values = new HashMap<String, Long>();
+    for (int i = 0; i < NUM_PEERS; i++) {
+      SequenceFile.Reader reader = new SequenceFile.Reader(fs, new Path(
+          output, String.format("part-%05d", i)), conf);
+      Text key = new Text();
+      LongWritable value = new LongWritable();
+      while (reader.next(key, value)) {
+        values.put(key.toString(), value.get());
+      }
+      reader.close();
+    }
+    return values;
+  }
+}
@@ -359,6 +359,12 @@ public class BSPApplicationMaster implements BSPClient, BSPPeerProtocol {
     return true;
   }
 
+  @Override
+  public boolean statusUpdateDelta(TaskAttemptID taskId, TaskStatus taskStatus)
+      throws IOException, InterruptedException {
+    return statusUpdate(taskId, taskStatus);
+  }
+
   /**
    * most of the following methods are already handled over YARN and with the
    * JobImpl.